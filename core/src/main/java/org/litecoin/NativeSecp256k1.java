@@ -80,6 +80,45 @@ public class NativeSecp256k1 {
         }
     }
 
+    /**
+     * Verifies a batch of secp256k1 signatures in native code, taking the lock and setting up the buffer only once
+     * for the whole batch. Calling when enabled == false is undefined (probably library not loaded)
+     *
+     * @param data The data which was signed, each must be exactly 32 bytes
+     * @param signatures The signatures, in the same order
+     * @param pubs The public keys which did the signing, in the same order
+     * @return for each signature, true if correct
+     * @throws AssertFailException never thrown?
+     */
+    public static boolean[] verifyBatch(byte[][] data, byte[][] signatures, byte[][] pubs) throws AssertFailException {
+        checkArgument(data.length == signatures.length && data.length == pubs.length);
+        for (int i = 0; i < data.length; i++)
+            checkArgument(data[i].length == 32 && signatures[i].length <= 520 && pubs[i].length <= 520);
+
+        ByteBuffer byteBuff = nativeECDSABuffer.get();
+        if (byteBuff == null || byteBuff.capacity() < 520) {
+            byteBuff = ByteBuffer.allocateDirect(520);
+            byteBuff.order(ByteOrder.nativeOrder());
+            nativeECDSABuffer.set(byteBuff);
+        }
+        boolean[] result = new boolean[data.length];
+
+        r.lock();
+        try {
+            long context = Secp256k1Context.getContext();
+            for (int i = 0; i < data.length; i++) {
+                ((Buffer) byteBuff).rewind();
+                byteBuff.put(data[i]);
+                byteBuff.put(signatures[i]);
+                byteBuff.put(pubs[i]);
+                result[i] = secp256k1_ecdsa_verify(byteBuff, context, signatures[i].length, pubs[i].length) == 1;
+            }
+        } finally {
+            r.unlock();
+        }
+        return result;
+    }
+
     /**
      * libsecp256k1 Create an ECDSA signature.
      *
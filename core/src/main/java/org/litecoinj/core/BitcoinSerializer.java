@@ -19,14 +19,17 @@ package org.litecoinj.core;
 
 import org.litecoinj.base.Sha256Hash;
 import org.litecoinj.base.internal.ByteUtils;
+import org.litecoinj.net.BufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.Buffer;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -48,10 +51,12 @@ import static org.litecoinj.base.internal.Preconditions.check;
 public class BitcoinSerializer extends MessageSerializer {
     private static final Logger log = LoggerFactory.getLogger(BitcoinSerializer.class);
     private static final int COMMAND_LEN = 12;
+    private static final int MESSAGE_HEADER_LEN = 4 + COMMAND_LEN + 4 + 4 /* checksum */;
 
     private final NetworkParameters params;
     private final int packetMagic;
     private final int protocolVersion;
+    private final boolean verifyChecksums;
 
     private static final Map<Class<? extends Message>, String> names = new HashMap<>();
 
@@ -72,12 +77,21 @@ public class BitcoinSerializer extends MessageSerializer {
         names.put(SendAddrV2Message.class, "sendaddrv2");
         names.put(HeadersMessage.class, "headers");
         names.put(BloomFilter.class, "filterload");
+        names.put(FilterAddMessage.class, "filteradd");
         names.put(FilteredBlock.class, "merkleblock");
         names.put(NotFoundMessage.class, "notfound");
         names.put(MemoryPoolMessage.class, "mempool");
         names.put(RejectMessage.class, "reject");
         names.put(SendHeadersMessage.class, "sendheaders");
         names.put(FeeFilterMessage.class, "feefilter");
+        names.put(SendCompactBlocksMessage.class, "sendcmpct");
+        names.put(CompactBlockMessage.class, "cmpctblock");
+        names.put(GetBlockTxnMessage.class, "getblocktxn");
+        names.put(BlockTxnMessage.class, "blocktxn");
+        names.put(GetCFiltersMessage.class, "getcfilters");
+        names.put(CFilterMessage.class, "cfilter");
+        names.put(GetCFHeadersMessage.class, "getcfheaders");
+        names.put(CFHeadersMessage.class, "cfheaders");
     }
 
     /**
@@ -96,15 +110,26 @@ public class BitcoinSerializer extends MessageSerializer {
      * @param protocolVersion the protocol version to use
      */
     public BitcoinSerializer(NetworkParameters params, int protocolVersion) {
+        this(params, protocolVersion, true);
+    }
+
+    private BitcoinSerializer(NetworkParameters params, int protocolVersion, boolean verifyChecksums) {
         this.params = params;
         this.packetMagic = params.getPacketMagic();
         this.protocolVersion = protocolVersion;
+        this.verifyChecksums = verifyChecksums;
     }
 
     @Override
     public BitcoinSerializer withProtocolVersion(int protocolVersion) {
         return protocolVersion == this.protocolVersion ?
-                this : new BitcoinSerializer(params, protocolVersion);
+                this : new BitcoinSerializer(params, protocolVersion, verifyChecksums);
+    }
+
+    @Override
+    public BitcoinSerializer withChecksumVerification(boolean verifyChecksums) {
+        return verifyChecksums == this.verifyChecksums ?
+                this : new BitcoinSerializer(params, protocolVersion, verifyChecksums);
     }
 
     @Override
@@ -117,7 +142,83 @@ public class BitcoinSerializer extends MessageSerializer {
      */
     @Override
     public void serialize(String name, byte[] message, OutputStream out) throws IOException {
-        byte[] header = new byte[4 + COMMAND_LEN + 4 + 4 /* checksum */];
+        byte[] header = serializeHeader(name, message);
+        out.write(header);
+        out.write(message);
+
+        if (log.isDebugEnabled())
+            log.debug("Sending {} message: {}", name, ByteUtils.formatHex(header) + ByteUtils.formatHex(message));
+    }
+
+    /**
+     * Writes message to a buffer acquired from the given pool. Blocks and transactions, which know their size up front,
+     * are serialized straight into the buffer. Other messages are small, and are copied into it.
+     */
+    @Override
+    public ByteBuffer serialize(Message message, BufferPool pool) {
+        String name = commandName(message);
+        if (!(message instanceof Block || message instanceof Transaction || message instanceof EmptyMessage)) {
+            byte[] payload = message.serialize();
+            byte[] header = serializeHeader(name, payload);
+            ByteBuffer buffer = pool.acquire(header.length + payload.length);
+            buffer.put(header).put(payload);
+            ((Buffer) buffer).flip();
+
+            if (log.isDebugEnabled())
+                log.debug("Sending {} message: {}", name, ByteUtils.formatHex(header) + ByteUtils.formatHex(payload));
+            return buffer;
+        }
+
+        int length = message.messageSize();
+        ByteBuffer buffer = pool.acquire(MESSAGE_HEADER_LEN + length);
+        boolean written = false;
+        try {
+            ((Buffer) buffer).position(MESSAGE_HEADER_LEN);
+            ((BaseMessage) message).bitcoinSerializeToStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    buffer.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    buffer.put(b, off, len);
+                }
+            });
+            check(!buffer.hasRemaining(), () -> new IllegalStateException("Message size mismatch: " + name));
+
+            ByteBuffer payload = buffer.duplicate();
+            ((Buffer) payload).position(MESSAGE_HEADER_LEN);
+            MessageDigest digest = Sha256Hash.newDigest();
+            digest.update(payload);
+            byte[] hash = digest.digest(digest.digest());
+
+            ((Buffer) buffer).position(0);
+            ByteUtils.writeInt32BE(packetMagic, buffer);
+            // The command is padded with NULL bytes.
+            for (int i = 0; i < COMMAND_LEN; i++)
+                buffer.put(i < name.length() ? (byte) (name.codePointAt(i) & 0xFF) : 0);
+            ByteUtils.writeInt32LE(length, buffer);
+            buffer.put(hash, 0, 4);
+            ((Buffer) buffer).position(0);
+            written = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen, we are serializing to memory.
+        } finally {
+            if (!written)
+                pool.release(buffer);
+        }
+
+        if (log.isDebugEnabled()) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            log.debug("Sending {} message: {}", name, ByteUtils.formatHex(bytes));
+        }
+        return buffer;
+    }
+
+    private byte[] serializeHeader(String name, byte[] message) {
+        byte[] header = new byte[MESSAGE_HEADER_LEN];
         ByteUtils.writeInt32BE(packetMagic, header, 0);
 
         // The header array is initialized to zero by Java so we don't have to worry about
@@ -130,11 +231,7 @@ public class BitcoinSerializer extends MessageSerializer {
 
         byte[] hash = Sha256Hash.hashTwice(message);
         System.arraycopy(hash, 0, header, 4 + COMMAND_LEN + 4, 4);
-        out.write(header);
-        out.write(message);
-
-        if (log.isDebugEnabled())
-            log.debug("Sending {} message: {}", name, ByteUtils.formatHex(header) + ByteUtils.formatHex(message));
+        return header;
     }
 
     /**
@@ -142,11 +239,15 @@ public class BitcoinSerializer extends MessageSerializer {
      */
     @Override
     public void serialize(Message message, OutputStream out) throws IOException {
+        serialize(commandName(message), message.serialize(), out);
+    }
+
+    private String commandName(Message message) {
         String name = names.get(message.getClass());
         if (name == null) {
             throw new Error("BitcoinSerializer doesn't currently know how to serialize " + message.getClass());
         }
-        serialize(name, message.serialize(), out);
+        return name;
     }
 
     /**
@@ -185,37 +286,64 @@ public class BitcoinSerializer extends MessageSerializer {
 
     /**
      * Deserialize payload only.  You must provide a header, typically obtained by calling
-     * {@link BitcoinSerializer#deserializeHeader}.
+     * {@link BitcoinSerializer#deserializeHeader}. The message is parsed directly from the given buffer without copying
+     * the payload, and the buffer is positioned after it. The returned message doesn't reference the buffer, so it can be
+     * reused afterwards.
      */
     @Override
     public Message deserializePayload(BitcoinPacketHeader header, ByteBuffer in) throws ProtocolException, BufferUnderflowException {
-        byte[] payloadBytes = new byte[header.size];
-        in.get(payloadBytes, 0, header.size);
+        if (in.remaining() < header.size)
+            throw new BufferUnderflowException();
+        ByteBuffer payload = in.slice();
+        ((Buffer) payload).limit(header.size);
+        ((Buffer) in).position(in.position() + header.size);
 
         // Verify the checksum.
-        byte[] hash;
-        hash = Sha256Hash.hashTwice(payloadBytes);
-        if (header.checksum[0] != hash[0] || header.checksum[1] != hash[1] ||
-                header.checksum[2] != hash[2] || header.checksum[3] != hash[3]) {
-            throw new ProtocolException("Checksum failed to verify, actual " +
-                    ByteUtils.formatHex(hash) +
-                    " vs " + ByteUtils.formatHex(header.checksum));
-        }
+        if (verifyChecksums)
+            verifyChecksum(header, hashTwice(payload));
 
         if (log.isDebugEnabled()) {
             log.debug("Received {} byte '{}' message: {}", header.size, header.command,
-                    ByteUtils.formatHex(payloadBytes));
+                    ByteUtils.formatHex(payloadBytes(payload)));
         }
 
         try {
-            return makeMessage(header.command, payloadBytes, hash);
+            return makeMessage(header.command, payload.duplicate());
         } catch (Exception e) {
-            throw new ProtocolException("Error deserializing message " + ByteUtils.formatHex(payloadBytes) + "\n", e);
+            throw new ProtocolException("Error deserializing message " + ByteUtils.formatHex(payloadBytes(payload)) + "\n", e);
         }
     }
 
-    private Message makeMessage(String command, byte[] payloadBytes, byte[] hash) throws ProtocolException {
-        ByteBuffer payload = ByteBuffer.wrap(payloadBytes);
+    /**
+     * Checks the checksum in the given header against the double SHA-256 hash of the payload, for callers which hashed
+     * the payload themselves.
+     *
+     * @throws ProtocolException if the checksum doesn't match
+     */
+    public static void verifyChecksum(BitcoinPacketHeader header, byte[] hash) throws ProtocolException {
+        if (header.checksum[0] != hash[0] || header.checksum[1] != hash[1] ||
+                header.checksum[2] != hash[2] || header.checksum[3] != hash[3]) {
+            throw new ProtocolException("Checksum failed to verify, actual " +
+                    ByteUtils.formatHex(hash) +
+                    " vs " + ByteUtils.formatHex(header.checksum));
+        }
+    }
+
+    // Double SHA-256 of the remaining bytes of the given buffer, without changing its position.
+    private static byte[] hashTwice(ByteBuffer payload) {
+        MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(payload.duplicate());
+        return digest.digest(digest.digest());
+    }
+
+    // Copies the remaining bytes of the given buffer, without changing its position. Only used for logging.
+    private static byte[] payloadBytes(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private Message makeMessage(String command, ByteBuffer payload) throws ProtocolException {
         // We use an if ladder rather than reflection because reflection is very slow on Android.
         if (command.equals("version")) {
             return VersionMessage.read(payload);
@@ -251,6 +379,8 @@ public class BitcoinSerializer extends MessageSerializer {
             return HeadersMessage.read(payload);
         } else if (command.equals("filterload")) {
             return makeBloomFilter(payload);
+        } else if (command.equals("filteradd")) {
+            return FilterAddMessage.read(payload);
         } else if (command.equals("notfound")) {
             return NotFoundMessage.read(payload);
         } else if (command.equals("mempool")) {
@@ -262,6 +392,22 @@ public class BitcoinSerializer extends MessageSerializer {
             return new SendHeadersMessage();
         } else if (command.equals("feefilter")) {
             return FeeFilterMessage.read(payload);
+        } else if (command.equals("sendcmpct")) {
+            return SendCompactBlocksMessage.read(payload);
+        } else if (command.equals("cmpctblock")) {
+            return CompactBlockMessage.read(payload);
+        } else if (command.equals("getblocktxn")) {
+            return GetBlockTxnMessage.read(payload);
+        } else if (command.equals("blocktxn")) {
+            return BlockTxnMessage.read(payload);
+        } else if (command.equals("getcfilters")) {
+            return GetCFiltersMessage.read(payload);
+        } else if (command.equals("cfilter")) {
+            return CFilterMessage.read(payload);
+        } else if (command.equals("getcfheaders")) {
+            return GetCFHeadersMessage.read(payload);
+        } else if (command.equals("cfheaders")) {
+            return CFHeadersMessage.read(payload);
         } else {
             check(!payload.hasRemaining(), ProtocolException::new);
             return new UnknownMessage(command);
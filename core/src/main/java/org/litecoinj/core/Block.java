@@ -153,18 +153,15 @@ public class Block extends BaseMessage {
         payload.reset(); // read again from the mark for the hash
         byte[] header = Buffers.readBytes(payload, HEADER_SIZE);
         Sha256Hash hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header));
-        byte[] scryptDigest = ByteUtils.scryptDigest(header);
-        if(scryptDigest == null) {
-            throw new RuntimeException("Scrypt digest is null.");
-        }
-        Sha256Hash scryptHash = Sha256Hash.wrap(ByteUtils.reverseBytes(scryptDigest));
+        // The scrypt proof-of-work hash is expensive and is not needed for headers from trusted sources like our own
+        // block store or checkpoints, so it is left to be calculated on demand by getScryptHash().
+
         // transactions
         List<Transaction> transactions = payload.hasRemaining() ? // otherwise this message is just a header
                 readTransactions(payload) :
                 null;
         Block block = new Block(version, prevBlockHash, merkleRoot, time, difficultyTarget, nonce, transactions);
         block.hash = hash;
-        block.scryptHash = scryptHash;
         return block;
     }
 
@@ -381,6 +378,10 @@ public class Block extends BaseMessage {
         return hash;
     }
 
+    /**
+     * Returns the scrypt hash of the block header, which is what the proof of work is checked against. Big endian.
+     * This is expensive to calculate, so it is only done on first use and cached afterwards.
+     */
     public Sha256Hash getScryptHash() {
         if (scryptHash == null)
             scryptHash = calculateScryptHash();
@@ -419,7 +420,7 @@ public class Block extends BaseMessage {
         block.merkleRoot = getMerkleRoot();
         block.hash = getHash();
         block.transactions = null;
-        block.scryptHash = getScryptHash();
+        block.scryptHash = scryptHash; // don't force the expensive calculation, just carry it over if we have it
         return block;
     }
 
@@ -0,0 +1,433 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.internal.TimeUtils;
+import org.litecoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>Downloads the blocks of the chain from several peers in parallel. The download peer still finds out which blocks
+ * are missing, by asking for them with {@code getblocks}. The hashes it announces in response are handed to this
+ * scheduler, which splits them into runs of consecutive blocks and requests each run from one of the connected
+ * peers. Every peer has a window of blocks that may be requested from it at the same time, so faster peers end up
+ * serving more blocks.</p>
+ *
+ * <p>Blocks may arrive in any order, but they are added to the block chain in the order they were announced. Blocks
+ * that a peer doesn't deliver within the stall timeout are requested again from another peer. Once all announced
+ * blocks have been added, the download peer is asked for the next batch.</p>
+ *
+ * <p>A scheduler is created by {@link PeerGroup#setBlockDownloadPeers(int)}.</p>
+ */
+public class BlockDownloadScheduler {
+    private static final Logger log = LoggerFactory.getLogger(BlockDownloadScheduler.class);
+
+    /** The default number of consecutive blocks requested from one peer at once. */
+    public static final int DEFAULT_RUN_LENGTH = 16;
+    /** The default number of blocks that may be requested from one peer at the same time. */
+    public static final int DEFAULT_WINDOW = 32;
+    /** The default time after which a block that wasn't delivered is requested from another peer. */
+    public static final Duration DEFAULT_STALL_TIMEOUT = Duration.ofSeconds(20);
+
+    // Guards the state below. It is never held while calling into peers or the block chain.
+    private final ReentrantLock lock = Threading.lock(BlockDownloadScheduler.class);
+    // Held while adding blocks to the chain, so that they are added in order even if they arrive on several threads.
+    // It must be taken before lock, if both are needed.
+    private final ReentrantLock feedLock = Threading.lock(BlockDownloadScheduler.class.getSimpleName() + "-feed");
+
+    private final AbstractBlockChain chain;
+    private final int maxPeers;
+    private final int runLength;
+    private final int window;
+    private final Duration stallTimeout;
+
+    private final CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<>();
+    // The announced blocks that weren't added to the chain yet, in the order they were announced.
+    private final LinkedHashMap<Sha256Hash, Slot> slots = new LinkedHashMap<>();
+    private final Map<Peer, Integer> inFlight = new HashMap<>();
+    @Nullable private Peer downloadPeer;
+    private boolean filtered;
+    // Whether to ask the download peer for more blocks once all slots have been added to the chain.
+    private boolean continueWhenDrained;
+    // Set while waiting for a new Bloom filter, see filterExhausted().
+    private boolean paused;
+
+    private static class Slot {
+        final Sha256Hash hash;
+        // The peer the block was requested from, or null if it needs to be requested.
+        @Nullable Peer requestedFrom;
+        @Nullable Instant requestTime;
+        // The peer that stalled on this block last, if any. It is avoided when requesting the block again.
+        @Nullable Peer stalledPeer;
+        // The block once it arrived, with the filtered block if it was requested as one.
+        @Nullable Block block;
+        @Nullable FilteredBlock filteredBlock;
+
+        Slot(Sha256Hash hash) {
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Creates a scheduler with the default run length, window and stall timeout.
+     *
+     * @param chain    the chain to add downloaded blocks to
+     * @param maxPeers the maximum number of peers to download blocks from at the same time
+     */
+    public BlockDownloadScheduler(AbstractBlockChain chain, int maxPeers) {
+        this(chain, maxPeers, DEFAULT_RUN_LENGTH, DEFAULT_WINDOW, DEFAULT_STALL_TIMEOUT);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param chain        the chain to add downloaded blocks to
+     * @param maxPeers     the maximum number of peers to download blocks from at the same time
+     * @param runLength    the number of consecutive blocks to request from one peer at once
+     * @param window       the number of blocks that may be requested from one peer at the same time
+     * @param stallTimeout the time after which a block that wasn't delivered is requested from another peer
+     */
+    public BlockDownloadScheduler(AbstractBlockChain chain, int maxPeers, int runLength, int window,
+                                  Duration stallTimeout) {
+        checkArgument(maxPeers > 0, () -> "maxPeers must be positive: " + maxPeers);
+        checkArgument(runLength > 0 && window >= runLength, () -> "invalid run length or window: " + runLength +
+                ", " + window);
+        this.chain = Objects.requireNonNull(chain);
+        this.maxPeers = maxPeers;
+        this.runLength = runLength;
+        this.window = window;
+        this.stallTimeout = Objects.requireNonNull(stallTimeout);
+    }
+
+    /** Makes the given peer available for downloading blocks from. */
+    public void addPeer(Peer peer) {
+        peers.addIfAbsent(peer);
+        sendRequests(dispatch());
+    }
+
+    /** Stops downloading blocks from the given peer, and requests the blocks it didn't deliver from other peers. */
+    public void removePeer(Peer peer) {
+        peers.remove(peer);
+        lock.lock();
+        try {
+            for (Slot slot : slots.values())
+                if (slot.requestedFrom == peer)
+                    unassign(slot);
+            inFlight.remove(peer);
+            if (downloadPeer == peer)
+                downloadPeer = null;
+        } finally {
+            lock.unlock();
+        }
+        sendRequests(dispatch());
+    }
+
+    /**
+     * Called by the download peer with the hashes of blocks it announced or found in headers, in chain order, instead
+     * of requesting them itself.
+     *
+     * @param from                the download peer
+     * @param hashes              the announced block hashes
+     * @param filtered            whether to request filtered blocks instead of full blocks
+     * @param continueWhenDrained whether to ask the download peer for more blocks once all scheduled blocks were added
+     */
+    void schedule(Peer from, List<Sha256Hash> hashes, boolean filtered, boolean continueWhenDrained) {
+        lock.lock();
+        try {
+            downloadPeer = from;
+            this.filtered = filtered;
+            int added = 0;
+            for (Sha256Hash hash : hashes) {
+                if (!slots.containsKey(hash)) {
+                    slots.put(hash, new Slot(hash));
+                    added++;
+                }
+            }
+            if (continueWhenDrained)
+                this.continueWhenDrained = true;
+            if (log.isDebugEnabled())
+                log.debug("Scheduled {} of {} announced blocks, {} pending", added, hashes.size(), slots.size());
+        } finally {
+            lock.unlock();
+        }
+        sendRequests(dispatch());
+    }
+
+    /**
+     * Called by peers when they receive a block. If the block was scheduled, it is added to the chain once all blocks
+     * announced before it were added.
+     *
+     * @param from          the peer that sent the block
+     * @param block         the block, or its header if it is a filtered block
+     * @param filteredBlock the filtered block, or null if a full block was received
+     * @return true if the block was scheduled, false if the peer should handle it itself
+     */
+    boolean offer(Peer from, Block block, @Nullable FilteredBlock filteredBlock) {
+        lock.lock();
+        try {
+            Slot slot = slots.get(block.getHash());
+            if (slot == null)
+                return false;
+            if (slot.block != null || paused)
+                return true;  // A duplicate, or requested with an outdated filter.
+            if (slot.requestedFrom != null)
+                unassign(slot);
+            slot.block = block;
+            slot.filteredBlock = filteredBlock;
+        } finally {
+            lock.unlock();
+        }
+        feed(from);
+        sendRequests(dispatch());
+        return true;
+    }
+
+    /** Returns true if the block with the given hash was scheduled and not yet added to the chain. */
+    boolean isScheduled(Sha256Hash hash) {
+        lock.lock();
+        try {
+            return slots.containsKey(hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called when a filtered block exhausted the keys of the current Bloom filter. All blocks that haven't been added
+     * to the chain yet are requested again once {@link #resume()} is called, because they might have been filtered
+     * with the outdated filter.
+     */
+    void filterExhausted() {
+        lock.lock();
+        try {
+            log.info("Bloom filter exhausted, pausing download of {} blocks", slots.size());
+            paused = true;
+            for (Slot slot : slots.values()) {
+                slot.requestedFrom = null;
+                slot.requestTime = null;
+                slot.block = null;
+                slot.filteredBlock = null;
+            }
+            inFlight.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called once a new Bloom filter has been sent to all peers, to continue after {@link #filterExhausted()}. */
+    public void resume() {
+        lock.lock();
+        try {
+            if (!paused)
+                return;
+            paused = false;
+        } finally {
+            lock.unlock();
+        }
+        sendRequests(dispatch());
+    }
+
+    /** Requests blocks that weren't delivered within the stall timeout from other peers. Called periodically. */
+    public void checkForStalls() {
+        lock.lock();
+        try {
+            Instant now = TimeUtils.currentTime();
+            for (Slot slot : slots.values()) {
+                if (slot.requestedFrom != null && slot.requestTime.plus(stallTimeout).isBefore(now)) {
+                    log.info("{}: Stalled on block {}, requesting it from another peer", slot.requestedFrom,
+                            slot.hash);
+                    slot.stalledPeer = slot.requestedFrom;
+                    unassign(slot);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        sendRequests(dispatch());
+    }
+
+    /** Returns the number of announced blocks that weren't added to the chain yet. */
+    public int getPendingBlocks() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Adds the blocks at the front of the queue that have arrived to the chain.
+    private void feed(Peer from) {
+        feedLock.lock();
+        try {
+            while (true) {
+                Slot slot;
+                Peer listenerPeer;
+                boolean continueDownload = false;
+                lock.lock();
+                try {
+                    Iterator<Slot> it = slots.values().iterator();
+                    if (!it.hasNext())
+                        return;
+                    slot = it.next();
+                    if (slot.block == null)
+                        return;
+                    it.remove();
+                    listenerPeer = downloadPeer != null ? downloadPeer : from;
+                    if (slots.isEmpty() && continueWhenDrained && downloadPeer != null) {
+                        continueWhenDrained = false;
+                        continueDownload = true;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                add(listenerPeer, slot);
+                if (continueDownload)
+                    listenerPeer.continueChainDownload();
+            }
+        } finally {
+            feedLock.unlock();
+        }
+    }
+
+    private void add(Peer listenerPeer, Slot slot) {
+        try {
+            boolean connected = slot.filteredBlock != null ? chain.add(slot.filteredBlock) : chain.add(slot.block);
+            // Orphans are connected by the chain once their parents arrive.
+            if (connected)
+                listenerPeer.invokeOnBlocksDownloaded(slot.block, slot.filteredBlock);
+        } catch (VerificationException e) {
+            // We don't want verification failures to kill the thread.
+            log.warn("Block {} verification failed", slot.hash, e);
+        } catch (PrunedException e) {
+            // Unreachable when in SPV mode.
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Assigns blocks that need to be requested to peers, and returns the requests to send.
+    private Map<Peer, List<Sha256Hash>> dispatch() {
+        lock.lock();
+        try {
+            if (paused || slots.isEmpty())
+                return Collections.emptyMap();
+            List<Peer> candidates = new ArrayList<>(maxPeers);
+            if (downloadPeer != null && peers.contains(downloadPeer))
+                candidates.add(downloadPeer);
+            for (Peer peer : peers) {
+                if (candidates.size() >= maxPeers)
+                    break;
+                if (peer != downloadPeer && peer.canServeBlocks(filtered))
+                    candidates.add(peer);
+            }
+            Map<Peer, List<Sha256Hash>> requests = new HashMap<>();
+            if (candidates.isEmpty())
+                return requests;
+            Instant now = TimeUtils.currentTime();
+            int chainHeight = chain.getBestChainHeight();
+            int position = 0;
+            Peer current = null;
+            int run = 0;
+            for (Slot slot : slots.values()) {
+                position++;
+                if (slot.block != null || slot.requestedFrom != null)
+                    continue;
+                // Peers only have blocks up to their own best height. The height of the slot is a guess, as the
+                // chain might have moved on or re-organized in the meantime.
+                int height = chainHeight + position;
+                if (current == null || run >= runLength || inFlight(current) >= window
+                        || current == slot.stalledPeer || current.getBestHeight() < height) {
+                    current = pickPeer(candidates, slot, height);
+                    run = 0;
+                    if (current == null)
+                        continue;
+                }
+                slot.requestedFrom = current;
+                slot.requestTime = now;
+                inFlight.merge(current, 1, Integer::sum);
+                requests.computeIfAbsent(current, p -> new ArrayList<>()).add(slot.hash);
+                run++;
+            }
+            return requests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Picks the least busy peer that has room in its window and is expected to have the block.
+    @Nullable
+    private Peer pickPeer(List<Peer> candidates, Slot slot, int height) {
+        Peer best = null;
+        for (Peer peer : candidates) {
+            if (inFlight(peer) >= window || peer.getBestHeight() < height)
+                continue;
+            if (peer == slot.stalledPeer && candidates.size() > 1)
+                continue;
+            if (best == null || inFlight(peer) < inFlight(best))
+                best = peer;
+        }
+        return best;
+    }
+
+    private int inFlight(Peer peer) {
+        return inFlight.getOrDefault(peer, 0);
+    }
+
+    private void unassign(Slot slot) {
+        Peer peer = Objects.requireNonNull(slot.requestedFrom);
+        int count = inFlight(peer) - 1;
+        if (count > 0)
+            inFlight.put(peer, count);
+        else
+            inFlight.remove(peer);
+        slot.requestedFrom = null;
+        slot.requestTime = null;
+    }
+
+    private void sendRequests(Map<Peer, List<Sha256Hash>> requests) {
+        boolean filtered;
+        lock.lock();
+        try {
+            filtered = this.filtered;
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<Peer, List<Sha256Hash>> request : requests.entrySet()) {
+            if (log.isDebugEnabled())
+                log.debug("{}: Requesting {} blocks", request.getKey(), request.getValue().size());
+            request.getKey().requestBlocks(request.getValue(), filtered);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.VarInt;
+import org.litecoinj.base.internal.ByteUtils;
+import org.litecoinj.script.Script;
+import org.litecoinj.script.ScriptOpCodes;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>A basic compact block filter as defined in BIP158: a Golomb-coded set of the output scripts a block creates and
+ * spends. Unlike a {@link BloomFilter}, which we give to the remote peer to filter blocks for us, these filters are
+ * calculated by the remote peer once per block and matched against our scripts locally, so the peer learns nothing
+ * about our wallet and doesn't need to keep any state per connection.</p>
+ *
+ * <p>A match may be a false positive, with a probability of about 1 in 784931 per script we match. There are no false
+ * negatives, provided the filter is the right one for the block. That is checked with the chain of filter headers, see
+ * {@link #getHeader(Sha256Hash)}.</p>
+ *
+ * <p>See <a href="https://github.com/bitcoin/bips/blob/master/bip-0158.mediawiki">BIP158</a> for details.</p>
+ *
+ * <p>Instances of this class are immutable.</p>
+ */
+public class BlockFilter {
+    /** The filter type of basic filters. */
+    public static final byte TYPE_BASIC = 0;
+    /** Number of bits of the remainders of the Golomb-Rice coding of basic filters. */
+    static final int P = 19;
+    /** Inverse of the false positive rate of basic filters. */
+    static final long M = 784931;
+
+    private final Sha256Hash blockHash;
+    // The number of elements, followed by the Golomb-Rice coded differences of their sorted hashes.
+    private final byte[] encoded;
+    private final long n;
+    private final int bitsOffset;
+
+    /**
+     * Builds the basic filter of a block.
+     *
+     * @param block        block with transactions
+     * @param spentScripts output scripts of the outputs the transactions of the block spend
+     * @return basic filter of the block
+     */
+    public static BlockFilter build(Block block, Collection<Script> spentScripts) {
+        List<byte[]> elements = new ArrayList<>();
+        for (Transaction tx : block.getTransactions()) {
+            for (TransactionOutput output : tx.getOutputs()) {
+                byte[] script = output.getScriptBytes();
+                if (script.length > 0 && (script[0] & 0xff) != ScriptOpCodes.OP_RETURN)
+                    elements.add(script);
+            }
+        }
+        for (Script script : spentScripts) {
+            byte[] program = script.program();
+            if (program.length > 0)
+                elements.add(program);
+        }
+        return of(block.getHash(), elements);
+    }
+
+    /**
+     * Builds a basic filter of the given elements.
+     *
+     * @param blockHash hash of the block the filter belongs to, which keys the filter
+     * @param elements  elements of the filter, duplicates are ignored
+     * @return basic filter
+     */
+    public static BlockFilter of(Sha256Hash blockHash, Collection<byte[]> elements) {
+        // The hashes depend on the number of elements, so duplicates must be removed before hashing.
+        Set<ByteBuffer> distinct = new LinkedHashSet<>();
+        for (byte[] element : elements)
+            distinct.add(ByteBuffer.wrap(element));
+        List<byte[]> distinctElements = new ArrayList<>(distinct.size());
+        for (ByteBuffer element : distinct)
+            distinctElements.add(element.array());
+        long[] hashes = hashedElements(blockHash, distinctElements.size(), distinctElements);
+        Arrays.sort(hashes);
+        BitWriter writer = new BitWriter();
+        writer.writeBytes(VarInt.of(hashes.length).serialize());
+        long previous = 0;
+        for (long hash : hashes) {
+            writer.writeGolombRice(hash - previous);
+            previous = hash;
+        }
+        return new BlockFilter(blockHash, writer.toByteArray(), hashes.length, VarInt.sizeOf(hashes.length));
+    }
+
+    /**
+     * Reads a basic filter as it is sent in a {@link CFilterMessage}.
+     *
+     * @param blockHash hash of the block the filter belongs to
+     * @param encoded   the encoded filter
+     * @return basic filter
+     * @throws ProtocolException if the filter is malformed
+     */
+    public static BlockFilter read(Sha256Hash blockHash, byte[] encoded) throws ProtocolException {
+        ByteBuffer buf = ByteBuffer.wrap(encoded);
+        long n;
+        try {
+            n = VarInt.read(buf).longValue();
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Empty block filter");
+        }
+        // Every element takes at least P + 1 bits.
+        if (n < 0 || n > (long) buf.remaining() * 8 / (P + 1))
+            throw new ProtocolException("Block filter too short for " + n + " elements");
+        return new BlockFilter(blockHash, Arrays.copyOf(encoded, encoded.length), n, buf.position());
+    }
+
+    private BlockFilter(Sha256Hash blockHash, byte[] encoded, long n, int bitsOffset) {
+        this.blockHash = blockHash;
+        this.encoded = encoded;
+        this.n = n;
+        this.bitsOffset = bitsOffset;
+    }
+
+    // Hashes the elements uniformly into the range [0, n * M), which is small enough for the hashes to be positive.
+    private static long[] hashedElements(Sha256Hash blockHash, long n, Collection<byte[]> elements) {
+        HashFunction sipHash = sipHash(blockHash);
+        long range = n * M;
+        long[] hashes = new long[elements.size()];
+        int i = 0;
+        for (byte[] element : elements)
+            hashes[i++] = multiplyHigh(sipHash.hashBytes(element).asLong(), range);
+        return hashes;
+    }
+
+    // SipHash-2-4 keyed with the first 16 bytes of the block hash, in the byte order of the protocol.
+    private static HashFunction sipHash(Sha256Hash blockHash) {
+        byte[] key = blockHash.serialize();
+        return Hashing.sipHash24(ByteUtils.readInt64(key, 0), ByteUtils.readInt64(key, 8));
+    }
+
+    // The upper 64 bits of the unsigned 128 bit product of a and b.
+    private static long multiplyHigh(long a, long b) {
+        long aLow = a & 0xffff_ffffL, aHigh = a >>> 32;
+        long bLow = b & 0xffff_ffffL, bHigh = b >>> 32;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long cross = (lowLow >>> 32) + (highLow & 0xffff_ffffL) + lowHigh;
+        return aHigh * bHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    /**
+     * Calculates the header of this filter, which commits to this filter and all filters of the blocks before.
+     *
+     * @param previousHeader header of the filter of the previous block, or {@link Sha256Hash#ZERO_HASH} for the genesis
+     *                       block
+     * @return filter header
+     */
+    public Sha256Hash getHeader(Sha256Hash previousHeader) {
+        return header(getFilterHash(), previousHeader);
+    }
+
+    /**
+     * Calculates the filter header of a filter hash, as sent in a {@link CFHeadersMessage}.
+     *
+     * @param filterHash     hash of the filter
+     * @param previousHeader header of the filter of the previous block
+     * @return filter header
+     */
+    public static Sha256Hash header(Sha256Hash filterHash, Sha256Hash previousHeader) {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(filterHash.serialize(), previousHeader.serialize()));
+    }
+
+    /** Returns the hash of this filter. */
+    public Sha256Hash getFilterHash() {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(encoded));
+    }
+
+    /** Returns the hash of the block this filter belongs to. */
+    public Sha256Hash getBlockHash() {
+        return blockHash;
+    }
+
+    /** Returns the number of elements in this filter. */
+    public long size() {
+        return n;
+    }
+
+    /**
+     * Returns true if any of the given elements, usually output scripts, is probably in this filter.
+     *
+     * @param elements elements to match
+     * @return true if there is a match, which may be a false positive
+     */
+    public boolean matchesAny(Collection<byte[]> elements) {
+        if (n == 0 || elements.isEmpty())
+            return false;
+        long[] queries = hashedElements(blockHash, n, elements);
+        Arrays.sort(queries);
+        BitReader reader = new BitReader(encoded, bitsOffset);
+        long value = 0;
+        int query = 0;
+        try {
+            for (long i = 0; i < n; i++) {
+                value += reader.readGolombRice();
+                // Values and queries are both sorted, so we only need to walk through them once.
+                while (queries[query] < value) {
+                    if (++query == queries.length)
+                        return false;
+                }
+                if (queries[query] == value)
+                    return true;
+            }
+        } catch (BufferUnderflowException e) {
+            // A truncated filter can't contain the elements.
+        }
+        return false;
+    }
+
+    /** Returns the encoded filter, as it is sent in a {@link CFilterMessage}. */
+    public byte[] serialize() {
+        return Arrays.copyOf(encoded, encoded.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BlockFilter other = (BlockFilter) o;
+        return blockHash.equals(other.blockHash) && Arrays.equals(encoded, other.encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return blockHash.hashCode() ^ Arrays.hashCode(encoded);
+    }
+
+    @Override
+    public String toString() {
+        return "Block filter for " + blockHash + " of " + n + " elements";
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int current;
+        private int bits;
+
+        void writeBytes(byte[] data) {
+            bytes.write(data, 0, data.length);
+        }
+
+        void writeGolombRice(long value) {
+            // The quotient in unary, terminated by a zero bit, then the remainder in P bits.
+            for (long quotient = value >>> P; quotient > 0; quotient--)
+                writeBit(1);
+            writeBit(0);
+            for (int i = P - 1; i >= 0; i--)
+                writeBit((int) (value >>> i) & 1);
+        }
+
+        private void writeBit(int bit) {
+            current = (current << 1) | bit;
+            if (++bits == 8) {
+                bytes.write(current);
+                current = 0;
+                bits = 0;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (bits > 0)
+                bytes.write(current << (8 - bits));
+            return bytes.toByteArray();
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] data;
+        private long position;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.position = (long) offset * 8;
+        }
+
+        long readGolombRice() throws BufferUnderflowException {
+            long quotient = 0;
+            while (readBit() == 1)
+                quotient++;
+            long remainder = 0;
+            for (int i = 0; i < P; i++)
+                remainder = (remainder << 1) | readBit();
+            return (quotient << P) | remainder;
+        }
+
+        private int readBit() throws BufferUnderflowException {
+            int index = (int) (position >>> 3);
+            if (index >= data.length)
+                throw new BufferUnderflowException();
+            int bit = (data[index] >>> (7 - (int) (position & 7))) & 1;
+            position++;
+            return bit;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.litecoinj.base.internal.Preconditions.check;
+
+/**
+ * Represents a "blocktxn" message on the P2P network, which carries the transactions of a compact block requested
+ * with a {@link GetBlockTxnMessage}, in the order they were requested.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0152.mediawiki">BIP152</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class BlockTxnMessage extends BaseMessage {
+    private final Sha256Hash blockHash;
+    private final List<Transaction> transactions;
+
+    /**
+     * Create a blocktxn message.
+     *
+     * @param blockHash    hash of the block
+     * @param transactions the requested transactions
+     * @return blocktxn message
+     */
+    public static BlockTxnMessage of(Sha256Hash blockHash, List<Transaction> transactions) {
+        return new BlockTxnMessage(blockHash, new ArrayList<>(transactions));
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static BlockTxnMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        Sha256Hash blockHash = Sha256Hash.read(payload);
+        VarInt countVarInt = VarInt.read(payload);
+        check(countVarInt.fitsInt(), BufferUnderflowException::new);
+        int count = countVarInt.intValue();
+        if (count < 0 || count > CompactBlockMessage.MAX_TRANSACTIONS)
+            throw new ProtocolException("Too many transactions: " + count);
+        List<Transaction> transactions = new ArrayList<>(Math.min(count, Utils.MAX_INITIAL_ARRAY_LENGTH));
+        for (int i = 0; i < count; i++)
+            transactions.add(Transaction.read(payload));
+        return new BlockTxnMessage(blockHash, transactions);
+    }
+
+    private BlockTxnMessage(Sha256Hash blockHash, List<Transaction> transactions) {
+        this.blockHash = blockHash;
+        this.transactions = Collections.unmodifiableList(transactions);
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        stream.write(blockHash.serialize());
+        stream.write(VarInt.of(transactions.size()).serialize());
+        for (Transaction tx : transactions)
+            stream.write(tx.serialize());
+    }
+
+    /**
+     * Gets the hash of the block.
+     *
+     * @return block hash
+     */
+    public Sha256Hash blockHash() {
+        return blockHash;
+    }
+
+    /**
+     * Gets the requested transactions.
+     *
+     * @return transactions
+     */
+    public List<Transaction> transactions() {
+        return transactions;
+    }
+
+    @Override
+    public String toString() {
+        return "blocktxn: " + blockHash + ", " + transactions.size() + " transactions";
+    }
+}
@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static java.lang.Math.E;
 import static java.lang.Math.log;
@@ -53,7 +54,9 @@ import static org.litecoinj.base.internal.Preconditions.checkArgument;
  * a useful privacy feature - if you have spare bandwidth the false positive rate can be increased so the remote peer
  * gets a noisy picture of what transactions are relevant to your wallet.</p>
  * 
- * <p>Instances of this class are not safe for use by multiple threads.</p>
+ * <p>Instances of this class are thread safe without locking: the bits are kept in an atomic array, so
+ * {@link #contains(byte[])} and {@link #insert(byte[])} may be called concurrently, for example to filter blocks for
+ * several peers at once. Applying the filter to a transaction or block is not atomic as a whole, though.</p>
  */
 public class BloomFilter extends BaseMessage {
     /** The BLOOM_UPDATE_* constants control when the bloom filter is auto-updated by the peer using
@@ -65,10 +68,13 @@ public class BloomFilter extends BaseMessage {
         UPDATE_P2PUBKEY_ONLY //2
     }
     
-    private byte[] data;
-    private long hashFuncs;
-    private int nTweak;
-    private byte nFlags;
+    // Replaced as a whole by setMatchAll() and merge(), so readers always see bits of a consistent size.
+    private volatile Bits bits;
+    private final long hashFuncs;
+    private final int nTweak;
+    private final byte nFlags;
+    // The seeds of the hash functions, derived from nTweak.
+    private final int[] seeds;
 
     // Same value as Bitcoin Core
     // A filter of 20,000 items and a false positive rate of 0.1% or one of 10,000 items and 0.0001% is just under 36,000 bytes
@@ -136,32 +142,41 @@ public class BloomFilter extends BaseMessage {
         //                        Size required for a given number of elements and false-positive rate
         int size = (int)(-1  / (pow(log(2), 2)) * elements * log(falsePositiveRate));
         size = max(1, min(size, (int) MAX_FILTER_SIZE * 8) / 8);
-        data = new byte[size];
+        bits = new Bits(size);
         // Optimal number of hash functions for a given filter size and element count.
-        hashFuncs = (int)(data.length * 8 / (double)elements * log(2));
-        hashFuncs = max(1, min(hashFuncs, MAX_HASH_FUNCS));
+        long hashFuncs = (int)(size * 8 / (double)elements * log(2));
+        this.hashFuncs = max(1, min(hashFuncs, MAX_HASH_FUNCS));
         this.nTweak = randomNonce;
         this.nFlags = (byte)(0xff & updateFlag.ordinal());
+        this.seeds = seeds(this.hashFuncs, nTweak);
     }
 
     private BloomFilter(byte[] data, long hashFuncs, int nTweak, byte nFlags) {
-        this.data = data;
+        this.bits = Bits.of(data);
         this.hashFuncs = hashFuncs;
         this.nTweak = nTweak;
         this.nFlags = nFlags;
+        this.seeds = seeds(hashFuncs, nTweak);
+    }
+
+    private static int[] seeds(long hashFuncs, int nTweak) {
+        int[] seeds = new int[(int) hashFuncs];
+        for (int i = 0; i < seeds.length; i++)
+            seeds[i] = (int) (i * 0xFBA4C795L + nTweak);
+        return seeds;
     }
 
     /**
      * Returns the theoretical false positive rate of this filter if were to contain the given number of elements.
      */
     public double getFalsePositiveRate(int elements) {
-        return pow(1 - pow(E, -1.0 * (hashFuncs * elements) / (data.length * 8)), hashFuncs);
+        return pow(1 - pow(E, -1.0 * (hashFuncs * elements) / bits.numBits()), hashFuncs);
     }
 
     @Override
     public String toString() {
         final MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this).omitNullValues();
-        helper.add("data length", data.length);
+        helper.add("data length", bits.size);
         helper.add("hashFuncs", hashFuncs);
         helper.add("nFlags", getUpdateFlag());
         return helper.toString();
@@ -172,6 +187,7 @@ public class BloomFilter extends BaseMessage {
      */
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        byte[] data = bits.toByteArray();
         stream.write(VarInt.of(data.length).serialize());
         stream.write(data);
         ByteUtils.writeInt32LE(hashFuncs, stream);
@@ -188,10 +204,12 @@ public class BloomFilter extends BaseMessage {
      * See this <a href="https://github.com/aappleby/smhasher/blob/master/src/MurmurHash3.cpp">C++ code for the original.</a>
      */
     public static int murmurHash3(byte[] data, long nTweak, int hashNum, byte[] object) {
-        int h1 = (int)(hashNum * 0xFBA4C795L + nTweak);
-        final int c1 = 0xcc9e2d51;
-        final int c2 = 0x1b873593;
+        int h1 = murmurHash3((int)(hashNum * 0xFBA4C795L + nTweak), object);
+        return (int)((h1&0xFFFFFFFFL) % (data.length * 8));
+    }
 
+    private static int murmurHash3(int seed, byte[] object) {
+        int h1 = seed;
         int numBlocks = (object.length / 4) * 4;
         // body
         for(int i = 0; i < numBlocks; i += 4) {
@@ -199,14 +217,7 @@ public class BloomFilter extends BaseMessage {
                   ((object[i+1] & 0xFF) << 8) |
                   ((object[i+2] & 0xFF) << 16) |
                   ((object[i+3] & 0xFF) << 24);
-            
-            k1 *= c1;
-            k1 = rotateLeft32(k1, 15);
-            k1 *= c2;
-
-            h1 ^= k1;
-            h1 = rotateLeft32(h1, 13);
-            h1 = h1*5+0xe6546b64;
+            h1 = murmurBlock(h1, k1);
         }
         
         int k1 = 0;
@@ -220,51 +231,99 @@ public class BloomFilter extends BaseMessage {
                 // Fall through.
             case 1:
                 k1 ^= (object[numBlocks] & 0xff);
-                k1 *= c1; k1 = rotateLeft32(k1, 15); k1 *= c2; h1 ^= k1;
+                h1 ^= murmurMix(k1);
                 // Fall through.
             default:
                 // Do nothing.
                 break;
         }
+        return murmurFinish(h1, object.length);
+    }
 
-        // finalization
-        h1 ^= object.length;
+    // MurmurHash3 of a serialized outpoint, without serializing it: the hash in reversed byte order, then the index.
+    private static int murmurHash3(int seed, Sha256Hash hash, long index) {
+        byte[] bytes = hash.getBytes();
+        int h1 = seed;
+        for (int i = Sha256Hash.LENGTH; i > 0; i -= 4) {
+            int k1 = (bytes[i-1] & 0xFF) |
+                  ((bytes[i-2] & 0xFF) << 8) |
+                  ((bytes[i-3] & 0xFF) << 16) |
+                  ((bytes[i-4] & 0xFF) << 24);
+            h1 = murmurBlock(h1, k1);
+        }
+        h1 = murmurBlock(h1, (int) index);
+        return murmurFinish(h1, Sha256Hash.LENGTH + 4);
+    }
+
+    private static int murmurMix(int k1) {
+        k1 *= 0xcc9e2d51;
+        k1 = rotateLeft32(k1, 15);
+        k1 *= 0x1b873593;
+        return k1;
+    }
+
+    private static int murmurBlock(int h1, int k1) {
+        h1 ^= murmurMix(k1);
+        h1 = rotateLeft32(h1, 13);
+        return h1*5+0xe6546b64;
+    }
+
+    private static int murmurFinish(int h1, int length) {
+        h1 ^= length;
         h1 ^= h1 >>> 16;
         h1 *= 0x85ebca6b;
         h1 ^= h1 >>> 13;
         h1 *= 0xc2b2ae35;
         h1 ^= h1 >>> 16;
-        
-        return (int)((h1&0xFFFFFFFFL) % (data.length * 8));
+        return h1;
+    }
+
+    // Reduces a hash to a bit index of the filter.
+    private static int bitIndex(int hash, Bits bits) {
+        return (int) ((hash & 0xFFFFFFFFL) % bits.numBits());
     }
     
     /**
      * Returns true if the given object matches the filter either because it was inserted, or because we have a
      * false-positive.
      */
-    public synchronized boolean contains(byte[] object) {
-        for (int i = 0; i < hashFuncs; i++) {
-            if (!ByteUtils.checkBitLE(data, murmurHash3(data, nTweak, i, object)))
+    public boolean contains(byte[] object) {
+        Bits bits = this.bits;
+        // Most objects don't match, so hashing each function only as needed usually stops after the first one.
+        for (int seed : seeds) {
+            if (!bits.get(bitIndex(murmurHash3(seed, object), bits)))
                 return false;
         }
         return true;
     }
     
     /** Insert the given arbitrary data into the filter */
-    public synchronized void insert(byte[] object) {
-        for (int i = 0; i < hashFuncs; i++)
-            ByteUtils.setBitLE(data, murmurHash3(data, nTweak, i, object));
+    public void insert(byte[] object) {
+        Bits bits = this.bits;
+        for (int seed : seeds)
+            bits.set(bitIndex(murmurHash3(seed, object), bits));
     }
 
     /** Inserts the given key and equivalent hashed form (for the address). */
-    public synchronized void insert(ECKey key) {
+    public void insert(ECKey key) {
         insert(key.getPubKey());
         insert(key.getPubKeyHash());
     }
 
     /** Inserts the given transaction outpoint. */
-    public synchronized void insert(TransactionOutPoint outpoint) {
-        insert(outpoint.serialize());
+    public void insert(TransactionOutPoint outpoint) {
+        Bits bits = this.bits;
+        for (int seed : seeds)
+            bits.set(bitIndex(murmurHash3(seed, outpoint.hash(), outpoint.index()), bits));
+    }
+
+    private boolean contains(TransactionOutPoint outpoint) {
+        Bits bits = this.bits;
+        for (int seed : seeds) {
+            if (!bits.get(bitIndex(murmurHash3(seed, outpoint.hash(), outpoint.index()), bits)))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -274,23 +333,24 @@ public class BloomFilter extends BaseMessage {
      * Solved blocks will then be send just as Merkle trees of tx hashes, meaning a constant 32 bytes of data for each
      * transaction instead of 100-300 bytes as per usual.
      */
-    public synchronized void setMatchAll() {
-        data = new byte[] {(byte) 0xff};
+    public void setMatchAll() {
+        bits = Bits.of(new byte[] {(byte) 0xff});
     }
 
     /**
      * Copies filter into this. Filter must have the same size, hash function count and nTweak or an
      * IllegalArgumentException will be thrown.
      */
-    public synchronized void merge(BloomFilter filter) {
-        if (!this.matchesAll() && !filter.matchesAll()) {
-            checkArgument(filter.data.length == this.data.length &&
+    public void merge(BloomFilter filter) {
+        Bits bits = this.bits;
+        Bits other = filter.bits;
+        if (!bits.isFull() && !other.isFull()) {
+            checkArgument(other.size == bits.size &&
                           filter.hashFuncs == this.hashFuncs &&
                           filter.nTweak == this.nTweak);
-            for (int i = 0; i < data.length; i++)
-                this.data[i] |= filter.data[i];
+            bits.or(other);
         } else {
-            this.data = new byte[] {(byte) 0xff};
+            setMatchAll();
         }
     }
 
@@ -298,18 +358,15 @@ public class BloomFilter extends BaseMessage {
      * Returns true if this filter will match anything. See {@link BloomFilter#setMatchAll()}
      * for when this can be a useful thing to do.
      */
-    public synchronized boolean matchesAll() {
-        for (byte b : data)
-            if (b != (byte) 0xff)
-                return false;
-        return true;
+    public boolean matchesAll() {
+        return bits.isFull();
     }
 
     /**
      * The update flag controls how application of the filter to a block modifies the filter. See the enum javadocs
      * for information on what occurs and when.
      */
-    public synchronized BloomUpdate getUpdateFlag() {
+    public BloomUpdate getUpdateFlag() {
         if (nFlags == 0)
             return BloomUpdate.UPDATE_NONE;
         else if (nFlags == 1)
@@ -326,7 +383,7 @@ public class BloomFilter extends BaseMessage {
      * matched transactions are also matched. However it means this filter can be mutated by the operation. The returned
      * filtered block already has the matched transactions associated with it.
      */
-    public synchronized FilteredBlock applyAndUpdate(Block block) {
+    public FilteredBlock applyAndUpdate(Block block) {
         List<Transaction> txns = block.getTransactions();
         List<Sha256Hash> txHashes = new ArrayList<>(txns.size());
         List<Transaction> matched = new ArrayList<>();
@@ -346,7 +403,7 @@ public class BloomFilter extends BaseMessage {
         return filteredBlock;
     }
 
-    public synchronized boolean applyAndUpdate(Transaction tx) {
+    public boolean applyAndUpdate(Transaction tx) {
         if (contains(tx.getTxId().getBytes()))
             return true;
         boolean found = false;
@@ -366,7 +423,7 @@ public class BloomFilter extends BaseMessage {
         }
         if (found) return true;
         for (TransactionInput input : tx.getInputs()) {
-            if (contains(input.getOutpoint().serialize())) {
+            if (contains(input.getOutpoint())) {
                 return true;
             }
             for (ScriptChunk chunk : input.getScriptSig().chunks()) {
@@ -378,15 +435,82 @@ public class BloomFilter extends BaseMessage {
     }
     
     @Override
-    public synchronized boolean equals(Object o) {
+    public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         BloomFilter other = (BloomFilter) o;
-        return hashFuncs == other.hashFuncs && nTweak == other.nTweak && Arrays.equals(data, other.data);
+        return hashFuncs == other.hashFuncs && nTweak == other.nTweak
+                && Arrays.equals(bits.toByteArray(), other.bits.toByteArray());
     }
 
     @Override
-    public synchronized int hashCode() {
-        return Objects.hash(hashFuncs, nTweak, Arrays.hashCode(data));
+    public int hashCode() {
+        return Objects.hash(hashFuncs, nTweak, Arrays.hashCode(bits.toByteArray()));
+    }
+
+    /**
+     * The bits of a filter, packed into longs in the bit order of the serialized filter: bit {@code i} is bit
+     * {@code i % 8} of byte {@code i / 8}, which is bit {@code i % 64} of long {@code i / 64}.
+     */
+    private static final class Bits {
+        // Size of the serialized filter in bytes.
+        final int size;
+        final AtomicLongArray words;
+
+        Bits(int size) {
+            this(size, new AtomicLongArray((size + 7) / 8));
+        }
+
+        private Bits(int size, AtomicLongArray words) {
+            this.size = size;
+            this.words = words;
+        }
+
+        static Bits of(byte[] data) {
+            long[] words = new long[(data.length + 7) / 8];
+            for (int i = 0; i < data.length; i++)
+                words[i >>> 3] |= (data[i] & 0xffL) << ((i & 7) * 8);
+            return new Bits(data.length, new AtomicLongArray(words));
+        }
+
+        long numBits() {
+            return size * 8L;
+        }
+
+        boolean get(int index) {
+            return (words.get(index >>> 6) & (1L << index)) != 0;
+        }
+
+        void set(int index) {
+            long mask = 1L << index;
+            // Bits that are already set, which is most of them in a full filter, don't need a write.
+            if ((words.get(index >>> 6) & mask) == 0)
+                words.accumulateAndGet(index >>> 6, mask, (a, b) -> a | b);
+        }
+
+        void or(Bits other) {
+            for (int i = 0; i < words.length(); i++) {
+                long word = other.words.get(i);
+                if (word != 0)
+                    words.accumulateAndGet(i, word, (a, b) -> a | b);
+            }
+        }
+
+        boolean isFull() {
+            int fullWords = size / 8;
+            for (int i = 0; i < fullWords; i++) {
+                if (words.get(i) != -1L)
+                    return false;
+            }
+            int remainingBits = (size % 8) * 8;
+            return remainingBits == 0 || words.get(fullWords) == (1L << remainingBits) - 1;
+        }
+
+        byte[] toByteArray() {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++)
+                data[i] = (byte) (words.get(i >>> 3) >>> ((i & 7) * 8));
+            return data;
+        }
     }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.litecoinj.base.internal.Preconditions.check;
+
+/**
+ * Represents a "cfheaders" message on the P2P network, which carries the hashes of the compact block filters of the
+ * blocks requested with a {@link GetCFHeadersMessage}, in order, together with the filter header of the block before.
+ * From these, the filter headers of the blocks can be calculated, see {@link #filterHeaders()}.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0157.mediawiki">BIP157</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class CFHeadersMessage extends BaseMessage {
+    private final byte filterType;
+    private final Sha256Hash stopHash;
+    private final Sha256Hash previousFilterHeader;
+    private final List<Sha256Hash> filterHashes;
+
+    /**
+     * Create a cfheaders message.
+     *
+     * @param filterType           type of the filters
+     * @param stopHash             hash of the last block
+     * @param previousFilterHeader filter header of the block before the first one
+     * @param filterHashes         hashes of the filters of the blocks, in order
+     * @return cfheaders message
+     */
+    public static CFHeadersMessage of(byte filterType, Sha256Hash stopHash, Sha256Hash previousFilterHeader,
+                                      List<Sha256Hash> filterHashes) {
+        return new CFHeadersMessage(filterType, stopHash, previousFilterHeader, new ArrayList<>(filterHashes));
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static CFHeadersMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        byte filterType = payload.get();
+        Sha256Hash stopHash = Sha256Hash.read(payload);
+        Sha256Hash previousFilterHeader = Sha256Hash.read(payload);
+        VarInt countVarInt = VarInt.read(payload);
+        check(countVarInt.fitsInt(), BufferUnderflowException::new);
+        int count = countVarInt.intValue();
+        if (count < 0 || count > GetCFHeadersMessage.MAX_BLOCKS)
+            throw new ProtocolException("Too many filter hashes: " + count);
+        List<Sha256Hash> filterHashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            filterHashes.add(Sha256Hash.read(payload));
+        return new CFHeadersMessage(filterType, stopHash, previousFilterHeader, filterHashes);
+    }
+
+    private CFHeadersMessage(byte filterType, Sha256Hash stopHash, Sha256Hash previousFilterHeader,
+                             List<Sha256Hash> filterHashes) {
+        this.filterType = filterType;
+        this.stopHash = stopHash;
+        this.previousFilterHeader = previousFilterHeader;
+        this.filterHashes = Collections.unmodifiableList(filterHashes);
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        stream.write(filterType);
+        stream.write(stopHash.serialize());
+        stream.write(previousFilterHeader.serialize());
+        stream.write(VarInt.of(filterHashes.size()).serialize());
+        for (Sha256Hash filterHash : filterHashes)
+            stream.write(filterHash.serialize());
+    }
+
+    /**
+     * Gets the type of the filters.
+     *
+     * @return filter type
+     */
+    public byte filterType() {
+        return filterType;
+    }
+
+    /**
+     * Gets the hash of the last block.
+     *
+     * @return stop hash
+     */
+    public Sha256Hash stopHash() {
+        return stopHash;
+    }
+
+    /**
+     * Gets the filter header of the block before the first one.
+     *
+     * @return previous filter header
+     */
+    public Sha256Hash previousFilterHeader() {
+        return previousFilterHeader;
+    }
+
+    /**
+     * Gets the hashes of the filters of the blocks, in order.
+     *
+     * @return filter hashes
+     */
+    public List<Sha256Hash> filterHashes() {
+        return filterHashes;
+    }
+
+    /**
+     * Calculates the filter headers of the blocks, in order.
+     *
+     * @return filter headers
+     */
+    public List<Sha256Hash> filterHeaders() {
+        List<Sha256Hash> headers = new ArrayList<>(filterHashes.size());
+        Sha256Hash header = previousFilterHeader;
+        for (Sha256Hash filterHash : filterHashes) {
+            header = BlockFilter.header(filterHash, header);
+            headers.add(header);
+        }
+        return headers;
+    }
+
+    @Override
+    public String toString() {
+        return "cfheaders: type=" + filterType + " stop=" + stopHash + ", " + filterHashes.size() + " filter hashes";
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.VarInt;
+import org.litecoinj.base.internal.Buffers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents a "cfilter" message on the P2P network, which carries the compact block filter of a block requested
+ * with a {@link GetCFiltersMessage}. Only basic filters are supported.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0157.mediawiki">BIP157</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class CFilterMessage extends BaseMessage {
+    private final BlockFilter filter;
+
+    /**
+     * Create a cfilter message.
+     *
+     * @param filter basic filter of a block
+     * @return cfilter message
+     */
+    public static CFilterMessage of(BlockFilter filter) {
+        return new CFilterMessage(filter);
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static CFilterMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        byte filterType = payload.get();
+        if (filterType != BlockFilter.TYPE_BASIC)
+            throw new ProtocolException("Unsupported filter type: " + filterType);
+        Sha256Hash blockHash = Sha256Hash.read(payload);
+        return new CFilterMessage(BlockFilter.read(blockHash, Buffers.readLengthPrefixedBytes(payload)));
+    }
+
+    private CFilterMessage(BlockFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        stream.write(BlockFilter.TYPE_BASIC);
+        stream.write(filter.getBlockHash().serialize());
+        byte[] encoded = filter.serialize();
+        stream.write(VarInt.of(encoded.length).serialize());
+        stream.write(encoded);
+    }
+
+    /**
+     * Gets the filter.
+     *
+     * @return basic filter of the block
+     */
+    public BlockFilter filter() {
+        return filter;
+    }
+
+    @Override
+    public String toString() {
+        return "cfilter: " + filter;
+    }
+}
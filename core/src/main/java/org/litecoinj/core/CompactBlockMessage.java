@@ -0,0 +1,218 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.VarInt;
+import org.litecoinj.base.internal.Buffers;
+import org.litecoinj.base.internal.ByteUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.litecoinj.base.internal.Preconditions.check;
+
+/**
+ * Represents a "cmpctblock" message on the P2P network: a block header together with short IDs of its transactions,
+ * from which the block can be reconstructed using transactions we already have. Transactions the sender expects us not
+ * to have, at least the coinbase, are included in full. This class implements version 2 of compact blocks, where the
+ * short IDs are derived from the witness transaction IDs.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0152.mediawiki">BIP152</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class CompactBlockMessage extends BaseMessage {
+    /** The compact block version implemented by this class. */
+    public static final long VERSION = 2;
+    /** Maximum number of transactions of a compact block. */
+    public static final int MAX_TRANSACTIONS = Block.MAX_BLOCK_SIZE / 10;
+
+    private static final long SHORT_ID_MASK = 0xffff_ffff_ffffL;
+
+    private final Block header;
+    private final long nonce;
+    private final long[] shortIds;
+    private final SortedMap<Integer, Transaction> prefilledTransactions;
+    private final HashFunction shortIdHash;
+
+    /**
+     * Create a compact block of the given block, which includes its coinbase transaction.
+     *
+     * @param block block with transactions
+     * @param nonce nonce for deriving the short IDs, which should be random
+     * @return compact block
+     */
+    public static CompactBlockMessage of(Block block, long nonce) {
+        List<Transaction> transactions = block.getTransactions();
+        check(transactions != null && !transactions.isEmpty(), () ->
+                new IllegalArgumentException("block has no transactions"));
+        SortedMap<Integer, Transaction> prefilled = new TreeMap<>();
+        prefilled.put(0, transactions.get(0));
+        long[] shortIds = new long[transactions.size() - 1];
+        CompactBlockMessage message = new CompactBlockMessage(block.cloneAsHeader(), nonce, shortIds, prefilled);
+        for (int i = 1; i < transactions.size(); i++)
+            shortIds[i - 1] = message.shortId(transactions.get(i).getWTxId());
+        return message;
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static CompactBlockMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        Block header = Block.read(ByteBuffer.wrap(Buffers.readBytes(payload, Block.HEADER_SIZE)));
+        long nonce = ByteUtils.readInt64(payload);
+        int shortIdCount = readCount(payload);
+        long[] shortIds = new long[shortIdCount];
+        for (int i = 0; i < shortIdCount; i++)
+            shortIds[i] = ByteUtils.readUint32(payload) | ((long) ByteUtils.readUint16(payload) << 32);
+        int prefilledCount = readCount(payload);
+        int transactionCount = shortIdCount + prefilledCount;
+        if (transactionCount > MAX_TRANSACTIONS)
+            throw new ProtocolException("Too many transactions in compact block: " + transactionCount);
+        SortedMap<Integer, Transaction> prefilled = new TreeMap<>();
+        // Indexes are encoded as the difference to the previous index, minus one.
+        long index = -1;
+        for (int i = 0; i < prefilledCount; i++) {
+            index += VarInt.read(payload).longValue() + 1;
+            if (index < 0 || index >= transactionCount)
+                throw new ProtocolException("Prefilled transaction index out of range: " + index);
+            prefilled.put((int) index, Transaction.read(payload));
+        }
+        return new CompactBlockMessage(header, nonce, shortIds, prefilled);
+    }
+
+    private static int readCount(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        VarInt countVarInt = VarInt.read(payload);
+        check(countVarInt.fitsInt(), BufferUnderflowException::new);
+        int count = countVarInt.intValue();
+        if (count < 0 || count > MAX_TRANSACTIONS)
+            throw new ProtocolException("Too many transactions in compact block: " + count);
+        return count;
+    }
+
+    private CompactBlockMessage(Block header, long nonce, long[] shortIds,
+                                SortedMap<Integer, Transaction> prefilledTransactions) {
+        this.header = header;
+        this.nonce = nonce;
+        this.shortIds = shortIds;
+        this.prefilledTransactions = Collections.unmodifiableSortedMap(prefilledTransactions);
+        this.shortIdHash = shortIdHash(header, nonce);
+    }
+
+    // The short IDs are SipHash-2-4 of the transaction IDs, keyed with the SHA256 of the header and nonce.
+    private static HashFunction shortIdHash(Block header, long nonce) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Block.HEADER_SIZE + 8);
+        try {
+            header.writeHeader(bos);
+            ByteUtils.writeInt64LE(nonce, bos);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen.
+        }
+        byte[] key = Sha256Hash.hash(bos.toByteArray());
+        return Hashing.sipHash24(ByteUtils.readInt64(key, 0), ByteUtils.readInt64(key, 8));
+    }
+
+    private static long shortId(HashFunction shortIdHash, Sha256Hash wtxid) {
+        return shortIdHash.hashBytes(wtxid.serialize()).asLong() & SHORT_ID_MASK;
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        header.writeHeader(stream);
+        ByteUtils.writeInt64LE(nonce, stream);
+        stream.write(VarInt.of(shortIds.length).serialize());
+        for (long shortId : shortIds) {
+            ByteUtils.writeInt32LE(shortId & 0xffff_ffffL, stream);
+            ByteUtils.writeInt16LE((int) (shortId >>> 32), stream);
+        }
+        stream.write(VarInt.of(prefilledTransactions.size()).serialize());
+        int previousIndex = -1;
+        for (Map.Entry<Integer, Transaction> entry : prefilledTransactions.entrySet()) {
+            stream.write(VarInt.of(entry.getKey() - previousIndex - 1).serialize());
+            stream.write(entry.getValue().serialize());
+            previousIndex = entry.getKey();
+        }
+    }
+
+    /**
+     * Gets the header of the block.
+     *
+     * @return block header
+     */
+    public Block header() {
+        return header;
+    }
+
+    /**
+     * Gets the short IDs of the transactions which are not prefilled, in block order.
+     *
+     * @return short IDs
+     */
+    public long[] shortIds() {
+        return Arrays.copyOf(shortIds, shortIds.length);
+    }
+
+    /**
+     * Gets the transactions included in full, by their index in the block.
+     *
+     * @return prefilled transactions
+     */
+    public SortedMap<Integer, Transaction> prefilledTransactions() {
+        return prefilledTransactions;
+    }
+
+    /**
+     * Gets the number of transactions in the block.
+     *
+     * @return number of transactions
+     */
+    public int transactionCount() {
+        return shortIds.length + prefilledTransactions.size();
+    }
+
+    /**
+     * Calculates the short ID a transaction has in this compact block.
+     *
+     * @param wtxid witness transaction ID of the transaction
+     * @return short ID
+     */
+    public long shortId(Sha256Hash wtxid) {
+        return shortId(shortIdHash, wtxid);
+    }
+
+    @Override
+    public String toString() {
+        return "cmpctblock: " + header.getHashAsString() + ", " + shortIds.length + " short IDs, "
+                + prefilledTransactions.size() + " prefilled";
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.store.BlockStoreException;
+import org.litecoinj.store.FilterHeaderStore;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>Keeps track of a batch of blocks whose compact block filters (BIP157) a {@link Peer} downloads during
+ * headers-first chain download, instead of the block bodies. First the filter headers of the batch are requested and
+ * connected to the filter header of the block before the batch, then the filters, which are checked against their
+ * headers. The blocks are then connected to the chain in order: just the header if the filter matches none of our
+ * scripts, otherwise the full block.</p>
+ *
+ * <p>The filter headers are only as trustworthy as the peer they came from, except that once a filter header is in the
+ * store, the peer can't change the filters of the blocks before without being caught.</p>
+ *
+ * <p>Not thread safe, the peer guards it with its lock.</p>
+ */
+class CompactFilterDownload {
+    private final List<StoredBlock> blocks;
+    private final FilterHeaderStore store;
+    // Filter headers of the block before the batch and of the blocks, null until they were received.
+    @Nullable private Sha256Hash previousFilterHeader;
+    @Nullable private List<Sha256Hash> filterHeaders;
+    // Filters of the blocks which are not connected yet.
+    private final BlockFilter[] filters;
+    private int received;
+    private int connected;
+
+    /**
+     * @param blocks consecutive blocks of which the first builds on the chain head, at most
+     *               {@link GetCFiltersMessage#MAX_BLOCKS}
+     * @param store  store of the filter headers
+     */
+    CompactFilterDownload(List<StoredBlock> blocks, FilterHeaderStore store) {
+        checkArgument(!blocks.isEmpty() && blocks.size() <= GetCFiltersMessage.MAX_BLOCKS, () ->
+                "invalid number of blocks: " + blocks.size());
+        this.blocks = blocks;
+        this.store = store;
+        this.filters = new BlockFilter[blocks.size()];
+    }
+
+    /** Returns the request for the filter headers of the batch. */
+    GetCFHeadersMessage headersRequest() {
+        return GetCFHeadersMessage.of(BlockFilter.TYPE_BASIC, startHeight(), stopHash());
+    }
+
+    /** Returns the request for the filters of the batch. */
+    GetCFiltersMessage filtersRequest() {
+        return GetCFiltersMessage.of(BlockFilter.TYPE_BASIC, startHeight(), stopHash());
+    }
+
+    /**
+     * Checks the filter headers of the batch and saves them to the store.
+     *
+     * @throws ProtocolException if the filter headers are not the requested ones or don't connect to the filter
+     *                           header in the store
+     */
+    void addHeaders(CFHeadersMessage m) throws ProtocolException, BlockStoreException {
+        if (filterHeaders != null || m.filterType() != BlockFilter.TYPE_BASIC || !m.stopHash().equals(stopHash())
+                || m.filterHashes().size() != blocks.size())
+            throw new ProtocolException("Unexpected cfheaders: " + m);
+        Sha256Hash prevBlockHash = blocks.get(0).getHeader().getPrevBlockHash();
+        Sha256Hash previous = store.get(prevBlockHash);
+        if (previous == null) {
+            // Without any filter headers yet, we have to trust the peer for the first one, just like we trust the
+            // checkpoints for the block headers.
+            store.put(prevBlockHash, m.previousFilterHeader());
+        } else if (!previous.equals(m.previousFilterHeader())) {
+            throw new ProtocolException("Filter headers don't connect to filter header " + previous + " of block "
+                    + prevBlockHash);
+        }
+        List<Sha256Hash> headers = m.filterHeaders();
+        for (int i = 0; i < blocks.size(); i++)
+            store.put(blocks.get(i).getHeader().getHash(), headers.get(i));
+        previousFilterHeader = m.previousFilterHeader();
+        filterHeaders = headers;
+    }
+
+    /**
+     * Checks the filter of the next block against its filter header and keeps it for matching.
+     *
+     * @throws ProtocolException if the filter is not the one of the next block, or doesn't match its filter header
+     */
+    void addFilter(CFilterMessage m) throws ProtocolException {
+        if (filterHeaders == null || received == blocks.size())
+            throw new ProtocolException("Unexpected cfilter: " + m);
+        BlockFilter filter = m.filter();
+        Sha256Hash blockHash = blocks.get(received).getHeader().getHash();
+        if (!filter.getBlockHash().equals(blockHash))
+            throw new ProtocolException("Expected filter of block " + blockHash + ", got " + filter.getBlockHash());
+        Sha256Hash previous = received == 0 ? previousFilterHeader : filterHeaders.get(received - 1);
+        if (!filter.getHeader(previous).equals(filterHeaders.get(received)))
+            throw new ProtocolException("Filter of block " + blockHash + " doesn't match its filter header");
+        filters[received++] = filter;
+    }
+
+    /** Returns true if the filter of the next block to connect was received. */
+    boolean hasNext() {
+        return connected < received;
+    }
+
+    /** Returns true if the filter of the next block to connect matches any of the given scripts. */
+    boolean nextMatches(Collection<byte[]> scripts) {
+        return filters[connected].matchesAny(scripts);
+    }
+
+    /** Returns the next block to connect, and moves on to the one after. */
+    StoredBlock next() {
+        filters[connected] = null;
+        return blocks.get(connected++);
+    }
+
+    /** Returns true if all blocks of the batch were handed out for connecting. */
+    boolean isDone() {
+        return connected == blocks.size();
+    }
+
+    private int startHeight() {
+        return blocks.get(0).getHeight();
+    }
+
+    private Sha256Hash stopHash() {
+        return blocks.get(blocks.size() - 1).getHeader().getHash();
+    }
+}
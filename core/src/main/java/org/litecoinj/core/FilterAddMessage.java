@@ -0,0 +1,94 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.VarInt;
+import org.litecoinj.base.internal.Buffers;
+import org.litecoinj.base.internal.ByteUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.litecoinj.base.internal.Preconditions.check;
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * Represents a "filteradd" message on the P2P network, which adds a single element to the {@link BloomFilter} the
+ * remote peer has loaded for us, so that a filter doesn't need to be sent again in full for a few new elements.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0037.mediawiki">BIP37</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class FilterAddMessage extends BaseMessage {
+    /** The maximum size of an element, the same as the maximum size of a script push. */
+    public static final int MAX_ELEMENT_SIZE = 520;
+
+    private final byte[] element;
+
+    /**
+     * Create a filteradd message for the given element.
+     *
+     * @param element element to add to the filter, at most {@link #MAX_ELEMENT_SIZE} bytes
+     * @return filteradd message
+     */
+    public static FilterAddMessage of(byte[] element) {
+        checkArgument(element.length <= MAX_ELEMENT_SIZE, () -> "element too large: " + element.length);
+        return new FilterAddMessage(Arrays.copyOf(element, element.length));
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static FilterAddMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        byte[] element = Buffers.readLengthPrefixedBytes(payload);
+        check(element.length <= MAX_ELEMENT_SIZE, () -> new ProtocolException("element too large: " +
+                element.length));
+        return new FilterAddMessage(element);
+    }
+
+    private FilterAddMessage(byte[] element) {
+        this.element = element;
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        stream.write(VarInt.of(element.length).serialize());
+        stream.write(element);
+    }
+
+    /**
+     * Gets the element to add to the filter.
+     *
+     * @return element
+     */
+    public byte[] element() {
+        return Arrays.copyOf(element, element.length);
+    }
+
+    @Override
+    public String toString() {
+        return "filteradd: " + ByteUtils.formatHex(element);
+    }
+}
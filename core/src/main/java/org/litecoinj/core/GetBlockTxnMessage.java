@@ -0,0 +1,124 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.VarInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.litecoinj.base.internal.Preconditions.check;
+
+/**
+ * Represents a "getblocktxn" message on the P2P network, which requests the transactions of a compact block that
+ * could not be reconstructed from the transactions we already have. They are sent in a {@link BlockTxnMessage}.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0152.mediawiki">BIP152</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class GetBlockTxnMessage extends BaseMessage {
+    private final Sha256Hash blockHash;
+    private final List<Integer> indexes;
+
+    /**
+     * Create a getblocktxn message.
+     *
+     * @param blockHash hash of the block
+     * @param indexes   indexes of the requested transactions in the block, in ascending order
+     * @return getblocktxn message
+     */
+    public static GetBlockTxnMessage of(Sha256Hash blockHash, List<Integer> indexes) {
+        int previous = -1;
+        for (int index : indexes) {
+            check(index > previous, () -> new IllegalArgumentException("indexes must be ascending: " + indexes));
+            previous = index;
+        }
+        return new GetBlockTxnMessage(blockHash, new ArrayList<>(indexes));
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static GetBlockTxnMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        Sha256Hash blockHash = Sha256Hash.read(payload);
+        VarInt countVarInt = VarInt.read(payload);
+        check(countVarInt.fitsInt(), BufferUnderflowException::new);
+        int count = countVarInt.intValue();
+        if (count < 0 || count > CompactBlockMessage.MAX_TRANSACTIONS)
+            throw new ProtocolException("Too many transactions requested: " + count);
+        List<Integer> indexes = new ArrayList<>(count);
+        // Indexes are encoded as the difference to the previous index, minus one.
+        long index = -1;
+        for (int i = 0; i < count; i++) {
+            index += VarInt.read(payload).longValue() + 1;
+            if (index < 0 || index >= CompactBlockMessage.MAX_TRANSACTIONS)
+                throw new ProtocolException("Transaction index out of range: " + index);
+            indexes.add((int) index);
+        }
+        return new GetBlockTxnMessage(blockHash, indexes);
+    }
+
+    private GetBlockTxnMessage(Sha256Hash blockHash, List<Integer> indexes) {
+        this.blockHash = blockHash;
+        this.indexes = Collections.unmodifiableList(indexes);
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        stream.write(blockHash.serialize());
+        stream.write(VarInt.of(indexes.size()).serialize());
+        int previous = -1;
+        for (int index : indexes) {
+            stream.write(VarInt.of(index - previous - 1).serialize());
+            previous = index;
+        }
+    }
+
+    /**
+     * Gets the hash of the block.
+     *
+     * @return block hash
+     */
+    public Sha256Hash blockHash() {
+        return blockHash;
+    }
+
+    /**
+     * Gets the indexes of the requested transactions in the block, in ascending order.
+     *
+     * @return transaction indexes
+     */
+    public List<Integer> indexes() {
+        return indexes;
+    }
+
+    @Override
+    public String toString() {
+        return "getblocktxn: " + blockHash + ", " + indexes.size() + " transactions";
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.internal.ByteUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * Represents a "getcfheaders" message on the P2P network, which requests the hashes of the compact block filters
+ * (BIP158) of a range of blocks. The range starts at the given height and ends at the block of the given hash, and is
+ * at most {@link #MAX_BLOCKS} long. The hashes are sent in a {@link CFHeadersMessage}.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0157.mediawiki">BIP157</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class GetCFHeadersMessage extends BaseMessage {
+    /** Maximum number of blocks that can be requested at once. */
+    public static final int MAX_BLOCKS = 2000;
+
+    private final byte filterType;
+    private final int startHeight;
+    private final Sha256Hash stopHash;
+
+    /**
+     * Create a getcfheaders message.
+     *
+     * @param filterType  type of the filters, e.g. {@link BlockFilter#TYPE_BASIC}
+     * @param startHeight height of the first block
+     * @param stopHash    hash of the last block
+     * @return getcfheaders message
+     */
+    public static GetCFHeadersMessage of(byte filterType, int startHeight, Sha256Hash stopHash) {
+        checkArgument(startHeight >= 0, () -> "startHeight must not be negative: " + startHeight);
+        return new GetCFHeadersMessage(filterType, startHeight, stopHash);
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static GetCFHeadersMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        byte filterType = payload.get();
+        long startHeight = ByteUtils.readUint32(payload);
+        if (startHeight > Integer.MAX_VALUE)
+            throw new ProtocolException("Start height out of range: " + startHeight);
+        Sha256Hash stopHash = Sha256Hash.read(payload);
+        return new GetCFHeadersMessage(filterType, (int) startHeight, stopHash);
+    }
+
+    private GetCFHeadersMessage(byte filterType, int startHeight, Sha256Hash stopHash) {
+        this.filterType = filterType;
+        this.startHeight = startHeight;
+        this.stopHash = stopHash;
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        stream.write(filterType);
+        ByteUtils.writeInt32LE(startHeight, stream);
+        stream.write(stopHash.serialize());
+    }
+
+    /**
+     * Gets the type of the requested filters.
+     *
+     * @return filter type
+     */
+    public byte filterType() {
+        return filterType;
+    }
+
+    /**
+     * Gets the height of the first block.
+     *
+     * @return start height
+     */
+    public int startHeight() {
+        return startHeight;
+    }
+
+    /**
+     * Gets the hash of the last block.
+     *
+     * @return stop hash
+     */
+    public Sha256Hash stopHash() {
+        return stopHash;
+    }
+
+    @Override
+    public String toString() {
+        return "getcfheaders: type=" + filterType + " start=" + startHeight + " stop=" + stopHash;
+    }
+}
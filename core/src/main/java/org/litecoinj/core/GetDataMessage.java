@@ -58,6 +58,10 @@ public class GetDataMessage extends ListMessage {
         addItem(new InventoryItem(includeWitness ? InventoryItem.Type.WITNESS_BLOCK : InventoryItem.Type.BLOCK, hash));
     }
 
+    public void addCompactBlock(Sha256Hash hash) {
+        addItem(new InventoryItem(InventoryItem.Type.CMPCT_BLOCK, hash));
+    }
+
     public void addFilteredBlock(Sha256Hash hash) {
         addItem(new InventoryItem(InventoryItem.Type.FILTERED_BLOCK, hash));
     }
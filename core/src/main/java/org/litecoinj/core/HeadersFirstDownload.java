@@ -0,0 +1,190 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.store.BlockStore;
+import org.litecoinj.store.BlockStoreException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Keeps track of the headers a {@link Peer} downloaded ahead of the block chain during headers-first chain download.
+ * Headers are connected to each other and checked for proof of work as they arrive, then queued until their bodies are
+ * requested. The block chain checks the blocks again when they are added, so this is only about not downloading the
+ * bodies of a chain that is invalid anyway.</p>
+ *
+ * <p>At most {@link #MAX_QUEUED_HEADERS} headers are queued, which bounds the memory used. When the queue is full, the
+ * bodies are downloaded before more headers are requested.</p>
+ *
+ * <p>Not thread safe, the peer guards it with its lock.</p>
+ */
+class HeadersFirstDownload {
+    /** Maximum number of headers queued for body download before more headers are requested. */
+    static final int MAX_QUEUED_HEADERS = 50_000;
+    /** Number of block bodies requested at a time. */
+    static final int BODY_BATCH_SIZE = 500;
+
+    private final AbstractBlockChain blockChain;
+    private final HeaderStore store = new HeaderStore();
+    // Hashes of the validated headers whose bodies were not requested yet, in chain order.
+    private final LinkedList<Sha256Hash> queue = new LinkedList<>();
+    // The last validated header, or null if no header beyond the chain head was validated yet.
+    @Nullable private StoredBlock tip;
+    private boolean headersRequested;
+
+    HeadersFirstDownload(AbstractBlockChain blockChain) {
+        this.blockChain = blockChain;
+    }
+
+    /**
+     * Validates the given header and queues it for body download. Headers we already have are skipped.
+     *
+     * @param header   the header, which must build on the last one added or, if none were queued yet, on a block in the
+     *                 chain
+     * @param verified whether the proof of work of the header was already checked
+     * @throws ProtocolException if the header doesn't connect
+     * @throws VerificationException if the header is invalid
+     */
+    void add(Block header, boolean verified) throws VerificationException, BlockStoreException {
+        Sha256Hash hash = header.getHash();
+        if (store.get(hash) != null)
+            return;
+        StoredBlock prev = getTip();
+        if (!prev.getHeader().getHash().equals(header.getPrevBlockHash())) {
+            // The peer may start building on an earlier block, e.g. when our chain head is on a fork the peer doesn't
+            // know about. That's only possible until we start queueing headers.
+            prev = queue.isEmpty() ? store.get(header.getPrevBlockHash()) : null;
+            if (prev == null)
+                throw new ProtocolException("Got unconnected header from peer: " + header.getHashAsString());
+        }
+        if (!verified)
+            Block.verifyHeader(header);
+        tip = prev.build(header);
+        store.put(tip);
+        queue.add(hash);
+    }
+
+    /** Returns the last validated header, or the chain head if there is none. */
+    StoredBlock getTip() {
+        return tip != null ? tip : blockChain.getChainHead();
+    }
+
+    /** Returns the store the locator for the next getheaders request must be built from. */
+    BlockStore getStore() {
+        return store;
+    }
+
+    /** Returns true if no header beyond the chain head was validated so far. */
+    boolean isEmpty() {
+        return tip == null;
+    }
+
+    /** Returns true if no more headers should be requested before the queued bodies were downloaded. */
+    boolean isFull() {
+        return queue.size() >= MAX_QUEUED_HEADERS;
+    }
+
+    /** Returns the number of headers whose bodies were not requested yet. */
+    int getQueuedHeaders() {
+        return queue.size();
+    }
+
+    /** Removes and returns the hashes of the next {@link #BODY_BATCH_SIZE} blocks to download, in chain order. */
+    List<Sha256Hash> nextBodies() {
+        List<Sha256Hash> hashes = new ArrayList<>(Math.min(queue.size(), BODY_BATCH_SIZE));
+        while (!queue.isEmpty() && hashes.size() < BODY_BATCH_SIZE)
+            hashes.add(queue.removeFirst());
+        return hashes;
+    }
+
+    /** Like {@link #nextBodies()}, but returns the validated headers of the blocks. */
+    List<StoredBlock> nextHeaders() throws BlockStoreException {
+        List<Sha256Hash> hashes = nextBodies();
+        List<StoredBlock> headers = new ArrayList<>(hashes.size());
+        for (Sha256Hash hash : hashes)
+            headers.add(store.get(hash));
+        return headers;
+    }
+
+    /** Whether a getheaders request is outstanding. */
+    boolean isHeadersRequested() {
+        return headersRequested;
+    }
+
+    void setHeadersRequested(boolean headersRequested) {
+        this.headersRequested = headersRequested;
+    }
+
+    /**
+     * The validated headers, in front of the store of the block chain, so locators can be built from the tip. Headers
+     * are forgotten once they were added to the chain's store. Its chain head is the tip of the download.
+     */
+    private class HeaderStore implements BlockStore {
+        private final Map<Sha256Hash, StoredBlock> headers = new HashMap<>();
+
+        @Override
+        public void put(StoredBlock block) throws BlockStoreException {
+            if (headers.size() >= 2 * MAX_QUEUED_HEADERS)
+                prune();
+            headers.put(block.getHeader().getHash(), block);
+        }
+
+        @Override
+        public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+            StoredBlock block = headers.get(hash);
+            return block != null ? block : blockChain.getBlockStore().get(hash);
+        }
+
+        @Override
+        public StoredBlock getChainHead() {
+            return getTip();
+        }
+
+        /**
+         * Moves the tip of the download to the given header, e.g. back to the block chain to start over from there.
+         * Queued headers that come after it are dropped and forgotten.
+         */
+        @Override
+        public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+            Sha256Hash hash = chainHead.getHeader().getHash();
+            if (blockChain.getBlockStore().get(hash) == null)
+                put(chainHead);
+            while (!queue.isEmpty() && !queue.getLast().equals(hash))
+                headers.remove(queue.removeLast());
+            tip = chainHead.equals(blockChain.getChainHead()) ? null : chainHead;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void prune() throws BlockStoreException {
+            BlockStore chainStore = blockChain.getBlockStore();
+            for (Iterator<Sha256Hash> it = headers.keySet().iterator(); it.hasNext(); ) {
+                if (chainStore.get(it.next()) != null)
+                    it.remove();
+            }
+        }
+    }
+}
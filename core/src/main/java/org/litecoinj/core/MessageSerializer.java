@@ -18,8 +18,12 @@
 
 package org.litecoinj.core;
 
+import org.litecoinj.net.BufferPool;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.Buffer;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
@@ -39,6 +43,13 @@ public abstract class MessageSerializer {
      */
     public abstract int getProtocolVersion();
 
+    /**
+     * Create a new serializer which does or does not verify the checksums of deserialized messages. Skipping the
+     * verification saves hashing every payload, and is meant for messages from a trusted source, like a node on the
+     * same host.
+     */
+    public abstract MessageSerializer withChecksumVerification(boolean verifyChecksums);
+
     /**
      * Reads a message from the given ByteBuffer and returns it.
      */
@@ -124,5 +135,20 @@ public abstract class MessageSerializer {
      * it does not support serializing the given message.
      */
     public abstract void serialize(Message message, OutputStream out) throws IOException, UnsupportedOperationException;
-    
+
+    /**
+     * Writes message to a buffer acquired from the given pool. The buffer is positioned at the start of the message and
+     * limited to its end. Once it is no longer used, it should be released to the pool.
+     *
+     * @throws UnsupportedOperationException if this serializer/deserializer
+     * does not support serialization.
+     */
+    public ByteBuffer serialize(Message message, BufferPool pool) throws IOException, UnsupportedOperationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serialize(message, out);
+        ByteBuffer buffer = pool.acquire(out.size());
+        buffer.put(out.toByteArray());
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
 }
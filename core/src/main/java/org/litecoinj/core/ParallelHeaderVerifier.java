@@ -0,0 +1,125 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.utils.ContextPropagatingThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>Verifies the headers of a batch of blocks, usually the contents of a {@link HeadersMessage}, on a pool of worker
+ * threads. The scrypt proof of work check dominates the time spent on headers during chain download, and when it's
+ * done by {@link AbstractBlockChain#add(Block)} it runs serially under the chain lock.</p>
+ *
+ * <p>Running {@link #verify(List)} before connecting the headers spreads that work across all threads of the pool.
+ * The headers cache their scrypt hashes, so the checks repeated by the block chain when the headers are then connected
+ * in order are cheap.</p>
+ *
+ * <p>Call {@link #shutdown()} to release the worker threads when done.</p>
+ */
+public class ParallelHeaderVerifier {
+    private final ExecutorService executor;
+
+    /**
+     * A job submitted to the executor which verifies a single header.
+     */
+    private static class Verifier implements Callable<VerificationException> {
+        final Block header;
+
+        public Verifier(Block header) {
+            this.header = header;
+        }
+
+        @Override
+        public VerificationException call() {
+            try {
+                Block.verifyHeader(header);
+            } catch (VerificationException e) {
+                return e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Creates a verifier with one worker thread per available processor.
+     */
+    public ParallelHeaderVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a verifier with the given number of worker threads.
+     * @param threads number of worker threads, must be positive
+     */
+    public ParallelHeaderVerifier(int threads) {
+        checkArgument(threads > 0, () -> "threads must be positive: " + threads);
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ContextPropagatingThreadFactory("Header verification"));
+    }
+
+    /**
+     * Verifies the given headers in parallel and waits for all of them to complete. Each header is verified by
+     * {@link Block#verifyHeader(Block)}. The headers must not be accessed by other threads while this method runs.
+     *
+     * @param headers headers to verify
+     * @throws VerificationException of the first header in the list that failed verification
+     */
+    public void verify(List<Block> headers) throws VerificationException {
+        List<Future<VerificationException>> results = new ArrayList<>(headers.size());
+        try {
+            for (Block header : headers)
+                results.add(executor.submit(new Verifier(header)));
+        } catch (RejectedExecutionException x) {
+            // Shut down while a peer was still using us, the rest is verified on the calling thread below.
+        }
+        try {
+            for (Future<VerificationException> future : results) {
+                VerificationException e = future.get();
+                if (e != null)
+                    throw e;
+            }
+            for (Block header : headers.subList(results.size(), headers.size()))
+                Block.verifyHeader(header);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new VerificationException("Header verification failed unexpectedly", e.getCause());
+        } finally {
+            for (Future<VerificationException> future : results)
+                future.cancel(false);
+        }
+    }
+
+    /**
+     * Stops the worker threads once the headers already submitted are verified. Headers verified after this are
+     * verified on the calling thread.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
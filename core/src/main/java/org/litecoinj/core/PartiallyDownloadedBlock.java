@@ -0,0 +1,140 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.internal.TimeUtils;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Reconstructs a block from a {@link CompactBlockMessage} and the transactions of a {@link TransactionPool}.
+ * Transactions which are not in the pool are requested with a {@link GetBlockTxnMessage}, and filled in from the
+ * {@link BlockTxnMessage} answering it.</p>
+ *
+ * <p>A short ID can match the wrong transaction. That is caught by checking the merkle roots of the reconstructed
+ * block, in which case the caller falls back to downloading the full block.</p>
+ *
+ * <p>Not thread safe.</p>
+ */
+class PartiallyDownloadedBlock {
+    private final CompactBlockMessage compactBlock;
+    // The transactions of the block by index, null where they are missing.
+    private final Transaction[] transactions;
+    private final Instant receivedTime;
+
+    /**
+     * Matches the transactions of the pool against the short IDs of the compact block.
+     *
+     * @return the partially downloaded block, or null if the compact block has no transactions or two of them have the
+     *         same short ID
+     */
+    @Nullable
+    static PartiallyDownloadedBlock create(CompactBlockMessage compactBlock, TransactionPool pool) {
+        if (compactBlock.transactionCount() == 0)
+            return null;
+        Transaction[] transactions = new Transaction[compactBlock.transactionCount()];
+        for (Map.Entry<Integer, Transaction> entry : compactBlock.prefilledTransactions().entrySet())
+            transactions[entry.getKey()] = entry.getValue();
+        // The short IDs fill the gaps between the prefilled transactions, in order.
+        long[] shortIds = compactBlock.shortIds();
+        Map<Long, Integer> indexes = new HashMap<>(shortIds.length * 2);
+        int index = 0;
+        for (long shortId : shortIds) {
+            while (transactions[index] != null)
+                index++;
+            if (indexes.put(shortId, index) != null)
+                return null;
+            index++;
+        }
+        // If two transactions of the pool match the same short ID, we don't know which one is right, so request it.
+        Set<Integer> ambiguous = new HashSet<>();
+        for (Transaction tx : pool.getTransactions()) {
+            Integer match = indexes.get(compactBlock.shortId(tx.getWTxId()));
+            if (match == null)
+                continue;
+            if (transactions[match] == null)
+                transactions[match] = tx;
+            else if (!transactions[match].getWTxId().equals(tx.getWTxId()))
+                ambiguous.add(match);
+        }
+        for (int i : ambiguous)
+            transactions[i] = null;
+        return new PartiallyDownloadedBlock(compactBlock, transactions);
+    }
+
+    private PartiallyDownloadedBlock(CompactBlockMessage compactBlock, Transaction[] transactions) {
+        this.compactBlock = compactBlock;
+        this.transactions = transactions;
+        this.receivedTime = TimeUtils.currentTime();
+    }
+
+    /** Returns the compact block being reconstructed. */
+    CompactBlockMessage getCompactBlock() {
+        return compactBlock;
+    }
+
+    /** Returns the time the compact block was received. */
+    Instant getReceivedTime() {
+        return receivedTime;
+    }
+
+    /** Returns the indexes of the transactions which are not in the pool, in ascending order. */
+    List<Integer> getMissingIndexes() {
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i] == null)
+                missing.add(i);
+        }
+        return missing;
+    }
+
+    /**
+     * Fills in the missing transactions and returns the full block.
+     *
+     * @param missing the transactions at {@link #getMissingIndexes()}, in the same order
+     * @return the block, or null if the transactions don't add up to the block of the compact block's header
+     */
+    @Nullable
+    Block fill(List<Transaction> missing) {
+        List<Integer> indexes = getMissingIndexes();
+        if (missing.size() != indexes.size())
+            return null;
+        Transaction[] filled = Arrays.copyOf(transactions, transactions.length);
+        for (int i = 0; i < indexes.size(); i++)
+            filled[indexes.get(i)] = missing.get(i);
+        Block header = compactBlock.header();
+        // Leaving out the merkle root makes the block calculate it from the transactions.
+        Block block = new Block(header.getVersion(), header.getPrevBlockHash(), null, header.time(),
+                header.getDifficultyTarget(), header.getNonce(), Arrays.asList(filled));
+        if (!block.getMerkleRoot().equals(header.getMerkleRoot()))
+            return null;
+        try {
+            block.checkWitnessRoot();
+        } catch (VerificationException e) {
+            return null;
+        }
+        return block;
+    }
+}
@@ -33,8 +33,10 @@ import org.litecoinj.core.listeners.PreMessageReceivedEventListener;
 import org.litecoinj.net.NioClient;
 import org.litecoinj.net.NioClientManager;
 import org.litecoinj.net.StreamConnection;
+import org.litecoinj.script.Script;
 import org.litecoinj.store.BlockStore;
 import org.litecoinj.store.BlockStoreException;
+import org.litecoinj.store.FilterHeaderStore;
 import org.litecoinj.base.internal.FutureUtils;
 import org.litecoinj.utils.ListenableCompletableFuture;
 import org.litecoinj.utils.ListenerRegistration;
@@ -45,6 +47,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayDeque;
@@ -52,10 +55,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Queue;
@@ -129,6 +134,23 @@ public class Peer extends PeerSocketHandler {
     @GuardedBy("lock") private boolean downloadBlockBodies = true;
     // Whether to request filtered blocks instead of full blocks if the protocol version allows for them.
     @GuardedBy("lock") private boolean useFilteredBlocks = false;
+    // Whether the chain download fetches the headers up to the tip first, and then the bodies of the blocks needed.
+    @GuardedBy("lock") private boolean headersFirst = false;
+    // State of the current headers-first chain download, or null if the chain is downloaded using getblocks.
+    @GuardedBy("lock") @Nullable private HeadersFirstDownload headersFirstDownload;
+    // Stores the headers of compact block filters, or null if headers-first download fetches block bodies instead.
+    @Nullable private volatile FilterHeaderStore vFilterHeaderStore;
+    // The batch of blocks whose compact block filters are being downloaded, if any.
+    @GuardedBy("lock") @Nullable private CompactFilterDownload filterDownload;
+    // Scripts of our wallets the filters are matched against, or null if they need to be collected again. Only used
+    // by the network thread.
+    @Nullable private List<byte[]> filterScripts;
+    // If set, headers received during fast catchup have their proof of work checked in parallel before being
+    // connected to the chain.
+    @Nullable private volatile ParallelHeaderVerifier vHeaderVerifier;
+    // If set, blocks announced while downloading the chain are requested from several peers by this scheduler, and
+    // blocks it requested are handed back to it.
+    @Nullable private volatile BlockDownloadScheduler vDownloadScheduler;
     // The current Bloom filter set on the connection, used to tell the remote peer what transactions to send us.
     private volatile BloomFilter vBloomFilter;
     // The last filtered block we received, we're waiting to fill it out with transactions.
@@ -154,6 +176,15 @@ public class Peer extends PeerSocketHandler {
     private static final int PENDING_TX_DOWNLOADS_LIMIT = 100;
     // The lowest version number we're willing to accept. Lower than this will result in an immediate disconnect.
     private volatile int vMinProtocolVersion;
+    // Transactions to reconstruct compact blocks from, or null if compact blocks aren't used.
+    @Nullable private volatile TransactionPool vTransactionPool;
+    // Whether the peer announced support for the version of compact blocks we implement.
+    private volatile boolean vPeerSupportsCompactBlocks;
+    // Compact blocks waiting for the transactions we requested with getblocktxn, by block hash. If the transactions
+    // don't arrive within COMPACT_BLOCK_TIMEOUT, the block is downloaded in full instead.
+    @GuardedBy("lock") private final Map<Sha256Hash, PartiallyDownloadedBlock> partialBlocks = new HashMap<>();
+    /** How long to wait for the missing transactions of a compact block before downloading the full block. */
+    public static final Duration COMPACT_BLOCK_TIMEOUT = Duration.ofSeconds(10);
     // When an API user explicitly requests a block or transaction from a peer, the InventoryItem is put here
     // whilst waiting for the response. Is not used for downloads Peer generates itself.
     private static class GetDataRequest extends CompletableFuture {
@@ -492,11 +523,61 @@ public class Peer extends PeerSocketHandler {
             // We ignore this message, because we don't announce new blocks.
         } else if (m instanceof FeeFilterMessage) {
             processFeeFilter((FeeFilterMessage) m);
+        } else if (m instanceof SendCompactBlocksMessage) {
+            processSendCompactBlocks((SendCompactBlocksMessage) m);
+        } else if (m instanceof CompactBlockMessage) {
+            processCompactBlock((CompactBlockMessage) m);
+        } else if (m instanceof BlockTxnMessage) {
+            processBlockTxn((BlockTxnMessage) m);
+        } else if (m instanceof GetBlockTxnMessage) {
+            // We ignore this message, because we don't announce compact blocks.
+        } else if (m instanceof CFHeadersMessage) {
+            processCFHeaders((CFHeadersMessage) m);
+        } else if (m instanceof CFilterMessage) {
+            processCFilter((CFilterMessage) m);
         } else {
             log.warn("{}: Received unhandled message: {}", this, m);
         }
     }
 
+    @Override
+    protected boolean isMessageWanted(String command, ByteBuffer payload) {
+        // Listeners can see every message, and nothing is skipped before the handshake is complete so that protocol
+        // violations are still detected.
+        if (!preMessageReceivedEventListeners.isEmpty() || !versionHandshakeFuture.isDone())
+            return true;
+        switch (command) {
+            case "block":
+                return isBlockWanted(payload);
+            case "addr":
+            case "addrv2":
+                synchronized (getAddrFutures) {
+                    return !addressEventListeners.isEmpty() || !getAddrFutures.isEmpty();
+                }
+            default:
+                return true;
+        }
+    }
+
+    // Mirrors the checks in processBlock(), so that blocks which would be thrown away there are not parsed.
+    private boolean isBlockWanted(ByteBuffer payload) {
+        if (blockChain != null && vDownloadData)
+            return true;
+        BlockDownloadScheduler scheduler = vDownloadScheduler;
+        if (getDataFutures.isEmpty() && scheduler == null)
+            return false;
+        if (payload.remaining() < Block.HEADER_SIZE)
+            return true; // Let the parser complain.
+        byte[] header = new byte[Block.HEADER_SIZE];
+        payload.duplicate().get(header);
+        Sha256Hash hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header));
+        for (GetDataRequest req : getDataFutures) {
+            if (req.hash.equals(hash))
+                return true;
+        }
+        return scheduler != null && blockChain != null && scheduler.isScheduled(hash);
+    }
+
     private void processAddressMessage(AddressMessage message) {
         for (final ListenerRegistration<AddressEventListener> registration : addressEventListeners) {
             registration.executor.execute(() -> registration.listener.onAddr(Peer.this, message));
@@ -580,7 +661,10 @@ public class Peer extends PeerSocketHandler {
             log.warn("Connected to a peer speaking protocol version {} but need {}, closing",
                     vPeerVersionMessage.clientVersion, version);
             close();
+            return;
         }
+        if (vTransactionPool != null && isCompactBlocksSupported(vPeerVersionMessage))
+            sendMessage(SendCompactBlocksMessage.of(false, CompactBlockMessage.VERSION));
     }
 
     protected void startFilteredBlock(FilteredBlock m) {
@@ -591,6 +675,108 @@ public class Peer extends PeerSocketHandler {
         currentFilteredBlock = m;
     }
 
+    protected void processSendCompactBlocks(SendCompactBlocksMessage m) {
+        // The peer may announce several versions, of which we only implement one. Whether it wants to announce new
+        // blocks to us as compact blocks doesn't matter, as we only ask for them after an inv.
+        if (m.version() == CompactBlockMessage.VERSION)
+            vPeerSupportsCompactBlocks = true;
+    }
+
+    protected void processCompactBlock(CompactBlockMessage m) {
+        Sha256Hash hash = m.header().getHash();
+        if (log.isDebugEnabled())
+            log.debug("{}: Received compact block {}", getAddress(), hash);
+        TransactionPool pool = vTransactionPool;
+        if (blockChain == null || pool == null || !pendingBlockDownloads.contains(hash)) {
+            if (log.isDebugEnabled())
+                log.debug("{}: Received compact block we did not ask for: {}", getAddress(), hash);
+            return;
+        }
+        PartiallyDownloadedBlock partialBlock = PartiallyDownloadedBlock.create(m, pool);
+        if (partialBlock == null) {
+            log.info("{}: Could not match transactions of compact block {}, downloading it in full", getAddress(),
+                    hash);
+            requestFullBlock(hash);
+            return;
+        }
+        List<Integer> missing = partialBlock.getMissingIndexes();
+        if (missing.isEmpty()) {
+            completeCompactBlock(partialBlock, Collections.emptyList());
+            return;
+        }
+        if (log.isDebugEnabled())
+            log.debug("{}: Requesting {} of {} transactions of compact block {}", getAddress(), missing.size(),
+                    m.transactionCount(), hash);
+        lock.lock();
+        try {
+            partialBlocks.put(hash, partialBlock);
+        } finally {
+            lock.unlock();
+        }
+        sendMessage(GetBlockTxnMessage.of(hash, missing));
+    }
+
+    protected void processBlockTxn(BlockTxnMessage m) {
+        PartiallyDownloadedBlock partialBlock;
+        lock.lock();
+        try {
+            partialBlock = partialBlocks.remove(m.blockHash());
+        } finally {
+            lock.unlock();
+        }
+        if (partialBlock == null) {
+            if (log.isDebugEnabled())
+                log.debug("{}: Received blocktxn we did not ask for: {}", getAddress(), m.blockHash());
+            return;
+        }
+        completeCompactBlock(partialBlock, m.transactions());
+    }
+
+    /**
+     * Downloads the blocks in full whose missing transactions didn't arrive within {@link #COMPACT_BLOCK_TIMEOUT} of
+     * their compact block, so that the chain download doesn't wait for them forever. Called periodically.
+     */
+    void checkCompactBlockTimeouts() {
+        List<Sha256Hash> timedOut = new ArrayList<>();
+        Instant deadline = TimeUtils.currentTime().minus(COMPACT_BLOCK_TIMEOUT);
+        lock.lock();
+        try {
+            Iterator<PartiallyDownloadedBlock> iterator = partialBlocks.values().iterator();
+            while (iterator.hasNext()) {
+                PartiallyDownloadedBlock partialBlock = iterator.next();
+                if (partialBlock.getReceivedTime().isBefore(deadline)) {
+                    timedOut.add(partialBlock.getCompactBlock().header().getHash());
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Sha256Hash hash : timedOut) {
+            log.info("{}: Missing transactions of compact block {} did not arrive, downloading it in full",
+                    getAddress(), hash);
+            requestFullBlock(hash);
+        }
+    }
+
+    private void completeCompactBlock(PartiallyDownloadedBlock partialBlock, List<Transaction> missing) {
+        Block block = partialBlock.fill(missing);
+        if (block == null) {
+            // Most likely a short ID matched the wrong transaction of our pool.
+            Sha256Hash hash = partialBlock.getCompactBlock().header().getHash();
+            log.info("{}: Could not reconstruct compact block {}, downloading it in full", getAddress(), hash);
+            requestFullBlock(hash);
+            return;
+        }
+        processBlock(block);
+    }
+
+    private void requestFullBlock(Sha256Hash hash) {
+        GetDataMessage getdata = new GetDataMessage();
+        getdata.addBlock(hash, vPeerVersionMessage.services().has(Services.NODE_WITNESS));
+        sendMessage(getdata);
+    }
+
     protected void processNotFoundMessage(NotFoundMessage m) {
         // This is received when we previously did a getdata but the peer couldn't find what we requested in it's
         // memory pool. Typically, because we are downloading dependencies of a relevant transaction and reached
@@ -619,6 +805,7 @@ public class Peer extends PeerSocketHandler {
         // request the full blocks from that point on instead.
         boolean downloadBlockBodies;
         Instant fastCatchupTime;
+        HeadersFirstDownload headersFirstDownload;
 
         lock.lock();
         try {
@@ -629,12 +816,27 @@ public class Peer extends PeerSocketHandler {
             }
             fastCatchupTime = this.fastCatchupTime;
             downloadBlockBodies = this.downloadBlockBodies;
+            headersFirstDownload = this.headersFirstDownload;
         } finally {
             lock.unlock();
         }
 
+        if (headersFirstDownload != null) {
+            processHeadersFirst(m, headersFirstDownload, fastCatchupTime);
+            return;
+        }
+
         try {
             checkState(!downloadBlockBodies, () -> toString());
+            ParallelHeaderVerifier headerVerifier = vHeaderVerifier;
+            if (headerVerifier != null) {
+                // Only verify the headers we are actually going to add, which are those before the fast catchup time.
+                List<Block> headers = m.getBlockHeaders();
+                int end = 0;
+                while (end < headers.size() && headers.get(end).time().compareTo(fastCatchupTime) < 0)
+                    end++;
+                headerVerifier.verify(headers.subList(0, end));
+            }
             for (int i = 0; i < m.getBlockHeaders().size(); i++) {
                 Block header = m.getBlockHeaders().get(i);
                 // Process headers until we pass the fast catchup time, or are about to catch up with the head
@@ -692,6 +894,87 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
+    // Handles a headers message during headers-first chain download. Headers before the fast catchup time are connected
+    // to the chain directly, as there is nothing in their bodies we are interested in. The headers after that are
+    // validated and queued, and once we have all headers (or as many as we want to keep in memory) we request the
+    // bodies of the queued blocks.
+    private void processHeadersFirst(HeadersMessage m, HeadersFirstDownload download, Instant fastCatchupTime)
+            throws ProtocolException {
+        List<Block> headers = m.getBlockHeaders();
+        boolean processed = false;
+        try {
+            ParallelHeaderVerifier headerVerifier = vHeaderVerifier;
+            if (headerVerifier != null)
+                headerVerifier.verify(headers);
+            for (Block header : headers) {
+                if (!vDownloadData) {
+                    // Not download peer anymore, some other peer probably became better.
+                    log.info("Lost download peer status, throwing away downloaded headers.");
+                    return;
+                }
+                boolean queued;
+                lock.lock();
+                try {
+                    queued = !download.isEmpty() || !header.time().isBefore(fastCatchupTime);
+                    if (queued) {
+                        if (download.isEmpty()) {
+                            log.info("Passed the fast catchup time ({}) at height {}, queueing headers for body download",
+                                    TimeUtils.dateTimeFormat(fastCatchupTime), blockChain.getBestChainHeight() + 1);
+                            downloadBlockBodies = true;
+                        }
+                        download.add(header, headerVerifier != null);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (!queued) {
+                    if (blockChain.add(header)) {
+                        // The block was successfully linked into the chain. Notify the user of our progress.
+                        invokeOnBlocksDownloaded(header, null);
+                    } else {
+                        // We specifically requested headers that build on our chain, so the peer is buggy or malicious.
+                        throw new ProtocolException("Got unconnected header from peer: " + header.getHashAsString());
+                    }
+                }
+            }
+            processed = true;
+        } catch (VerificationException e) {
+            // We asked for headers building on our chain, so the peer is buggy or malicious. Another download peer is
+            // picked once it is gone.
+            log.warn("{}: Block header verification failed, disconnecting", this, e);
+            close();
+        } catch (BlockStoreException e) {
+            throw new RuntimeException(e);
+        } catch (PrunedException e) {
+            // Unreachable when in SPV mode.
+            throw new RuntimeException(e);
+        } finally {
+            // However we got here, the request was answered.
+            lock.lock();
+            try {
+                download.setHeadersRequested(false);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (!processed)
+            return;
+
+        lock.lock();
+        try {
+            if (!vDownloadData || download != this.headersFirstDownload)
+                return;
+            // Keep asking for headers until we reach the tip, unless we have enough queued already. Then download the
+            // bodies. Once they are in the chain, we ask for more headers again.
+            if (headers.size() >= HeadersMessage.MAX_HEADERS && !download.isFull())
+                requestHeadersLocked(download);
+            else if (download.getQueuedHeaders() > 0)
+                requestBodiesLocked(download);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     protected void processGetData(GetDataMessage getdata) {
         log.info("{}: Received getdata message: {}", getAddress(), getdata.toString());
         ArrayList<Message> items = new ArrayList<>();
@@ -727,6 +1010,9 @@ public class Peer extends PeerSocketHandler {
             TransactionConfidence confidence = tx.getConfidence();
             confidence.setSource(TransactionConfidence.Source.NETWORK);
             pendingTxDownloads.remove(confidence);
+            TransactionPool pool = vTransactionPool;
+            if (pool != null)
+                pool.add(tx);
             if (maybeHandleRequestedData(tx, tx.getTxId())) {
                 return;
             }
@@ -939,6 +1225,9 @@ public class Peer extends PeerSocketHandler {
                 log.debug("Received block but was not configured with an AbstractBlockChain");
             return;
         }
+        // Was this block requested by the download scheduler, possibly on behalf of another peer?
+        BlockDownloadScheduler scheduler = vDownloadScheduler;
+        if (scheduler != null && scheduler.offer(this, m, null)) return;
         // Did we lose download peer status after requesting block data?
         if (!vDownloadData) {
             if (log.isDebugEnabled())
@@ -950,7 +1239,11 @@ public class Peer extends PeerSocketHandler {
             // Otherwise it's a block sent to us because the peer thought we needed it, so add it to the block chain.
             if (blockChain.add(m)) {
                 // The block was successfully linked into the chain. Notify the user of our progress.
+                TransactionPool pool = vTransactionPool;
+                if (pool != null && m.getTransactions() != null)
+                    pool.removeAll(m.getTransactions());
                 invokeOnBlocksDownloaded(m, null);
+                maybeContinueHeadersFirstDownload();
             } else {
                 // This block is an orphan - we don't know how to get from it back to the genesis block yet. That
                 // must mean that there are blocks we are missing, so do another getblocks with a new block locator
@@ -995,7 +1288,9 @@ public class Peer extends PeerSocketHandler {
     protected void endFilteredBlock(FilteredBlock m) {
         if (log.isDebugEnabled())
             log.debug("{}: Received broadcast filtered block {}", getAddress(), m.getHash().toString());
-        if (!vDownloadData) {
+        BlockDownloadScheduler scheduler = vDownloadScheduler;
+        boolean scheduled = scheduler != null && scheduler.isScheduled(m.getHash());
+        if (!vDownloadData && !scheduled) {
             if (log.isDebugEnabled())
                 log.debug("{}: Received block we did not ask for: {}", getAddress(), m.getHash().toString());
             return;
@@ -1009,6 +1304,18 @@ public class Peer extends PeerSocketHandler {
         // actually match our filter or which simply do not send us all the transactions we need: it can be fixed
         // by cross-checking peers against each other.
         pendingBlockDownloads.remove(m.getBlockHeader().getHash());
+        if (scheduled) {
+            // The scheduler adds the block to the chain in order. If it exhausts the filter, the scheduler requests
+            // it and all blocks after it again once the new filter has been sent.
+            if (checkForFilterExhaustion(m)) {
+                log.info("Bloom filter exhausted whilst processing block {}, discarding", m.getHash());
+                scheduler.filterExhausted();
+                blockChain.drainOrphanBlocks();
+            } else {
+                scheduler.offer(this, m.getBlockHeader(), m);
+            }
+            return;
+        }
         try {
             // It's a block sent to us because the peer thought we needed it, so maybe add it to the block chain.
             // The FilteredBlock m here contains a list of hashes, and may contain Transaction objects for a subset
@@ -1057,6 +1364,7 @@ public class Peer extends PeerSocketHandler {
             if (blockChain.add(m)) {
                 // The block was successfully linked into the chain. Notify the user of our progress.
                 invokeOnBlocksDownloaded(m.getBlockHeader(), m);
+                maybeContinueHeadersFirstDownload();
             } else {
                 // This block is an orphan - we don't know how to get from it back to the genesis block yet. That
                 // must mean that there are blocks we are missing, so do another getblocks with a new block locator
@@ -1092,6 +1400,117 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
+    // During headers-first chain download, requests the next bodies or headers once all requested bodies arrived.
+    private void maybeContinueHeadersFirstDownload() {
+        continueFilterDownload();
+        lock.lock();
+        try {
+            if (headersFirstDownload != null && vDownloadData && pendingBlockDownloads.isEmpty())
+                blockChainDownloadLocked(Sha256Hash.ZERO_HASH);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void processCFHeaders(CFHeadersMessage m) throws ProtocolException {
+        lock.lock();
+        try {
+            CompactFilterDownload download = filterDownload;
+            if (download == null) {
+                if (log.isDebugEnabled())
+                    log.debug("{}: Received cfheaders we did not ask for: {}", getAddress(), m);
+                return;
+            }
+            download.addHeaders(m);
+            sendMessage(download.filtersRequest());
+        } catch (BlockStoreException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void processCFilter(CFilterMessage m) throws ProtocolException {
+        lock.lock();
+        try {
+            CompactFilterDownload download = filterDownload;
+            if (download == null) {
+                if (log.isDebugEnabled())
+                    log.debug("{}: Received cfilter we did not ask for: {}", getAddress(), m);
+                return;
+            }
+            download.addFilter(m);
+        } finally {
+            lock.unlock();
+        }
+        continueFilterDownload();
+    }
+
+    // Connects the blocks of the current filter batch to the chain in order, as far as their filters arrived: just the
+    // header if the filter matches none of the scripts of our wallets, otherwise the full block, which we wait for
+    // before going on. Once the whole batch is connected, chain download continues.
+    private void continueFilterDownload() {
+        try {
+            while (true) {
+                Block header = null;
+                lock.lock();
+                try {
+                    CompactFilterDownload download = filterDownload;
+                    if (download == null || !vDownloadData || !pendingBlockDownloads.isEmpty())
+                        return;
+                    if (download.isDone()) {
+                        filterDownload = null;
+                        blockChainDownloadLocked(Sha256Hash.ZERO_HASH);
+                        return;
+                    }
+                    if (!download.hasNext())
+                        return;
+                    if (filterScripts != null) {
+                        boolean matches = download.nextMatches(filterScripts);
+                        StoredBlock block = download.next();
+                        if (matches) {
+                            Sha256Hash hash = block.getHeader().getHash();
+                            log.info("{}: Filter of block {} at height {} matches, downloading the block", this, hash,
+                                    block.getHeight());
+                            pendingBlockDownloads.add(hash);
+                            requestBlocks(Collections.singletonList(hash), false);
+                            // The block may add keys to our wallets, which the next filters must be matched against.
+                            filterScripts = null;
+                            return;
+                        }
+                        header = block.getHeader();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (header == null) {
+                    // Collected outside of the lock, as the wallets have locks of their own.
+                    filterScripts = walletScripts();
+                    continue;
+                }
+                if (blockChain.add(header)) {
+                    invokeOnBlocksDownloaded(header, null);
+                } else {
+                    // The headers were validated to build on our chain, so this can't happen.
+                    throw new ProtocolException("Got unconnected header from peer: " + header.getHashAsString());
+                }
+            }
+        } catch (PrunedException e) {
+            // Unreachable when in SPV mode.
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The output scripts of our wallets, which compact block filters are matched against.
+    private List<byte[]> walletScripts() {
+        List<byte[]> scripts = new ArrayList<>();
+        for (Wallet wallet : wallets) {
+            for (Script script : wallet.getFilterScripts())
+                scripts.add(script.program());
+        }
+        return scripts;
+    }
+
     private boolean checkForFilterExhaustion(FilteredBlock m) {
         boolean exhausted = false;
         for (Wallet wallet : wallets) {
@@ -1113,7 +1532,7 @@ public class Peer extends PeerSocketHandler {
         return found;
     }
 
-    private void invokeOnBlocksDownloaded(final Block block, @Nullable final FilteredBlock fb) {
+    void invokeOnBlocksDownloaded(final Block block, @Nullable final FilteredBlock fb) {
         // It is possible for the peer block height difference to be negative when blocks have been solved and broadcast
         // since the time we first connected to the peer. However, it's weird and unexpected to receive a callback
         // with negative "blocks left" in this case, so we clamp to zero so the API user doesn't have to think about it.
@@ -1199,6 +1618,10 @@ public class Peer extends PeerSocketHandler {
         // If we are requesting filteredblocks we have to send a ping after the getdata so that we have a clear
         // end to the final FilteredBlock's transactions (in the form of a pong) sent to us
         boolean pingAfterGetData = false;
+        // Blocks to download via the scheduler, if there is one.
+        final BlockDownloadScheduler scheduler = this.vDownloadScheduler;
+        List<Sha256Hash> scheduledBlocks = new ArrayList<>();
+        boolean scheduleFiltered = false;
 
         lock.lock();
         try {
@@ -1225,7 +1648,18 @@ public class Peer extends PeerSocketHandler {
                         // part of chain download with newly announced blocks, so it should always be taken care of by
                         // the duplicate check in blockChainDownloadLocked(). But Bitcoin Core may change in future so
                         // it's better to be safe here.
-                        if (!pendingBlockDownloads.contains(item.hash)) {
+                        if (blocks.size() == 1 && useCompactBlocks()) {
+                            // A single announced block is most likely newly solved, so we probably have most of its
+                            // transactions already and only need the compact block.
+                            if (!pendingBlockDownloads.contains(item.hash)) {
+                                getdata.addCompactBlock(item.hash);
+                                pendingBlockDownloads.add(item.hash);
+                            }
+                        } else if (scheduler != null) {
+                            // The scheduler does its own de-duplication.
+                            scheduledBlocks.add(item.hash);
+                            scheduleFiltered = isBloomFilteringSupported(vPeerVersionMessage) && useFilteredBlocks;
+                        } else if (!pendingBlockDownloads.contains(item.hash)) {
                             if (isBloomFilteringSupported(vPeerVersionMessage) && useFilteredBlocks) {
                                 getdata.addFilteredBlock(item.hash);
                                 pingAfterGetData = true;
@@ -1253,6 +1687,11 @@ public class Peer extends PeerSocketHandler {
 
         if (pingAfterGetData)
             sendMessage(Ping.random());
+
+        if (!scheduledBlocks.isEmpty())
+            // More than one block means this was an answer to getblocks, rather than a newly solved block.
+            Objects.requireNonNull(scheduler).schedule(this, scheduledBlocks, scheduleFiltered,
+                    scheduledBlocks.size() > 1);
     }
 
     /**
@@ -1412,15 +1851,13 @@ public class Peer extends PeerSocketHandler {
         // use the "getheaders" command. Once we find we've gone past the target date, we throw away the downloaded
         // headers and then request the blocks from that point onwards. "getheaders" does not send us an inv, it just
         // sends us the data we requested in a "headers" message.
-
-        BlockLocator blockLocator = new BlockLocator();
-        // For now we don't do the exponential thinning as suggested here:
-        //
-        //   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
         //
-        // This is because it requires scanning all the block chain headers, which is very slow. Instead we add the top
-        // 100 block headers. If there is a re-org deeper than that, we'll end up downloading the entire chain. We
-        // must always put the genesis block as the first entry.
+        // In headers-first mode, we don't use getblocks at all. See headersFirstDownloadLocked().
+        if (headersFirstDownload != null) {
+            headersFirstDownloadLocked(headersFirstDownload);
+            return;
+        }
+
         BlockStore store = Objects.requireNonNull(blockChain).getBlockStore();
         StoredBlock chainHead = blockChain.getChainHead();
         Sha256Hash chainHeadHash = chainHead.getHeader().getHash();
@@ -1435,7 +1872,34 @@ public class Peer extends PeerSocketHandler {
         if (log.isDebugEnabled())
             log.debug("{}: blockChainDownloadLocked({}) current head = {}",
                     this, toHash, chainHead.getHeader().getHashAsString());
-        StoredBlock cursor = chainHead;
+        BlockLocator blockLocator = buildBlockLocator(chainHead, store);
+
+        // Record that we requested this range of blocks so we can filter out duplicate requests in the event of a
+        // block being solved during chain download.
+        lastGetBlocksBegin = chainHeadHash;
+        lastGetBlocksEnd = toHash;
+
+        long protocolVersion = params.getSerializer().getProtocolVersion();
+        if (downloadBlockBodies) {
+            GetBlocksMessage message = new GetBlocksMessage(protocolVersion, blockLocator, toHash);
+            sendMessage(message);
+        } else {
+            // Downloading headers for a while instead of full blocks.
+            GetHeadersMessage message = new GetHeadersMessage(protocolVersion, blockLocator, toHash);
+            sendMessage(message);
+        }
+    }
+
+    private BlockLocator buildBlockLocator(StoredBlock head, BlockStore store) {
+        BlockLocator blockLocator = new BlockLocator();
+        // For now we don't do the exponential thinning as suggested here:
+        //
+        //   https://en.bitcoin.it/wiki/Protocol_specification#getblocks
+        //
+        // This is because it requires scanning all the block chain headers, which is very slow. Instead we add the top
+        // 100 block headers. If there is a re-org deeper than that, we'll end up downloading the entire chain. We
+        // must always put the genesis block as the first entry.
+        StoredBlock cursor = head;
         for (int i = 100; cursor != null && i > 0; i--) {
             blockLocator = blockLocator.add(cursor.getHeader().getHash());
             try {
@@ -1448,20 +1912,57 @@ public class Peer extends PeerSocketHandler {
         // Only add the locator if we didn't already do so. If the chain is < 50 blocks we already reached it.
         if (cursor != null)
             blockLocator = blockLocator.add(params.getGenesisBlock().getHash());
+        return blockLocator;
+    }
 
-        // Record that we requested this range of blocks so we can filter out duplicate requests in the event of a
-        // block being solved during chain download.
-        lastGetBlocksBegin = chainHeadHash;
-        lastGetBlocksEnd = toHash;
+    // Headers-first chain download fetches and validates the headers first, 2000 per "headers" message, up to the tip
+    // of the peer's chain. Then it requests the bodies of the blocks after the fast catchup time directly with
+    // getdata, in batches of which the next one is requested as soon as the previous one was added to the chain. This
+    // avoids the getblocks/inv round trip for every 500 blocks, and as all hashes are known upfront, the bodies can be
+    // spread over several peers by the download scheduler.
+    @GuardedBy("lock")
+    private void headersFirstDownloadLocked(HeadersFirstDownload download) {
+        if (filterDownload != null)
+            return; // Continues as the filters and blocks arrive, see continueFilterDownload().
+        if (download.getQueuedHeaders() > 0)
+            requestBodiesLocked(download);
+        else if (!download.isHeadersRequested())
+            requestHeadersLocked(download);
+    }
 
+    @GuardedBy("lock")
+    private void requestHeadersLocked(HeadersFirstDownload download) {
+        StoredBlock tip = download.getTip();
+        if (log.isDebugEnabled())
+            log.debug("{}: Requesting headers after {} at height {}", this, tip.getHeader().getHashAsString(),
+                    tip.getHeight());
+        download.setHeadersRequested(true);
         long protocolVersion = params.getSerializer().getProtocolVersion();
-        if (downloadBlockBodies) {
-            GetBlocksMessage message = new GetBlocksMessage(protocolVersion, blockLocator, toHash);
-            sendMessage(message);
+        sendMessage(new GetHeadersMessage(protocolVersion, buildBlockLocator(tip, download.getStore()),
+                Sha256Hash.ZERO_HASH));
+    }
+
+    @GuardedBy("lock")
+    private void requestBodiesLocked(HeadersFirstDownload download) {
+        FilterHeaderStore filterHeaderStore = vFilterHeaderStore;
+        if (filterHeaderStore != null && isCompactFiltersSupported(vPeerVersionMessage)) {
+            // Download the filters of the blocks instead, then only the bodies of the blocks they match.
+            try {
+                filterDownload = new CompactFilterDownload(download.nextHeaders(), filterHeaderStore);
+            } catch (BlockStoreException e) {
+                throw new RuntimeException(e);
+            }
+            sendMessage(filterDownload.headersRequest());
+            return;
+        }
+        List<Sha256Hash> hashes = download.nextBodies();
+        boolean filtered = isBloomFilteringSupported(vPeerVersionMessage) && useFilteredBlocks;
+        BlockDownloadScheduler scheduler = vDownloadScheduler;
+        if (scheduler != null) {
+            scheduler.schedule(this, hashes, filtered, true);
         } else {
-            // Downloading headers for a while instead of full blocks.
-            GetHeadersMessage message = new GetHeadersMessage(protocolVersion, blockLocator, toHash);
-            sendMessage(message);
+            pendingBlockDownloads.addAll(hashes);
+            requestBlocks(hashes, filtered);
         }
     }
 
@@ -1481,6 +1982,9 @@ public class Peer extends PeerSocketHandler {
             // When we just want as many blocks as possible, we can set the target hash to zero.
             lock.lock();
             try {
+                headersFirstDownload = headersFirst && blockChain != null ?
+                        new HeadersFirstDownload(blockChain) : null;
+                filterDownload = null;
                 blockChainDownloadLocked(Sha256Hash.ZERO_HASH);
             } finally {
                 lock.unlock();
@@ -1488,6 +1992,46 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
+    /**
+     * Asks the peer for the blocks after our current chain head. Used by the {@link BlockDownloadScheduler} once it
+     * added all blocks announced so far.
+     */
+    void continueChainDownload() {
+        lock.lock();
+        try {
+            if (vDownloadData && blockChain != null && downloadBlockBodies)
+                blockChainDownloadLocked(Sha256Hash.ZERO_HASH);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests the given blocks on behalf of the {@link BlockDownloadScheduler}, which the peer then hands back to it
+     * when they arrive.
+     */
+    void requestBlocks(List<Sha256Hash> hashes, boolean filtered) {
+        GetDataMessage getdata = new GetDataMessage();
+        for (Sha256Hash hash : hashes) {
+            if (filtered)
+                getdata.addFilteredBlock(hash);
+            else
+                getdata.addBlock(hash, vPeerVersionMessage.services().has(Services.NODE_WITNESS));
+        }
+        sendMessage(getdata);
+        // See processInv() for why a ping is needed after filtered blocks.
+        if (filtered)
+            sendMessage(Ping.random());
+    }
+
+    /** Returns true if the peer can serve historical blocks, and filtered blocks if requested. */
+    boolean canServeBlocks(boolean filtered) {
+        VersionMessage version = vPeerVersionMessage;
+        if (version == null || !version.services().has(Services.NODE_NETWORK))
+            return false;
+        return !filtered || (isBloomFilteringSupported(version) && vBloomFilter != null);
+    }
+
     private class PendingPing {
         // The future that will be invoked when the pong is heard back.
         public final CompletableFuture<Duration> future;
@@ -1742,6 +2286,28 @@ public class Peer extends PeerSocketHandler {
         }
     }
 
+    /**
+     * <p>Adds elements to the Bloom filter on this connection by sending a {@link FilterAddMessage} for each, and if
+     * requested, a {@link MemoryPoolMessage} as well. The given filter must already contain the elements. If it isn't
+     * the filter last set on this connection, it is sent in full instead, see {@link #setBloomFilter(BloomFilter, boolean)}.</p>
+     *
+     * <p>You should not use this method if your app uses a {@link PeerGroup}. It is called for you.</p>
+     */
+    public void addBloomFilterElements(BloomFilter filter, List<byte[]> elements, boolean andQueryMemPool) {
+        Objects.requireNonNull(filter);
+        if (vBloomFilter != filter) {
+            setBloomFilter(filter, andQueryMemPool);
+            return;
+        }
+        log.info("{}: Adding {} elements to Bloom filter{}", this, elements.size(),
+                andQueryMemPool ? " and querying mempool" : "");
+        for (byte[] element : elements)
+            sendMessage(FilterAddMessage.of(element));
+        if (andQueryMemPool)
+            sendMessage(new MemoryPoolMessage());
+        maybeRestartChainDownload();
+    }
+
     private void maybeRestartChainDownload() {
         lock.lock();
         try {
@@ -1810,6 +2376,84 @@ public class Peer extends PeerSocketHandler {
         vDownloadTxDependencyDepth = depth;
     }
 
+    /**
+     * Sets a verifier used to check the proof of work of headers received during fast catchup on several threads,
+     * before they are connected to the chain one by one. If null, which is the default, headers are verified serially
+     * by the block chain.
+     */
+    public void setHeaderVerifier(@Nullable ParallelHeaderVerifier headerVerifier) {
+        vHeaderVerifier = headerVerifier;
+    }
+
+    /**
+     * Sets whether the chain download first fetches and validates the block headers up to the tip of the peer's chain,
+     * and only then requests the bodies of the blocks after the fast catchup time. This avoids a round trip for every
+     * 500 blocks, and lets a {@link BlockDownloadScheduler} spread the body download over several peers. Takes effect
+     * when the chain download is started. Default is false.
+     */
+    public void setHeadersFirst(boolean headersFirst) {
+        lock.lock();
+        try {
+            this.headersFirst = headersFirst;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets a scheduler used to download the blocks announced during chain download from several peers in parallel.
+     * If null, which is the default, the download peer downloads all blocks itself.
+     */
+    public void setDownloadScheduler(@Nullable BlockDownloadScheduler downloadScheduler) {
+        vDownloadScheduler = downloadScheduler;
+    }
+
+    /**
+     * Sets a pool of recently seen transactions, to download newly announced blocks as compact blocks (BIP152) and
+     * reconstruct them from the transactions of the pool. Transactions received from this peer are added to the pool.
+     * If null, which is the default, blocks are always downloaded in full. Compact blocks are never used while
+     * downloading filtered blocks.
+     */
+    public void setTransactionPool(@Nullable TransactionPool transactionPool) {
+        vTransactionPool = transactionPool;
+        // The handshake already happened, so tell the peer now.
+        if (transactionPool != null && versionHandshakeFuture.isDone() && !versionHandshakeFuture.isCancelled()
+                && isCompactBlocksSupported(vPeerVersionMessage))
+            sendMessage(SendCompactBlocksMessage.of(false, CompactBlockMessage.VERSION));
+    }
+
+    /**
+     * Sets a store for the headers of compact block filters (BIP157 and BIP158). If set, headers-first chain download
+     * (see {@link #setHeadersFirst(boolean)}) downloads the filters of the blocks after the fast catchup time instead
+     * of their bodies, provided the peer serves filters. The filters are matched against the scripts of our wallets,
+     * and only the blocks they match are downloaded. Unlike with bloom filtering, the peer doesn't learn which scripts
+     * we are interested in. If null, which is the default, block bodies are downloaded.
+     */
+    public void setFilterHeaderStore(@Nullable FilterHeaderStore filterHeaderStore) {
+        vFilterHeaderStore = filterHeaderStore;
+    }
+
+    /**
+     * Returns true if the peer serves compact block filters according to BIP157.
+     */
+    private boolean isCompactFiltersSupported(VersionMessage version) {
+        return version.services().has(Services.NODE_COMPACT_FILTERS);
+    }
+
+    /**
+     * Returns true if the peer can serve compact blocks according to BIP152, with short IDs of witness transaction IDs.
+     */
+    private boolean isCompactBlocksSupported(VersionMessage version) {
+        return version.clientVersion >= ProtocolVersion.COMPACT_BLOCKS.intValue()
+                && version.services().has(Services.NODE_WITNESS);
+    }
+
+    // Whether to download newly announced blocks as compact blocks.
+    @GuardedBy("lock")
+    private boolean useCompactBlocks() {
+        return vTransactionPool != null && vPeerSupportsCompactBlocks && !useFilteredBlocks;
+    }
+
     /**
      * Returns true if the peer supports bloom filtering according to BIP37 and BIP111.
      */
@@ -17,7 +17,9 @@
 
 package org.litecoinj.core;
 
+import javax.annotation.Nullable;
 import java.time.Instant;
+import java.util.List;
 
 /**
  * An interface which provides the information required to properly filter data downloaded from Peers. Note that an
@@ -62,6 +64,16 @@ public interface PeerFilterProvider {
      */
     BloomFilter getBloomFilter(int size, double falsePositiveRate, int nTweak);
 
+    /**
+     * Gets the elements {@link #getBloomFilter(int, double, int)} inserts into the filter. If every provider lists its
+     * elements, a few new elements are added to the filters of the remote peers instead of sending a new filter. The
+     * default returns null, which means the filter is always recalculated in full.
+     */
+    @Nullable
+    default List<byte[]> getBloomFilterElements() {
+        return null;
+    }
+
     /**
      * See {@link #beginBloomFilterCalculation()}.
      */
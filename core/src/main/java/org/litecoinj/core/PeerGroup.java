@@ -48,6 +48,7 @@ import org.litecoinj.net.discovery.PeerDiscovery;
 import org.litecoinj.net.discovery.PeerDiscoveryException;
 import org.litecoinj.script.Script;
 import org.litecoinj.script.ScriptPattern;
+import org.litecoinj.store.FilterHeaderStore;
 import org.litecoinj.utils.ContextPropagatingThreadFactory;
 import org.litecoinj.utils.ExponentialBackoff;
 import org.litecoinj.utils.ListenableCompletableFuture;
@@ -205,6 +206,19 @@ public class PeerGroup implements TransactionBroadcaster {
     // How many connections we want to have open at the current time. If we lose connections, we'll try opening more
     // until we reach this count.
     @GuardedBy("lock") private int maxConnections;
+    // Verifies headers received during fast catchup on several threads, or null to verify them serially.
+    @GuardedBy("lock") @Nullable private ParallelHeaderVerifier headerVerifier;
+    // Whether peers download the chain headers-first.
+    @GuardedBy("lock") private boolean headersFirst;
+    // Whether checksums of messages from peers on the loopback interface are trusted without being verified.
+    @GuardedBy("lock") private boolean trustLocalhostPeer;
+    // Transactions peers reconstruct compact blocks from, or null if blocks are downloaded in full.
+    @GuardedBy("lock") @Nullable private TransactionPool transactionPool;
+    // Stores the headers of compact block filters, or null if the chain is downloaded without them.
+    @GuardedBy("lock") @Nullable private FilterHeaderStore filterHeaderStore;
+    // Downloads blocks from several peers in parallel, or null to download them from the download peer only.
+    @Nullable private volatile BlockDownloadScheduler vDownloadScheduler;
+    @Nullable private volatile ScheduledFuture<?> vStallCheckTask;
     // Minimum protocol version we will allow ourselves to connect to: require Bloom filtering.
     private volatile int vMinRequiredProtocolVersion;
 
@@ -541,6 +555,142 @@ public class PeerGroup implements TransactionBroadcaster {
         }
     }
 
+    /**
+     * Configure how many threads are used to verify the proof of work of block headers received during fast catchup.
+     * Checking the scrypt proof of work is what dominates the time spent downloading headers, so using several threads
+     * speeds up syncing considerably. A value of 0, which is the default, verifies headers serially as they are added
+     * to the chain. A change of values also applies to the peers already connected.
+     */
+    public void setHeaderVerificationThreads(int threads) {
+        checkArgument(threads >= 0, () -> "threads cannot be negative: " + threads);
+        lock.lock();
+        try {
+            ParallelHeaderVerifier oldVerifier = headerVerifier;
+            headerVerifier = threads > 0 ? new ParallelHeaderVerifier(threads) : null;
+            // Peers must stop using the old verifier before its threads go away.
+            for (Peer peer : peers)
+                peer.setHeaderVerifier(headerVerifier);
+            for (Peer peer : pendingPeers)
+                peer.setHeaderVerifier(headerVerifier);
+            if (oldVerifier != null)
+                oldVerifier.shutdown();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Configure whether the chain is downloaded headers-first: the download peer fetches and validates the headers up
+     * to the tip of the chain first, then requests the bodies of the blocks after the fast catchup time without waiting
+     * for a getblocks round trip every 500 blocks. Combined with {@link #setBlockDownloadPeers(int)} the bodies are
+     * downloaded from several peers in parallel. Default is false. Should be called before the chain download is
+     * started.
+     */
+    public void setHeadersFirst(boolean headersFirst) {
+        lock.lock();
+        try {
+            this.headersFirst = headersFirst;
+            for (Peer peer : peers)
+                peer.setHeadersFirst(headersFirst);
+            for (Peer peer : pendingPeers)
+                peer.setHeadersFirst(headersFirst);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Configure a store for the headers of compact block filters (BIP157 and BIP158). If set, headers-first chain
+     * download (see {@link #setHeadersFirst(boolean)}) fetches the filters of the blocks after the fast catchup time
+     * from peers that serve them, matches them against the scripts of the wallets locally, and downloads only the
+     * blocks they match. To not send bloom filters to peers at all, also disable bloom filtering with
+     * {@link #setBloomFilteringEnabled(boolean)}, and require {@link Services#NODE_COMPACT_FILTERS} with
+     * {@link #setRequiredServices(long)}. If null, which is the default, block bodies are downloaded.
+     */
+    public void setFilterHeaderStore(@Nullable FilterHeaderStore filterHeaderStore) {
+        lock.lock();
+        try {
+            this.filterHeaderStore = filterHeaderStore;
+            for (Peer peer : peers)
+                peer.setFilterHeaderStore(filterHeaderStore);
+            for (Peer peer : pendingPeers)
+                peer.setFilterHeaderStore(filterHeaderStore);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Configure a pool of recently seen transactions shared by all peers, to download newly announced blocks as compact
+     * blocks (BIP152) from peers that support them, and reconstruct them from the pool instead of downloading every
+     * transaction a second time. If null, which is the default, blocks are always downloaded in full.
+     */
+    public void setTransactionPool(@Nullable TransactionPool transactionPool) {
+        lock.lock();
+        try {
+            this.transactionPool = transactionPool;
+            for (Peer peer : peers)
+                peer.setTransactionPool(transactionPool);
+            for (Peer peer : pendingPeers)
+                peer.setTransactionPool(transactionPool);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Configure whether peers connected via the loopback interface, like a litecoind running on the same host, are
+     * trusted to send intact messages. If so, the checksums of their messages are not verified, which saves hashing
+     * every payload received from them. Default is false. Applies to connections opened afterwards.
+     */
+    public void setTrustLocalhostPeer(boolean trustLocalhostPeer) {
+        lock.lock();
+        try {
+            this.trustLocalhostPeer = trustLocalhostPeer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Configure from how many peers blocks are downloaded in parallel during chain download. The download peer still
+     * decides which blocks are needed, but requesting them is spread over up to this many connected peers, so that
+     * syncing isn't limited by the bandwidth and latency of a single peer. A value of 1, which is the default,
+     * downloads all blocks from the download peer. Requires a block chain, and should be called before the chain
+     * download is started.
+     */
+    public void setBlockDownloadPeers(int peers) {
+        checkArgument(peers > 0, () -> "peers must be positive: " + peers);
+        BlockDownloadScheduler scheduler;
+        lock.lock();
+        try {
+            checkState(chain != null, () -> "downloading blocks requires a block chain");
+            ScheduledFuture<?> task = vStallCheckTask;
+            if (task != null)
+                task.cancel(false);
+            vStallCheckTask = null;
+            scheduler = peers > 1 ? new BlockDownloadScheduler(chain, peers) : null;
+            vDownloadScheduler = scheduler;
+            for (Peer peer : this.peers)
+                peer.setDownloadScheduler(scheduler);
+            if (scheduler != null) {
+                vStallCheckTask = executor.scheduleAtFixedRate(() -> {
+                    try {
+                        scheduler.checkForStalls();
+                    } catch (Throwable e) {
+                        log.error("Exception when checking for stalled block downloads", e);  // The executor swallows exceptions :(
+                    }
+                }, 1, 1, TimeUnit.SECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (scheduler != null) {
+            for (Peer peer : this.peers)
+                scheduler.addPeer(peer);
+        }
+    }
+
     private Runnable triggerConnectionsJob = new Runnable() {
         private boolean firstRun = true;
         private final Duration MIN_PEER_DISCOVERY_INTERVAL = Duration.ofSeconds(1);
@@ -1171,6 +1321,14 @@ public class PeerGroup implements TransactionBroadcaster {
                 channels.awaitRunning();
                 triggerConnections();
                 setupPinging();
+                executor.scheduleAtFixedRate(() -> {
+                    try {
+                        for (Peer peer : getConnectedPeers())
+                            peer.checkCompactBlockTimeouts();
+                    } catch (Throwable e) {
+                        log.error("Exception when checking for timed out compact blocks", e);  // The executor swallows exceptions :(
+                    }
+                }, 1, 1, TimeUnit.SECONDS);
             } catch (Throwable e) {
                 log.error("Exception when starting up", e);  // The executor swallows exceptions :(
             }
@@ -1198,6 +1356,22 @@ public class PeerGroup implements TransactionBroadcaster {
                 for (PeerDiscovery peerDiscovery : peerDiscoverers) {
                     peerDiscovery.shutdown();
                 }
+                lock.lock();
+                try {
+                    for (Peer peer : peers)
+                        peer.setHeaderVerifier(null);
+                    for (Peer peer : pendingPeers)
+                        peer.setHeaderVerifier(null);
+                    if (headerVerifier != null)
+                        headerVerifier.shutdown();
+                    headerVerifier = null;
+                    ScheduledFuture<?> task = vStallCheckTask;
+                    if (task != null)
+                        task.cancel(false);
+                    vStallCheckTask = null;
+                } finally {
+                    lock.unlock();
+                }
                 vRunning = false;
                 log.info("Stopped, took {}.", watch);
             } catch (Throwable e) {
@@ -1379,7 +1553,9 @@ public class PeerGroup implements TransactionBroadcaster {
                 if ((chain != null && chain.shouldVerifyTransactions()) || !vBloomFilteringEnabled)
                     return;
                 // We only ever call bloomFilterMerger.calculate on jobQueue, so we cannot be calculating two filters at once.
-                FilterMerger.Result result = bloomFilterMerger.calculate(Collections.unmodifiableList(peerFilterProviders /* COW */));
+                // A refresh is meant to lower the false positive rate, so it always needs a new filter.
+                FilterMerger.Result result = bloomFilterMerger.calculate(Collections.unmodifiableList(peerFilterProviders /* COW */),
+                        mode != FilterRecalculateMode.FORCE_SEND_FOR_REFRESH);
                 boolean send;
                 switch (mode) {
                     case SEND_IF_CHANGED:
@@ -1399,12 +1575,20 @@ public class PeerGroup implements TransactionBroadcaster {
                         // Only query the mempool if this recalculation request is not in order to lower the observed FP
                         // rate. There's no point querying the mempool when doing this because the FP rate can only go
                         // down, and we will have seen all the relevant txns before: it's pointless to ask for them again.
-                        peer.setBloomFilter(result.filter, mode != FilterRecalculateMode.FORCE_SEND_FOR_REFRESH);
+                        boolean andQueryMemPool = mode != FilterRecalculateMode.FORCE_SEND_FOR_REFRESH;
+                        if (result.addedElements != null)
+                            peer.addBloomFilterElements(result.filter, result.addedElements, andQueryMemPool);
+                        else
+                            peer.setBloomFilter(result.filter, andQueryMemPool);
                     }
                     // Reset the false positive estimate so that we don't send a flood of filter updates
                     // if the estimate temporarily overshoots our threshold.
                     if (chain != null)
                         chain.resetFalsePositiveEstimate();
+                    // Blocks that were discarded because the filter was exhausted can now be requested again.
+                    BlockDownloadScheduler scheduler = vDownloadScheduler;
+                    if (scheduler != null)
+                        scheduler.resume();
                 }
                 // Do this last so that bloomFilter is already set when it gets called.
                 setFastCatchupTime(result.earliestKeyTime);
@@ -1506,6 +1690,12 @@ public class PeerGroup implements TransactionBroadcaster {
         peer.addConnectedEventListener(Threading.SAME_THREAD, startupListener);
         peer.addDisconnectedEventListener(Threading.SAME_THREAD, startupListener);
         peer.setMinProtocolVersion(vMinRequiredProtocolVersion);
+        peer.setHeaderVerifier(headerVerifier);
+        peer.setHeadersFirst(headersFirst);
+        peer.setTransactionPool(transactionPool);
+        peer.setFilterHeaderStore(filterHeaderStore);
+        if (trustLocalhostPeer && address.getAddr() != null && address.getAddr().isLoopbackAddress())
+            peer.setChecksumVerification(false);
         pendingPeers.add(peer);
 
         try {
@@ -1630,6 +1820,7 @@ public class PeerGroup implements TransactionBroadcaster {
             // OK because it helps improve wallet privacy. Old nodes will just ignore the message.
             if (bloomFilterMerger.getLastFilter() != null) peer.setBloomFilter(bloomFilterMerger.getLastFilter());
             peer.setDownloadData(false);
+            peer.setDownloadScheduler(vDownloadScheduler);
             // TODO: The peer should calculate the fast catchup time from the added wallets here.
             for (Wallet wallet : wallets)
                 peer.addWallet(wallet);
@@ -1670,6 +1861,10 @@ public class PeerGroup implements TransactionBroadcaster {
             lock.unlock();
         }
 
+        BlockDownloadScheduler scheduler = vDownloadScheduler;
+        if (scheduler != null)
+            scheduler.addPeer(peer);
+
         final int fNewSize = newSize;
         for (final ListenerRegistration<PeerConnectedEventListener> registration : peerConnectedEventListeners) {
             registration.executor.execute(() -> registration.listener.onPeerConnected(peer, fNewSize));
@@ -1834,6 +2029,10 @@ public class PeerGroup implements TransactionBroadcaster {
             lock.unlock();
         }
 
+        BlockDownloadScheduler scheduler = vDownloadScheduler;
+        if (scheduler != null)
+            scheduler.removePeer(peer);
+
         peer.removeAddressEventListener(peerListener);
         peer.removeBlocksDownloadedEventListener(peerListener);
         peer.removeGetDataEventListener(peerListener);
@@ -17,6 +17,8 @@
 package org.litecoinj.core;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.net.BufferPool;
 import org.litecoinj.net.MessageWriteTarget;
 import org.litecoinj.net.NioClient;
 import org.litecoinj.net.NioClientManager;
@@ -28,7 +30,7 @@ import org.litecoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
@@ -36,6 +38,7 @@ import java.nio.Buffer;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
+import java.security.MessageDigest;
 import java.time.Duration;
 import java.util.Objects;
 import java.util.concurrent.locks.Lock;
@@ -53,6 +56,10 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
     private final SocketTimeoutTask timeoutTask;
 
     private final MessageSerializer serializer;
+    // Used for payloads whose checksum was verified while they were received, or for all payloads if checksums are not
+    // verified.
+    private final MessageSerializer trustingSerializer;
+    private volatile boolean vVerifyChecksums = true;
     protected final PeerAddress peerAddress;
     // If we close() before we know our writeTarget, set this to true to call writeTarget.closeConnection() right away.
     private boolean closePending = false;
@@ -61,9 +68,12 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
 
     // The ByteBuffers passed to us from the writeTarget are static in size, and usually smaller than some messages we
     // will receive. For SPV clients, this should be rare (ie we're mostly dealing with small transactions), but for
-    // messages which are larger than the read buffer, we have to keep a temporary buffer with its bytes.
-    private byte[] largeReadBuffer;
-    private int largeReadBufferPos;
+    // messages which are larger than the read buffer, we have to keep a temporary buffer with its bytes. It's taken
+    // from the buffer pool and returned once the message was deserialized.
+    private final BufferPool bufferPool = BufferPool.get();
+    private ByteBuffer largeReadBuffer;
+    // Hashes the payload in the largeReadBuffer as it arrives, or null if checksums are not verified.
+    private MessageDigest largeReadDigest;
     private BitcoinSerializer.BitcoinPacketHeader header;
 
     public PeerSocketHandler(NetworkParameters params, InetSocketAddress remoteIp) {
@@ -73,6 +83,7 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
     public PeerSocketHandler(NetworkParameters params, PeerAddress peerAddress) {
         Objects.requireNonNull(params);
         serializer = params.getDefaultSerializer();
+        trustingSerializer = serializer.withChecksumVerification(false);
         this.peerAddress = Objects.requireNonNull(peerAddress);
         this.timeoutTask = new SocketTimeoutTask(this::timeoutOccurred);
     }
@@ -100,14 +111,16 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
         } finally {
             lock.unlock();
         }
-        // TODO: Some round-tripping could be avoided here
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            serializer.serialize(message, out);
-            return writeTarget.writeBytes(out.toByteArray());
+            // Serialize straight into a direct buffer, which the write target hands to the socket as it is.
+            return writeTarget.writeBytes(serializer.serialize(message, BufferPool.getDirect()));
         } catch (IOException e) {
             exceptionCaught(e);
             return ListenableCompletableFuture.failedFuture(e);
+        } catch (IllegalArgumentException e) {
+            // The message doesn't fit into a buffer, so it would be too large for the peer anyway.
+            log.warn("{}: Cannot send {}: {}", getAddress(), message.getClass().getSimpleName(), e.getMessage());
+            return ListenableCompletableFuture.failedFuture(e);
         }
     }
 
@@ -132,11 +145,33 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
         close();
     }
 
+    /**
+     * Sets whether the checksums of messages received from the peer are verified, which is the default. Only disable
+     * this for a trusted peer on a reliable connection, like a node running on the same host: it saves hashing every
+     * payload, but corrupted messages are no longer detected before they are parsed.
+     */
+    public void setChecksumVerification(boolean verifyChecksums) {
+        vVerifyChecksums = verifyChecksums;
+    }
+
     /**
      * Called every time a message is received from the network
      */
     protected abstract void processMessage(Message m) throws Exception;
 
+    /**
+     * Called with the command and payload of every received message before its checksum is verified and it is
+     * deserialized, so that messages which would be thrown away anyway are not parsed. The payload must not be
+     * retained. Returns true by default.
+     *
+     * @param command the command of the message
+     * @param payload the payload of the message, read-only
+     * @return false to skip the message
+     */
+    protected boolean isMessageWanted(String command, ByteBuffer payload) {
+        return true;
+    }
+
     @Override
     public int receiveBytes(ByteBuffer buff) {
         checkArgument(buff.position() == 0 &&
@@ -150,16 +185,27 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
                     // This can only happen in the first iteration
                     checkState(firstMessage);
                     // Read new bytes into the largeReadBuffer
-                    int bytesToGet = Math.min(buff.remaining(), largeReadBuffer.length - largeReadBufferPos);
-                    buff.get(largeReadBuffer, largeReadBufferPos, bytesToGet);
-                    largeReadBufferPos += bytesToGet;
+                    readIntoLargeReadBuffer(buff);
                     // Check the largeReadBuffer's status
-                    if (largeReadBufferPos == largeReadBuffer.length) {
-                        // ...processing a message if one is available
-                        processMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
-                        largeReadBuffer = null;
+                    if (!largeReadBuffer.hasRemaining()) {
+                        // ...processing a message if one is available. The message doesn't reference the buffer, so
+                        // it can go back to the pool before the message is processed.
+                        Message message;
+                        try {
+                            ((Buffer) largeReadBuffer).flip();
+                            // We hashed the payload while it arrived, so the serializer doesn't need to.
+                            if (largeReadDigest != null)
+                                BitcoinSerializer.verifyChecksum(header, largeReadDigest.digest(largeReadDigest.digest()));
+                            message = deserializePayload(header, largeReadBuffer, trustingSerializer);
+                        } finally {
+                            bufferPool.release(largeReadBuffer);
+                            largeReadBuffer = null;
+                            largeReadDigest = null;
+                        }
                         header = null;
                         firstMessage = false;
+                        if (message != null)
+                            processMessage(message);
                     } else // ...or just returning if we don't have enough bytes yet
                         return buff.position();
                 }
@@ -167,7 +213,11 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
                 Message message;
                 int preSerializePosition = buff.position();
                 try {
-                    message = serializer.deserialize(buff);
+                    serializer.seekPastMagicBytes(buff);
+                    BitcoinSerializer.BitcoinPacketHeader header = serializer.deserializeHeader(buff);
+                    if (buff.remaining() < header.size)
+                        throw new BufferUnderflowException();
+                    message = deserializePayload(header, buff, vVerifyChecksums ? serializer : trustingSerializer);
                 } catch (BufferUnderflowException e) {
                     // If we went through the whole buffer without a full message, we need to use the largeReadBuffer
                     if (firstMessage && buff.limit() == buff.capacity()) {
@@ -178,9 +228,9 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
                             header = serializer.deserializeHeader(buff);
                             // Initialize the largeReadBuffer with the next message's size and fill it with any bytes
                             // left in buff
-                            largeReadBuffer = new byte[header.size];
-                            largeReadBufferPos = buff.remaining();
-                            buff.get(largeReadBuffer, 0, largeReadBufferPos);
+                            largeReadBuffer = bufferPool.acquire(header.size);
+                            largeReadDigest = vVerifyChecksums ? Sha256Hash.newDigest() : null;
+                            readIntoLargeReadBuffer(buff);
                         } catch (BufferUnderflowException e1) {
                             // If we went through a whole buffer's worth of bytes without getting a header, give up
                             // In cases where the buff is just really small, we could create a second largeReadBuffer
@@ -196,7 +246,8 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
                     return buff.position();
                 }
                 // Process our freshly deserialized message
-                processMessage(message);
+                if (message != null)
+                    processMessage(message);
                 firstMessage = false;
             }
         } catch (Exception e) {
@@ -205,6 +256,33 @@ public abstract class PeerSocketHandler implements TimeoutHandler, StreamConnect
         }
     }
 
+    // Copies as many bytes as fit from the given buffer into the largeReadBuffer, hashing them on the way.
+    private void readIntoLargeReadBuffer(ByteBuffer buff) {
+        int bytesToGet = Math.min(buff.remaining(), largeReadBuffer.remaining());
+        ByteBuffer chunk = buff.slice();
+        ((Buffer) chunk).limit(bytesToGet);
+        if (largeReadDigest != null)
+            largeReadDigest.update(chunk.duplicate());
+        largeReadBuffer.put(chunk);
+        ((Buffer) buff).position(buff.position() + bytesToGet);
+    }
+
+    // Deserializes the payload of the given header from the buffer, unless the message isn't wanted in which case null is
+    // returned. Either way, the buffer is positioned after the payload.
+    @Nullable
+    private Message deserializePayload(BitcoinSerializer.BitcoinPacketHeader header, ByteBuffer in,
+                                       MessageSerializer serializer) throws ProtocolException {
+        ByteBuffer payload = in.slice();
+        ((Buffer) payload).limit(header.size);
+        if (!isMessageWanted(header.command, payload.asReadOnlyBuffer())) {
+            if (log.isDebugEnabled())
+                log.debug("{}: Skipping {} byte '{}' message", this, header.size, header.command);
+            ((Buffer) in).position(in.position() + header.size);
+            return null;
+        }
+        return serializer.deserializePayload(header, in);
+    }
+
     /**
      * Sets the {@link MessageWriteTarget} used to write messages to the peer. This should almost never be called, it is
      * called automatically by {@link NioClient} or
@@ -26,6 +26,7 @@ public enum ProtocolVersion {
     BLOOM_FILTER_BIP111(70011), // BIP111
     WITNESS_VERSION(70012),
     FEEFILTER(70013), // BIP133
+    COMPACT_BLOCKS(70014), // BIP152
     CURRENT(70013);
 
     private final int bitcoinProtocol;
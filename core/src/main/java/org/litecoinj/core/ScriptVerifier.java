@@ -0,0 +1,160 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.script.Script;
+import org.litecoinj.script.Script.VerifyFlag;
+import org.litecoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>Verifies the input scripts of the transactions of a block on a long-lived {@link ForkJoinPool}. The work is split
+ * down to single inputs, so idle threads steal the inputs of a large transaction instead of one thread working through
+ * all of them.</p>
+ *
+ * <p>Transactions are added to a {@link Batch} as soon as their inputs are known, so that their scripts are checked
+ * while the rest of the block is still being connected. The first failure cancels the checks that haven't started
+ * yet. The pool threads carry the {@link Context} of the thread that caused them to be created.</p>
+ */
+class ScriptVerifier {
+    private static final Logger log = LoggerFactory.getLogger(ScriptVerifier.class);
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism number of threads verifying scripts
+     */
+    ScriptVerifier(int parallelism) {
+        checkArgument(parallelism > 0, () -> "parallelism must be positive: " + parallelism);
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            final Context context = Context.get();
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                @Override
+                protected void onStart() {
+                    super.onStart();
+                    Context.propagate(context);
+                }
+            };
+            thread.setName("Script verification " + thread.getPoolIndex());
+            return thread;
+        }, Threading.uncaughtExceptionHandler, false);
+    }
+
+    /** Returns a new, empty batch of script checks. */
+    Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * The script checks of one block. Not thread safe, it is meant to be filled and awaited by the thread connecting
+     * the block.
+     */
+    class Batch {
+        private final List<Checks> checks = new ArrayList<>();
+        private final AtomicReference<VerificationException> failure = new AtomicReference<>();
+
+        /**
+         * Starts checking the input scripts of a transaction.
+         *
+         * @param tx             transaction to check, must not be modified until the batch is done
+         * @param prevOutScripts scripts of the outputs spent by the inputs, in input order
+         * @param verifyFlags    rules to check the scripts against
+         */
+        void add(Transaction tx, List<Script> prevOutScripts, Set<VerifyFlag> verifyFlags) {
+            checkArgument(prevOutScripts.size() == tx.getInputs().size(), () ->
+                    "expected " + tx.getInputs().size() + " scripts, got " + prevOutScripts.size());
+            if (prevOutScripts.isEmpty())
+                return;
+            Checks task = new Checks(tx, prevOutScripts.toArray(new Script[0]), verifyFlags, 0,
+                    prevOutScripts.size());
+            checks.add(task);
+            pool.execute(task);
+        }
+
+        /**
+         * Waits for all checks of the batch.
+         *
+         * @throws VerificationException the first script check that failed
+         */
+        void await() throws VerificationException {
+            for (Checks task : checks)
+                task.join();
+            VerificationException e = failure.get();
+            if (e != null)
+                throw e;
+        }
+
+        /**
+         * Gives up on the batch. Checks that haven't started yet are skipped.
+         */
+        void cancel() {
+            failure.compareAndSet(null, new VerificationException("Script verification cancelled"));
+        }
+
+        // Checks the inputs from start (inclusive) to end (exclusive) of a transaction, forking off halves
+        // until only one is left.
+        private class Checks extends RecursiveAction {
+            private final Transaction tx;
+            private final Script[] prevOutScripts;
+            private final Set<VerifyFlag> verifyFlags;
+            private final int start;
+            private final int end;
+
+            Checks(Transaction tx, Script[] prevOutScripts, Set<VerifyFlag> verifyFlags, int start, int end) {
+                this.tx = tx;
+                this.prevOutScripts = prevOutScripts;
+                this.verifyFlags = verifyFlags;
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected void compute() {
+                if (failure.get() != null)
+                    return;
+                if (end - start > 1) {
+                    int middle = (start + end) >>> 1;
+                    invokeAll(new Checks(tx, prevOutScripts, verifyFlags, start, middle),
+                            new Checks(tx, prevOutScripts, verifyFlags, middle, end));
+                    return;
+                }
+                try {
+                    tx.getInput(start).getScriptSig().correctlySpends(tx, start, null, null, prevOutScripts[start],
+                            verifyFlags);
+                } catch (VerificationException e) {
+                    failure.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    log.error("Script.correctlySpends threw a non-normal exception: " + e);
+                    failure.compareAndSet(null, new VerificationException(
+                            "Bug in Script.correctlySpends, likely script malformed in some new and interesting way.",
+                            e));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.internal.ByteUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents a "sendcmpct" message on the P2P network, which tells a peer that we understand compact blocks of the
+ * given version and whether it should announce new blocks to us by sending them as compact blocks right away.
+ * <p>
+ * See <a href="https://github.com/bitcoin/bips/blob/master/bip-0152.mediawiki">BIP152</a> for details.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class SendCompactBlocksMessage extends BaseMessage {
+    private final boolean announce;
+    private final long version;
+
+    /**
+     * Create a sendcmpct message.
+     *
+     * @param announce whether new blocks should be announced as compact blocks
+     * @param version  compact block version
+     * @return sendcmpct message
+     */
+    public static SendCompactBlocksMessage of(boolean announce, long version) {
+        return new SendCompactBlocksMessage(announce, version);
+    }
+
+    /**
+     * Deserialize this message from a given payload.
+     *
+     * @param payload payload to deserialize from
+     * @return read message
+     * @throws BufferUnderflowException if the read message extends beyond the remaining bytes of the payload
+     */
+    public static SendCompactBlocksMessage read(ByteBuffer payload) throws BufferUnderflowException, ProtocolException {
+        boolean announce = payload.get() != 0;
+        long version = ByteUtils.readInt64(payload);
+        return new SendCompactBlocksMessage(announce, version);
+    }
+
+    private SendCompactBlocksMessage(boolean announce, long version) {
+        this.announce = announce;
+        this.version = version;
+    }
+
+    @Override
+    protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+        stream.write(announce ? 1 : 0);
+        ByteUtils.writeInt64LE(version, stream);
+    }
+
+    /**
+     * Gets whether new blocks should be announced as compact blocks.
+     *
+     * @return true to announce new blocks as compact blocks
+     */
+    public boolean announce() {
+        return announce;
+    }
+
+    /**
+     * Gets the compact block version.
+     *
+     * @return compact block version
+     */
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "sendcmpct: announce=" + announce + " version=" + version;
+    }
+}
@@ -40,6 +40,8 @@ public class Services {
     public static final int NODE_BLOOM = 1 << 2;
     /** Indicates that a node can be asked for blocks and transactions including witness data. */
     public static final int NODE_WITNESS = 1 << 3;
+    /** A service bit that denotes whether the peer serves compact block filters (BIP157). */
+    public static final int NODE_COMPACT_FILTERS = 1 << 6;
     /** A service bit that denotes whether the peer has at least the last two days worth of blockchain (BIP159). */
     public static final int NODE_NETWORK_LIMITED = 1 << 10;
     /** A service bit used by Bitcoin-ABC to announce Bitcoin Cash nodes. */
@@ -158,6 +160,10 @@ public class Services {
             strings.add("WITNESS");
             bits &= ~NODE_WITNESS;
         }
+        if ((bits & NODE_COMPACT_FILTERS) == NODE_COMPACT_FILTERS) {
+            strings.add("COMPACT_FILTERS");
+            bits &= ~NODE_COMPACT_FILTERS;
+        }
         if ((bits & NODE_NETWORK_LIMITED) == NODE_NETWORK_LIMITED) {
             strings.add("NETWORK_LIMITED");
             bits &= ~NODE_NETWORK_LIMITED;
@@ -21,11 +21,13 @@ import org.litecoinj.store.BlockStore;
 import org.litecoinj.store.BlockStoreException;
 import org.litecoinj.store.SPVBlockStore;
 
+import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.Objects;
 
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
 import static org.litecoinj.base.internal.Preconditions.checkState;
 
 /**
@@ -124,6 +126,29 @@ public class StoredBlock {
         return store.get(getHeader().getPrevBlockHash());
     }
 
+    /**
+     * Given a block store, looks up the block at the given height in the chain that ends in this block. If this block
+     * is on the chain of the store's chain head, that's a single {@link BlockStore#getByHeight(int)}. Otherwise, or if
+     * the store doesn't index blocks by height, the chain is walked back via {@link #getPrev(BlockStore)}.
+     *
+     * @param height height of the ancestor, at most the height of this block
+     * @return the block at the given height or null if it was not found in the store.
+     */
+    @Nullable
+    public StoredBlock getAncestor(BlockStore store, int height) throws BlockStoreException {
+        checkArgument(height >= 0 && height <= getHeight(), () ->
+                "height out of range: " + height);
+        if (equals(store.getByHeight(getHeight()))) {
+            StoredBlock ancestor = store.getByHeight(height);
+            if (ancestor != null)
+                return ancestor;
+        }
+        StoredBlock cursor = this;
+        while (cursor != null && cursor.getHeight() > height)
+            cursor = cursor.getPrev(store);
+        return cursor;
+    }
+
     /** Serializes the stored block to a custom packed format. Used by {@link CheckpointManager}. */
     public void serializeCompact(ByteBuffer buffer) {
         byte[] chainWorkBytes = getChainWork().toByteArray();
@@ -164,6 +164,17 @@ public class Transaction extends BaseMessage {
 
     private volatile LockTime vLockTime;
 
+    // Cached txid and wtxid, because calculating them requires serializing the whole transaction. They are cleared by
+    // unCache() whenever the transaction or one of its inputs or outputs is changed.
+    @Nullable private Sha256Hash cachedTxId;
+    @Nullable private Sha256Hash cachedWTxId;
+    // Cached BIP143 hashPrevouts, hashSequence and hashOutputs. They are the same for the signature hashes of all
+    // inputs, so caching them makes signing or verifying all inputs linear rather than quadratic in the input count.
+    // They don't depend on scriptSigs or witnesses, so they survive the transaction being signed.
+    @Nullable private Sha256Hash cachedHashPrevouts;
+    @Nullable private Sha256Hash cachedHashSequence;
+    @Nullable private Sha256Hash cachedHashOutputs;
+
     // This is either the time the transaction was broadcast as measured from the local clock, or the time from the
     // block in which it was included. Note that this can be changed by re-orgs so the wallet may update this field.
     // Old serialized transactions don't have this field, thus null is valid. It is used for returning an ordered
@@ -327,13 +338,12 @@ public class Transaction extends BaseMessage {
      * via outpoints.
      */
     public Sha256Hash getTxId() {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try {
-            bitcoinSerializeToStream(baos, false);
-        } catch (IOException e) {
-            throw new RuntimeException(e); // cannot happen
+        Sha256Hash txId = cachedTxId;
+        if (txId == null) {
+            txId = calculateHash(false);
+            cachedTxId = txId;
         }
-        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(baos.toByteArray()));
+        return txId;
     }
 
     /**
@@ -349,15 +359,54 @@ public class Transaction extends BaseMessage {
      * same as {@link #getTxId()}.
      */
     public Sha256Hash getWTxId() {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (!hasWitnesses())
+            return getTxId();
+        Sha256Hash wTxId = cachedWTxId;
+        if (wTxId == null) {
+            wTxId = calculateHash(true);
+            cachedWTxId = wTxId;
+        }
+        return wTxId;
+    }
+
+    private Sha256Hash calculateHash(boolean useSegwit) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(messageSize());
         try {
-            bitcoinSerializeToStream(baos, hasWitnesses());
+            bitcoinSerializeToStream(baos, useSegwit);
         } catch (IOException e) {
             throw new RuntimeException(e); // cannot happen
         }
         return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(baos.toByteArray()));
     }
 
+    /**
+     * Clears all cached hashes. Must be called whenever something that is part of the serialized transaction
+     * changes, including the inputs and outputs, which call this on their parent. Changes that only affect scriptSigs,
+     * witnesses, the version or the lock time can use the more specific {@link #unCacheIds()} or
+     * {@link #unCacheWTxId()}.
+     */
+    void unCache() {
+        unCacheIds();
+        cachedHashPrevouts = null;
+        cachedHashSequence = null;
+        cachedHashOutputs = null;
+    }
+
+    /**
+     * Clears the cached txid and wtxid, but keeps the signature hash midstates.
+     */
+    void unCacheIds() {
+        cachedTxId = null;
+        unCacheWTxId();
+    }
+
+    /**
+     * Clears the cached wtxid, which is the only cached hash covering the witnesses.
+     */
+    void unCacheWTxId() {
+        cachedWTxId = null;
+    }
+
     /** Gets the transaction weight as defined in BIP141. */
     public int getWeight() {
         if (!hasWitnesses())
@@ -856,6 +905,7 @@ public class Transaction extends BaseMessage {
             input.setParent(null);
         }
         inputs.clear();
+        unCache();
     }
 
     /**
@@ -876,6 +926,7 @@ public class Transaction extends BaseMessage {
     public TransactionInput addInput(TransactionInput input) {
         input.setParent(this);
         inputs.add(input);
+        unCache();
         return input;
     }
 
@@ -1024,6 +1075,7 @@ public class Transaction extends BaseMessage {
             output.setParent(null);
         }
         outputs.clear();
+        unCache();
     }
 
     /**
@@ -1032,6 +1084,7 @@ public class Transaction extends BaseMessage {
     public TransactionOutput addOutput(TransactionOutput to) {
         to.setParent(this);
         outputs.add(to);
+        unCache();
         return to;
     }
 
@@ -1317,7 +1370,7 @@ public class Transaction extends BaseMessage {
         return calculateWitnessSignature(inputIndex, key, aesKey, scriptCode.program(), value, hashType, anyoneCanPay);
     }
 
-    public synchronized Sha256Hash hashForWitnessSignature(
+    public Sha256Hash hashForWitnessSignature(
             int inputIndex,
             byte[] scriptCode,
             Coin prevValue,
@@ -1342,7 +1395,7 @@ public class Transaction extends BaseMessage {
      * @param type         Should be SigHash.ALL
      * @param anyoneCanPay should be false.
      */
-    public synchronized Sha256Hash hashForWitnessSignature(
+    public Sha256Hash hashForWitnessSignature(
             int inputIndex,
             Script scriptCode,
             Coin prevValue,
@@ -1351,48 +1404,28 @@ public class Transaction extends BaseMessage {
         return hashForWitnessSignature(inputIndex, scriptCode.program(), prevValue, type, anyoneCanPay);
     }
 
-    public synchronized Sha256Hash hashForWitnessSignature(
+    public Sha256Hash hashForWitnessSignature(
             int inputIndex,
             byte[] scriptCode,
             Coin prevValue,
             byte sigHashType){
         ByteArrayOutputStream bos = new ByteArrayOutputStream(255); // just a guess at an average tx length
         try {
-            byte[] hashPrevouts = new byte[32];
-            byte[] hashSequence = new byte[32];
-            byte[] hashOutputs = new byte[32];
+            Sha256Hash hashPrevouts = Sha256Hash.ZERO_HASH;
+            Sha256Hash hashSequence = Sha256Hash.ZERO_HASH;
+            Sha256Hash hashOutputs = Sha256Hash.ZERO_HASH;
             int basicSigHashType = sigHashType & 0x1f;
             boolean anyoneCanPay = (sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value;
             boolean signAll = (basicSigHashType != SigHash.SINGLE.value) && (basicSigHashType != SigHash.NONE.value);
 
-            if (!anyoneCanPay) {
-                ByteArrayOutputStream bosHashPrevouts = new ByteArrayOutputStream(256);
-                for (TransactionInput input : this.inputs) {
-                    bosHashPrevouts.write(input.getOutpoint().hash().serialize());
-                    writeInt32LE(input.getOutpoint().index(), bosHashPrevouts);
-                }
-                hashPrevouts = Sha256Hash.hashTwice(bosHashPrevouts.toByteArray());
-            }
+            if (!anyoneCanPay)
+                hashPrevouts = getHashPrevouts();
 
-            if (!anyoneCanPay && signAll) {
-                ByteArrayOutputStream bosSequence = new ByteArrayOutputStream(256);
-                for (TransactionInput input : this.inputs) {
-                    writeInt32LE(input.getSequenceNumber(), bosSequence);
-                }
-                hashSequence = Sha256Hash.hashTwice(bosSequence.toByteArray());
-            }
+            if (!anyoneCanPay && signAll)
+                hashSequence = getHashSequence();
 
             if (signAll) {
-                ByteArrayOutputStream bosHashOutputs = new ByteArrayOutputStream(256);
-                for (TransactionOutput output : this.outputs) {
-                    writeInt64LE(
-                            BigInteger.valueOf(output.getValue().getValue()),
-                            bosHashOutputs
-                    );
-                    bosHashOutputs.write(VarInt.of(output.getScriptBytes().length).serialize());
-                    bosHashOutputs.write(output.getScriptBytes());
-                }
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+                hashOutputs = getHashOutputs();
             } else if (basicSigHashType == SigHash.SINGLE.value && inputIndex < outputs.size()) {
                 ByteArrayOutputStream bosHashOutputs = new ByteArrayOutputStream(256);
                 writeInt64LE(
@@ -1401,18 +1434,18 @@ public class Transaction extends BaseMessage {
                 );
                 bosHashOutputs.write(VarInt.of(this.outputs.get(inputIndex).getScriptBytes().length).serialize());
                 bosHashOutputs.write(this.outputs.get(inputIndex).getScriptBytes());
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+                hashOutputs = Sha256Hash.wrap(Sha256Hash.hashTwice(bosHashOutputs.toByteArray()));
             }
             writeInt32LE(version, bos);
-            bos.write(hashPrevouts);
-            bos.write(hashSequence);
+            bos.write(hashPrevouts.getBytes());
+            bos.write(hashSequence.getBytes());
             bos.write(inputs.get(inputIndex).getOutpoint().hash().serialize());
             writeInt32LE(inputs.get(inputIndex).getOutpoint().index(), bos);
             bos.write(VarInt.of(scriptCode.length).serialize());
             bos.write(scriptCode);
             writeInt64LE(BigInteger.valueOf(prevValue.getValue()), bos);
             writeInt32LE(inputs.get(inputIndex).getSequenceNumber(), bos);
-            bos.write(hashOutputs);
+            bos.write(hashOutputs.getBytes());
             writeInt32LE(this.vLockTime.rawValue(), bos);
             writeInt32LE(0x000000ff & sigHashType, bos);
         } catch (IOException e) {
@@ -1422,6 +1455,54 @@ public class Transaction extends BaseMessage {
         return Sha256Hash.twiceOf(bos.toByteArray());
     }
 
+    /** Returns the BIP143 hash of all outpoints, calculating it if necessary. */
+    private Sha256Hash getHashPrevouts() throws IOException {
+        Sha256Hash hashPrevouts = cachedHashPrevouts;
+        if (hashPrevouts == null) {
+            ByteArrayOutputStream bosHashPrevouts = new ByteArrayOutputStream(36 * inputs.size());
+            for (TransactionInput input : this.inputs) {
+                bosHashPrevouts.write(input.getOutpoint().hash().serialize());
+                writeInt32LE(input.getOutpoint().index(), bosHashPrevouts);
+            }
+            hashPrevouts = Sha256Hash.wrap(Sha256Hash.hashTwice(bosHashPrevouts.toByteArray()));
+            cachedHashPrevouts = hashPrevouts;
+        }
+        return hashPrevouts;
+    }
+
+    /** Returns the BIP143 hash of all input sequence numbers, calculating it if necessary. */
+    private Sha256Hash getHashSequence() throws IOException {
+        Sha256Hash hashSequence = cachedHashSequence;
+        if (hashSequence == null) {
+            ByteArrayOutputStream bosSequence = new ByteArrayOutputStream(4 * inputs.size());
+            for (TransactionInput input : this.inputs) {
+                writeInt32LE(input.getSequenceNumber(), bosSequence);
+            }
+            hashSequence = Sha256Hash.wrap(Sha256Hash.hashTwice(bosSequence.toByteArray()));
+            cachedHashSequence = hashSequence;
+        }
+        return hashSequence;
+    }
+
+    /** Returns the BIP143 hash of all outputs, calculating it if necessary. */
+    private Sha256Hash getHashOutputs() throws IOException {
+        Sha256Hash hashOutputs = cachedHashOutputs;
+        if (hashOutputs == null) {
+            ByteArrayOutputStream bosHashOutputs = new ByteArrayOutputStream(256);
+            for (TransactionOutput output : this.outputs) {
+                writeInt64LE(
+                        BigInteger.valueOf(output.getValue().getValue()),
+                        bosHashOutputs
+                );
+                bosHashOutputs.write(VarInt.of(output.getScriptBytes().length).serialize());
+                bosHashOutputs.write(output.getScriptBytes());
+            }
+            hashOutputs = Sha256Hash.wrap(Sha256Hash.hashTwice(bosHashOutputs.toByteArray()));
+            cachedHashOutputs = hashOutputs;
+        }
+        return hashOutputs;
+    }
+
     @Override
     public int messageSize() {
         boolean useSegwit = hasWitnesses() && allowWitness(protocolVersion);
@@ -1514,6 +1595,7 @@ public class Transaction extends BaseMessage {
             log.warn("You are setting the lock time on a transaction but none of the inputs have non-default sequence numbers. This will not do what you expect!");
         }
         this.vLockTime = LockTime.of(lockTime);
+        unCacheIds();
     }
 
     public long getVersion() {
@@ -1522,6 +1604,7 @@ public class Transaction extends BaseMessage {
 
     public void setVersion(int version) {
         this.version = version;
+        unCacheIds();
     }
 
     /** Returns an unmodifiable view of all inputs. */
@@ -1555,6 +1638,7 @@ public class Transaction extends BaseMessage {
     /** Randomly re-orders the transaction outputs: good for privacy */
     public void shuffleOutputs() {
         Collections.shuffle(outputs);
+        unCache();
     }
 
     /** Same as getInputs().get(index). */
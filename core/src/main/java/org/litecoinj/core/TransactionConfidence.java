@@ -37,11 +37,10 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.function.IntSupplier;
 
 import static org.litecoinj.base.internal.Preconditions.checkState;
 
-// TODO: Modify the getDepthInBlocks method to require the chain height to be specified, in preparation for ceasing to touch every tx on every block.
-
 /**
  * <p>A TransactionConfidence object tracks data you can use to make a confidence decision about a transaction.
  * It also contains some pre-canned rules for common scenarios: if you aren't really sure what level of confidence
@@ -66,8 +65,10 @@ import static org.litecoinj.base.internal.Preconditions.checkState;
  * <p>Alternatively, you may know that the transaction is "dead", that is, one or more of its inputs have
  * been double spent and will never confirm unless there is another re-org.</p>
  *
- * <p>TransactionConfidence is updated via the {@link TransactionConfidence#incrementDepthInBlocks()}
- * method to ensure the block depth is up to date.</p>
+ * <p>The depth of a transaction in the best chain is calculated from {@link #getAppearedAtChainHeight()} and the height
+ * of the best chain, if the latter was provided via {@link #addBestChainHeightSupplier(IntSupplier)}. Otherwise it
+ * is updated via the {@link TransactionConfidence#incrementDepthInBlocks()} method to ensure the block depth is up
+ * to date.</p>
  * To make a copy that won't be changed, use {@link TransactionConfidence#duplicate()}.
  */
 public class TransactionConfidence {
@@ -93,6 +94,12 @@ public class TransactionConfidence {
 
     // The depth of the transaction on the best chain in blocks. An unconfirmed block has depth 0.
     private int depth;
+    // Suppliers of the height of the best chain, one per wallet that holds the transaction, each returning -1 if
+    // unknown. If there are any, the depth of BUILDING transactions is calculated from the highest one rather than
+    // tracked in the field above, corrected by the offset below.
+    private final CopyOnWriteArrayList<IntSupplier> bestChainHeights = new CopyOnWriteArrayList<>();
+    // Difference between the depth set via setDepthInBlocks() and the calculated one at that time.
+    private int depthOffset;
 
     /** Describes the state of the transaction in general terms. Properties can be read to learn specifics. */
     public enum ConfidenceType {
@@ -243,6 +250,17 @@ public class TransactionConfidence {
         addEventListener(Threading.USER_THREAD, listener);
     }
 
+    /**
+     * Returns true if any listener other than the given one is registered, i.e. if somebody besides the owner of that
+     * listener is interested in changes of this confidence.
+     */
+    public boolean hasEventListenersOtherThan(Listener listener) {
+        for (ListenerRegistration<Listener> registration : listeners)
+            if (registration.listener != listener)
+                return true;
+        return false;
+    }
+
     public boolean removeEventListener(Listener listener) {
         Objects.requireNonNull(listener);
         boolean removed = ListenerRegistration.removeFromList(listener, listeners);
@@ -270,6 +288,7 @@ public class TransactionConfidence {
             throw new IllegalArgumentException("appearedAtChainHeight out of range");
         this.appearedAtChainHeight = appearedAtChainHeight;
         this.depth = 1;
+        this.depthOffset = 0;
         setConfidenceType(ConfidenceType.BUILDING);
     }
 
@@ -293,6 +312,7 @@ public class TransactionConfidence {
         }
         if (confidenceType == ConfidenceType.PENDING || confidenceType == ConfidenceType.IN_CONFLICT) {
             depth = 0;
+            depthOffset = 0;
             appearedAtChainHeight = -1;
         }
     }
@@ -422,14 +442,73 @@ public class TransactionConfidence {
      * the depth is zero.</p>
      */
     public synchronized int getDepthInBlocks() {
-        return depth;
+        int calculated = calculateDepth();
+        return calculated > 0 ? calculated + depthOffset : depth;
+    }
+
+    // Returns the depth calculated from the best chain height, or 0 if it can't be calculated.
+    private int calculateDepth() {
+        if (!isDepthCalculatedFromHeight())
+            return 0;
+        int height = -1;
+        for (IntSupplier supplier : bestChainHeights)
+            height = Math.max(height, supplier.getAsInt());
+        // The best chain height may lag behind the block the transaction just appeared in.
+        return height >= 0 ? Math.max(height - appearedAtChainHeight + 1, 1) : 0;
     }
 
-    /*
-     * Set the depth in blocks. Having one block confirmation is a depth of one.
+    /**
+     * Set the depth in blocks. Having one block confirmation is a depth of one. If the depth is calculated from the
+     * best chain height, the difference to the calculated depth is kept, so the depth keeps growing from the given
+     * one with every block, until the transaction appears at another height.
      */
     public synchronized void setDepthInBlocks(int depth) {
         this.depth = depth;
+        int calculated = calculateDepth();
+        this.depthOffset = calculated > 0 ? depth - calculated : 0;
+    }
+
+    /**
+     * Adds a source of the height of the best chain, usually provided by each {@link Wallet} this transaction is in.
+     * As long as there is one and the height the transaction appeared at is known, {@link #getDepthInBlocks()} is
+     * calculated from the two and the transaction doesn't need to be touched for every new block. If several wallets
+     * provide a height, e.g. because one of them is still catching up with the chain, the highest one is used. The
+     * supplier is called with this object locked, so it must be cheap and must not take any locks. It should return
+     * -1 if the height isn't known. Adding the same supplier again has no effect.
+     *
+     * @param bestChainHeight supplier of the best chain height
+     */
+    public void addBestChainHeightSupplier(IntSupplier bestChainHeight) {
+        bestChainHeights.addIfAbsent(Objects.requireNonNull(bestChainHeight));
+    }
+
+    /**
+     * Removes a source of the height of the best chain that was added via
+     * {@link #addBestChainHeightSupplier(IntSupplier)}, e.g. because the wallet no longer holds the transaction. Once
+     * there are none, the depth is tracked via {@link #incrementDepthInBlocks()} and {@link #setDepthInBlocks(int)}
+     * again.
+     *
+     * @param bestChainHeight supplier of the best chain height
+     * @return true if the supplier was removed, false if it wasn't added before
+     */
+    public synchronized boolean removeBestChainHeightSupplier(IntSupplier bestChainHeight) {
+        // Keep the depth the transaction has now.
+        int depth = getDepthInBlocks();
+        if (!bestChainHeights.remove(bestChainHeight))
+            return false;
+        if (bestChainHeights.isEmpty()) {
+            this.depth = depth;
+            this.depthOffset = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the depth of this transaction is calculated from the height of the best chain, as opposed to
+     * being incremented for every block. See {@link #addBestChainHeightSupplier(IntSupplier)}.
+     */
+    public synchronized boolean isDepthCalculatedFromHeight() {
+        return confidenceType == ConfidenceType.BUILDING && appearedAtChainHeight >= 0 && !bestChainHeights.isEmpty();
     }
 
     /**
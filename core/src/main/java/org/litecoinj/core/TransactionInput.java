@@ -258,6 +258,8 @@ public class TransactionInput {
         checkArgument(sequence >= 0 && sequence <= ByteUtils.MAX_UNSIGNED_INTEGER, () ->
                 "sequence out of range: " + sequence);
         this.sequence = sequence;
+        if (parent != null)
+            parent.unCache();
     }
 
     /**
@@ -289,6 +291,8 @@ public class TransactionInput {
     void setScriptBytes(byte[] scriptBytes) {
         this.scriptSig = null;
         this.scriptBytes = scriptBytes;
+        if (parent != null)
+            parent.unCacheIds();
     }
 
     /**
@@ -320,6 +324,8 @@ public class TransactionInput {
      */
     public void setWitness(TransactionWitness witness) {
         this.witness = witness;
+        if (parent != null)
+            parent.unCacheWTxId();
     }
 
     /**
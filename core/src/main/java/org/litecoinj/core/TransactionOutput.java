@@ -183,6 +183,8 @@ public class TransactionOutput {
         // SIGHASH_SINGLE signatures, so unfortunately we have to allow that here.
         checkArgument(value.signum() >= 0 || value.equals(Coin.NEGATIVE_SATOSHI), () -> "value out of range: " + value);
         this.value = value.value;
+        if (parent != null)
+            parent.unCache();
     }
 
     /**
@@ -0,0 +1,117 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.utils.Threading;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>A bounded pool of the most recently seen unconfirmed transactions, which compact blocks (BIP152) are reconstructed
+ * from. Peers add the transactions they receive, and transactions are removed once they were seen in a block. When the
+ * pool is full, the transactions seen the longest time ago are dropped.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class TransactionPool {
+    /** Default for the maximum number of transactions in the pool. */
+    public static final int DEFAULT_MAX_SIZE = 50_000;
+
+    private final ReentrantLock lock = Threading.lock(TransactionPool.class);
+    // Keyed by witness transaction ID, in the order the transactions were added.
+    private final LinkedHashMap<Sha256Hash, Transaction> transactions;
+
+    /** Creates a pool of at most {@link #DEFAULT_MAX_SIZE} transactions. */
+    public TransactionPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a pool.
+     * @param maxSize maximum number of transactions in the pool
+     */
+    public TransactionPool(int maxSize) {
+        checkArgument(maxSize > 0, () -> "maxSize must be positive: " + maxSize);
+        this.transactions = new LinkedHashMap<Sha256Hash, Transaction>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Transaction> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /** Adds a transaction to the pool. */
+    public void add(Transaction tx) {
+        Sha256Hash wtxid = tx.getWTxId();
+        lock.lock();
+        try {
+            transactions.put(wtxid, tx);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes the given transactions from the pool, typically because they were included in a block. */
+    public void removeAll(List<Transaction> txns) {
+        lock.lock();
+        try {
+            for (Transaction tx : txns)
+                transactions.remove(tx.getWTxId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the transaction of the given witness transaction ID, or null if it isn't in the pool. */
+    @Nullable
+    public Transaction get(Sha256Hash wtxid) {
+        lock.lock();
+        try {
+            return transactions.get(wtxid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns a snapshot of the transactions in the pool. */
+    public List<Transaction> getTransactions() {
+        lock.lock();
+        try {
+            return new ArrayList<>(transactions.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of transactions in the pool. */
+    public int size() {
+        lock.lock();
+        try {
+            return transactions.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
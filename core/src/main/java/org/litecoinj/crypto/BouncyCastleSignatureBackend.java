@@ -0,0 +1,125 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.crypto;
+
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.math.ec.ECPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>Verifies signatures in pure Java using Bouncy Castle.</p>
+ *
+ * <p>The curve of {@link ECKey#CURVE} multiplies using the GLV endomorphism of secp256k1, and Bouncy Castle attaches
+ * the window tables it precomputes for a point to that point. This backend keeps the decoded points of recently
+ * used public keys, so a key that signs again, like a busy address or our own wallet keys, is neither decompressed
+ * nor precomputed again. A point is only kept once its key is seen a second time, as keeping the tables of the many
+ * keys that sign only once costs more than it saves.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class BouncyCastleSignatureBackend implements SignatureBackend {
+    private static final Logger log = LoggerFactory.getLogger(BouncyCastleSignatureBackend.class);
+
+    /** The number of public keys remembered by a backend created with the no-args constructor. */
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    // Least recently used first. Both guarded by points.
+    private final Map<ByteBuffer, ECPoint> points;
+    private final Map<ByteBuffer, Boolean> seen;
+
+    /**
+     * Creates a backend that remembers {@link #DEFAULT_MAX_KEYS} public keys.
+     */
+    public BouncyCastleSignatureBackend() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param maxKeys max number of decoded public keys to remember, 0 to remember none
+     */
+    public BouncyCastleSignatureBackend(int maxKeys) {
+        checkArgument(maxKeys >= 0, () -> "maxKeys must not be negative: " + maxKeys);
+        this.points = lruMap(maxKeys);
+        this.seen = lruMap(maxKeys);
+    }
+
+    @Override
+    public String getName() {
+        return "Bouncy Castle";
+    }
+
+    @Override
+    public boolean verify(byte[] data, ECKey.ECDSASignature signature, byte[] pub) {
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(decodePoint(pub), ECKey.CURVE));
+        try {
+            return signer.verifySignature(data, signature.r, signature.s);
+        } catch (NullPointerException e) {
+            // Bouncy Castle contains a bug that can cause NPEs given specially crafted signatures. Those signatures
+            // are inherently invalid/attack sigs so we just fail them here rather than crash the thread.
+            log.error("Caught NPE inside bouncy castle", e);
+            return false;
+        }
+    }
+
+    /** Returns the number of decoded public keys currently remembered. */
+    public int size() {
+        synchronized (points) {
+            return points.size();
+        }
+    }
+
+    private ECPoint decodePoint(byte[] pub) {
+        ByteBuffer key = ByteBuffer.wrap(pub.clone());
+        synchronized (points) {
+            ECPoint point = points.get(key);
+            if (point != null)
+                return point;
+        }
+        // Decoding throws for bytes that aren't a point on the curve, so only valid keys get remembered.
+        ECPoint point = ECKey.CURVE.getCurve().decodePoint(pub);
+        synchronized (points) {
+            if (seen.remove(key) != null)
+                points.put(key, point);
+            else
+                seen.put(key, Boolean.TRUE);
+        }
+        return point;
+    }
+
+    private static <V> Map<ByteBuffer, V> lruMap(int maxSize) {
+        return new LinkedHashMap<ByteBuffer, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " signature backend: " + size() + " public keys";
+    }
+}
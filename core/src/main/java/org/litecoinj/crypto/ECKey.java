@@ -152,6 +152,13 @@ public class ECKey implements EncryptableItem {
         secureRandom = new SecureRandom();
     }
 
+    private static volatile SignatureBackend signatureBackend = NativeSignatureBackend.isAvailable() ?
+            new NativeSignatureBackend() : new BouncyCastleSignatureBackend();
+
+    static {
+        log.info("Verifying signatures using {}", signatureBackend.getName());
+    }
+
     // The two parts of the key. If "pub" is set but not "priv", we can only verify signatures, not make them.
     @Nullable protected final BigInteger priv;  // A field element.
     protected final LazyECPoint pub;
@@ -628,26 +635,25 @@ public class ECKey implements EncryptableItem {
      * @param pub       The public key bytes to use.
      */
     public static boolean verify(byte[] data, ECDSASignature signature, byte[] pub) {
-        if (Secp256k1Context.isEnabled()) {
-            try {
-                return NativeSecp256k1.verify(data, signature.encodeToDER(), pub);
-            } catch (NativeSecp256k1Util.AssertFailException e) {
-                log.error("Caught AssertFailException inside secp256k1", e);
-                return false;
-            }
-        }
+        return signatureBackend.verify(data, signature, pub);
+    }
 
-        ECDSASigner signer = new ECDSASigner();
-        ECPublicKeyParameters params = new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
-        signer.init(false, params);
-        try {
-            return signer.verifySignature(data, signature.r, signature.s);
-        } catch (NullPointerException e) {
-            // Bouncy Castle contains a bug that can cause NPEs given specially crafted signatures. Those signatures
-            // are inherently invalid/attack sigs so we just fail them here rather than crash the thread.
-            log.error("Caught NPE inside bouncy castle", e);
-            return false;
-        }
+    /**
+     * Returns the backend that verifies all signatures. This is the native libsecp256k1 backend if the library
+     * could be loaded, and the Bouncy Castle backend otherwise.
+     */
+    public static SignatureBackend getSignatureBackend() {
+        return signatureBackend;
+    }
+
+    /**
+     * Sets the backend that verifies all signatures from now on.
+     *
+     * @param backend backend to use
+     */
+    public static void setSignatureBackend(SignatureBackend backend) {
+        signatureBackend = Objects.requireNonNull(backend);
+        log.info("Verifying signatures using {}", backend.getName());
     }
 
     /**
@@ -659,15 +665,10 @@ public class ECKey implements EncryptableItem {
      * @throws SignatureDecodeException if the signature is unparseable in some way.
      */
     public static boolean verify(byte[] data, byte[] signature, byte[] pub) throws SignatureDecodeException {
-        if (Secp256k1Context.isEnabled()) {
-            try {
-                return NativeSecp256k1.verify(data, signature, pub);
-            } catch (NativeSecp256k1Util.AssertFailException e) {
-                log.error("Caught AssertFailException inside secp256k1", e);
-                return false;
-            }
-        }
-        return verify(data, ECDSASignature.decodeFromDER(signature), pub);
+        SignatureBackend backend = signatureBackend;
+        if (backend instanceof NativeSignatureBackend)
+            return ((NativeSignatureBackend) backend).verify(data, signature, pub);
+        return backend.verify(data, ECDSASignature.decodeFromDER(signature), pub);
     }
 
     /**
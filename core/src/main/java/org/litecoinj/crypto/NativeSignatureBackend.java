@@ -0,0 +1,100 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.crypto;
+
+import org.litecoin.NativeSecp256k1;
+import org.litecoin.NativeSecp256k1Util;
+import org.litecoin.Secp256k1Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+import static org.litecoinj.base.internal.Preconditions.checkState;
+
+/**
+ * <p>Verifies signatures with the native libsecp256k1 library, see {@link NativeSecp256k1} for how to build it.
+ * Can only be created if the library could be loaded, see {@link #isAvailable()}.</p>
+ *
+ * <p>When using this backend, data must be 32 bytes, and no element may be larger than 520 bytes.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class NativeSignatureBackend implements SignatureBackend {
+    private static final Logger log = LoggerFactory.getLogger(NativeSignatureBackend.class);
+
+    /**
+     * @throws IllegalStateException if the native library isn't loaded
+     */
+    public NativeSignatureBackend() {
+        checkState(isAvailable(), () -> "libsecp256k1 is not loaded");
+    }
+
+    /** Returns true if the native library is loaded. */
+    public static boolean isAvailable() {
+        return Secp256k1Context.isEnabled();
+    }
+
+    @Override
+    public String getName() {
+        return "libsecp256k1";
+    }
+
+    @Override
+    public boolean verify(byte[] data, ECKey.ECDSASignature signature, byte[] pub) {
+        return verify(data, signature.encodeToDER(), pub);
+    }
+
+    /**
+     * Verifies the given ASN.1 encoded ECDSA signature against a hash using the public key bytes.
+     *
+     * @param data      hash of the data to verify
+     * @param signature ASN.1 encoded signature
+     * @param pub       public key bytes
+     * @return true if the signature is valid
+     */
+    public boolean verify(byte[] data, byte[] signature, byte[] pub) {
+        try {
+            return NativeSecp256k1.verify(data, signature, pub);
+        } catch (NativeSecp256k1Util.AssertFailException e) {
+            log.error("Caught AssertFailException inside secp256k1", e);
+            return false;
+        }
+    }
+
+    /**
+     * Verifies the whole batch under a single lock of the native context, reusing one native buffer.
+     */
+    @Override
+    public boolean[] verify(byte[][] data, ECKey.ECDSASignature[] signatures, byte[][] pubs) {
+        checkArgument(data.length == signatures.length && data.length == pubs.length, () ->
+                "batch sizes differ: " + data.length + ", " + signatures.length + ", " + pubs.length);
+        byte[][] encodedSignatures = new byte[signatures.length][];
+        for (int i = 0; i < signatures.length; i++)
+            encodedSignatures[i] = signatures[i].encodeToDER();
+        try {
+            return NativeSecp256k1.verifyBatch(data, encodedSignatures, pubs);
+        } catch (NativeSecp256k1Util.AssertFailException e) {
+            log.error("Caught AssertFailException inside secp256k1", e);
+            return new boolean[data.length];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " signature backend";
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.crypto;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>Verifies ECDSA signatures over secp256k1. {@link ECKey#verify(byte[], ECKey.ECDSASignature, byte[])} hands all
+ * verifications to the backend returned by {@link ECKey#getSignatureBackend()}, which is the native libsecp256k1 one
+ * if that library could be loaded and the Bouncy Castle one otherwise.</p>
+ *
+ * <p>Implementations must be thread safe.</p>
+ *
+ * @see BouncyCastleSignatureBackend
+ * @see NativeSignatureBackend
+ */
+public interface SignatureBackend {
+    /** Returns a short name of the backend, for logging. */
+    String getName();
+
+    /**
+     * Verifies the given ECDSA signature against a hash using the public key bytes.
+     *
+     * @param data      hash of the data to verify
+     * @param signature signature to verify
+     * @param pub       public key bytes
+     * @return true if the signature is valid
+     */
+    boolean verify(byte[] data, ECKey.ECDSASignature signature, byte[] pub);
+
+    /**
+     * Verifies a batch of signatures. The default implementation verifies them one by one, backends override it
+     * if they can do better.
+     *
+     * @param data       hashes of the data to verify
+     * @param signatures signatures to verify, in the same order
+     * @param pubs       public key bytes, in the same order
+     * @return for each signature, true if it is valid
+     */
+    default boolean[] verify(byte[][] data, ECKey.ECDSASignature[] signatures, byte[][] pubs) {
+        checkArgument(data.length == signatures.length && data.length == pubs.length, () ->
+                "batch sizes differ: " + data.length + ", " + signatures.length + ", " + pubs.length);
+        boolean[] result = new boolean[data.length];
+        for (int i = 0; i < data.length; i++)
+            result[i] = verify(data[i], signatures[i], pubs[i]);
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.net;
+
+import org.litecoinj.core.Message;
+import org.litecoinj.utils.Threading;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>A pool of buffers for messages. The heap buffers of {@link #get()} hold the payloads of inbound messages which don't
+ * fit into the read buffer of a connection, which is the case for most blocks. Without the pool every such message
+ * allocates a new array of its size, which adds up to a lot of garbage when syncing full blocks from several peers.
+ * The direct buffers of {@link #getDirect()} hold serialized outbound messages, which the socket can then write
+ * without copying them to native memory first.</p>
+ *
+ * <p>Buffers are handed out in power of two size classes, so a buffer can be reused for any payload of up to its
+ * capacity. At most the configured number of bytes is kept in the pool; buffers returned beyond that are left to the
+ * garbage collector.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class BufferPool {
+    /** Smallest size class, smaller payloads are rounded up to it. */
+    static final int MIN_BUFFER_SIZE = 1 << 12;
+    /** Largest buffer handed out, big enough for a message of maximum size including its header. */
+    public static final int MAX_BUFFER_SIZE = Message.MAX_SIZE + 24; // 24 byte message header
+    /** Default for the maximum number of bytes kept in the pool. */
+    public static final int DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MAX_POOLED_BYTES);
+    private static final BufferPool DEFAULT_DIRECT = new BufferPool(DEFAULT_MAX_POOLED_BYTES, true);
+
+    private final ReentrantLock lock = Threading.lock(BufferPool.class);
+    private final int maxPooledBytes;
+    private final boolean direct;
+    // Free buffers indexed by size class, which is the log2 of their capacity.
+    private final ArrayDeque<ByteBuffer>[] free;
+    private long pooledBytes;
+
+    /** Returns the pool of heap buffers shared by all connections. */
+    public static BufferPool get() {
+        return DEFAULT;
+    }
+
+    /** Returns the pool of direct buffers shared by all connections. */
+    public static BufferPool getDirect() {
+        return DEFAULT_DIRECT;
+    }
+
+    /**
+     * Creates a pool of heap buffers.
+     * @param maxPooledBytes maximum number of bytes kept in the pool, can be 0 to disable pooling
+     */
+    public BufferPool(int maxPooledBytes) {
+        this(maxPooledBytes, false);
+    }
+
+    /**
+     * Creates a pool.
+     * @param maxPooledBytes maximum number of bytes kept in the pool, can be 0 to disable pooling
+     * @param direct         whether to hand out direct buffers instead of heap buffers
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxPooledBytes, boolean direct) {
+        checkArgument(maxPooledBytes >= 0, () -> "maxPooledBytes cannot be negative: " + maxPooledBytes);
+        this.maxPooledBytes = maxPooledBytes;
+        this.direct = direct;
+        this.free = new ArrayDeque[sizeClass(MAX_BUFFER_SIZE) + 1];
+        for (int i = 0; i < free.length; i++)
+            free[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * Returns a buffer with room for the given number of bytes. Its position is zero and its limit is the given size.
+     * Pass it to {@link #release(ByteBuffer)} when it is no longer used.
+     */
+    public ByteBuffer acquire(int size) {
+        checkArgument(size >= 0 && size <= MAX_BUFFER_SIZE, () -> "size out of range: " + size);
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer;
+        lock.lock();
+        try {
+            buffer = free[sizeClass].pollFirst();
+            if (buffer != null)
+                pooledBytes -= buffer.capacity();
+        } finally {
+            lock.unlock();
+        }
+        if (buffer == null)
+            buffer = direct ? ByteBuffer.allocateDirect(1 << sizeClass) : ByteBuffer.allocate(1 << sizeClass);
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)} to the pool. The caller must not use it afterwards, and must
+     * not retain anything that reads from it.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        // Only take back what we handed out.
+        if (Integer.bitCount(capacity) != 1 || capacity < MIN_BUFFER_SIZE || sizeClass(capacity) >= free.length
+                || buffer.isDirect() != direct || buffer.isReadOnly())
+            return;
+        lock.lock();
+        try {
+            if (pooledBytes + capacity > maxPooledBytes)
+                return;
+            free[sizeClass(capacity)].addFirst(buffer);
+            pooledBytes += capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of bytes currently kept in the pool. */
+    public long getPooledBytes() {
+        lock.lock();
+        try {
+            return pooledBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE)
+            return Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -36,6 +36,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.litecoinj.base.internal.Preconditions.checkState;
@@ -56,6 +57,8 @@ class ConnectionHandler implements MessageWriteTarget {
     private static final int BUFFER_SIZE_UPPER_BOUND = 65536;
 
     private static final int OUTBOUND_BUFFER_BYTE_COUNT = Message.MAX_SIZE + 24; // 24 byte message header
+    // Maximum number of queued messages handed to the OS with a single gathering write.
+    private static final int MAX_GATHERED_WRITES = 64;
 
     @GuardedBy("lock") private final ByteBuffer readBuff;
     @GuardedBy("lock") private final SocketChannel channel;
@@ -65,6 +68,7 @@ class ConnectionHandler implements MessageWriteTarget {
 
     @GuardedBy("lock") private long bytesToWriteRemaining = 0;
     @GuardedBy("lock") private final LinkedList<BytesAndFuture> bytesToWrite = new LinkedList<>();
+    @GuardedBy("lock") private final ByteBuffer[] gatheredWrites = new ByteBuffer[MAX_GATHERED_WRITES];
 
     private static class BytesAndFuture {
         public final ByteBuffer bytes;
@@ -77,15 +81,18 @@ class ConnectionHandler implements MessageWriteTarget {
     }
 
     private Set<ConnectionHandler> connectedHandlers;
+    // If set, received bytes are processed on this executor rather than the selector thread.
+    @Nullable private final Executor receiveExecutor;
 
     public ConnectionHandler(StreamConnectionFactory connectionFactory, SelectionKey key) throws IOException {
-        this(connectionFactory.getNewConnection(((SocketChannel) key.channel()).socket().getInetAddress(), ((SocketChannel) key.channel()).socket().getPort()), key);
+        this(connectionFactory.getNewConnection(((SocketChannel) key.channel()).socket().getInetAddress(), ((SocketChannel) key.channel()).socket().getPort()), key, (Executor) null);
         if (connection == null)
             throw new IOException("Parser factory.getNewConnection returned null");
     }
 
-    private ConnectionHandler(@Nullable StreamConnection connection, SelectionKey key) {
+    private ConnectionHandler(@Nullable StreamConnection connection, SelectionKey key, @Nullable Executor receiveExecutor) {
         this.key = key;
+        this.receiveExecutor = receiveExecutor;
         this.channel = Objects.requireNonNull(((SocketChannel)key.channel()));
         if (connection == null) {
             readBuff = null;
@@ -98,7 +105,17 @@ class ConnectionHandler implements MessageWriteTarget {
     }
 
     public ConnectionHandler(StreamConnection connection, SelectionKey key, Set<ConnectionHandler> connectedHandlers) {
-        this(Objects.requireNonNull(connection), key);
+        this(connection, key, connectedHandlers, null);
+    }
+
+    /**
+     * Creates a handler which processes received bytes on the given executor, if not null. While the executor is busy
+     * with the bytes of a read, no more bytes are read from the connection. This keeps the order of messages, and makes
+     * a peer which sends faster than we can process wait, as its socket buffers fill up.
+     */
+    public ConnectionHandler(StreamConnection connection, SelectionKey key, Set<ConnectionHandler> connectedHandlers,
+                             @Nullable Executor receiveExecutor) {
+        this(Objects.requireNonNull(connection), key, receiveExecutor);
 
         // closeConnection() may have already happened because we invoked the other c'tor above, which called
         // connection.setWriteTarget which might have re-entered already. In this case we shouldn't add ourselves
@@ -121,19 +138,75 @@ class ConnectionHandler implements MessageWriteTarget {
         key.selector().wakeup();
     }
 
+    // Stops or resumes reading from the channel, runs in any thread (unlocked)
+    private void setReadOps(boolean read) {
+        lock.lock();
+        try {
+            if (read) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                key.selector().wakeup();
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Hands the bytes in readBuff to the connection, on the selector thread or the receive executor
+    private void receiveBytes() throws Exception {
+        // Use connection.receiveBytes's return value as a check that it stopped reading at the right location
+        int bytesConsumed = Objects.requireNonNull(connection).receiveBytes(readBuff);
+        checkState(readBuff.position() == bytesConsumed);
+        // Now drop the bytes which were read by compacting readBuff (resetting limit and keeping relative
+        // position)
+        readBuff.compact();
+    }
+
+    // Runs on the receive executor, reading is paused until it is done
+    private void receiveBytesAndResume() {
+        try {
+            receiveBytes();
+            setReadOps(true);
+        } catch (CancelledKeyException e) {
+            // The connection was closed meanwhile
+        } catch (Exception e) {
+            Throwable t = Throwables.getRootCause(e);
+            log.warn("Error handling received bytes: {} {}", t.getClass().getName(), t.getMessage() != null ? t.getMessage() : "", e);
+            closeConnection();
+        }
+    }
+
     // Tries to write any outstanding write bytes, runs in any thread (possibly unlocked)
     private void tryWriteBytes() throws IOException {
         lock.lock();
         try {
-            // Iterate through the outbound ByteBuff queue, pushing as much as possible into the OS' network buffer.
-            Iterator<BytesAndFuture> iterator = bytesToWrite.iterator();
-            while (iterator.hasNext()) {
-                BytesAndFuture bytesAndFuture = iterator.next();
-                bytesToWriteRemaining -= channel.write(bytesAndFuture.bytes);
-                if (!bytesAndFuture.bytes.hasRemaining()) {
+            // Push as much of the outbound ByteBuff queue as possible into the OS' network buffer, handing over
+            // several messages per system call.
+            while (!bytesToWrite.isEmpty()) {
+                int count = 0;
+                for (BytesAndFuture bytesAndFuture : bytesToWrite) {
+                    if (count == MAX_GATHERED_WRITES)
+                        break;
+                    gatheredWrites[count++] = bytesAndFuture.bytes;
+                }
+                boolean drained;
+                try {
+                    bytesToWriteRemaining -= channel.write(gatheredWrites, 0, count);
+                    drained = !gatheredWrites[count - 1].hasRemaining();
+                } finally {
+                    Arrays.fill(gatheredWrites, 0, count, null);
+                }
+                Iterator<BytesAndFuture> iterator = bytesToWrite.iterator();
+                while (iterator.hasNext()) {
+                    BytesAndFuture bytesAndFuture = iterator.next();
+                    if (bytesAndFuture.bytes.hasRemaining())
+                        break;
                     iterator.remove();
+                    BufferPool.getDirect().release(bytesAndFuture.bytes);
                     bytesAndFuture.future.complete(null);
-                } else {
+                }
+                if (!drained) {
                     setWriteOps();
                     break;
                 }
@@ -149,7 +222,13 @@ class ConnectionHandler implements MessageWriteTarget {
 
     @Override
     public ListenableCompletableFuture<Void> writeBytes(byte[] message) throws IOException {
+        return writeBytes(ByteBuffer.wrap(Arrays.copyOf(message, message.length)));
+    }
+
+    @Override
+    public ListenableCompletableFuture<Void> writeBytes(ByteBuffer message) throws IOException {
         boolean andUnlock = true;
+        boolean queued = false;
         lock.lock();
         try {
             // Network buffers are not unlimited (and are often smaller than some messages we may wish to send), and
@@ -157,13 +236,15 @@ class ConnectionHandler implements MessageWriteTarget {
             // append to it when we want to send a message. We then let tryWriteBytes() either send the message or
             // register our SelectionKey to wakeup when we have free outbound buffer space available.
 
-            if (bytesToWriteRemaining + message.length > OUTBOUND_BUFFER_BYTE_COUNT)
+            int length = message.remaining();
+            if (bytesToWriteRemaining + length > OUTBOUND_BUFFER_BYTE_COUNT)
                 throw new IOException("Outbound buffer overflowed");
-            // Just dump the message onto the write buffer and call tryWriteBytes
-            // TODO: Kill the needless message duplication when the write completes right away
+            // Just dump the message onto the write buffer and let the selector thread call tryWriteBytes, which
+            // writes everything queued until then in one go
             final ListenableCompletableFuture<Void> future = new ListenableCompletableFuture<>();
-            bytesToWrite.offer(new BytesAndFuture(ByteBuffer.wrap(Arrays.copyOf(message, message.length)), future));
-            bytesToWriteRemaining += message.length;
+            bytesToWrite.offer(new BytesAndFuture(message, future));
+            queued = true;
+            bytesToWriteRemaining += length;
             setWriteOps();
             return future;
         } catch (IOException e) {
@@ -181,6 +262,8 @@ class ConnectionHandler implements MessageWriteTarget {
         } finally {
             if (andUnlock)
                 lock.unlock();
+            if (!queued)
+                BufferPool.getDirect().release(message);
         }
     }
 
@@ -202,6 +285,11 @@ class ConnectionHandler implements MessageWriteTarget {
         try {
             callClosed = !closeCalled;
             closeCalled = true;
+            // Nothing more will be written, so return the buffers of the queued messages to the pool.
+            for (BytesAndFuture bytesAndFuture : bytesToWrite)
+                BufferPool.getDirect().release(bytesAndFuture.bytes);
+            bytesToWrite.clear();
+            bytesToWriteRemaining = 0;
         } finally {
             lock.unlock();
         }
@@ -235,12 +323,13 @@ class ConnectionHandler implements MessageWriteTarget {
                 }
                 // "flip" the buffer - setting the limit to the current position and setting position to 0
                 ((Buffer) handler.readBuff).flip();
-                // Use connection.receiveBytes's return value as a check that it stopped reading at the right location
-                int bytesConsumed = Objects.requireNonNull(handler.connection).receiveBytes(handler.readBuff);
-                checkState(handler.readBuff.position() == bytesConsumed);
-                // Now drop the bytes which were read by compacting readBuff (resetting limit and keeping relative
-                // position)
-                handler.readBuff.compact();
+                if (handler.receiveExecutor != null) {
+                    // Don't touch readBuff again until the executor is done with it
+                    handler.setReadOps(false);
+                    handler.receiveExecutor.execute(handler::receiveBytesAndResume);
+                } else {
+                    handler.receiveBytes();
+                }
             }
             if (key.isWritable())
                 handler.tryWriteBytes();
@@ -18,15 +18,21 @@ package org.litecoinj.net;
 
 import org.litecoinj.base.internal.TimeUtils;
 import org.litecoinj.core.BloomFilter;
+import org.litecoinj.core.FilterAddMessage;
 import org.litecoinj.core.PeerFilterProvider;
 import org.litecoinj.core.PeerGroup;
 
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 // This code is unit tested by the PeerGroup tests.
 
@@ -41,14 +47,27 @@ import java.util.Random;
  * not hold any locks whilst this object is used, relying on the single thread to prevent multiple filters being
  * calculated in parallel, thus a filter provider can do things like make blocking calls into PeerGroup from a separate
  * thread. However the bloomFilterFPRate property IS thread safe, for convenience.</p>
+ *
+ * <p>If all providers list their elements (see {@link PeerFilterProvider#getBloomFilterElements()}), a few new elements
+ * are added to the last filter rather than calculating a new one, so they can be sent to peers with "filteradd"
+ * messages. The filter is calculated anew once its false positive rate would exceed the target by more than
+ * {@link #MAX_INCREMENTAL_FP_RATE_INCREASE}, or there are more than {@link #MAX_INCREMENTAL_ELEMENTS} new elements.</p>
  */
 public class FilterMerger {
+    /** The most elements added to a filter at once, more are cheaper to send as a new filter. */
+    public static final int MAX_INCREMENTAL_ELEMENTS = 500;
+    /** How far the false positive rate of a filter may grow above the target by adding elements to it. */
+    public static final double MAX_INCREMENTAL_FP_RATE_INCREASE = 2.0;
+
     // We use a constant tweak to avoid giving up privacy when we regenerate our filter with new keys
     private final int bloomFilterTweak = new Random().nextInt();
 
     private volatile double vBloomFilterFPRate;
     private int lastBloomFilterElementCount;
     private BloomFilter lastFilter;
+    // The false positive rate lastFilter was calculated for, and the elements in it, null if they are unknown.
+    private double lastFilterFPRate;
+    @Nullable private Set<ByteBuffer> lastFilterElements;
 
     public FilterMerger(double bloomFilterFPRate) {
         this.vBloomFilterFPRate = bloomFilterFPRate;
@@ -58,9 +77,23 @@ public class FilterMerger {
         public BloomFilter filter;
         public Instant earliestKeyTime;
         public boolean changed;
+        /** If not null, the filter is the last one with these elements added, rather than a new one. */
+        @Nullable public List<byte[]> addedElements;
     }
 
+    /** Calculates a new filter. */
     public Result calculate(List<PeerFilterProvider> providerList) {
+        return calculate(providerList, false);
+    }
+
+    /**
+     * Calculates the filter.
+     *
+     * @param providerList the providers of the filter elements
+     * @param incremental  whether new elements may be added to the last filter, rather than calculating a new one
+     * @return the filter and earliest key time
+     */
+    public Result calculate(List<PeerFilterProvider> providerList, boolean incremental) {
         List<PeerFilterProvider> providers = Collections.unmodifiableList(providerList);
         LinkedList<PeerFilterProvider> begunProviders = new LinkedList<>();
         try {
@@ -80,13 +113,36 @@ public class FilterMerger {
                 elements += p.getBloomFilterElementCount();
             }
 
-            if (elements > 0) {
+            // Elements are only known if all providers list them.
+            List<byte[]> allElements = new ArrayList<>();
+            for (PeerFilterProvider p : providers) {
+                List<byte[]> providerElements = p.getBloomFilterElements();
+                if (providerElements == null) {
+                    allElements = null;
+                    break;
+                }
+                allElements.addAll(providerElements);
+            }
+            double fpRate = vBloomFilterFPRate;
+            List<byte[]> added = null;
+            if (incremental && allElements != null && lastFilter != null && lastFilterElements != null
+                    && fpRate == lastFilterFPRate)
+                added = addedElements(allElements);
+
+            if (added != null) {
+                for (byte[] element : added) {
+                    lastFilter.insert(element);
+                    lastFilterElements.add(ByteBuffer.wrap(element));
+                }
+                result.changed = !added.isEmpty();
+                result.filter = lastFilter;
+                result.addedElements = added;
+            } else if (elements > 0) {
                 // We stair-step our element count so that we avoid creating a filter with different parameters
                 // as much as possible as that results in a loss of privacy.
                 // The constant 100 here is somewhat arbitrary, but makes sense for small to medium wallets -
                 // it will likely mean we never need to create a filter with different parameters.
                 lastBloomFilterElementCount = elements > lastBloomFilterElementCount ? elements + 100 : lastBloomFilterElementCount;
-                double fpRate = vBloomFilterFPRate;
                 // We now always use UPDATE_ALL because with segwit there is hardly any wallet that can do without.
                 BloomFilter filter = new BloomFilter(lastBloomFilterElementCount, fpRate, bloomFilterTweak,
                         BloomFilter.BloomUpdate.UPDATE_ALL);
@@ -95,6 +151,13 @@ public class FilterMerger {
 
                 result.changed = !filter.equals(lastFilter);
                 result.filter = lastFilter = filter;
+                lastFilterFPRate = fpRate;
+                lastFilterElements = null;
+                if (allElements != null) {
+                    lastFilterElements = new HashSet<>();
+                    for (byte[] element : allElements)
+                        lastFilterElements.add(ByteBuffer.wrap(element));
+                }
             }
             // Now adjust the earliest key time backwards by a week to handle the case of clock drift. This can occur
             // both in block header timestamps and if the users clock was out of sync when the key was first created
@@ -108,6 +171,27 @@ public class FilterMerger {
         }
     }
 
+    // Returns the elements which are not in the last filter yet, or null if adding them would exceed the false positive
+    // rate budget or they can't be sent in a filteradd message. Elements that are gone stay in the filter, which only
+    // adds to its false positive rate.
+    @Nullable
+    private List<byte[]> addedElements(List<byte[]> elements) {
+        List<byte[]> added = new ArrayList<>();
+        Set<ByteBuffer> distinct = new HashSet<>();
+        for (byte[] element : elements) {
+            ByteBuffer key = ByteBuffer.wrap(element);
+            if (lastFilterElements.contains(key) || !distinct.add(key))
+                continue;
+            if (added.size() == MAX_INCREMENTAL_ELEMENTS || element.length > FilterAddMessage.MAX_ELEMENT_SIZE)
+                return null;
+            added.add(element);
+        }
+        if (lastFilter.getFalsePositiveRate(lastFilterElements.size() + added.size())
+                > lastFilterFPRate * MAX_INCREMENTAL_FP_RATE_INCREASE)
+            return null;
+        return added;
+    }
+
     public void setBloomFilterFPRate(double bloomFilterFPRate) {
         this.vBloomFilterFPRate = bloomFilterFPRate;
     }
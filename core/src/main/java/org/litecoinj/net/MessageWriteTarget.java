@@ -19,6 +19,7 @@ package org.litecoinj.net;
 import org.litecoinj.utils.ListenableCompletableFuture;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A target to which messages can be written/connection can be closed
@@ -29,6 +30,20 @@ public interface MessageWriteTarget {
      * have been written to the OS network buffer.
      */
     ListenableCompletableFuture<Void> writeBytes(byte[] message) throws IOException;
+    /**
+     * Writes the remaining bytes of the given buffer to the remote server. The target takes ownership of the buffer,
+     * even if writing fails, and may release it to {@link BufferPool#getDirect()} once it was written. The returned future will complete when
+     * all bytes have been written to the OS network buffer.
+     */
+    default ListenableCompletableFuture<Void> writeBytes(ByteBuffer message) throws IOException {
+        byte[] bytes = new byte[message.remaining()];
+        try {
+            message.get(bytes);
+        } finally {
+            BufferPool.getDirect().release(message);
+        }
+        return writeBytes(bytes);
+    }
     /**
      * Closes the connection to the server, triggering the {@link StreamConnection#connectionClosed()}
      * event on the network-handling thread where all callbacks occur.
@@ -0,0 +1,123 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.net;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import org.litecoinj.utils.ContextPropagatingThreadFactory;
+import org.litecoinj.utils.ListenableCompletableFuture;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>A client connection manager for many connections. The connections are spread over several
+ * {@link NioClientManager}s, each with its own select thread, and received bytes are processed on a fixed pool of worker
+ * threads rather than the select threads, so a slow connection doesn't hold up the others.</p>
+ *
+ * <p>The bytes of a connection are processed one read at a time, in order. While they are, no more bytes are read from
+ * that connection, so a peer that floods us is throttled by TCP flow control instead of filling our memory.</p>
+ */
+public class MultiSelectorClientManager extends AbstractIdleService implements ClientConnectionManager {
+    private final List<NioClientManager> managers;
+    private final ExecutorService workers;
+    private final AtomicInteger nextManager = new AtomicInteger();
+
+    /**
+     * Creates a manager with one select thread per two available processors and one worker thread per processor.
+     */
+    public MultiSelectorClientManager() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a manager.
+     * @param selectorThreads number of select threads to spread the connections over
+     * @param workerThreads   number of threads processing received bytes
+     */
+    public MultiSelectorClientManager(int selectorThreads, int workerThreads) {
+        checkArgument(selectorThreads > 0, () -> "selectorThreads must be positive: " + selectorThreads);
+        checkArgument(workerThreads > 0, () -> "workerThreads must be positive: " + workerThreads);
+        this.workers = Executors.newFixedThreadPool(workerThreads,
+                new ContextPropagatingThreadFactory("MultiSelectorClientManager worker"));
+        List<NioClientManager> managers = new ArrayList<>(selectorThreads);
+        for (int i = 0; i < selectorThreads; i++)
+            managers.add(new NioClientManager(workers));
+        this.managers = Collections.unmodifiableList(managers);
+    }
+
+    @Override
+    protected void startUp() {
+        for (NioClientManager manager : managers)
+            manager.startAsync();
+        for (NioClientManager manager : managers)
+            manager.awaitRunning();
+    }
+
+    @Override
+    protected void shutDown() throws InterruptedException {
+        for (NioClientManager manager : managers)
+            manager.stopAsync();
+        for (NioClientManager manager : managers)
+            manager.awaitTerminated();
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public ListenableCompletableFuture<SocketAddress> openConnection(SocketAddress serverAddress, StreamConnection connection) {
+        if (!isRunning())
+            throw new IllegalStateException();
+        // Round robin keeps the select threads evenly loaded, as long as connections live for similar times.
+        int index = Math.floorMod(nextManager.getAndIncrement(), managers.size());
+        return managers.get(index).openConnection(serverAddress, connection);
+    }
+
+    @Override
+    public int getConnectedClientCount() {
+        int count = 0;
+        for (NioClientManager manager : managers)
+            count += manager.getConnectedClientCount();
+        return count;
+    }
+
+    @Override
+    public void closeConnections(int n) {
+        while (n-- > 0) {
+            // Close from the busiest select thread.
+            NioClientManager busiest = null;
+            int busiestCount = 0;
+            for (NioClientManager manager : managers) {
+                int count = manager.getConnectedClientCount();
+                if (count > busiestCount) {
+                    busiest = manager;
+                    busiestCount = count;
+                }
+            }
+            if (busiest == null)
+                return;
+            busiest.closeConnections(1);
+        }
+    }
+}
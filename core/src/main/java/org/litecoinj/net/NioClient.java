@@ -132,4 +132,9 @@ public class NioClient implements MessageWriteTarget {
     public synchronized ListenableCompletableFuture<Void> writeBytes(byte[] message) throws IOException {
         return handler.writeTarget.writeBytes(message);
     }
+
+    @Override
+    public synchronized ListenableCompletableFuture<Void> writeBytes(ByteBuffer message) throws IOException {
+        return handler.writeTarget.writeBytes(message);
+    }
 }
@@ -23,9 +23,11 @@ import org.litecoinj.utils.ListenableCompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -48,6 +50,8 @@ public class NioClientManager extends AbstractExecutionThreadService implements
     private static final Logger log = LoggerFactory.getLogger(NioClientManager.class);
 
     private final Selector selector;
+    // If set, received bytes are processed on this executor rather than the selector thread.
+    @Nullable private final Executor receiveExecutor;
 
     static class PendingConnect {
         SocketChannel sc;
@@ -70,7 +74,7 @@ public class NioClientManager extends AbstractExecutionThreadService implements
             PendingConnect data = (PendingConnect) key.attachment();
             StreamConnection connection = data.connection;
             SocketChannel sc = (SocketChannel) key.channel();
-            ConnectionHandler handler = new ConnectionHandler(connection, key, connectedHandlers);
+            ConnectionHandler handler = new ConnectionHandler(connection, key, connectedHandlers, receiveExecutor);
             try {
                 if (sc.finishConnect()) {
                     log.info("Connected to {}", sc.socket().getRemoteSocketAddress());
@@ -102,6 +106,18 @@ public class NioClientManager extends AbstractExecutionThreadService implements
      * calls.
      */
     public NioClientManager() {
+        this(null);
+    }
+
+    /**
+     * Creates a new client manager which uses Java NIO for socket management. Uses a single thread to handle all select
+     * calls, and processes received bytes, which includes calling {@link StreamConnection#receiveBytes(ByteBuffer)}, on
+     * the given executor. While the bytes received from a connection are processed, no more bytes are read from it.
+     *
+     * @param receiveExecutor executor to process received bytes on, or null to process them on the select thread
+     */
+    public NioClientManager(@Nullable Executor receiveExecutor) {
+        this.receiveExecutor = receiveExecutor;
         try {
             selector = SelectorProvider.provider().openSelector();
         } catch (IOException e) {
@@ -24,7 +24,6 @@ import org.litecoinj.core.BitcoinSerializer;
 import org.litecoinj.core.Block;
 import org.litecoinj.base.Coin;
 import org.litecoinj.core.NetworkParameters;
-import org.litecoinj.base.Sha256Hash;
 import org.litecoinj.core.StoredBlock;
 import org.litecoinj.core.VerificationException;
 import org.litecoinj.protocols.payments.PaymentProtocol;
@@ -169,25 +168,20 @@ public abstract class LitecoinNetworkParams extends NetworkParameters {
             return;
         }
 
-        // We need to find a block far back in the chain. It's OK that this is expensive because it only occurs every
-        // two weeks after the initial block chain download.
+        // We need to find a block far back in the chain. Stores that index blocks by height look it up directly,
+        // otherwise we walk back the chain. It's OK that this is expensive because it only occurs every two weeks after
+        // the initial block chain download.
         final Stopwatch watch = Stopwatch.start();
-        Sha256Hash hash = prev.getHash();
-        StoredBlock cursor = blockStore.get(hash);;
         long blocksToGoBack = this.getInterval()-1;
         if(storedPrev.getHeight()+1 != this.getInterval()) {
             blocksToGoBack = this.getInterval();
         }
-        for (int i = 0; i < blocksToGoBack; i++) {
-            hash = cursor.getHeader().getPrevBlockHash();
-            cursor = blockStore.get(hash);
-            if (cursor == null) {
-                // This should never happen. If it does, it means we are following an incorrect or busted chain.
-                throw new VerificationException(
-                        "Difficulty transition point but we did not find a way back to the last transition point. Not found: " + hash);
-            }
+        StoredBlock cursor = storedPrev.getAncestor(blockStore, (int) (storedPrev.getHeight() - blocksToGoBack));
+        if (cursor == null) {
+            // This should never happen. If it does, it means we are following an incorrect or busted chain.
+            throw new VerificationException(
+                    "Difficulty transition point but we did not find a way back to the last transition point.");
         }
-        checkState(cursor != null, () -> "No block found for difficulty transition.");
         boolean isDifficultyTransitionPoint = false;
         if(blocksToGoBack == this.getInterval()-1) {
             isDifficultyTransitionPoint = isDifficultyTransitionPoint(cursor.getHeight()-1);
@@ -0,0 +1,100 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>An array-backed stack of script elements, as used by the script interpreter for the main stack and the
+ * altstack. Elements are addressed by their depth: depth 0 is the top of the stack.</p>
+ *
+ * <p>Callers are expected to check {@link #size()} before popping or peeking, like the interpreter does before every
+ * operation. Not thread safe.</p>
+ */
+final class ScriptStack {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[][] elements;
+    private int size;
+
+    ScriptStack() {
+        this.elements = new byte[INITIAL_CAPACITY][];
+    }
+
+    /** Creates a stack with the given elements, the last one being the top of the stack. */
+    ScriptStack(Collection<byte[]> elements) {
+        this.elements = elements.toArray(new byte[Math.max(elements.size(), INITIAL_CAPACITY)][]);
+        this.size = elements.size();
+    }
+
+    /** Creates a copy of the given stack. */
+    ScriptStack(ScriptStack other) {
+        this.elements = Arrays.copyOf(other.elements, other.elements.length);
+        this.size = other.size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void push(byte[] element) {
+        if (size == elements.length)
+            elements = Arrays.copyOf(elements, size * 2);
+        elements[size++] = element;
+    }
+
+    byte[] pop() {
+        byte[] element = elements[--size];
+        elements[size] = null;
+        return element;
+    }
+
+    /** Returns the element at the given depth without removing it. */
+    byte[] peek(int depth) {
+        return elements[size - 1 - depth];
+    }
+
+    /** Removes the element at the given depth, moving the elements above it down. */
+    byte[] remove(int depth) {
+        int index = size - 1 - depth;
+        byte[] element = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, depth);
+        elements[--size] = null;
+        return element;
+    }
+
+    /** Swaps the elements at the given depths. */
+    void swap(int depth1, int depth2) {
+        int index1 = size - 1 - depth1;
+        int index2 = size - 1 - depth2;
+        byte[] element = elements[index1];
+        elements[index1] = elements[index2];
+        elements[index2] = element;
+    }
+
+    /** Returns the elements from the bottom to the top of the stack. */
+    List<byte[]> toList() {
+        return new ArrayList<>(Arrays.asList(elements).subList(0, size));
+    }
+}
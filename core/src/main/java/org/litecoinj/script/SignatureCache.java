@@ -0,0 +1,144 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.script;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.crypto.ECKey;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>Remembers signatures that were found to be valid, so that the script interpreter doesn't verify them again. A
+ * transaction that was verified when it was relayed to us has its signatures checked again when it arrives in a block,
+ * unless they are still in the cache.</p>
+ *
+ * <p>Entries are keyed by the signature hash, the public key and the signature. Only valid signatures are cached,
+ * so a cache hit can never turn an invalid signature into a valid one. Once the cache is full, arbitrary entries are
+ * evicted to make room, which as the keys are hashes amounts to random eviction.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @see Script#setSignatureCache(SignatureCache)
+ */
+public class SignatureCache {
+    /** The max number of entries of a cache created with the no-args constructor, about 5MB worth. */
+    public static final int DEFAULT_MAX_ENTRIES = 50000;
+
+    private final int maxEntries;
+    private final Set<Sha256Hash> entries = ConcurrentHashMap.newKeySet();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache of {@link #DEFAULT_MAX_ENTRIES} entries.
+     */
+    public SignatureCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries max number of valid signatures to remember
+     */
+    public SignatureCache(int maxEntries) {
+        checkArgument(maxEntries > 0, () -> "maxEntries must be positive: " + maxEntries);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Verifies the given signature against a signature hash using the public key bytes, like
+     * {@link ECKey#verify(byte[], ECKey.ECDSASignature, byte[])}, unless it is known to be valid already.
+     *
+     * @param sigHash   signature hash
+     * @param signature signature to verify
+     * @param pubKey    public key bytes
+     * @return true if the signature is valid
+     */
+    public boolean verify(Sha256Hash sigHash, ECKey.ECDSASignature signature, byte[] pubKey) {
+        Sha256Hash key = key(sigHash, signature, pubKey);
+        if (entries.contains(key)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        if (!ECKey.verify(sigHash.getBytes(), signature, pubKey))
+            return false;
+        if (entries.add(key) && entries.size() > maxEntries) {
+            Iterator<Sha256Hash> it = entries.iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                Sha256Hash evicted = it.next();
+                if (!evicted.equals(key))
+                    it.remove();
+            }
+        }
+        return true;
+    }
+
+    /** Returns true if the given signature is known to be valid. */
+    public boolean contains(Sha256Hash sigHash, ECKey.ECDSASignature signature, byte[] pubKey) {
+        return entries.contains(key(sigHash, signature, pubKey));
+    }
+
+    /** Returns the number of signatures currently remembered. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** Forgets all signatures. The hit and miss counts are kept. */
+    public void clear() {
+        entries.clear();
+    }
+
+    /** Returns the number of verifications that were answered from the cache. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of verifications that had to check the signature. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the fraction of verifications that were answered from the cache, or 0 if there were none. */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    // A hash of all three, so that every entry takes the same small amount of memory.
+    private static Sha256Hash key(Sha256Hash sigHash, ECKey.ECDSASignature signature, byte[] pubKey) {
+        byte[] r = signature.r.toByteArray();
+        byte[] s = signature.s.toByteArray();
+        ByteBuffer buf = ByteBuffer.allocate(32 + 4 + r.length + 4 + s.length + pubKey.length);
+        buf.put(sigHash.getBytes());
+        buf.putInt(r.length).put(r);
+        buf.putInt(s.length).put(s);
+        buf.put(pubKey);
+        return Sha256Hash.of(buf.array());
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureCache: " + size() + " signatures, " + getHits() + " hits, " + getMisses() + " misses";
+    }
+}
@@ -20,6 +20,10 @@ import org.litecoinj.core.BlockChain;
 import org.litecoinj.base.Sha256Hash;
 import org.litecoinj.core.StoredBlock;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An implementor of BlockStore saves StoredBlock objects to disk. Different implementations store them in
  * different ways. An in-memory implementation (MemoryBlockStore) exists for unit testing but real apps will want to
@@ -56,7 +60,35 @@ public interface BlockStore {
      * Sets the {@link StoredBlock} that represents the top of the chain of greatest total work.
      */
     void setChainHead(StoredBlock chainHead) throws BlockStoreException;
-    
+
+    /**
+     * Returns the {@link StoredBlock} at the given height of the chain that ends in the current chain head, without
+     * walking back the chain. Returns null if the height is above the chain head, if the block at that height is not
+     * (or no longer) in the store, or if the store doesn't index blocks by height, which is the default. Callers can
+     * then still walk back via {@link StoredBlock#getPrev(BlockStore)}, see
+     * {@link StoredBlock#getAncestor(BlockStore, int)}.
+     */
+    @Nullable
+    default StoredBlock getByHeight(int height) throws BlockStoreException {
+        return null;
+    }
+
+    /**
+     * Returns the blocks from the given first to the given last height of the chain that ends in the current chain
+     * head, in ascending order. The list stops short of the first block that {@link #getByHeight(int)} doesn't return,
+     * so it is empty for stores that don't index blocks by height.
+     */
+    default List<StoredBlock> getByHeightRange(int fromHeight, int toHeight) throws BlockStoreException {
+        List<StoredBlock> blocks = new ArrayList<>();
+        for (int height = fromHeight; height <= toHeight; height++) {
+            StoredBlock block = getByHeight(height);
+            if (block == null)
+                break;
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
     /** Closes the store. */
     void close() throws BlockStoreException;
 }
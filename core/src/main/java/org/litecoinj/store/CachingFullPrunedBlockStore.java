@@ -0,0 +1,444 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.store;
+
+import org.litecoinj.base.Network;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.core.StoredBlock;
+import org.litecoinj.core.StoredUndoableBlock;
+import org.litecoinj.core.UTXO;
+import org.litecoinj.core.UTXOProviderException;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+import static org.litecoinj.base.internal.Preconditions.checkState;
+
+/**
+ * <p>Wraps another {@link FullPrunedBlockStore} and caches its unspent transaction outputs, so that verifying blocks
+ * needs fewer round trips to the underlying store.</p>
+ *
+ * <p>Changes made inside a database batch are kept in memory until the batch is committed. An output that is created
+ * and spent within the same batch, which is common for chains of transactions in one block, never reaches the
+ * underlying store. On commit, only the outputs that actually changed are written, inside a batch of the underlying
+ * store, so it stays as consistent as it would be without the cache. Aborting a batch discards its changes.</p>
+ *
+ * <p>Outputs that were read or written are then kept in a read cache of bounded size. All other methods, including
+ * {@link #getOpenTransactionOutputs(List)}, go straight to the underlying store and so only see committed changes.
+ * Hit ratios are available from {@link #getHitRatio()}.</p>
+ *
+ * <p>A batch belongs to the thread that began it, like the batches of stores that use a connection per thread. Only
+ * that thread sees its changes; other threads read the committed outputs. While a batch is open, outputs can only be
+ * added or removed by its thread, and trying to do so from another thread, or to begin another batch, throws an
+ * {@link IllegalStateException}. In practice the single writer is the {@link org.litecoinj.core.FullPrunedBlockChain}.
+ * </p>
+ */
+public class CachingFullPrunedBlockStore implements FullPrunedBlockStore {
+    private static final Logger log = LoggerFactory.getLogger(CachingFullPrunedBlockStore.class);
+    protected final ReentrantLock lock = Threading.lock(CachingFullPrunedBlockStore.class);
+
+    /** The default maximum number of outputs kept in the read cache. */
+    public static final int DEFAULT_CACHE_SIZE = 200_000;
+
+    private final FullPrunedBlockStore store;
+    private final int cacheSize;
+    // Outputs as they are in the underlying store. Only contains unspent outputs.
+    private final LinkedHashMap<StoredTransactionOutPoint, UTXO> cache;
+    // Changes of the current batch, or null if there is none.
+    @Nullable private Map<StoredTransactionOutPoint, Change> batch;
+    // The thread that began the current batch, or null if there is none.
+    @Nullable private Thread batchThread;
+
+    private long hits;
+    private long misses;
+    private long absorbed;
+    private long written;
+
+    /** A change to an output within a batch. */
+    private static class Change {
+        // The output if it is unspent, or null if it was spent.
+        @Nullable UTXO output;
+        // The spent output, needed to remove it from the underlying store.
+        @Nullable UTXO spent;
+        // Whether the output isn't in the underlying store, so spending it needs no write at all.
+        final boolean fresh;
+
+        Change(@Nullable UTXO output, @Nullable UTXO spent, boolean fresh) {
+            this.output = output;
+            this.spent = spent;
+            this.fresh = fresh;
+        }
+    }
+
+    /**
+     * Wraps the given store, using a read cache of {@link #DEFAULT_CACHE_SIZE} outputs.
+     *
+     * @param store the store to cache outputs of
+     */
+    public CachingFullPrunedBlockStore(FullPrunedBlockStore store) {
+        this(store, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Wraps the given store.
+     *
+     * @param store     the store to cache outputs of
+     * @param cacheSize the maximum number of outputs to keep in the read cache
+     */
+    public CachingFullPrunedBlockStore(FullPrunedBlockStore store, int cacheSize) {
+        checkArgument(cacheSize >= 0, () -> "cache size must not be negative: " + cacheSize);
+        this.store = Objects.requireNonNull(store);
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<StoredTransactionOutPoint, UTXO>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StoredTransactionOutPoint, UTXO> eldest) {
+                return size() > CachingFullPrunedBlockStore.this.cacheSize;
+            }
+        };
+    }
+
+    @Override
+    @Nullable
+    public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+        lock.lock();
+        try {
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(hash, index);
+            Map<StoredTransactionOutPoint, Change> batch = ownBatch();
+            Change change = batch != null ? batch.get(outPoint) : null;
+            if (change != null) {
+                hits++;
+                return change.output;
+            }
+            UTXO output = cache.get(outPoint);
+            if (output != null) {
+                hits++;
+                return output;
+            }
+            misses++;
+            output = store.getTransactionOutput(hash, index);
+            if (output != null)
+                cache.put(outPoint, output);
+            return output;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        lock.lock();
+        try {
+            checkWriter();
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+            if (batch == null) {
+                store.addUnspentTransactionOutput(out);
+                cache.put(outPoint, out);
+                return;
+            }
+            Change change = batch.get(outPoint);
+            if (change != null) {
+                change.output = out;
+            } else {
+                // Coinbase outputs can overwrite outputs of an earlier, identical coinbase, so they are never
+                // considered fresh.
+                boolean fresh = !out.isCoinbase() && !cache.containsKey(outPoint);
+                batch.put(outPoint, new Change(out, null, fresh));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        lock.lock();
+        try {
+            checkWriter();
+            StoredTransactionOutPoint outPoint = new StoredTransactionOutPoint(out);
+            if (batch == null) {
+                store.removeUnspentTransactionOutput(out);
+                cache.remove(outPoint);
+                return;
+            }
+            Change change = batch.get(outPoint);
+            if (change == null) {
+                UTXO existing = getTransactionOutput(out.getHash(), out.getIndex());
+                if (existing == null)
+                    throw new BlockStoreException("Tried to remove a UTXO from CachingFullPrunedBlockStore that it didn't have!");
+                batch.put(outPoint, new Change(null, existing, false));
+            } else if (change.output == null) {
+                throw new BlockStoreException("Tried to remove a UTXO from CachingFullPrunedBlockStore that it didn't have!");
+            } else if (change.fresh) {
+                batch.remove(outPoint);
+                absorbed++;
+            } else if (change.spent != null) {
+                change.output = null;
+            } else {
+                // Added in this batch without knowing whether the underlying store has it, so ask it now.
+                UTXO existing = store.getTransactionOutput(out.getHash(), out.getIndex());
+                if (existing != null) {
+                    change.output = null;
+                    change.spent = existing;
+                } else {
+                    batch.remove(outPoint);
+                    absorbed++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
+        lock.lock();
+        try {
+            Map<StoredTransactionOutPoint, Change> batch = ownBatch();
+            if (batch == null)
+                return store.hasUnspentOutputs(hash, numOutputs);
+            boolean anySpent = false;
+            for (int i = 0; i < numOutputs; i++) {
+                Change change = batch.get(new StoredTransactionOutPoint(hash, i));
+                if (change != null) {
+                    if (change.output != null)
+                        return true;
+                    anySpent = true;
+                }
+            }
+            if (!anySpent)
+                return store.hasUnspentOutputs(hash, numOutputs);
+            // The underlying store still has the outputs spent in this batch, so check the others one by one.
+            for (int i = 0; i < numOutputs; i++)
+                if (getTransactionOutput(hash, i) != null)
+                    return true;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void beginDatabaseBatchWrite() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkWriter();
+            store.beginDatabaseBatchWrite();
+            if (batch == null) {
+                batch = new HashMap<>();
+                batchThread = Thread.currentThread();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void commitDatabaseBatchWrite() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkWriter();
+            if (batch != null) {
+                Map<StoredTransactionOutPoint, Change> changes = batch;
+                batch = null;
+                batchThread = null;
+                try {
+                    for (Map.Entry<StoredTransactionOutPoint, Change> entry : changes.entrySet()) {
+                        Change change = entry.getValue();
+                        if (change.spent != null) {
+                            store.removeUnspentTransactionOutput(change.spent);
+                            cache.remove(entry.getKey());
+                            written++;
+                        }
+                        if (change.output != null) {
+                            store.addUnspentTransactionOutput(change.output);
+                            cache.put(entry.getKey(), change.output);
+                            written++;
+                        }
+                    }
+                } catch (BlockStoreException | RuntimeException e) {
+                    // The cache might not match the underlying store anymore.
+                    cache.clear();
+                    store.abortDatabaseBatchWrite();
+                    throw e;
+                }
+            }
+            store.commitDatabaseBatchWrite();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void abortDatabaseBatchWrite() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkWriter();
+            batch = null;
+            batchThread = null;
+            store.abortDatabaseBatchWrite();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the changes of the current batch if this thread began it, or null.
+    @Nullable
+    private Map<StoredTransactionOutPoint, Change> ownBatch() {
+        return batchThread == Thread.currentThread() ? batch : null;
+    }
+
+    // Only the thread that began the current batch may write while it is open.
+    private void checkWriter() {
+        checkState(batch == null || batchThread == Thread.currentThread(), () ->
+                "batch is open in another thread: " + batchThread.getName());
+    }
+
+    /** Returns the number of output lookups that were answered from memory. */
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of output lookups that had to go to the underlying store. */
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the fraction of output lookups that were answered from memory, or 0 if there were none. */
+    public double getHitRatio() {
+        lock.lock();
+        try {
+            long lookups = hits + misses;
+            return lookups > 0 ? (double) hits / lookups : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of outputs that were created and spent within a batch, and so never written. */
+    public long getAbsorbed() {
+        lock.lock();
+        try {
+            return absorbed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        store.put(block);
+    }
+
+    @Override
+    public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
+        store.put(storedBlock, undoableBlock);
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        return store.get(hash);
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock getByHeight(int height) throws BlockStoreException {
+        return store.getByHeight(height);
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock getOnceUndoableStoredBlock(Sha256Hash hash) throws BlockStoreException {
+        return store.getOnceUndoableStoredBlock(hash);
+    }
+
+    @Override
+    @Nullable
+    public StoredUndoableBlock getUndoBlock(Sha256Hash hash) throws BlockStoreException {
+        return store.getUndoBlock(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        return store.getChainHead();
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        store.setChainHead(chainHead);
+    }
+
+    @Override
+    public StoredBlock getVerifiedChainHead() throws BlockStoreException {
+        return store.getVerifiedChainHead();
+    }
+
+    @Override
+    public void setVerifiedChainHead(StoredBlock chainHead) throws BlockStoreException {
+        store.setVerifiedChainHead(chainHead);
+    }
+
+    @Override
+    public void close() throws BlockStoreException {
+        lock.lock();
+        try {
+            log.info("Closing UTXO cache: {} hits, {} misses, {} outputs absorbed, {} written", hits, misses,
+                    absorbed, written);
+            batch = null;
+            batchThread = null;
+            cache.clear();
+            store.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<ECKey> keys) throws UTXOProviderException {
+        return store.getOpenTransactionOutputs(keys);
+    }
+
+    @Override
+    public int getChainHeadHeight() throws UTXOProviderException {
+        return store.getChainHeadHeight();
+    }
+
+    @Override
+    public Network network() {
+        return store.network();
+    }
+}
@@ -0,0 +1,1374 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.store;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.litecoinj.base.Address;
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.Network;
+import org.litecoinj.base.ScriptType;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.VarInt;
+import org.litecoinj.base.internal.ByteUtils;
+import org.litecoinj.core.NetworkParameters;
+import org.litecoinj.core.ProtocolException;
+import org.litecoinj.core.StoredBlock;
+import org.litecoinj.core.StoredUndoableBlock;
+import org.litecoinj.core.Transaction;
+import org.litecoinj.core.TransactionOutputChanges;
+import org.litecoinj.core.UTXO;
+import org.litecoinj.core.UTXOProviderException;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.script.Script;
+import org.litecoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>A {@link FullPrunedBlockStore} that keeps block headers, undo data and the set of unspent transaction outputs in
+ * a directory on disk, so that it survives restarts and isn't limited by the size of the heap. It is embedded and
+ * doesn't need any external service.</p>
+ *
+ * <p>All data is appended to a single log file, in frames that are checksummed. Database batches are applied
+ * atomically: changes committed via {@link #commitDatabaseBatchWrite()} are held in a write-back cache and written
+ * to disk as one frame, together with the chain heads, once the cache is full or when {@link #flush()} or
+ * {@link #close()} is called. After a crash, the store is therefore always consistent with a chain head that was
+ * committed at some point, and a trailing frame that was only partially written is discarded when the store is
+ * opened again. Some of the most recently verified blocks may have to be downloaded again.</p>
+ *
+ * <p>Values that were read or written recently are kept in a read cache. Together with the write-back cache it is
+ * limited to the cache size given at construction. The records are found through an index file next to the data
+ * file, which uses 16 bytes per slot with at most half of the slots used, and isn't held on the heap. The index is
+ * brought up to date with every frame that is written, so opening the store only has to read the frames the index
+ * doesn't cover yet. If the store wasn't closed while the index was being updated, the index is rebuilt from the
+ * whole data file. Once most of the data file consists of overwritten records, it is compacted by copying the live
+ * records to a new file.</p>
+ *
+ * <p>{@link #getOpenTransactionOutputs(List)} reads all unspent outputs from disk, so it is slow for large
+ * stores.</p>
+ */
+public class DiskFullPrunedBlockStore implements FullPrunedBlockStore {
+    private static final Logger log = LoggerFactory.getLogger(DiskFullPrunedBlockStore.class);
+    protected final ReentrantLock lock = Threading.lock(DiskFullPrunedBlockStore.class);
+
+    /** The default size of the caches in bytes. */
+    public static final long DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+    public static final String DATA_FILE_NAME = "blockstore.dat";
+    private static final String COMPACTION_FILE_NAME = "blockstore.dat.compacting";
+    private static final String LOCK_FILE_NAME = "blockstore.lock";
+    private static final String INDEX_FILE_NAME = "blockstore.idx";
+    private static final String INDEX_RESIZE_FILE_NAME = "blockstore.idx.resizing";
+
+    // Frame format:
+    //   4 bytes magic, FRAME_MAGIC or FRAME_MAGIC_CONTINUED if more frames of the same flush follow
+    //   4 bytes length of the payload
+    //   4 bytes CRC32 of the payload
+    //   payload, a sequence of records:
+    //     1 byte operation, OP_PUT or OP_DELETE
+    //     1 byte length of the key, followed by the key
+    //     for OP_PUT only: 4 bytes length of the value, followed by the value
+    private static final int FRAME_MAGIC = 0x46505331;  // "FPS1"
+    private static final int FRAME_MAGIC_CONTINUED = 0x46505332;  // "FPS2"
+    private static final int FRAME_HEADER_SIZE = 12;
+    private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    // Index file format:
+    //   4 bytes magic
+    //   4 bytes 1 if the index matches the data file up to the covered length, 0 while it is being updated
+    //   4 bytes number of slots, a power of two
+    //   4 bytes number of used slots
+    //   8 bytes number of live bytes in the data file
+    //   8 bytes length of the data file covered by the index
+    //   for every slot: 8 bytes fingerprint of the key, 0 if the slot is empty, and 8 bytes offset of the record
+    private static final int INDEX_MAGIC = 0x46504931;  // "FPI1"
+    private static final int INDEX_HEADER_SIZE = 32;
+    private static final int INDEX_SLOT_SIZE = 16;
+    private static final int MIN_INDEX_SLOTS = 1024;
+    // Don't bother compacting small files.
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024 * 1024;
+
+    // Keys start with a byte for the type of value.
+    private static final byte KEY_BLOCK = 'b';  // followed by the block hash
+    private static final byte KEY_UNDO = 'u';  // followed by the height and the block hash
+    private static final byte KEY_OUTPUT = 'o';  // followed by the transaction hash and the output index
+    private static final Key KEY_CHAIN_HEAD = new Key(new byte[] { 'h' });
+    private static final Key KEY_VERIFIED_CHAIN_HEAD = new Key(new byte[] { 'v' });
+    private static final Key KEY_UNDO_HEIGHTS = new Key(new byte[] { 'p' });
+
+    // Marks deleted keys in the batch and the write-back cache.
+    private static final byte[] DELETED = new byte[0];
+
+    private final NetworkParameters params;
+    private final File directory;
+    private final int fullStoreDepth;
+    private final long cacheSize;
+    // Flushes larger than this are split into several frames, which are only replayed together.
+    @VisibleForTesting int maxFrameSize = MAX_FRAME_SIZE;
+
+    private RandomAccessFile lockFile;
+    // Used to stop other applications/processes from opening the store.
+    private FileLock fileLock;
+    private RandomAccessFile dataFile;
+    private FileChannel channel;
+    private long liveBytes;
+    private final RecordIndex index = new RecordIndex();
+    // Heights of the undo blocks that might be stored, so they can be pruned. Written to the data file on flush.
+    private final TreeMap<Integer, Set<Sha256Hash>> undoBlocks = new TreeMap<>();
+    private boolean undoBlocksChanged;
+
+    // The current database batch, only visible to the thread that started it.
+    @Nullable private Map<Key, byte[]> batch;
+    @Nullable private Thread batchThread;
+    // Undo blocks up to this height are pruned once the batch is committed.
+    private int batchPruneHeight = Integer.MIN_VALUE;
+    // Committed changes that haven't been written to disk yet.
+    private final Map<Key, byte[]> dirty = new HashMap<>();
+    private long dirtyBytes;
+    // Recently used values as stored on disk.
+    private final LinkedHashMap<Key, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes;
+
+    private StoredBlock chainHead;
+    private StoredBlock verifiedChainHead;
+
+    /**
+     * Opens the store in the given directory, or creates a new one if the directory doesn't contain a store yet. Uses
+     * {@link #DEFAULT_CACHE_SIZE}.
+     *
+     * @param params         the network parameters, used to get the genesis block of a new store
+     * @param directory      the directory to keep the files of the store in
+     * @param fullStoreDepth the depth of blocks to keep {@link StoredUndoableBlock}s for
+     * @throws BlockStoreException if something goes wrong
+     */
+    public DiskFullPrunedBlockStore(NetworkParameters params, File directory, int fullStoreDepth)
+            throws BlockStoreException {
+        this(params, directory, fullStoreDepth, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Opens the store in the given directory, or creates a new one if the directory doesn't contain a store yet.
+     *
+     * @param params         the network parameters, used to get the genesis block of a new store
+     * @param directory      the directory to keep the files of the store in
+     * @param fullStoreDepth the depth of blocks to keep {@link StoredUndoableBlock}s for
+     * @param cacheSize      the maximum size in bytes of the read and write-back caches together
+     * @throws BlockStoreException if something goes wrong
+     */
+    public DiskFullPrunedBlockStore(NetworkParameters params, File directory, int fullStoreDepth, long cacheSize)
+            throws BlockStoreException {
+        this.params = Objects.requireNonNull(params);
+        this.directory = Objects.requireNonNull(directory);
+        this.fullStoreDepth = fullStoreDepth > 0 ? fullStoreDepth : 1;
+        checkArgument(cacheSize > 0, () -> "cache size must be positive: " + cacheSize);
+        this.cacheSize = cacheSize;
+        lock.lock();
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new BlockStoreException("Could not create directory " + directory);
+            lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+            try {
+                fileLock = lockFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;  // Already locked by this process.
+            }
+            if (fileLock == null)
+                throw new ChainFileLockedException("Store directory is already locked by another process");
+            // A compaction that didn't finish leaves its file behind, the data file is still complete.
+            Files.deleteIfExists(new File(directory, COMPACTION_FILE_NAME).toPath());
+            openDataFile();
+            long covered = index.open();
+            if (covered < 0 || covered > channel.size()) {
+                if (covered >= 0)
+                    index.reset();
+                if (channel.size() > 0)
+                    log.info("Rebuilding the index of {}", DATA_FILE_NAME);
+                replay(0);
+            } else {
+                replay(covered);
+            }
+            index.checkpoint(channel.size());
+            byte[] undoHeights = read(KEY_UNDO_HEIGHTS);
+            if (undoHeights != null)
+                deserializeUndoHeights(ByteBuffer.wrap(undoHeights));
+
+            byte[] chainHeadHash = read(KEY_CHAIN_HEAD);
+            if (chainHeadHash == null) {
+                log.info("Creating new block store in {}", directory);
+                initNewStore();
+            } else {
+                chainHead = get(Sha256Hash.wrap(chainHeadHash));
+                byte[] verifiedChainHeadHash = read(KEY_VERIFIED_CHAIN_HEAD);
+                verifiedChainHead = verifiedChainHeadHash != null ? get(Sha256Hash.wrap(verifiedChainHeadHash)) : null;
+                if (chainHead == null || verifiedChainHead == null)
+                    throw new BlockStoreException("Corrupted block store: could not find chain heads");
+            }
+        } catch (Exception e) {
+            closeFiles();
+            if (e instanceof BlockStoreException)
+                throw (BlockStoreException) e;
+            throw new BlockStoreException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void initNewStore() throws BlockStoreException {
+        StoredBlock storedGenesisHeader = new StoredBlock(params.getGenesisBlock().cloneAsHeader(),
+                params.getGenesisBlock().getWork(), 0);
+        // The coinbase in the genesis block is not spendable.
+        StoredUndoableBlock storedGenesis = new StoredUndoableBlock(params.getGenesisBlock().getHash(),
+                new ArrayList<>());
+        put(storedGenesisHeader, storedGenesis);
+        setChainHead(storedGenesisHeader);
+        setVerifiedChainHead(storedGenesisHeader);
+        flush();
+    }
+
+    private void openDataFile() throws IOException {
+        dataFile = new RandomAccessFile(new File(directory, DATA_FILE_NAME), "rw");
+        channel = dataFile.getChannel();
+    }
+
+    // Adds the frames from the given position on to the index, and cuts off a flush that was only partially written.
+    private void replay(long position) throws IOException, BlockStoreException {
+        long size = channel.size();
+        CRC32 crc = new CRC32();
+        // The end of the last complete flush, and the frames of the flush after it.
+        long complete = position;
+        List<long[]> continued = new ArrayList<>();
+        while (position + FRAME_HEADER_SIZE <= size) {
+            ByteBuffer header = readFully(position, FRAME_HEADER_SIZE);
+            int magic = header.getInt();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if ((magic != FRAME_MAGIC && magic != FRAME_MAGIC_CONTINUED) || length < 0 || length > MAX_FRAME_SIZE
+                    || position + FRAME_HEADER_SIZE + length > size)
+                break;
+            ByteBuffer payload = readFully(position + FRAME_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum)
+                break;
+            if (magic == FRAME_MAGIC_CONTINUED) {
+                // Only applied once the last frame of the flush turns up.
+                continued.add(new long[] { position + FRAME_HEADER_SIZE, length });
+            } else {
+                for (long[] frame : continued)
+                    applyFrame(readFully(frame[0], (int) frame[1]), frame[0]);
+                continued.clear();
+                applyFrame(payload, position + FRAME_HEADER_SIZE);
+            }
+            position += FRAME_HEADER_SIZE + length;
+            if (continued.isEmpty())
+                complete = position;
+        }
+        if (complete < size) {
+            log.warn("Discarding {} bytes of incomplete data at the end of {}", size - complete, DATA_FILE_NAME);
+            channel.truncate(complete);
+            channel.force(true);
+        }
+    }
+
+    // Updates the index for the records of a frame that was written at the given offset.
+    private void applyFrame(ByteBuffer payload, long payloadOffset) throws IOException, BlockStoreException {
+        while (payload.hasRemaining()) {
+            long offset = payloadOffset + payload.position();
+            byte op = payload.get();
+            byte[] keyBytes = new byte[payload.get() & 0xff];
+            payload.get(keyBytes);
+            Key key = new Key(keyBytes);
+            int recordSize = 2 + keyBytes.length;
+            if (op == OP_PUT) {
+                int valueLength = payload.getInt();
+                ((Buffer) payload).position(payload.position() + valueLength);
+                recordSize += 4 + valueLength;
+            } else if (op != OP_DELETE) {
+                throw new BlockStoreException("Corrupted block store: unknown operation " + op);
+            }
+            long previous = index.remove(key);
+            if (previous >= 0)
+                liveBytes -= readRecordSize(previous);
+            if (op == OP_PUT) {
+                index.put(key, offset);
+                liveBytes += recordSize;
+            }
+            trackUndoBlock(key, op == OP_PUT);
+        }
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        lock.lock();
+        try {
+            write(blockKey(block.getHeader().getHash()), serializeBlock(block, false));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
+        lock.lock();
+        try {
+            Sha256Hash hash = storedBlock.getHeader().getHash();
+            Key undoKey = undoKey(storedBlock.getHeight(), hash);
+            trackUndoBlock(undoKey, true);
+            write(undoKey, serializeUndoBlock(undoableBlock));
+            write(blockKey(hash), serializeBlock(storedBlock, true));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        lock.lock();
+        try {
+            byte[] value = read(blockKey(hash));
+            return value != null ? deserializeBlock(value) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock getOnceUndoableStoredBlock(Sha256Hash hash) throws BlockStoreException {
+        lock.lock();
+        try {
+            byte[] value = read(blockKey(hash));
+            // The last byte is the flag whether the block was put with undo data.
+            return value != null && value[value.length - 1] != 0 ? deserializeBlock(value) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public StoredUndoableBlock getUndoBlock(Sha256Hash hash) throws BlockStoreException {
+        lock.lock();
+        try {
+            StoredBlock block = get(hash);
+            if (block == null)
+                return null;
+            byte[] value = read(undoKey(block.getHeight(), hash));
+            return value != null ? deserializeUndoBlock(hash, value) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkOpen();
+            return chainHead;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        lock.lock();
+        try {
+            this.chainHead = chainHead;
+            write(KEY_CHAIN_HEAD, chainHead.getHeader().getHash().getBytes());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public StoredBlock getVerifiedChainHead() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkOpen();
+            return verifiedChainHead;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setVerifiedChainHead(StoredBlock chainHead) throws BlockStoreException {
+        lock.lock();
+        try {
+            this.verifiedChainHead = chainHead;
+            write(KEY_VERIFIED_CHAIN_HEAD, chainHead.getHeader().getHash().getBytes());
+            if (this.chainHead.getHeight() < chainHead.getHeight())
+                setChainHead(chainHead);
+            // Prune the undo data of blocks that are too deep to be re-orged. Within a batch, they're only
+            // forgotten once it's committed, so they're pruned again if it's aborted.
+            int pruneHeight = chainHead.getHeight() - fullStoreDepth;
+            for (Map.Entry<Integer, Set<Sha256Hash>> entry : undoBlocks.headMap(pruneHeight, true).entrySet())
+                for (Sha256Hash hash : entry.getValue())
+                    write(undoKey(entry.getKey(), hash), DELETED);
+            if (batch != null && batchThread == Thread.currentThread())
+                batchPruneHeight = Math.max(batchPruneHeight, pruneHeight);
+            else
+                forgetUndoBlocks(pruneHeight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+        lock.lock();
+        try {
+            byte[] value = read(outputKey(hash, index));
+            return value != null ? deserializeOutput(ByteBuffer.wrap(value)) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        lock.lock();
+        try {
+            write(outputKey(out.getHash(), out.getIndex()), serializeOutput(out));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        lock.lock();
+        try {
+            Key key = outputKey(out.getHash(), out.getIndex());
+            if (read(key) == null)
+                throw new BlockStoreException("Tried to remove a UTXO from DiskFullPrunedBlockStore that it didn't have!");
+            write(key, DELETED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
+        lock.lock();
+        try {
+            for (int i = 0; i < numOutputs; i++)
+                if (read(outputKey(hash, i)) != null)
+                    return true;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void beginDatabaseBatchWrite() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkOpen();
+            if (batch != null) {
+                if (batchThread != Thread.currentThread())
+                    throw new BlockStoreException("Another thread has an open database batch");
+                return;  // Nested calls are treated as one.
+            }
+            batch = new HashMap<>();
+            batchThread = Thread.currentThread();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void commitDatabaseBatchWrite() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkOpen();
+            if (batch == null || batchThread != Thread.currentThread())
+                return;
+            Map<Key, byte[]> committed = batch;
+            batch = null;
+            batchThread = null;
+            for (Map.Entry<Key, byte[]> entry : committed.entrySet())
+                writeBack(entry.getKey(), entry.getValue());
+            if (batchPruneHeight != Integer.MIN_VALUE)
+                forgetUndoBlocks(batchPruneHeight);
+            batchPruneHeight = Integer.MIN_VALUE;
+            if (dirtyBytes > cacheSize / 2)
+                flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void abortDatabaseBatchWrite() throws BlockStoreException {
+        lock.lock();
+        try {
+            if (batch != null && batchThread == Thread.currentThread()) {
+                batch = null;
+                batchThread = null;
+                batchPruneHeight = Integer.MIN_VALUE;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all committed changes to disk, so that they survive a crash. This happens automatically once the
+     * write-back cache is full, and when the store is closed.
+     */
+    public void flush() throws BlockStoreException {
+        lock.lock();
+        try {
+            checkOpen();
+            if (dirty.isEmpty())
+                return;
+            if (undoBlocksChanged) {
+                writeBack(KEY_UNDO_HEIGHTS, serializeUndoHeights());
+                undoBlocksChanged = false;
+            }
+            // The records are written in frames of up to maxFrameSize bytes. All but the last frame are marked as
+            // continued, so that a flush is only replayed if it was written completely.
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            List<Key> keys = new ArrayList<>(dirty.size());
+            List<Long> offsets = new ArrayList<>(dirty.size());
+            long frameOffset = channel.size();
+            for (Map.Entry<Key, byte[]> entry : dirty.entrySet()) {
+                Key key = entry.getKey();
+                byte[] value = entry.getValue();
+                boolean deleted = value == DELETED;
+                // There is nothing to delete if the key was never written to disk.
+                if (deleted && index.find(key) < 0)
+                    continue;
+                int recordSize = 2 + key.bytes.length + (deleted ? 0 : 4 + value.length);
+                if (payload.size() > 0 && payload.size() + recordSize > maxFrameSize) {
+                    frameOffset += writeFrame(channel, payload.toByteArray(), frameOffset, FRAME_MAGIC_CONTINUED);
+                    payload.reset();
+                }
+                keys.add(key);
+                offsets.add(frameOffset + FRAME_HEADER_SIZE + payload.size());
+                writeRecord(payload, key, deleted ? null : value);
+            }
+            writeFrame(channel, payload.toByteArray(), frameOffset, FRAME_MAGIC);
+            channel.force(false);
+
+            // The frames are safely on disk, so update the index and move the values to the read cache.
+            for (int i = 0; i < keys.size(); i++) {
+                Key key = keys.get(i);
+                long offset = offsets.get(i);
+                long previous = index.remove(key);
+                if (previous >= 0)
+                    liveBytes -= readRecordSize(previous);
+                if (dirty.get(key) != DELETED) {
+                    index.put(key, offset);
+                    liveBytes += readRecordSize(offset);
+                }
+            }
+            for (Map.Entry<Key, byte[]> entry : dirty.entrySet())
+                if (entry.getValue() != DELETED)
+                    cachePut(entry.getKey(), entry.getValue());
+            dirty.clear();
+            dirtyBytes = 0;
+
+            if (channel.size() > MIN_COMPACTION_SIZE && liveBytes < channel.size() / 2)
+                compact();
+            index.checkpoint(channel.size());
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Copies the live records to a new file, which then replaces the data file. The index is pointed to the new
+    // offsets as the records are copied, so if the compaction fails, it's rebuilt from the old data file.
+    private void compact() throws IOException, BlockStoreException {
+        long before = channel.size();
+        File compactionFile = new File(directory, COMPACTION_FILE_NAME);
+        try (RandomAccessFile out = new RandomAccessFile(compactionFile, "rw")) {
+            FileChannel outChannel = out.getChannel();
+            outChannel.truncate(0);
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            long[] frameOffset = { 0 };
+            index.forEach((slot, fingerprint, offset) -> {
+                ByteBuffer record = readFully(offset, readRecordSize(offset));
+                index.move(slot, frameOffset[0] + FRAME_HEADER_SIZE + payload.size());
+                payload.write(record.array(), 0, record.limit());
+                if (payload.size() >= 1024 * 1024) {
+                    frameOffset[0] += writeFrame(outChannel, payload.toByteArray(), frameOffset[0], FRAME_MAGIC);
+                    payload.reset();
+                }
+            });
+            if (payload.size() > 0)
+                frameOffset[0] += writeFrame(outChannel, payload.toByteArray(), frameOffset[0], FRAME_MAGIC);
+            outChannel.force(true);
+        } catch (IOException e) {
+            log.warn("Failed to compact " + DATA_FILE_NAME, e);
+            Files.deleteIfExists(compactionFile.toPath());
+            index.reset();
+            replay(0);
+            return;
+        }
+        channel.close();
+        dataFile.close();
+        Files.move(compactionFile.toPath(), new File(directory, DATA_FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        openDataFile();
+        log.info("Compacted {} from {} to {} bytes", DATA_FILE_NAME, before, channel.size());
+    }
+
+    @Override
+    public void close() throws BlockStoreException {
+        lock.lock();
+        try {
+            if (channel == null)
+                return;
+            flush();
+            closeFiles();
+            cache.clear();
+            cacheBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            if (dataFile != null)
+                dataFile.close();
+            index.close();
+            if (fileLock != null)
+                fileLock.release();
+            if (lockFile != null)
+                lockFile.close();
+        } catch (IOException e) {
+            log.warn("Failed to close block store", e);
+        }
+        channel = null;
+        dataFile = null;
+        fileLock = null;
+        lockFile = null;
+    }
+
+    @Override
+    public Network network() {
+        return params.network();
+    }
+
+    @Override
+    public int getChainHeadHeight() throws UTXOProviderException {
+        try {
+            return getVerifiedChainHead().getHeight();
+        } catch (BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        }
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<ECKey> keys) throws UTXOProviderException {
+        lock.lock();
+        try {
+            checkOpen();
+            Set<String> addresses = new HashSet<>();
+            for (ECKey key : keys) {
+                // TODO switch to pubKeyHash in order to support native segwit addresses
+                Address address = key.toAddress(ScriptType.P2PKH, params.network());
+                addresses.add(address.toString());
+            }
+            // Go through all the outputs on disk, then through the ones in the caches that aren't written yet.
+            Map<Key, UTXO> outputs = new HashMap<>();
+            index.forEach((slot, fingerprint, offset) -> {
+                ByteBuffer record = readFully(offset, readRecordSize(offset));
+                ((Buffer) record).position(1);
+                byte[] keyBytes = new byte[record.get() & 0xff];
+                record.get(keyBytes);
+                if (keyBytes[0] != KEY_OUTPUT)
+                    return;
+                record.getInt();  // Length of the value.
+                UTXO output = deserializeOutput(record);
+                if (addresses.contains(output.getAddress()))
+                    outputs.put(new Key(keyBytes), output);
+            });
+            List<Map<Key, byte[]>> overlays = new ArrayList<>();
+            overlays.add(dirty);
+            if (batch != null && batchThread == Thread.currentThread())
+                overlays.add(batch);
+            for (Map<Key, byte[]> overlay : overlays) {
+                for (Map.Entry<Key, byte[]> entry : overlay.entrySet()) {
+                    if (entry.getKey().bytes[0] != KEY_OUTPUT)
+                        continue;
+                    outputs.remove(entry.getKey());
+                    if (entry.getValue() == DELETED)
+                        continue;
+                    UTXO output = deserializeOutput(ByteBuffer.wrap(entry.getValue()));
+                    if (addresses.contains(output.getAddress()))
+                        outputs.put(entry.getKey(), output);
+                }
+            }
+            return new ArrayList<>(outputs.values());
+        } catch (IOException | BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() throws BlockStoreException {
+        if (channel == null)
+            throw new BlockStoreException("Store closed");
+    }
+
+    // Returns the current value of the key as seen by the calling thread, or null if there is none.
+    @Nullable
+    private byte[] read(Key key) throws BlockStoreException {
+        checkOpen();
+        byte[] value = null;
+        if (batch != null && batchThread == Thread.currentThread())
+            value = batch.get(key);
+        if (value == null)
+            value = dirty.get(key);
+        if (value == null)
+            value = cache.get(key);
+        if (value == null) {
+            try {
+                long offset = index.find(key);
+                if (offset < 0)
+                    return null;
+                value = readValue(offset);
+            } catch (IOException e) {
+                throw new BlockStoreException(e);
+            }
+            cachePut(key, value);
+        }
+        return value != DELETED ? value : null;
+    }
+
+    // Writes to the batch of the calling thread, or to the write-back cache if there is none.
+    private void write(Key key, byte[] value) throws BlockStoreException {
+        checkOpen();
+        if (batch != null && batchThread == Thread.currentThread()) {
+            batch.put(key, value);
+        } else {
+            writeBack(key, value);
+            if (dirtyBytes > cacheSize / 2)
+                flush();
+        }
+    }
+
+    private void writeBack(Key key, byte[] value) {
+        byte[] previous = dirty.put(key, value);
+        if (previous != null)
+            dirtyBytes -= key.bytes.length + previous.length;
+        dirtyBytes += key.bytes.length + value.length;
+        byte[] cached = cache.remove(key);
+        if (cached != null)
+            cacheBytes -= key.bytes.length + cached.length;
+    }
+
+    private void cachePut(Key key, byte[] value) {
+        byte[] previous = cache.put(key, value);
+        if (previous != null)
+            cacheBytes -= key.bytes.length + previous.length;
+        cacheBytes += key.bytes.length + value.length;
+        // Evict the least recently used values, leaving the other half of the cache size to the write-back cache.
+        Iterator<Map.Entry<Key, byte[]>> iterator = cache.entrySet().iterator();
+        while (cacheBytes > cacheSize / 2 && iterator.hasNext()) {
+            Map.Entry<Key, byte[]> eldest = iterator.next();
+            cacheBytes -= eldest.getKey().bytes.length + eldest.getValue().length;
+            iterator.remove();
+        }
+    }
+
+    private void trackUndoBlock(Key key, boolean put) {
+        if (key.bytes[0] != KEY_UNDO)
+            return;
+        ByteBuffer buffer = ByteBuffer.wrap(key.bytes, 1, key.bytes.length - 1);
+        int height = buffer.getInt();
+        byte[] hash = new byte[32];
+        buffer.get(hash);
+        if (put) {
+            undoBlocksChanged |= undoBlocks.computeIfAbsent(height, h -> new HashSet<>()).add(Sha256Hash.wrap(hash));
+        } else {
+            Set<Sha256Hash> hashes = undoBlocks.get(height);
+            if (hashes != null && hashes.remove(Sha256Hash.wrap(hash))) {
+                undoBlocksChanged = true;
+                if (hashes.isEmpty())
+                    undoBlocks.remove(height);
+            }
+        }
+    }
+
+    // Stops tracking the undo blocks up to the given height, once their deletion is committed.
+    private void forgetUndoBlocks(int height) {
+        Map<Integer, Set<Sha256Hash>> pruned = undoBlocks.headMap(height, true);
+        if (!pruned.isEmpty()) {
+            pruned.clear();
+            undoBlocksChanged = true;
+        }
+    }
+
+    private byte[] serializeUndoHeights() {
+        int count = 0;
+        for (Set<Sha256Hash> hashes : undoBlocks.values())
+            count += hashes.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + count * (4 + 32));
+        buffer.putInt(count);
+        for (Map.Entry<Integer, Set<Sha256Hash>> entry : undoBlocks.entrySet()) {
+            for (Sha256Hash hash : entry.getValue()) {
+                buffer.putInt(entry.getKey());
+                buffer.put(hash.getBytes());
+            }
+        }
+        return buffer.array();
+    }
+
+    private void deserializeUndoHeights(ByteBuffer buffer) {
+        undoBlocks.clear();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int height = buffer.getInt();
+            byte[] hash = new byte[32];
+            buffer.get(hash);
+            undoBlocks.computeIfAbsent(height, h -> new HashSet<>()).add(Sha256Hash.wrap(hash));
+        }
+        undoBlocksChanged = false;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    // Reads the key of the record at the given offset.
+    private byte[] readKey(long offset) throws IOException {
+        int keyLength = readFully(offset + 1, 1).get() & 0xff;
+        return readFully(offset + 2, keyLength).array();
+    }
+
+    private byte[] readValue(long offset) throws IOException {
+        int keyLength = readFully(offset + 1, 1).get() & 0xff;
+        int valueLength = readFully(offset + 2 + keyLength, 4).getInt();
+        return readFully(offset + 2 + keyLength + 4, valueLength).array();
+    }
+
+    private int readRecordSize(long offset) throws IOException {
+        ByteBuffer header = readFully(offset, 2);
+        byte op = header.get();
+        int keyLength = header.get() & 0xff;
+        if (op != OP_PUT)
+            return 2 + keyLength;
+        return 2 + keyLength + 4 + readFully(offset + 2 + keyLength, 4).getInt();
+    }
+
+    private static void writeRecord(ByteArrayOutputStream stream, Key key, @Nullable byte[] value) {
+        stream.write(value != null ? OP_PUT : OP_DELETE);
+        stream.write(key.bytes.length);
+        stream.write(key.bytes, 0, key.bytes.length);
+        if (value != null) {
+            stream.write(value.length >>> 24);
+            stream.write(value.length >>> 16);
+            stream.write(value.length >>> 8);
+            stream.write(value.length);
+            stream.write(value, 0, value.length);
+        }
+    }
+
+    // Returns the number of bytes written.
+    private static int writeFrame(FileChannel channel, byte[] payload, long position, int magic) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(magic);
+        frame.putInt(payload.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(payload);
+        ((Buffer) frame).flip();
+        while (frame.hasRemaining())
+            channel.write(frame, position + frame.position());
+        return FRAME_HEADER_SIZE + payload.length;
+    }
+
+    private static Key blockKey(Sha256Hash hash) {
+        ByteBuffer key = ByteBuffer.allocate(1 + 32);
+        key.put(KEY_BLOCK).put(hash.getBytes());
+        return new Key(key.array());
+    }
+
+    private static Key undoKey(int height, Sha256Hash hash) {
+        ByteBuffer key = ByteBuffer.allocate(1 + 4 + 32);
+        key.put(KEY_UNDO).putInt(height).put(hash.getBytes());
+        return new Key(key.array());
+    }
+
+    private static Key outputKey(Sha256Hash hash, long index) {
+        ByteBuffer key = ByteBuffer.allocate(1 + 32 + 4);
+        key.put(KEY_OUTPUT).put(hash.getBytes()).putInt((int) index);
+        return new Key(key.array());
+    }
+
+    private static byte[] serializeBlock(StoredBlock block, boolean wasUndoable) {
+        ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE + 1);
+        block.serializeCompact(buffer);
+        buffer.put((byte) (wasUndoable ? 1 : 0));
+        return buffer.array();
+    }
+
+    private static StoredBlock deserializeBlock(byte[] value) throws BlockStoreException {
+        try {
+            return StoredBlock.deserializeCompact(ByteBuffer.wrap(value));
+        } catch (ProtocolException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
+    private static byte[] serializeUndoBlock(StoredUndoableBlock block) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        TransactionOutputChanges txOutChanges = block.getTxOutChanges();
+        if (txOutChanges != null) {
+            stream.write(0);
+            writeOutputs(stream, txOutChanges.txOutsCreated);
+            writeOutputs(stream, txOutChanges.txOutsSpent);
+        } else {
+            stream.write(1);
+            List<Transaction> transactions = block.getTransactions();
+            writeBytes(stream, VarInt.of(transactions.size()).serialize());
+            for (Transaction tx : transactions)
+                writeBytes(stream, tx.serialize());
+        }
+        return stream.toByteArray();
+    }
+
+    private static StoredUndoableBlock deserializeUndoBlock(Sha256Hash hash, byte[] value) throws BlockStoreException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(value);
+            if (buffer.get() == 0) {
+                List<UTXO> created = readOutputs(buffer);
+                List<UTXO> spent = readOutputs(buffer);
+                return new StoredUndoableBlock(hash, new TransactionOutputChanges(created, spent));
+            } else {
+                int count = VarInt.read(buffer).intValue();
+                List<Transaction> transactions = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                    transactions.add(Transaction.read(buffer));
+                return new StoredUndoableBlock(hash, transactions);
+            }
+        } catch (RuntimeException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
+    private static void writeOutputs(ByteArrayOutputStream stream, List<UTXO> outputs) {
+        writeBytes(stream, VarInt.of(outputs.size()).serialize());
+        for (UTXO output : outputs)
+            writeBytes(stream, serializeOutput(output));
+    }
+
+    private static List<UTXO> readOutputs(ByteBuffer buffer) {
+        int count = VarInt.read(buffer).intValue();
+        List<UTXO> outputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            outputs.add(deserializeOutput(buffer));
+        return outputs;
+    }
+
+    private static byte[] serializeOutput(UTXO output) {
+        byte[] program = output.getScript() != null ? output.getScript().program() : new byte[0];
+        // The address is preceded by a flag, so that a missing address stays distinct from an empty one.
+        byte[] address = output.getAddress() != null ? output.getAddress().getBytes(StandardCharsets.UTF_8) : null;
+        ByteBuffer buffer = ByteBuffer.allocate(32 + 4 + 8 + 4 + 1 + VarInt.sizeOf(program.length) + program.length
+                + 1 + (address != null ? VarInt.sizeOf(address.length) + address.length : 0));
+        buffer.put(output.getHash().getBytes());
+        ByteUtils.writeInt32LE(output.getIndex(), buffer);
+        ByteUtils.writeInt64LE(output.getValue().value, buffer);
+        ByteUtils.writeInt32LE(output.getHeight(), buffer);
+        buffer.put((byte) (output.isCoinbase() ? 1 : 0));
+        buffer.put(VarInt.of(program.length).serialize());
+        buffer.put(program);
+        buffer.put((byte) (address != null ? 1 : 0));
+        if (address != null) {
+            buffer.put(VarInt.of(address.length).serialize());
+            buffer.put(address);
+        }
+        return buffer.array();
+    }
+
+    private static UTXO deserializeOutput(ByteBuffer buffer) {
+        byte[] hash = new byte[32];
+        buffer.get(hash);
+        long index = ByteUtils.readUint32(buffer);
+        Coin value = Coin.valueOf(ByteUtils.readInt64(buffer));
+        int height = ByteUtils.readInt32(buffer);
+        boolean coinbase = buffer.get() != 0;
+        byte[] program = new byte[VarInt.read(buffer).intValue()];
+        buffer.get(program);
+        byte[] address = null;
+        if (buffer.get() != 0) {
+            address = new byte[VarInt.read(buffer).intValue()];
+            buffer.get(address);
+        }
+        Script script;
+        try {
+            script = Script.parse(program);
+        } catch (Exception e) {
+            // Same as FullPrunedBlockChain does for outputs with unparseable scripts.
+            script = Script.parse(new byte[0]);
+        }
+        return new UTXO(Sha256Hash.wrap(hash), index, value, height, coinbase, script,
+                address != null ? new String(address, StandardCharsets.UTF_8) : null);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream stream, byte[] bytes) {
+        stream.write(bytes, 0, bytes.length);
+    }
+
+    /** A key of the store, compared by content. */
+    private static final class Key {
+        final byte[] bytes;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        // A 64 bit hash for the index, never 0 as that marks empty slots.
+        long fingerprint() {
+            long hash = 0xcbf29ce484222325L;  // FNV-1a
+            for (byte b : bytes) {
+                hash ^= b & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            hash ^= hash >>> 29;
+            return hash != 0 ? hash : 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    /**
+     * Maps keys to the offsets of their records in the data file, using an open addressing hash table with linear
+     * probing that lives in the index file rather than on the heap. Only a fingerprint of each key is kept in the
+     * table. As different keys can have the same fingerprint, the keys of matching records are read from the data
+     * file to be sure.
+     */
+    private final class RecordIndex {
+        private RandomAccessFile file;
+        private FileChannel indexChannel;
+        // Whether the file is marked as matching the data file.
+        private boolean clean;
+        int slots;
+        int size;
+        // The fingerprint and offset of the slot last read.
+        private long slotFingerprint;
+        private long slotOffset;
+        private final ByteBuffer slotBuffer = ByteBuffer.allocate(INDEX_SLOT_SIZE);
+
+        /**
+         * Opens the index file. Returns the length of the data file the index matches, or -1 if the index is empty
+         * and has to be rebuilt from the data file.
+         */
+        long open() throws IOException {
+            file = new RandomAccessFile(new File(directory, INDEX_FILE_NAME), "rw");
+            indexChannel = file.getChannel();
+            if (indexChannel.size() >= INDEX_HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+                readFully(indexChannel, header, 0);
+                ((Buffer) header).flip();
+                int magic = header.getInt();
+                boolean clean = header.getInt() == 1;
+                int slots = header.getInt();
+                int size = header.getInt();
+                long live = header.getLong();
+                long covered = header.getLong();
+                if (magic == INDEX_MAGIC && clean && slots >= MIN_INDEX_SLOTS && Integer.bitCount(slots) == 1
+                        && indexChannel.size() == INDEX_HEADER_SIZE + (long) slots * INDEX_SLOT_SIZE) {
+                    this.clean = true;
+                    this.slots = slots;
+                    this.size = size;
+                    liveBytes = live;
+                    return covered;
+                }
+            }
+            reset();
+            return -1;
+        }
+
+        /** Empties the index. */
+        void reset() throws IOException {
+            clean = true;
+            markDirty();
+            indexChannel.truncate(INDEX_HEADER_SIZE);
+            zeroFill(indexChannel, MIN_INDEX_SLOTS);
+            slots = MIN_INDEX_SLOTS;
+            size = 0;
+            liveBytes = 0;
+        }
+
+        /** Marks the file as matching the data file up to the given length, once it is safely on disk. */
+        void checkpoint(long covered) throws IOException {
+            if (clean)
+                return;
+            indexChannel.force(false);
+            writeHeader(true, covered);
+            indexChannel.force(false);
+            clean = true;
+        }
+
+        // Before the table is changed, mark the file so that it's rebuilt if we crash in the middle of it.
+        private void markDirty() throws IOException {
+            if (!clean)
+                return;
+            writeHeader(false, 0);
+            indexChannel.force(false);
+            clean = false;
+        }
+
+        private void writeHeader(boolean clean, long covered) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(clean ? 1 : 0).putInt(slots).putInt(size);
+            header.putLong(liveBytes).putLong(covered);
+            ((Buffer) header).flip();
+            writeFully(indexChannel, header, 0);
+        }
+
+        void close() throws IOException {
+            if (file != null)
+                file.close();
+            file = null;
+            indexChannel = null;
+        }
+
+        // Returns the offset of the record of the given key, or -1 if there is none.
+        long find(Key key) throws IOException {
+            findSlot(key, key.fingerprint());
+            return slotFingerprint != 0 ? slotOffset : -1;
+        }
+
+        void put(Key key, long offset) throws IOException {
+            markDirty();
+            if ((size + 1) * 2 > slots)
+                resize(slots * 2);
+            long fingerprint = key.fingerprint();
+            int slot = findSlot(key, fingerprint);
+            if (slotFingerprint == 0)
+                size++;
+            writeSlot(slot, fingerprint, offset);
+        }
+
+        // Changes the offset of the record in the given slot, which must be in use.
+        void move(int slot, long offset) throws IOException {
+            markDirty();
+            readSlot(slot);
+            writeSlot(slot, slotFingerprint, offset);
+        }
+
+        // Removes the given key and returns the offset of its record, or -1 if there was none.
+        long remove(Key key) throws IOException {
+            int slot = findSlot(key, key.fingerprint());
+            if (slotFingerprint == 0)
+                return -1;
+            markDirty();
+            long offset = slotOffset;
+            size--;
+            // Shift back the following entries of the cluster, so that lookups don't stop early.
+            int mask = slots - 1;
+            int hole = slot;
+            int next = (slot + 1) & mask;
+            while (readSlot(next) != 0) {
+                int home = (int) slotFingerprint & mask;
+                // Move the entry if its home slot isn't between the hole and its current slot.
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    writeSlot(hole, slotFingerprint, slotOffset);
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            writeSlot(hole, 0, 0);
+            return offset;
+        }
+
+        /** Calls the visitor for every used slot, in slot order. */
+        void forEach(SlotVisitor visitor) throws IOException {
+            forEachSlot(indexChannel, slots, visitor);
+        }
+
+        // Returns the slot holding the given key, or the empty slot where it would go. The slot is left in
+        // slotFingerprint and slotOffset.
+        private int findSlot(Key key, long fingerprint) throws IOException {
+            int mask = slots - 1;
+            int slot = (int) fingerprint & mask;
+            while (readSlot(slot) != 0) {
+                if (slotFingerprint == fingerprint && Arrays.equals(readKey(slotOffset), key.bytes))
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Reads the given slot into slotFingerprint and slotOffset, and returns the fingerprint.
+        private long readSlot(int slot) throws IOException {
+            ((Buffer) slotBuffer).clear();
+            readFully(indexChannel, slotBuffer, slotPosition(slot));
+            ((Buffer) slotBuffer).flip();
+            slotFingerprint = slotBuffer.getLong();
+            slotOffset = slotBuffer.getLong();
+            return slotFingerprint;
+        }
+
+        private void writeSlot(int slot, long fingerprint, long offset) throws IOException {
+            ((Buffer) slotBuffer).clear();
+            slotBuffer.putLong(fingerprint).putLong(offset);
+            ((Buffer) slotBuffer).flip();
+            writeFully(indexChannel, slotBuffer, slotPosition(slot));
+        }
+
+        // Rehashes the table into a new file of the given number of slots, which then replaces the index file.
+        private void resize(int newSlots) throws IOException {
+            File resizeFile = new File(directory, INDEX_RESIZE_FILE_NAME);
+            int mask = newSlots - 1;
+            try (RandomAccessFile out = new RandomAccessFile(resizeFile, "rw")) {
+                FileChannel outChannel = out.getChannel();
+                outChannel.truncate(0);
+                zeroFill(outChannel, newSlots);
+                ByteBuffer slot = ByteBuffer.allocate(INDEX_SLOT_SIZE);
+                forEach((oldSlot, fingerprint, offset) -> {
+                    int newSlot = (int) fingerprint & mask;
+                    while (true) {
+                        ((Buffer) slot).clear();
+                        readFully(outChannel, slot, slotPosition(newSlot));
+                        if (slot.getLong(0) == 0)
+                            break;
+                        newSlot = (newSlot + 1) & mask;
+                    }
+                    ((Buffer) slot).clear();
+                    slot.putLong(fingerprint).putLong(offset);
+                    ((Buffer) slot).flip();
+                    writeFully(outChannel, slot, slotPosition(newSlot));
+                });
+                outChannel.force(false);
+            }
+            file.close();
+            Files.move(resizeFile.toPath(), new File(directory, INDEX_FILE_NAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            file = new RandomAccessFile(new File(directory, INDEX_FILE_NAME), "rw");
+            indexChannel = file.getChannel();
+            slots = newSlots;
+            writeHeader(false, 0);
+        }
+    }
+
+    /** Receives the used slots of the index. */
+    private interface SlotVisitor {
+        void visit(int slot, long fingerprint, long offset) throws IOException;
+    }
+
+    private static long slotPosition(int slot) {
+        return INDEX_HEADER_SIZE + (long) slot * INDEX_SLOT_SIZE;
+    }
+
+    // Reads the slots of an index file in chunks, and calls the visitor for the used ones.
+    private static void forEachSlot(FileChannel indexChannel, int slots, SlotVisitor visitor) throws IOException {
+        int chunkSlots = Math.min(slots, 64 * 1024);
+        ByteBuffer chunk = ByteBuffer.allocate(chunkSlots * INDEX_SLOT_SIZE);
+        for (int first = 0; first < slots; first += chunkSlots) {
+            ((Buffer) chunk).clear();
+            readFully(indexChannel, chunk, slotPosition(first));
+            ((Buffer) chunk).flip();
+            for (int slot = first; slot < first + chunkSlots; slot++) {
+                long fingerprint = chunk.getLong();
+                long offset = chunk.getLong();
+                if (fingerprint != 0)
+                    visitor.visit(slot, fingerprint, offset);
+            }
+        }
+    }
+
+    // Appends the given number of empty slots to an index file that ends with its header.
+    private static void zeroFill(FileChannel indexChannel, int slots) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(Math.min(slots, 64 * 1024) * INDEX_SLOT_SIZE);
+        long position = INDEX_HEADER_SIZE;
+        long end = slotPosition(slots);
+        while (position < end) {
+            ((Buffer) zeros).clear();
+            ((Buffer) zeros).limit((int) Math.min(zeros.capacity(), end - position));
+            position += writeFully(indexChannel, zeros, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0)
+                throw new IOException("Unexpected end of file at " + (position + buffer.position() - start));
+        }
+    }
+
+    // Returns the number of bytes written.
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position() - start);
+        return buffer.position() - start;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.litecoinj.store;
+
+import org.litecoinj.base.Sha256Hash;
+
+import javax.annotation.Nullable;
+
+/**
+ * A FilterHeaderStore saves the headers of compact block filters (BIP157), which commit to the filter of a block and
+ * the filters of all blocks before it. A peer downloading filters checks each filter against its header, and the
+ * headers of a range of blocks against the header of the block before the range.<p>
+ *
+ * The headers are keyed by block hash, so blocks on forks don't overwrite each other's filter headers.<p>
+ *
+ * FilterHeaderStores are thread safe.
+ */
+public interface FilterHeaderStore {
+    /**
+     * Saves the filter header of the block of the given hash.
+     */
+    void put(Sha256Hash blockHash, Sha256Hash filterHeader) throws BlockStoreException;
+
+    /**
+     * Returns the filter header of the block of the given hash, or null if it is not in the store.
+     */
+    @Nullable
+    Sha256Hash get(Sha256Hash blockHash) throws BlockStoreException;
+
+    /** Closes the store. */
+    void close() throws BlockStoreException;
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.store;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.internal.ByteUtils;
+import org.litecoinj.core.Block;
+import org.litecoinj.core.NetworkParameters;
+import org.litecoinj.core.ProtocolException;
+import org.litecoinj.core.StoredBlock;
+import org.litecoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.litecoinj.base.internal.Preconditions.checkArgument;
+
+/**
+ * <p>An IndexedSPVBlockStore holds block headers in a memory mapped file like {@link SPVBlockStore}, but instead of
+ * overwriting the oldest headers in a ring buffer it keeps all of them, along with two indexes in the same file: a
+ * hash table keyed by block hash and a table of the best chain keyed by height. Looking up a header by hash or by
+ * height takes a constant number of reads from the file no matter how many headers are stored, and only a small
+ * cache of recently used headers is kept on the heap.</p>
+ *
+ * <p>This makes it practical to keep the complete header history of the chain, e.g. for analyzing deep re-orgs. A new
+ * file starts out small. Whenever it is full, its capacity is doubled and the indexes are rebuilt, so it only takes
+ * as much disk space as the headers need. Once the file would exceed 2GB, {@link #put(StoredBlock)} fails.</p>
+ */
+public class IndexedSPVBlockStore implements BlockStore {
+    private static final Logger log = LoggerFactory.getLogger(IndexedSPVBlockStore.class);
+    protected final ReentrantLock lock = Threading.lock(IndexedSPVBlockStore.class);
+
+    /** The default number of headers a new store can hold before it grows, the same as for {@link SPVBlockStore}. */
+    public static final int DEFAULT_CAPACITY = SPVBlockStore.DEFAULT_CAPACITY;
+    public static final String HEADER_MAGIC = "SPVI";
+
+    protected volatile MappedByteBuffer buffer;
+    protected final NetworkParameters params;
+
+    // Avoid going through the mapped buffer for recently used headers, see SPVBlockStore for why.
+    protected LinkedHashMap<Sha256Hash, StoredBlock> blockCache = new LinkedHashMap<Sha256Hash, StoredBlock>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, StoredBlock> entry) {
+            return size() > 2050;  // Slightly more than the difficulty transition period.
+        }
+    };
+    // Used to stop other applications/processes from opening the store.
+    protected FileLock fileLock = null;
+    protected RandomAccessFile randomAccessFile = null;
+    private int capacity;
+    private int hashTableSlots;
+    private int hashIndexOffset;
+    private int heightIndexOffset;
+    protected StoredBlock lastChainHead = null;
+
+    /**
+     * Creates and initializes an indexed SPV block store. If the given file is missing, it is created with
+     * {@link #DEFAULT_CAPACITY}. This operation will block on disk.
+     * @param file file to use for the block store
+     * @throws BlockStoreException if something goes wrong
+     */
+    public IndexedSPVBlockStore(NetworkParameters params, File file) throws BlockStoreException {
+        this(params, file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates and initializes an indexed SPV block store. Will create the given file if it's missing, with room for a
+     * given amount of blocks before it has to grow. An existing file keeps its capacity. This operation will block on
+     * disk.
+     * @param file file to use for the block store
+     * @param capacity initial capacity in number of block headers of a new file
+     * @throws BlockStoreException if something goes wrong
+     */
+    public IndexedSPVBlockStore(NetworkParameters params, File file, int capacity) throws BlockStoreException {
+        Objects.requireNonNull(file);
+        this.params = Objects.requireNonNull(params);
+        checkArgument(capacity > 0 && getFileSize(capacity) <= Integer.MAX_VALUE, () ->
+                "capacity out of range: " + capacity);
+        try {
+            boolean exists = file.exists();
+            setCapacity(exists ? readCapacity(file) : capacity);
+            int fileLength = (int) getFileSize(this.capacity);
+            // Set up the backing file.
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if (!exists) {
+                log.info("Creating new indexed SPV block chain file " + file);
+                randomAccessFile.setLength(fileLength);
+            } else if (randomAccessFile.length() > fileLength) {
+                // The store was closed while it was growing. It's still complete with the old capacity.
+                log.warn("Discarding an unfinished resize of {}", file);
+                randomAccessFile.setLength(fileLength);
+            } else if (randomAccessFile.length() != fileLength) {
+                throw new BlockStoreException("File size on disk does not match expected size: "
+                        + randomAccessFile.length() + " vs " + fileLength);
+            }
+
+            FileChannel channel = randomAccessFile.getChannel();
+            fileLock = channel.tryLock();
+            if (fileLock == null)
+                throw new ChainFileLockedException("Store file is already locked by another process");
+
+            // Map it into memory read/write. See SPVBlockStore about the caveats.
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+
+            // The header bytes of an existing file were checked by readCapacity().
+            if (!exists)
+                initNewStore(params.getGenesisBlock());
+        } catch (Exception e) {
+            try {
+                if (randomAccessFile != null) randomAccessFile.close();
+            } catch (IOException e2) {
+                throw new BlockStoreException(e2);
+            }
+            throw new BlockStoreException(e);
+        }
+    }
+
+    private void initNewStore(Block genesisBlock) throws BlockStoreException {
+        buffer.put(HEADER_MAGIC.getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(COUNT_OFFSET, 0);
+        // Insert the genesis block.
+        StoredBlock storedGenesis = new StoredBlock(genesisBlock.cloneAsHeader(), genesisBlock.getWork(), 0);
+        put(storedGenesis);
+        setChainHead(storedGenesis);
+    }
+
+    // Checks the header bytes, so that we don't resize some random file, and returns the capacity of the store.
+    private static int readCapacity(File file) throws IOException, BlockStoreException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] header = new byte[4];
+            if (raf.length() < FILE_PROLOGUE_BYTES)
+                throw new BlockStoreException("File is too short to be an indexed SPV block store: " + raf.length());
+            raf.readFully(header);
+            if (!new String(header, StandardCharsets.US_ASCII).equals(HEADER_MAGIC))
+                throw new BlockStoreException("Header bytes do not equal " + HEADER_MAGIC);
+            raf.seek(CAPACITY_OFFSET);
+            int capacity = raf.readInt();
+            if (capacity <= 0 || getFileSize(capacity) > Integer.MAX_VALUE)
+                throw new BlockStoreException("Capacity on disk out of range: " + capacity);
+            return capacity;
+        }
+    }
+
+    // Computes where the indexes start for the given capacity.
+    private void setCapacity(int capacity) {
+        this.capacity = capacity;
+        this.hashTableSlots = (int) getHashTableSlots(capacity);
+        this.hashIndexOffset = FILE_PROLOGUE_BYTES + RECORD_SIZE * capacity;
+        this.heightIndexOffset = hashIndexOffset + INDEX_SLOT_SIZE * hashTableSlots;
+    }
+
+    /** Returns the size in bytes of the file that is used to store the given number of headers. */
+    public static long getFileSize(int capacity) {
+        return FILE_PROLOGUE_BYTES + (long) RECORD_SIZE * capacity
+                + (long) INDEX_SLOT_SIZE * getHashTableSlots(capacity)
+                + (long) INDEX_SLOT_SIZE * capacity;
+    }
+
+    // The smallest power of two that keeps the load factor of the hash table at or below one half.
+    private static long getHashTableSlots(int capacity) {
+        return Long.highestOneBit(Math.max(capacity, 1) * 2L - 1) << 1;
+    }
+
+    /** Returns the number of headers the store can hold before it has to grow. */
+    public int getCapacity() {
+        lock.lock();
+        try {
+            return capacity;
+        } finally { lock.unlock(); }
+    }
+
+    /** Returns the number of headers currently held by the store. */
+    public int size() throws BlockStoreException {
+        lock.lock();
+        try {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) throw new BlockStoreException("Store closed");
+            return buffer.getInt(COUNT_OFFSET);
+        } finally { lock.unlock(); }
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        lock.lock();
+        try {
+            // Read the buffer under the lock, as it's replaced when the store grows.
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) throw new BlockStoreException("Store closed");
+            Sha256Hash hash = block.getHeader().getHash();
+            int slotOffset = findHashSlot(buffer, hash.getBytes());
+            int record = buffer.getInt(slotOffset) - 1;
+            if (record >= 0) {
+                writeRecord(buffer, record, block);
+            } else {
+                // Not stored yet, so append a new record and only then insert it into the free slot, so that the
+                // slot never points to a partially written record.
+                record = buffer.getInt(COUNT_OFFSET);
+                if (record == capacity) {
+                    grow();
+                    buffer = this.buffer;
+                    slotOffset = findHashSlot(buffer, hash.getBytes());
+                }
+                writeRecord(buffer, record, block);
+                buffer.putInt(slotOffset, record + 1);
+                buffer.putInt(COUNT_OFFSET, record + 1);
+            }
+            blockCache.put(hash, block);
+        } finally { lock.unlock(); }
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        lock.lock();
+        try {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) throw new BlockStoreException("Store closed");
+            StoredBlock cacheHit = blockCache.get(hash);
+            if (cacheHit != null)
+                return cacheHit;
+            int record = buffer.getInt(findHashSlot(buffer, hash.getBytes())) - 1;
+            if (record < 0)
+                return null;
+            StoredBlock storedBlock = readRecord(buffer, record);
+            blockCache.put(hash, storedBlock);
+            return storedBlock;
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * Returns the block at the given height of the chain that ends in the current chain head, or null if the height
+     * is above the chain head or the block at that height is not in the store.
+     */
+    @Override
+    @Nullable
+    public StoredBlock getByHeight(int height) throws BlockStoreException {
+        lock.lock();
+        try {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) throw new BlockStoreException("Store closed");
+            if (height < 0 || height > buffer.getInt(HEAD_HEIGHT_OFFSET))
+                return null;
+            int record = buffer.getInt(heightSlotOffset(height)) - 1;
+            // The slot may also be used by a block of a height that is a multiple of the capacity away.
+            if (record < 0 || readRecordHeight(buffer, record) != height)
+                return null;
+            return readRecord(buffer, record);
+        } finally { lock.unlock(); }
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        lock.lock();
+        try {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) throw new BlockStoreException("Store closed");
+            if (lastChainHead == null) {
+                byte[] headHash = new byte[32];
+                ((Buffer) buffer).position(HEAD_HASH_OFFSET);
+                buffer.get(headHash);
+                Sha256Hash hash = Sha256Hash.wrap(headHash);
+                StoredBlock block = get(hash);
+                if (block == null)
+                    throw new BlockStoreException("Corrupted block store: could not find chain head: " + hash);
+                lastChainHead = block;
+            }
+            return lastChainHead;
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * Sets the chain head, which must have been put into the store before. This also updates the height index, by
+     * walking back from the new chain head until it joins the previous best chain. Usually, that's just one block.
+     */
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        lock.lock();
+        try {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) throw new BlockStoreException("Store closed");
+            Sha256Hash hash = chainHead.getHeader().getHash();
+            int record = buffer.getInt(findHashSlot(buffer, hash.getBytes())) - 1;
+            if (record < 0)
+                throw new BlockStoreException("Chain head is not in the store: " + hash);
+            lastChainHead = chainHead;
+            ((Buffer) buffer).position(HEAD_HASH_OFFSET);
+            buffer.put(hash.getBytes());
+            buffer.putInt(HEAD_HEIGHT_OFFSET, chainHead.getHeight());
+
+            updateHeightIndex(buffer, record, chainHead.getHeight());
+        } finally { lock.unlock(); }
+    }
+
+    // Points the height index to the given record and its ancestors, until it joins the previous best chain.
+    private void updateHeightIndex(MappedByteBuffer buffer, int record, int height) {
+        while (record >= 0 && buffer.getInt(heightSlotOffset(height)) != record + 1) {
+            buffer.putInt(heightSlotOffset(height), record + 1);
+            if (height == 0)
+                break;
+            byte[] prevHash = readRecord(buffer, record).getHeader().getPrevBlockHash().getBytes();
+            record = buffer.getInt(findHashSlot(buffer, prevHash)) - 1;
+            height--;
+        }
+    }
+
+    /**
+     * Doubles the capacity. The records stay where they are, and both indexes are rebuilt behind them in the extended
+     * file. Only then the new capacity is written, so a crash in between leaves the store intact with the old one.
+     */
+    private void grow() throws BlockStoreException {
+        int oldCapacity = capacity;
+        long newCapacity = oldCapacity * 2L;
+        if (newCapacity > Integer.MAX_VALUE || getFileSize((int) newCapacity) > Integer.MAX_VALUE)
+            throw new BlockStoreException("Store is full: " + oldCapacity + " headers");
+        log.info("Growing indexed SPV block store from {} to {} headers", oldCapacity, newCapacity);
+        try {
+            buffer.force();
+            int fileLength = (int) getFileSize((int) newCapacity);
+            randomAccessFile.setLength(fileLength);
+            MappedByteBuffer newBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    fileLength);
+            setCapacity((int) newCapacity);
+            for (int offset = hashIndexOffset; offset < fileLength; offset += INDEX_SLOT_SIZE)
+                newBuffer.putInt(offset, 0);
+            byte[] hashBytes = new byte[32];
+            int count = newBuffer.getInt(COUNT_OFFSET);
+            for (int record = 0; record < count; record++) {
+                ((Buffer) newBuffer).position(recordOffset(record));
+                newBuffer.get(hashBytes);
+                newBuffer.putInt(findHashSlot(newBuffer, hashBytes), record + 1);
+            }
+            ((Buffer) newBuffer).position(HEAD_HASH_OFFSET);
+            newBuffer.get(hashBytes);
+            updateHeightIndex(newBuffer, newBuffer.getInt(findHashSlot(newBuffer, hashBytes)) - 1,
+                    newBuffer.getInt(HEAD_HEIGHT_OFFSET));
+            newBuffer.force();
+            newBuffer.putInt(CAPACITY_OFFSET, capacity);
+            newBuffer.force();
+            buffer = newBuffer;
+        } catch (IOException e) {
+            setCapacity(oldCapacity);
+            throw new BlockStoreException(e);
+        }
+    }
+
+    @Override
+    public void close() throws BlockStoreException {
+        lock.lock();
+        try {
+            buffer.force();
+            buffer = null;  // Allow it to be GCd and the underlying file mapping to go away.
+            fileLock.release();
+            randomAccessFile.close();
+            blockCache.clear();
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        } finally { lock.unlock(); }
+    }
+
+    // Returns the offset of the hash table slot that holds the given hash, or of the free slot it would go into.
+    private int findHashSlot(MappedByteBuffer buffer, byte[] hashBytes) {
+        int mask = hashTableSlots - 1;
+        // Use the last 4 bytes, as the first ones are often zeros.
+        int slot = (int) ByteUtils.readUint32BE(hashBytes, 28) & mask;
+        while (true) {
+            int slotOffset = hashIndexOffset + slot * INDEX_SLOT_SIZE;
+            int record = buffer.getInt(slotOffset) - 1;
+            if (record < 0 || recordHashEquals(buffer, record, hashBytes))
+                return slotOffset;
+            // The table is never more than half full, so this terminates quickly.
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Compares the hash of the given record in place.
+    private boolean recordHashEquals(MappedByteBuffer buffer, int record, byte[] hashBytes) {
+        int offset = recordOffset(record);
+        for (int i = 0; i < hashBytes.length; i++)
+            if (buffer.get(offset + i) != hashBytes[i])
+                return false;
+        return true;
+    }
+
+    private int heightSlotOffset(int height) {
+        return heightIndexOffset + (height % capacity) * INDEX_SLOT_SIZE;
+    }
+
+    private int recordOffset(int record) {
+        return FILE_PROLOGUE_BYTES + record * RECORD_SIZE;
+    }
+
+    private void writeRecord(MappedByteBuffer buffer, int record, StoredBlock block) {
+        ((Buffer) buffer).position(recordOffset(record));
+        buffer.put(block.getHeader().getHash().getBytes());
+        block.serializeCompact(buffer);
+    }
+
+    private int readRecordHeight(MappedByteBuffer buffer, int record) {
+        // The compact serialization starts with 12 bytes of chain work, followed by the height.
+        return buffer.getInt(recordOffset(record) + 32 + 12);
+    }
+
+    private StoredBlock readRecord(MappedByteBuffer buffer, int record) {
+        ((Buffer) buffer).position(recordOffset(record) + 32);
+        try {
+            return StoredBlock.deserializeCompact(buffer);
+        } catch (ProtocolException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    protected static final int RECORD_SIZE = 32 /* hash */ + StoredBlock.COMPACT_SERIALIZED_SIZE;
+    private static final int INDEX_SLOT_SIZE = 4;
+
+    // File format:
+    //   4 header bytes = "SPVI"
+    //   4 bytes capacity, the number of headers the store can hold before it grows
+    //   4 bytes count, the number of headers in the store
+    //   4 bytes height of the chain head
+    //   32 bytes hash of the chain head
+    //
+    // Starting at FILE_PROLOGUE_BYTES, capacity header records in the order they were put (128 bytes each)
+    //   32 bytes hash of the header
+    //   12 bytes of chain work
+    //    4 bytes of height
+    //   80 bytes of block header data
+    //
+    // Hash index, an open addressing hash table with linear probing (4 bytes per slot)
+    //   record number + 1 of the header, or 0 for an empty slot
+    //
+    // Height index, one slot per height modulo the capacity (4 bytes per slot)
+    //   record number + 1 of the header at that height on the best chain, or 0 if unknown
+    protected static final int FILE_PROLOGUE_BYTES = 1024;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final int HEAD_HEIGHT_OFFSET = 12;
+    private static final int HEAD_HASH_OFFSET = 16;
+}
@@ -21,11 +21,13 @@ import org.litecoinj.base.Sha256Hash;
 import org.litecoinj.core.StoredBlock;
 import org.litecoinj.core.VerificationException;
 
+import javax.annotation.Nullable;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
- * Keeps {@link StoredBlock}s in memory. Used primarily for unit testing.
+ * Keeps {@link StoredBlock}s in memory. Used primarily for unit testing. All methods are synchronized, so the store can
+ * be shared between threads.
  */
 public class MemoryBlockStore implements BlockStore {
     private LinkedHashMap<Sha256Hash, StoredBlock> blockMap = new LinkedHashMap<Sha256Hash, StoredBlock>() {
@@ -34,6 +36,13 @@ public class MemoryBlockStore implements BlockStore {
             return blockMap.size() > 5000;
         }
     };
+    // Hashes of the blocks on the chain that ends in the chain head, by height.
+    private LinkedHashMap<Integer, Sha256Hash> heightIndex = new LinkedHashMap<Integer, Sha256Hash>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Sha256Hash> eldest) {
+            return heightIndex.size() > 5000;
+        }
+    };
     private StoredBlock chainHead;
 
     public MemoryBlockStore(Block genesisBlock) {
@@ -61,19 +70,38 @@ public class MemoryBlockStore implements BlockStore {
     }
 
     @Override
-    public StoredBlock getChainHead() throws BlockStoreException {
+    public synchronized StoredBlock getChainHead() throws BlockStoreException {
         if (blockMap == null) throw new BlockStoreException("MemoryBlockStore is closed");
         return chainHead;
     }
 
     @Override
-    public final void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+    public synchronized final void setChainHead(StoredBlock chainHead) throws BlockStoreException {
         if (blockMap == null) throw new BlockStoreException("MemoryBlockStore is closed");
         this.chainHead = chainHead;
+        // Walk back until we join the previous chain, which is usually right away.
+        StoredBlock cursor = chainHead;
+        while (cursor != null) {
+            Sha256Hash hash = cursor.getHeader().getHash();
+            if (hash.equals(heightIndex.put(cursor.getHeight(), hash)))
+                break;
+            cursor = blockMap.get(cursor.getHeader().getPrevBlockHash());
+        }
     }
-    
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock getByHeight(int height) throws BlockStoreException {
+        if (blockMap == null) throw new BlockStoreException("MemoryBlockStore is closed");
+        if (height > chainHead.getHeight())
+            return null;
+        Sha256Hash hash = heightIndex.get(height);
+        return hash != null ? blockMap.get(hash) : null;
+    }
+
     @Override
-    public void close() {
+    public synchronized void close() {
         blockMap = null;
+        heightIndex = null;
     }
 }
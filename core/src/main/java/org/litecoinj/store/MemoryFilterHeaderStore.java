@@ -0,0 +1,47 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.litecoinj.store;
+
+import org.litecoinj.base.Sha256Hash;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps compact block filter headers in memory.
+ */
+public class MemoryFilterHeaderStore implements FilterHeaderStore {
+    private Map<Sha256Hash, Sha256Hash> filterHeaders = new HashMap<>();
+
+    @Override
+    public synchronized void put(Sha256Hash blockHash, Sha256Hash filterHeader) throws BlockStoreException {
+        if (filterHeaders == null) throw new BlockStoreException("MemoryFilterHeaderStore is closed");
+        filterHeaders.put(blockHash, filterHeader);
+    }
+
+    @Override
+    @Nullable
+    public synchronized Sha256Hash get(Sha256Hash blockHash) throws BlockStoreException {
+        if (filterHeaders == null) throw new BlockStoreException("MemoryFilterHeaderStore is closed");
+        return filterHeaders.get(blockHash);
+    }
+
+    @Override
+    public synchronized void close() {
+        filterHeaders = null;
+    }
+}
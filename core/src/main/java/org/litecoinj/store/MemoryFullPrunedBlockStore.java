@@ -25,7 +25,6 @@ import org.litecoinj.base.Sha256Hash;
 import org.litecoinj.core.StoredBlock;
 import org.litecoinj.core.StoredUndoableBlock;
 import org.litecoinj.core.Transaction;
-import org.litecoinj.core.TransactionOutPoint;
 import org.litecoinj.core.UTXO;
 import org.litecoinj.core.UTXOProviderException;
 import org.litecoinj.core.VerificationException;
@@ -40,60 +39,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
-/**
- * Used as a key for memory map (to avoid having to think about NetworkParameters,
- * which is required for {@link TransactionOutPoint}
- */
-class StoredTransactionOutPoint {
-
-    /** Hash of the transaction to which we refer. */
-    Sha256Hash hash;
-    /** Which output of that transaction we are talking about. */
-    long index;
-    
-    StoredTransactionOutPoint(Sha256Hash hash, long index) {
-        this.hash = hash;
-        this.index = index;
-    }
-    
-    StoredTransactionOutPoint(UTXO out) {
-        this.hash = out.getHash();
-        this.index = out.getIndex();
-    }
-    
-    /**
-     * The hash of the transaction to which we refer
-     */
-    Sha256Hash getHash() {
-        return hash;
-    }
-    
-    /**
-     * The index of the output in transaction to which we refer
-     */
-    long getIndex() {
-        return index;
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(getIndex(), getHash());
-    }
-    
-    @Override
-    public String toString() {
-        return "Stored transaction out point: " + hash + ":" + index;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        StoredTransactionOutPoint other = (StoredTransactionOutPoint) o;
-        return getIndex() == other.getIndex() && Objects.equals(getHash(), other.getHash());
-    }
-}
-
 /**
  * A HashMap<KeyType, ValueType> that is DB transaction-aware
  * This class is not thread-safe.
@@ -258,6 +203,8 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     private TransactionalMultiKeyHashMap<Sha256Hash, Integer, StoredUndoableBlock> fullBlockMap;
     //TODO: Use something more suited to remove-heavy use?
     private TransactionalHashMap<StoredTransactionOutPoint, UTXO> transactionOutputMap;
+    // Hashes of the blocks on the chain that ends in the chain head, by height.
+    private Map<Integer, Sha256Hash> heightIndex;
     private StoredBlock chainHead;
     private StoredBlock verifiedChainHead;
     private int fullStoreDepth;
@@ -272,6 +219,7 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
         blockMap = new TransactionalHashMap<>();
         fullBlockMap = new TransactionalMultiKeyHashMap<>();
         transactionOutputMap = new TransactionalHashMap<>();
+        heightIndex = new HashMap<>();
         this.fullStoreDepth = fullStoreDepth > 0 ? fullStoreDepth : 1;
         // Insert the genesis block.
         try {
@@ -336,6 +284,24 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     public synchronized final void setChainHead(StoredBlock chainHead) throws BlockStoreException {
         Objects.requireNonNull(blockMap, "MemoryFullPrunedBlockStore is closed");
         this.chainHead = chainHead;
+        // Walk back until we join the previous chain, which is usually right away.
+        StoredBlock cursor = chainHead;
+        while (cursor != null) {
+            Sha256Hash hash = cursor.getHeader().getHash();
+            if (hash.equals(heightIndex.put(cursor.getHeight(), hash)))
+                break;
+            cursor = get(cursor.getHeader().getPrevBlockHash());
+        }
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock getByHeight(int height) throws BlockStoreException {
+        Objects.requireNonNull(blockMap, "MemoryFullPrunedBlockStore is closed");
+        if (height > chainHead.getHeight())
+            return null;
+        Sha256Hash hash = heightIndex.get(height);
+        return hash != null ? get(hash) : null;
     }
     
     @Override
@@ -360,6 +326,7 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
         blockMap = null;
         fullBlockMap = null;
         transactionOutputMap = null;
+        heightIndex = null;
     }
     
     @Override
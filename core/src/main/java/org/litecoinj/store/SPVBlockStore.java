@@ -36,6 +36,7 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -88,6 +89,11 @@ public class SPVBlockStore implements BlockStore {
             return size() > 100;  // This was chosen arbitrarily.
         }
     };
+    // Offsets of the records of the blocks on the chain that ends in the chain head, by height. It is built from the
+    // ring buffer by the first getByHeight() call after opening an existing file, and then kept up to date by
+    // setChainHead(). Entries are removed when their record is overwritten, so it never outgrows the ring buffer.
+    private final Map<Integer, Integer> heightIndex = new HashMap<>();
+    private boolean heightIndexBuilt;
     // Used to stop other applications/processes from opening the store.
     protected FileLock fileLock = null;
     protected RandomAccessFile randomAccessFile = null;
@@ -179,6 +185,9 @@ public class SPVBlockStore implements BlockStore {
         lock.lock();
         try {
             setRingCursor(buffer, FILE_PROLOGUE_BYTES);
+            // Nothing to build from.
+            heightIndex.clear();
+            heightIndexBuilt = true;
         } finally {
             lock.unlock();
         }
@@ -204,6 +213,8 @@ public class SPVBlockStore implements BlockStore {
                 // Wrapped around.
                 cursor = FILE_PROLOGUE_BYTES;
             }
+            // The record we are about to overwrite can't be found by height anymore.
+            heightIndex.remove(readRecordHeight(buffer, cursor), cursor);
             ((Buffer) buffer).position(cursor);
             Sha256Hash hash = block.getHeader().getHash();
             notFoundCache.remove(hash);
@@ -228,34 +239,94 @@ public class SPVBlockStore implements BlockStore {
             if (notFoundCache.get(hash) != null)
                 return null;
 
-            // Starting from the current tip of the ring work backwards until we have either found the block or
-            // wrapped around.
-            int cursor = getRingCursor(buffer);
-            final int startingPoint = cursor;
-            final byte[] targetHashBytes = hash.getBytes();
-            byte[] scratch = new byte[32];
-            do {
-                cursor -= RECORD_SIZE;
-                if (cursor < FILE_PROLOGUE_BYTES) {
-                    // We hit the start, so wrap around.
-                    cursor = fileLength - RECORD_SIZE;
-                }
-                // Cursor is now at the start of the next record to check, so read the hash and compare it.
-                ((Buffer) buffer).position(cursor);
-                buffer.get(scratch);
-                if (Arrays.equals(scratch, targetHashBytes)) {
-                    // Found the target.
-                    StoredBlock storedBlock = StoredBlock.deserializeCompact(buffer);
-                    blockCache.put(hash, storedBlock);
-                    return storedBlock;
-                }
-            } while (cursor != startingPoint);
-            // Not found.
-            notFoundCache.put(hash, NOT_FOUND_MARKER);
-            return null;
+            int cursor = findRecord(buffer, hash.getBytes());
+            if (cursor < 0) {
+                // Not found.
+                notFoundCache.put(hash, NOT_FOUND_MARKER);
+                return null;
+            }
+            StoredBlock storedBlock = readRecord(buffer, cursor);
+            blockCache.put(hash, storedBlock);
+            return storedBlock;
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * Returns the block at the given height of the chain that ends in the current chain head, or null if the height
+     * is above the chain head or the block at that height has already been overwritten in the ring buffer. The first
+     * call after opening an existing file reads the whole ring buffer once.
+     */
+    @Override
+    @Nullable
+    public StoredBlock getByHeight(int height) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        lock.lock();
+        try {
+            if (!heightIndexBuilt)
+                buildHeightIndex(buffer);
+            if (height > getChainHead().getHeight())
+                return null;
+            Integer cursor = heightIndex.get(height);
+            return cursor != null ? readRecord(buffer, cursor) : null;
+        } finally { lock.unlock(); }
+    }
+
+    // Starting from the current tip of the ring work backwards until we have either found the record with the given
+    // hash or wrapped around. Returns the offset of the record, or -1 if it wasn't found.
+    private int findRecord(ByteBuffer buffer, byte[] targetHashBytes) {
+        int cursor = getRingCursor(buffer);
+        final int startingPoint = cursor;
+        byte[] scratch = new byte[32];
+        do {
+            cursor -= RECORD_SIZE;
+            if (cursor < FILE_PROLOGUE_BYTES) {
+                // We hit the start, so wrap around.
+                cursor = fileLength - RECORD_SIZE;
+            }
+            // Cursor is now at the start of the next record to check, so read the hash and compare it.
+            ((Buffer) buffer).position(cursor);
+            buffer.get(scratch);
+            if (Arrays.equals(scratch, targetHashBytes))
+                return cursor;
+        } while (cursor != startingPoint);
+        return -1;
+    }
+
+    private StoredBlock readRecord(ByteBuffer buffer, int cursor) {
+        ((Buffer) buffer).position(cursor + 32);
+        try {
+            return StoredBlock.deserializeCompact(buffer);
         } catch (ProtocolException e) {
             throw new RuntimeException(e);  // Cannot happen.
-        } finally { lock.unlock(); }
+        }
+    }
+
+    private int readRecordHeight(ByteBuffer buffer, int cursor) {
+        // The compact serialization starts with 12 bytes of chain work, followed by the height.
+        return buffer.getInt(cursor + 32 + 12);
+    }
+
+    // Reads the hashes of all records, then follows the chain back from the chain head.
+    private void buildHeightIndex(ByteBuffer buffer) throws BlockStoreException {
+        Map<Sha256Hash, Integer> records = new HashMap<>();
+        for (int cursor = FILE_PROLOGUE_BYTES; cursor + RECORD_SIZE <= fileLength; cursor += RECORD_SIZE) {
+            byte[] hash = new byte[32];
+            ((Buffer) buffer).position(cursor);
+            buffer.get(hash);
+            records.put(Sha256Hash.wrap(hash), cursor);
+        }
+        // Unused records are all zeros, like the previous block hash of the genesis block.
+        records.remove(Sha256Hash.ZERO_HASH);
+        heightIndex.clear();
+        Integer cursor = records.get(getChainHead().getHeader().getHash());
+        while (cursor != null) {
+            StoredBlock block = readRecord(buffer, cursor);
+            heightIndex.put(block.getHeight(), cursor);
+            cursor = records.get(block.getHeader().getPrevBlockHash());
+        }
+        heightIndexBuilt = true;
     }
 
     protected StoredBlock lastChainHead = null;
@@ -292,6 +363,19 @@ public class SPVBlockStore implements BlockStore {
             byte[] headHash = chainHead.getHeader().getHash().getBytes();
             ((Buffer) buffer).position(8);
             buffer.put(headHash);
+            if (heightIndexBuilt) {
+                // Walk back until we join the previous chain, which is usually right away.
+                StoredBlock block = chainHead;
+                while (block != null) {
+                    int cursor = findRecord(buffer, block.getHeader().getHash().getBytes());
+                    if (cursor < 0)
+                        break;
+                    Integer previous = heightIndex.put(block.getHeight(), cursor);
+                    if (previous != null && previous == cursor)
+                        break;
+                    block = get(block.getHeader().getPrevBlockHash());
+                }
+            }
         } finally { lock.unlock(); }
     }
 
@@ -341,6 +425,8 @@ public class SPVBlockStore implements BlockStore {
             // Clear caches
             blockCache.clear();
             notFoundCache.clear();
+            heightIndex.clear();
+            heightIndexBuilt = false;
             // Clear file content
             ((Buffer) buffer).position(0);
             long fileLength = randomAccessFile.length();
@@ -619,6 +619,24 @@ public class BasicKeyChain implements EncryptableKeyChain {
         }
     }
 
+    /**
+     * Returns the elements {@link #getFilter(int, double, int)} inserts into the filter: the public key and the hash of
+     * the public key of each key.
+     */
+    public List<byte[]> getFilterElements() {
+        lock.lock();
+        try {
+            List<byte[]> elements = new ArrayList<>(hashToKeys.size() * 2);
+            for (ECKey key : hashToKeys.values()) {
+                elements.add(key.getPubKey());
+                elements.add(key.getPubKeyHash());
+            }
+            return elements;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public int numBloomFilterEntries() {
         return numKeys() * 2;
@@ -1143,6 +1143,17 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
 
     }
 
+    /** Returns the elements {@link #getFilter(int, double, int)} inserts into the filter. */
+    public List<byte[]> getFilterElements() {
+        lock.lock();
+        try {
+            maybeLookAhead();
+            return basicKeyChain.getFilterElements();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * <p>The number of public keys we should pre-generate on each path before they are requested by the app. This is
      * required so that when scanning through the chain given only a seed, we can give enough keys to the remote node
@@ -919,6 +919,15 @@ public class KeyChainGroup implements KeyBag {
         return filter;
     }
 
+    /** Returns the elements {@link #getBloomFilter(int, double, int)} inserts into the filter. */
+    public List<byte[]> getBloomFilterElements() {
+        List<byte[]> elements = new ArrayList<>(basic.getFilterElements());
+        if (chains != null)
+            for (DeterministicKeyChain chain : chains)
+                elements.addAll(chain.getFilterElements());
+        return elements;
+    }
+
     public boolean isRequiringUpdateAllBloomFilter() {
         throw new UnsupportedOperationException();   // Unused.
     }
@@ -11,6 +11,7 @@ import org.litecoinj.script.ScriptBuilder;
 import javax.annotation.Nullable;
 import java.security.SecureRandom;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -226,18 +227,29 @@ public class NestedSegwitKeyChain extends DeterministicKeyChain {
 
     @Override
     public BloomFilter getFilter(int size, double falsePositiveRate, int tweak) {
+        BloomFilter filter = new BloomFilter(size, falsePositiveRate, tweak);
+        for (byte[] element : getFilterElements())
+            filter.insert(element);
+        return filter;
+    }
+
+    /**
+     * Returns the elements {@link #getFilter(int, double, int)} inserts into the filter: the script hash and the redeem
+     * script of each key.
+     */
+    @Override
+    public List<byte[]> getFilterElements() {
         lock.lock();
-        BloomFilter filter;
         try {
-            filter = new BloomFilter(size, falsePositiveRate, tweak);
+            List<byte[]> elements = new ArrayList<>(p2shP2wpkhRedeemData.size() * 2);
             for (Map.Entry<ByteString, RedeemData> entry : p2shP2wpkhRedeemData.entrySet()) {
-                filter.insert(entry.getKey().toByteArray());
-                filter.insert(entry.getValue().redeemScript.getProgram());
+                elements.add(entry.getKey().toByteArray());
+                elements.add(entry.getValue().redeemScript.getProgram());
             }
+            return elements;
         } finally {
             lock.unlock();
         }
-        return filter;
     }
 
     @Override
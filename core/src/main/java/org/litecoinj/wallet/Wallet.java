@@ -134,11 +134,13 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
 
 import static org.litecoinj.base.internal.Preconditions.checkArgument;
 import static org.litecoinj.base.internal.Preconditions.checkState;
@@ -194,6 +196,9 @@ public class Wallet extends BaseTaggableObject
 
     private static final int MINIMUM_BLOOM_DATA_LENGTH = 8;
 
+    /** Default for {@link #setDepthNotificationThreshold(int)}. */
+    public static final int DEFAULT_DEPTH_NOTIFICATION_THRESHOLD = 100;
+
     // The various pools below give quick access to wallet-relevant transactions by the state they're in:
     //
     // Pending:  Transactions that didn't make it into the best chain yet. Pending transactions can be killed if a
@@ -221,6 +226,10 @@ public class Wallet extends BaseTaggableObject
     // All transactions together.
     protected final Map<Sha256Hash, Transaction> transactions;
 
+    // The transactions of the transactions map spending each outpoint, to find double spends without looking at every
+    // transaction. Kept up to date by putTransaction(), removeTransaction() and clearTransactions().
+    private final Map<TransactionOutPoint, List<Transaction>> spendingTransactions = new HashMap<>();
+
     // All the TransactionOutput objects that we could spend (ignoring whether we have the private key or not).
     // Used to speed up various calculations.
     protected final HashSet<TransactionOutput> myUnspents = new HashSet<>();
@@ -250,7 +259,9 @@ public class Wallet extends BaseTaggableObject
     protected final NetworkParameters params;
 
     @Nullable private Sha256Hash lastBlockSeenHash;
-    private int lastBlockSeenHeight;
+    private volatile int lastBlockSeenHeight;
+    // Lets the confidence of our transactions calculate their depth without taking the wallet lock.
+    private final IntSupplier bestChainHeight = () -> lastBlockSeenHeight;
     @Nullable private Instant lastBlockSeenTime;
 
     private final List<ListenerRegistration<WalletChangeEventListener>> changeListeners
@@ -274,6 +285,11 @@ public class Wallet extends BaseTaggableObject
     // in receive() via Transaction.setBlockAppearance(). As the BlockChain always calls notifyNewBestBlock even if
     // it sent transactions to the wallet, without this we'd double count.
     private HashSet<Sha256Hash> ignoreNextNewBlock;
+    // BUILDING transactions that notifyNewBestBlock needs to visit: those not yet buried deeper than both the depth
+    // notification threshold and the event horizon, those somebody else listens to, and those whose depth can't be
+    // calculated from the chain height. Transactions that were killed or went pending are removed lazily.
+    private HashSet<Transaction> depthTracked;
+    private volatile int vDepthNotificationThreshold = DEFAULT_DEPTH_NOTIFICATION_THRESHOLD;
     // Whether to ignore pending transactions that are considered risky by the configured risk analyzer.
     private boolean acceptRiskyTransactions;
     // Object that performs risk analysis of pending transactions. We might reject transactions that seem like
@@ -286,6 +302,13 @@ public class Wallet extends BaseTaggableObject
     private int onWalletChangedSuppressions;
     private boolean insideReorg;
     private final Map<Transaction, TransactionConfidence.Listener.ChangeReason> confidenceChanged;
+    // Balances as last calculated by getBalance(BalanceType), so that polling them doesn't require scanning all
+    // unspent outputs under the wallet lock. Cleared by invalidateBalances() whenever something they depend on
+    // changes: the unspent outputs, confidence of transactions, keys or the UTXO provider.
+    private final Map<BalanceType, Coin> balances = new ConcurrentHashMap<>();
+    private final AtomicInteger balancesVersion = new AtomicInteger();
+    // The pending transactions the cached available balances were calculated with, null once they are invalidated.
+    @Nullable private volatile PendingSnapshot balancesPendingSnapshot;
     protected volatile WalletFiles vFileManager;
     // Object that is used to send transactions asynchronously when the wallet requires it.
     protected volatile TransactionBroadcaster vTransactionBroadcaster;
@@ -643,6 +666,9 @@ public class Wallet extends BaseTaggableObject
         signers = new ArrayList<>();
         addTransactionSigner(new LocalTransactionSigner());
         createTransientState();
+        // New keys can make outputs signable and so change the spendable balances. This doesn't take the wallet lock,
+        // as the listener may run with the key chain group lock held.
+        keyChainGroup.addEventListener(keys -> invalidateBalances(), Threading.SAME_THREAD);
     }
 
     /**
@@ -655,7 +681,9 @@ public class Wallet extends BaseTaggableObject
 
     private void createTransientState() {
         ignoreNextNewBlock = new HashSet<>();
+        depthTracked = new HashSet<>();
         txConfidenceListener = (confidence, reason) -> {
+            invalidateBalances();
             // This will run on the user code thread so we shouldn't do anything too complicated here.
             // We only want to queue a wallet changed event and auto-save if the number of peers announcing
             // the transaction has changed, as that confidence change is made by the networking code which
@@ -974,6 +1002,42 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    /**
+     * Returns the output scripts that compact block filters (BIP158) are matched against: the P2PK, P2PKH and, for
+     * compressed keys, P2WPKH scripts of all keys including the lookahead keys, the P2SH scripts of keychains that pay
+     * to script hashes such as {@link NestedSegwitKeyChain}, and the watched scripts. This is the counterpart of
+     * {@link #getBloomFilter(double)} for filters that are matched locally.
+     */
+    public List<Script> getFilterScripts() {
+        keyChainGroupLock.lock();
+        try {
+            List<Script> scripts = new ArrayList<>();
+            for (ECKey key : keyChainGroup.getImportedKeys())
+                addFilterScripts(key, scripts);
+            if (keyChainGroup.supportsDeterministicChains()) {
+                for (DeterministicKeyChain chain : keyChainGroup.getDeterministicKeyChains()) {
+                    chain.maybeLookAhead();
+                    for (DeterministicKey key : chain.getLeafKeys()) {
+                        addFilterScripts(key, scripts);
+                        if (chain.isNestedSegwit())
+                            scripts.add(ScriptBuilder.createP2SHOutputScript(chain.getRedeemData(key).redeemScript));
+                    }
+                }
+            }
+            scripts.addAll(watchedScripts);
+            return scripts;
+        } finally {
+            keyChainGroupLock.unlock();
+        }
+    }
+
+    private static void addFilterScripts(ECKey key, List<Script> scripts) {
+        scripts.add(ScriptBuilder.createP2PKOutputScript(key));
+        scripts.add(ScriptBuilder.createP2PKHOutputScript(key));
+        if (key.isCompressed())
+            scripts.add(ScriptBuilder.createP2WPKHOutputScript(key));
+    }
+
     /**
      * Removes the given key from the basicKeyChain. Be very careful with this - losing a private key <b>destroys the
      * money associated with it</b>.
@@ -1776,6 +1840,32 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    /**
+     * <p>Sets the depth up to which transactions in the best chain get a
+     * {@link TransactionConfidence.Listener.ChangeReason#DEPTH} confidence change for every new block. This applies to
+     * confidence listeners on the transactions as well as to {@link TransactionConfidenceEventListener}s on this
+     * wallet. The depth of transactions is calculated from the chain height, so the wallet doesn't need to visit
+     * deeper transactions, and handling a new block doesn't get slower as the wallet history grows.</p>
+     *
+     * <p>Deeper transactions are still notified as long as somebody has registered a confidence listener with them,
+     * e.g. via {@link TransactionConfidence#getDepthFuture(int)}. The wallet keeps visiting transactions until they
+     * are buried deeper than the event horizon of the {@link Context}, not just this threshold, so this only works if
+     * the listener was registered before the transaction passed the event horizon.</p>
+     *
+     * <p>Defaults to {@link #DEFAULT_DEPTH_NOTIFICATION_THRESHOLD}. Note that this property is not serialized.</p>
+     */
+    public void setDepthNotificationThreshold(int depth) {
+        checkArgument(depth >= 0, () -> "depth must not be negative: " + depth);
+        this.vDepthNotificationThreshold = depth;
+    }
+
+    /**
+     * See {@link Wallet#setDepthNotificationThreshold(int)} for an explanation of this property.
+     */
+    public int getDepthNotificationThreshold() {
+        return vDepthNotificationThreshold;
+    }
+
     /**
      * Sets the {@link RiskAnalysis} implementation to use for deciding whether received pending transactions are risky
      * or not. If the analyzer says a transaction is risky, by default it will be dropped. You can customize this
@@ -2287,21 +2377,19 @@ public class Wallet extends BaseTaggableObject
     private Set<Transaction> findDoubleSpendsAgainst(Transaction tx, Map<Sha256Hash, Transaction> candidates) {
         checkState(lock.isHeldByCurrentThread());
         if (tx.isCoinBase()) return new HashSet<>();
-        // Compile a set of outpoints that are spent by tx.
-        HashSet<TransactionOutPoint> outpoints = new HashSet<>();
-        for (TransactionInput input : tx.getInputs()) {
-            outpoints.add(input.getOutpoint());
-        }
-        // Now for each pending transaction, see if it shares any outpoints with this tx.
+        Sha256Hash txId = tx.getTxId();
+        // For each outpoint spent by tx, see which candidates spend it too. All candidates are in the transactions map,
+        // so they are in the index of spending transactions.
         Set<Transaction> doubleSpendTxns = new HashSet<>();
-        for (Transaction p : candidates.values()) {
-            if (p.equals(tx))
+        for (TransactionInput input : tx.getInputs()) {
+            // This relies on the fact that TransactionOutPoint equality is defined at the protocol not object
+            // level - outpoints from two different inputs that point to the same output compare the same.
+            List<Transaction> spenders = spendingTransactions.get(input.getOutpoint());
+            if (spenders == null)
                 continue;
-            for (TransactionInput input : p.getInputs()) {
-                // This relies on the fact that TransactionOutPoint equality is defined at the protocol not object
-                // level - outpoints from two different inputs that point to the same output compare the same.
-                TransactionOutPoint outpoint = input.getOutpoint();
-                if (outpoints.contains(outpoint)) {
+            for (Transaction spender : spenders) {
+                Transaction p = candidates.get(spender.getTxId());
+                if (p != null && !p.getTxId().equals(txId)) {
                     // It does, it's a double spend against the candidates, which makes it relevant.
                     doubleSpendTxns.add(p);
                 }
@@ -2310,6 +2398,42 @@ public class Wallet extends BaseTaggableObject
         return doubleSpendTxns;
     }
 
+    // Puts the transaction into the transactions map, and updates the index of spending transactions.
+    private void putTransaction(Transaction tx) {
+        Transaction replaced = transactions.put(tx.getTxId(), tx);
+        if (replaced == tx)
+            return;
+        if (replaced != null)
+            removeSpends(replaced);
+        if (tx.isCoinBase())
+            return;
+        for (TransactionInput input : tx.getInputs())
+            spendingTransactions.computeIfAbsent(input.getOutpoint(), k -> new ArrayList<>(1)).add(tx);
+    }
+
+    // Removes the transaction from the transactions map, and updates the index of spending transactions.
+    private void removeTransaction(Sha256Hash txId) {
+        Transaction removed = transactions.remove(txId);
+        if (removed != null) {
+            removeSpends(removed);
+            removed.getConfidence().removeBestChainHeightSupplier(bestChainHeight);
+        }
+    }
+
+    private void removeSpends(Transaction tx) {
+        if (tx.isCoinBase())
+            return;
+        for (TransactionInput input : tx.getInputs()) {
+            TransactionOutPoint outpoint = input.getOutpoint();
+            List<Transaction> spenders = spendingTransactions.get(outpoint);
+            if (spenders == null)
+                continue;
+            spenders.removeIf(spender -> spender == tx);
+            if (spenders.isEmpty())
+                spendingTransactions.remove(outpoint);
+        }
+    }
+
     /**
      * Adds to txSet all the txns in txPool spending outputs of txns in txSet,
      * and all txns spending the outputs of those txns, recursively.
@@ -2448,6 +2572,7 @@ public class Wallet extends BaseTaggableObject
             // confidence object about the block and sets its depth appropriately.
             tx.setBlockAppearance(block, bestChain, relativityOffset);
             if (bestChain) {
+                depthTracked.add(tx);
                 // Don't notify this tx of work done in notifyNewBestBlock which will be called immediately after
                 // this method has been called by BlockChain for all relevant transactions. Otherwise we'd double
                 // count.
@@ -2473,6 +2598,7 @@ public class Wallet extends BaseTaggableObject
         }
 
         onWalletChangedSuppressions--;
+        invalidateBalances();
 
         // Side chains don't affect confidence.
         if (bestChain) {
@@ -2590,30 +2716,39 @@ public class Wallet extends BaseTaggableObject
             setLastBlockSeenHash(newBlockHash);
             setLastBlockSeenHeight(block.getHeight());
             setLastBlockSeenTime(block.getHeader().time());
-            // Notify all the BUILDING transactions of the new block.
-            // This is so that they can update their depth.
-            Set<Transaction> transactions = getTransactions(true);
-            for (Transaction tx : transactions) {
+            // Notify the BUILDING transactions of the new block. The depth of most of them is calculated from the
+            // chain height, so only the ones that are still shallow or that somebody listens to need to be visited.
+            int threshold = vDepthNotificationThreshold;
+            int eventHorizon = Context.getOrCreate().getEventHorizon();
+            for (Iterator<Transaction> i = depthTracked.iterator(); i.hasNext();) {
+                Transaction tx = i.next();
+                TransactionConfidence confidence = tx.getConfidence();
                 if (ignoreNextNewBlock.contains(tx.getTxId())) {
                     // tx was already processed in receive() due to it appearing in this block, so we don't want to
                     // increment the tx confidence depth twice, it'd result in miscounting.
                     ignoreNextNewBlock.remove(tx.getTxId());
+                } else if (confidence.getConfidenceType() != ConfidenceType.BUILDING) {
+                    i.remove();
                 } else {
-                    TransactionConfidence confidence = tx.getConfidence();
-                    if (confidence.getConfidenceType() == ConfidenceType.BUILDING) {
-                        // Erase the set of seen peers once the tx is so deep that it seems unlikely to ever go
-                        // pending again. We could clear this data the moment a tx is seen in the block chain, but
-                        // in cases where the chain re-orgs, this would mean that wallets would perceive a newly
-                        // pending tx has zero confidence at all, which would not be right: we expect it to be
-                        // included once again. We could have a separate was-in-chain-and-now-isn't confidence type
-                        // but this way is backwards compatible with existing software, and the new state probably
-                        // wouldn't mean anything different to just remembering peers anyway.
-                        if (confidence.incrementDepthInBlocks() > Context.getOrCreate().getEventHorizon())
-                            confidence.clearBroadcastBy();
+                    boolean calculated = confidence.isDepthCalculatedFromHeight();
+                    int depth = calculated ? confidence.getDepthInBlocks() : confidence.incrementDepthInBlocks();
+                    // Erase the set of seen peers once the tx is so deep that it seems unlikely to ever go
+                    // pending again. We could clear this data the moment a tx is seen in the block chain, but
+                    // in cases where the chain re-orgs, this would mean that wallets would perceive a newly
+                    // pending tx has zero confidence at all, which would not be right: we expect it to be
+                    // included once again. We could have a separate was-in-chain-and-now-isn't confidence type
+                    // but this way is backwards compatible with existing software, and the new state probably
+                    // wouldn't mean anything different to just remembering peers anyway.
+                    if (depth > eventHorizon)
+                        confidence.clearBroadcastBy();
+                    boolean listenedTo = confidence.hasEventListenersOtherThan(txConfidenceListener);
+                    if (depth <= threshold || listenedTo)
                         confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.DEPTH);
-                    }
+                    else if (calculated && depth > eventHorizon)
+                        i.remove();
                 }
             }
+            invalidateBalances();
 
             informConfidenceListenersIfNotReorganizing();
             maybeQueueOnWalletChanged();
@@ -2803,6 +2938,7 @@ public class Wallet extends BaseTaggableObject
             // If the transactions outputs are now all spent, it will be moved into the spent pool by the
             // processTxFromBestChain method.
         }
+        invalidateBalances();
     }
 
     // Updates the wallet when a double spend occurs. overridingTx can be null for the case of coinbases
@@ -2841,6 +2977,7 @@ public class Wallet extends BaseTaggableObject
                 work.push(parentTransaction);
             }
         }
+        invalidateBalances();
         if (overridingTx == null)
             return;
         log.warn("Now attempting to connect the inputs of the overriding transaction.");
@@ -2859,6 +2996,7 @@ public class Wallet extends BaseTaggableObject
                 }
             }
         }
+        invalidateBalances();
     }
 
     /**
@@ -2952,6 +3090,7 @@ public class Wallet extends BaseTaggableObject
                 confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.TYPE);
                 addWalletTransaction(Pool.PENDING, tx);
             }
+            invalidateBalances();
             if (log.isInfoEnabled())
                 log.info("Estimated balance is now: {}", getBalance(BalanceType.ESTIMATED).toFriendlyString());
 
@@ -3325,7 +3464,7 @@ public class Wallet extends BaseTaggableObject
      */
     private void addWalletTransaction(Pool pool, Transaction tx) {
         checkState(lock.isHeldByCurrentThread());
-        transactions.put(tx.getTxId(), tx);
+        putTransaction(tx);
         switch (pool) {
         case UNSPENT:
             checkState(unspent.put(tx.getTxId(), tx) == null);
@@ -3348,9 +3487,13 @@ public class Wallet extends BaseTaggableObject
                     myUnspents.add(output);
             }
         }
+        invalidateBalances();
         // This is safe even if the listener has been added before, as TransactionConfidence ignores duplicate
         // registration requests. That makes the code in the wallet simpler.
         tx.getConfidence().addEventListener(Threading.SAME_THREAD, txConfidenceListener);
+        tx.getConfidence().addBestChainHeightSupplier(bestChainHeight);
+        if (tx.getConfidence().getConfidenceType() == ConfidenceType.BUILDING)
+            depthTracked.add(tx);
     }
 
     /**
@@ -3467,8 +3610,13 @@ public class Wallet extends BaseTaggableObject
         spent.clear();
         pending.clear();
         dead.clear();
+        for (Transaction tx : transactions.values())
+            tx.getConfidence().removeBestChainHeightSupplier(bestChainHeight);
         transactions.clear();
+        spendingTransactions.clear();
         myUnspents.clear();
+        depthTracked.clear();
+        invalidateBalances();
     }
 
     /**
@@ -3526,7 +3674,7 @@ public class Wallet extends BaseTaggableObject
                             myUnspents.remove(output);
 
                         i.remove();
-                        transactions.remove(tx.getTxId());
+                        removeTransaction(tx.getTxId());
                         dirty = true;
                         log.info("Removed transaction {} from pending pool during cleanup.", tx.getTxId());
                     } else {
@@ -3537,6 +3685,7 @@ public class Wallet extends BaseTaggableObject
                 }
             }
             if (dirty) {
+                invalidateBalances();
                 isConsistentOrThrow();
                 saveLater();
                 if (log.isInfoEnabled())
@@ -3958,28 +4107,92 @@ public class Wallet extends BaseTaggableObject
     }
 
     /**
-     * Returns the balance of this wallet as calculated by the provided balanceType.
+     * Returns the balance of this wallet as calculated by the provided balanceType. The result is cached until the
+     * wallet changes, so polling the balance is cheap and doesn't wait for the wallet lock.
      */
     public Coin getBalance(BalanceType balanceType) {
+        boolean available = balanceType == BalanceType.AVAILABLE || balanceType == BalanceType.AVAILABLE_SPENDABLE;
+        Coin balance = balances.get(balanceType);
+        if (balance != null && !available)
+            return balance;
+        // The coin selector also looks at how many peers announced pending transactions. Announcements are recorded
+        // without a confidence change event, see TransactionConfidence#markBroadcastBy(), so check them here.
+        PendingSnapshot snapshot = balancesPendingSnapshot;
+        if (balance != null && snapshot != null && snapshot.isCurrent())
+            return balance;
         lock.lock();
         try {
-            if (balanceType == BalanceType.AVAILABLE || balanceType == BalanceType.AVAILABLE_SPENDABLE) {
-                List<TransactionOutput> candidates = calculateAllSpendCandidates(true, balanceType == BalanceType.AVAILABLE_SPENDABLE);
-                CoinSelection selection = coinSelector.select(LitecoinNetwork.MAX_MONEY, candidates);
-                return selection.totalValue();
-            } else if (balanceType == BalanceType.ESTIMATED || balanceType == BalanceType.ESTIMATED_SPENDABLE) {
-                List<TransactionOutput> all = calculateAllSpendCandidates(false, balanceType == BalanceType.ESTIMATED_SPENDABLE);
-                Coin value = Coin.ZERO;
-                for (TransactionOutput out : all) value = value.add(out.getValue());
-                return value;
-            } else {
-                throw new AssertionError("Unknown balance type");  // Unreachable.
+            int version = balancesVersion.get();
+            if (available && (snapshot == null || !snapshot.isCurrent())) {
+                balances.remove(BalanceType.AVAILABLE);
+                balances.remove(BalanceType.AVAILABLE_SPENDABLE);
+                balancesPendingSnapshot = new PendingSnapshot(pending.values());
+            }
+            balance = calculateBalance(balanceType);
+            // Balances from a UTXO provider can change without the wallet noticing, so they are never cached.
+            if (vUTXOProvider == null) {
+                balances.put(balanceType, balance);
+                // Don't keep the balance if it was invalidated while calculating it, e.g. by new keys.
+                if (balancesVersion.get() != version)
+                    balances.remove(balanceType);
             }
+            return balance;
         } finally {
             lock.unlock();
         }
     }
 
+    private Coin calculateBalance(BalanceType balanceType) {
+        checkState(lock.isHeldByCurrentThread());
+        if (balanceType == BalanceType.AVAILABLE || balanceType == BalanceType.AVAILABLE_SPENDABLE) {
+            List<TransactionOutput> candidates = calculateAllSpendCandidates(true, balanceType == BalanceType.AVAILABLE_SPENDABLE);
+            CoinSelection selection = coinSelector.select(LitecoinNetwork.MAX_MONEY, candidates);
+            return selection.totalValue();
+        } else if (balanceType == BalanceType.ESTIMATED || balanceType == BalanceType.ESTIMATED_SPENDABLE) {
+            List<TransactionOutput> all = calculateAllSpendCandidates(false, balanceType == BalanceType.ESTIMATED_SPENDABLE);
+            Coin value = Coin.ZERO;
+            for (TransactionOutput out : all) value = value.add(out.getValue());
+            return value;
+        } else {
+            throw new AssertionError("Unknown balance type");  // Unreachable.
+        }
+    }
+
+    /**
+     * Forgets the balances cached by {@link #getBalance(BalanceType)}. Must be called whenever the set of unspent
+     * outputs, the confidence of our transactions or our keys change.
+     */
+    private void invalidateBalances() {
+        balancesVersion.incrementAndGet();
+        balancesPendingSnapshot = null;
+        balances.clear();
+    }
+
+    /** How many peers had announced each of the pending transactions at some point. */
+    private static class PendingSnapshot {
+        private final TransactionConfidence[] confidences;
+        private final int[] broadcastPeers;
+
+        PendingSnapshot(Collection<Transaction> pending) {
+            confidences = new TransactionConfidence[pending.size()];
+            broadcastPeers = new int[pending.size()];
+            int i = 0;
+            for (Transaction tx : pending) {
+                confidences[i] = tx.getConfidence();
+                broadcastPeers[i] = confidences[i].numBroadcastPeers();
+                i++;
+            }
+        }
+
+        /** Returns true if no more peers announced any of the transactions since the snapshot was taken. */
+        boolean isCurrent() {
+            for (int i = 0; i < confidences.length; i++)
+                if (confidences[i].numBroadcastPeers() != broadcastPeers[i])
+                    return false;
+            return true;
+        }
+    }
+
     /**
      * Returns the balance that would be considered spendable by the given coin selector, including watched outputs
      * (i.e. balance includes outputs we don't have the private keys for). Just asks it to select as many coins as
@@ -4880,6 +5093,7 @@ public class Wallet extends BaseTaggableObject
         try {
             checkArgument(provider == null || provider.network() == network);
             this.vUTXOProvider = provider;
+            invalidateBalances();
         } finally {
             lock.unlock();
         }
@@ -5071,10 +5285,13 @@ public class Wallet extends BaseTaggableObject
             // The total depth is calculated here and then subtracted from the appropriate transactions.
             int depthToSubtract = oldBlocks.size();
             log.info("depthToSubtract = " + depthToSubtract);
+            // This also rolls back the depth of transactions that calculate it from the chain height.
+            setLastBlockSeenHeight(splitPoint.getHeight());
             // Remove depthToSubtract from all transactions in the wallet except for pending.
             subtractDepth(depthToSubtract, spent.values());
             subtractDepth(depthToSubtract, unspent.values());
             subtractDepth(depthToSubtract, dead.values());
+            invalidateBalances();
 
             // The effective last seen block is now the split point so set the lastSeenBlockHash.
             setLastBlockSeenHash(splitPoint.getHeader().getHash());
@@ -5116,9 +5333,13 @@ public class Wallet extends BaseTaggableObject
      */
     private void subtractDepth(int depthToSubtract, Collection<Transaction> transactions) {
         for (Transaction tx : transactions) {
-            if (tx.getConfidence().getConfidenceType() == ConfidenceType.BUILDING) {
-                tx.getConfidence().setDepthInBlocks(tx.getConfidence().getDepthInBlocks() - depthToSubtract);
+            TransactionConfidence confidence = tx.getConfidence();
+            if (confidence.getConfidenceType() == ConfidenceType.BUILDING) {
+                if (!confidence.isDepthCalculatedFromHeight())
+                    confidence.setDepthInBlocks(confidence.getDepthInBlocks() - depthToSubtract);
                 confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.DEPTH);
+                // It may be shallow again.
+                depthTracked.add(tx);
             }
         }
     }
@@ -5238,6 +5459,26 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    @Override @GuardedBy("keyChainGroupLock")
+    public List<byte[]> getBloomFilterElements() {
+        beginBloomFilterCalculation();
+        try {
+            List<byte[]> elements = keyChainGroup.getBloomFilterElements();
+            for (Script script : watchedScripts) {
+                for (ScriptChunk chunk : script.chunks()) {
+                    // The same elements as getBloomFilter() inserts.
+                    if (!chunk.isOpCode() && (chunk.data != null) && chunk.data.length >= MINIMUM_BLOOM_DATA_LENGTH)
+                        elements.add(chunk.data);
+                }
+            }
+            for (TransactionOutPoint point : bloomOutPoints)
+                elements.add(point.serialize());
+            return elements;
+        } finally {
+            endBloomFilterCalculation();
+        }
+    }
+
     // Returns true if the output is one that won't be selected by a data element matching in the scriptSig.
     private boolean isTxOutputBloomFilterable(TransactionOutput out) {
         Script script = out.getScriptPubKey();
@@ -20,6 +20,7 @@ package org.litecoinj.core;
 import com.google.common.io.BaseEncoding;
 import org.litecoinj.base.internal.ByteUtils;
 import org.litecoinj.base.internal.TimeUtils;
+import org.litecoinj.net.BufferPool;
 import org.litecoinj.params.MainNetParams;
 import org.litecoinj.params.TestNet3Params;
 import org.junit.Test;
@@ -37,6 +38,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BitcoinSerializerTest {
     private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
@@ -219,6 +221,46 @@ public class BitcoinSerializerTest {
         new BitcoinSerializer.BitcoinPacketHeader(ByteBuffer.wrap(wrongMessageLength));
     }
 
+    @Test
+    public void testChecksumVerification() throws Exception {
+        MessageSerializer serializer = MAINNET.getDefaultSerializer();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        serializer.serialize(Ping.of(5), bos);
+        byte[] bytes = bos.toByteArray();
+        // Corrupt the payload, the nonce still parses.
+        bytes[bytes.length - 1] ^= 1;
+        try {
+            serializer.deserialize(ByteBuffer.wrap(bytes));
+            fail();
+        } catch (ProtocolException e) {
+            // expected
+        }
+        Ping ping = (Ping) serializer.withChecksumVerification(false).deserialize(ByteBuffer.wrap(bytes));
+        assertEquals(5 ^ (1L << 56), ping.nonce());
+        // The setting survives a protocol version change.
+        MessageSerializer trusting = serializer.withChecksumVerification(false).withProtocolVersion(70001);
+        assertNotNull(trusting.deserialize(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void testSerializeToPool() throws Exception {
+        MessageSerializer serializer = MAINNET.getDefaultSerializer();
+        BufferPool pool = new BufferPool(1024 * 1024, true);
+        Block block = MAINNET.getGenesisBlock();
+        // Blocks and transactions are serialized straight into the buffer, pings are copied.
+        for (Message message : new Message[] { Ping.of(5), block, block.getTransactions().get(0), new GetAddrMessage() }) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            serializer.serialize(message, bos);
+            ByteBuffer buffer = serializer.serialize(message, pool);
+            assertTrue(buffer.isDirect());
+            assertEquals(0, buffer.position());
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            assertArrayEquals(bos.toByteArray(), bytes);
+            pool.release(buffer);
+        }
+    }
+
     @Test(expected = BufferUnderflowException.class)
     public void testSeekPastMagicBytes() {
         // Fail in another way, there is data in the stream but no magic bytes.
@@ -0,0 +1,178 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.LitecoinNetwork;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.internal.ByteUtils;
+import org.litecoinj.params.UnitTestParams;
+import org.litecoinj.script.Script;
+import org.litecoinj.store.MemoryFilterHeaderStore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.litecoinj.testing.FakeTxBuilder.createFakeTx;
+
+public class BlockFilterTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    // Bitcoin testnet genesis block, from the test vectors of BIP158.
+    private static final Sha256Hash GENESIS_HASH =
+            Sha256Hash.wrap("000000000933ea01ad0ee984209779baaec3ced90fa3f408719526f8d77f4943");
+    private static final byte[] GENESIS_SCRIPT = ByteUtils.parseHex("4104678afdb0fe5548271967f1a67130b7105cd6a828e"
+            + "03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac");
+
+    @Test
+    public void testVector() {
+        BlockFilter filter = BlockFilter.of(GENESIS_HASH, Collections.singletonList(GENESIS_SCRIPT));
+        assertEquals("019dfca8", ByteUtils.formatHex(filter.serialize()));
+        assertEquals(Sha256Hash.wrap("21584579b7eb08997773e5aeff3a7f932700042d0ed2a6129012b7d7ae81b750"),
+                filter.getHeader(Sha256Hash.ZERO_HASH));
+    }
+
+    @Test
+    public void duplicatesIgnored() {
+        BlockFilter filter = BlockFilter.of(GENESIS_HASH, Arrays.asList(GENESIS_SCRIPT, GENESIS_SCRIPT.clone()));
+        assertEquals(1, filter.size());
+        assertEquals("019dfca8", ByteUtils.formatHex(filter.serialize()));
+    }
+
+    @Test
+    public void matches() {
+        List<byte[]> elements = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            elements.add(Sha256Hash.hash(new byte[] { (byte) i, (byte) (i >> 8) }));
+        BlockFilter filter = BlockFilter.read(GENESIS_HASH,
+                BlockFilter.of(GENESIS_HASH, elements).serialize());
+        assertEquals(1000, filter.size());
+        for (byte[] element : elements)
+            assertTrue(filter.matchesAny(Collections.singletonList(element)));
+        assertTrue(filter.matchesAny(Arrays.asList(new byte[] { 1 }, elements.get(500))));
+        assertFalse(filter.matchesAny(Arrays.asList(new byte[] { 1 }, new byte[] { 2 })));
+        assertFalse(filter.matchesAny(Collections.emptyList()));
+        // The hashes are keyed with the block hash.
+        assertFalse(BlockFilter.read(Sha256Hash.ZERO_HASH, filter.serialize())
+                .matchesAny(Collections.singletonList(elements.get(0))));
+    }
+
+    @Test
+    public void emptyFilter() {
+        BlockFilter filter = BlockFilter.of(GENESIS_HASH, Collections.emptyList());
+        assertEquals("00", ByteUtils.formatHex(filter.serialize()));
+        assertFalse(filter.matchesAny(Collections.singletonList(GENESIS_SCRIPT)));
+    }
+
+    @Test
+    public void buildFromBlock() {
+        Transaction tx = createFakeTx(LitecoinNetwork.TESTNET);
+        Block block = UNITTEST.getGenesisBlock().createNextBlock(null);
+        block.addTransaction(tx);
+        Script spent = Script.parse(GENESIS_SCRIPT);
+        BlockFilter filter = BlockFilter.build(block, Collections.singletonList(spent));
+        assertEquals(block.getHash(), filter.getBlockHash());
+        assertTrue(filter.matchesAny(Collections.singletonList(tx.getOutput(0).getScriptBytes())));
+        assertTrue(filter.matchesAny(Collections.singletonList(GENESIS_SCRIPT)));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void truncatedFilter() {
+        BlockFilter.read(GENESIS_HASH, ByteUtils.parseHex("059dfca8"));
+    }
+
+    @Test
+    public void messagesRoundTrip() {
+        BlockFilter filter = BlockFilter.of(GENESIS_HASH, Collections.singletonList(GENESIS_SCRIPT));
+        CFilterMessage cfilter = CFilterMessage.read(ByteBuffer.wrap(CFilterMessage.of(filter).serialize()));
+        assertEquals(filter, cfilter.filter());
+
+        GetCFiltersMessage getcfilters = GetCFiltersMessage.read(ByteBuffer.wrap(
+                GetCFiltersMessage.of(BlockFilter.TYPE_BASIC, 1234, GENESIS_HASH).serialize()));
+        assertEquals(BlockFilter.TYPE_BASIC, getcfilters.filterType());
+        assertEquals(1234, getcfilters.startHeight());
+        assertEquals(GENESIS_HASH, getcfilters.stopHash());
+
+        GetCFHeadersMessage getcfheaders = GetCFHeadersMessage.read(ByteBuffer.wrap(
+                GetCFHeadersMessage.of(BlockFilter.TYPE_BASIC, 1234, GENESIS_HASH).serialize()));
+        assertEquals(1234, getcfheaders.startHeight());
+        assertEquals(GENESIS_HASH, getcfheaders.stopHash());
+
+        List<Sha256Hash> filterHashes = Arrays.asList(filter.getFilterHash(), Sha256Hash.ZERO_HASH);
+        CFHeadersMessage cfheaders = CFHeadersMessage.read(ByteBuffer.wrap(CFHeadersMessage.of(
+                BlockFilter.TYPE_BASIC, GENESIS_HASH, Sha256Hash.ZERO_HASH, filterHashes).serialize()));
+        assertEquals(GENESIS_HASH, cfheaders.stopHash());
+        assertEquals(filterHashes, cfheaders.filterHashes());
+        Sha256Hash header = filter.getHeader(Sha256Hash.ZERO_HASH);
+        assertEquals(Arrays.asList(header, BlockFilter.header(Sha256Hash.ZERO_HASH, header)),
+                cfheaders.filterHeaders());
+    }
+
+    @Test
+    public void filterDownload() throws Exception {
+        Block block1 = UNITTEST.getGenesisBlock().createNextBlock(null);
+        Block block2 = block1.createNextBlock(null);
+        StoredBlock stored1 = new StoredBlock(block1.cloneAsHeader(), block1.getWork(), 1);
+        StoredBlock stored2 = stored1.build(block2.cloneAsHeader());
+        BlockFilter filter1 = BlockFilter.of(block1.getHash(), Collections.singletonList(GENESIS_SCRIPT));
+        BlockFilter filter2 = BlockFilter.of(block2.getHash(), Collections.singletonList(new byte[] { 1 }));
+        MemoryFilterHeaderStore store = new MemoryFilterHeaderStore();
+        CompactFilterDownload download = new CompactFilterDownload(Arrays.asList(stored1, stored2), store);
+        assertEquals(1, download.headersRequest().startHeight());
+        assertEquals(block2.getHash(), download.filtersRequest().stopHash());
+
+        download.addHeaders(CFHeadersMessage.of(BlockFilter.TYPE_BASIC, block2.getHash(), Sha256Hash.ZERO_HASH,
+                Arrays.asList(filter1.getFilterHash(), filter2.getFilterHash())));
+        assertEquals(Sha256Hash.ZERO_HASH, store.get(block1.getPrevBlockHash()));
+        assertEquals(filter2.getHeader(filter1.getHeader(Sha256Hash.ZERO_HASH)), store.get(block2.getHash()));
+        assertFalse(download.hasNext());
+        download.addFilter(CFilterMessage.of(filter1));
+        assertTrue(download.hasNext());
+        assertTrue(download.nextMatches(Collections.singletonList(GENESIS_SCRIPT)));
+        assertEquals(stored1, download.next());
+        assertFalse(download.hasNext());
+        try {
+            // The filter doesn't match its header.
+            download.addFilter(CFilterMessage.of(BlockFilter.of(block2.getHash(), Collections.emptyList())));
+            fail();
+        } catch (ProtocolException e) {
+            // expected
+        }
+        download.addFilter(CFilterMessage.of(filter2));
+        assertFalse(download.nextMatches(Collections.singletonList(GENESIS_SCRIPT)));
+        assertEquals(stored2, download.next());
+        assertTrue(download.isDone());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void filterHeadersMustConnect() throws Exception {
+        Block block1 = UNITTEST.getGenesisBlock().createNextBlock(null);
+        StoredBlock stored1 = new StoredBlock(block1.cloneAsHeader(), block1.getWork(), 1);
+        MemoryFilterHeaderStore store = new MemoryFilterHeaderStore();
+        store.put(block1.getPrevBlockHash(), Sha256Hash.ZERO_HASH);
+        CompactFilterDownload download = new CompactFilterDownload(Collections.singletonList(stored1), store);
+        download.addHeaders(CFHeadersMessage.of(BlockFilter.TYPE_BASIC, block1.getHash(),
+                Sha256Hash.of(new byte[] { 1 }), Collections.singletonList(Sha256Hash.ZERO_HASH)));
+    }
+}
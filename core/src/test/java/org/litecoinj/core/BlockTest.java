@@ -42,6 +42,7 @@ import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -146,6 +147,16 @@ public class BlockTest {
         assertEquals(reparsed, header);
     }
 
+    @Test
+    public void testScryptHashOnDemand() {
+        Block header = block700000.cloneAsHeader();
+        Block reparsed = TESTNET.getDefaultSerializer().makeBlock(ByteBuffer.wrap(header.serialize()));
+        Sha256Hash expected = Sha256Hash.wrap(ByteUtils.reverseBytes(ByteUtils.scryptDigest(
+                Arrays.copyOf(block700000Bytes, Block.HEADER_SIZE))));
+        assertEquals(expected, reparsed.getScryptHash());
+        assertEquals(expected, reparsed.cloneAsHeader().getScryptHash());
+    }
+
     @Test
     public void testBitcoinSerialization() {
         // We have to be able to reserialize everything exactly as we found it for hashing to work. This test also
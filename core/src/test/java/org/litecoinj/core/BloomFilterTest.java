@@ -20,6 +20,7 @@ package org.litecoinj.core;
 import org.litecoinj.base.Address;
 import org.litecoinj.base.LitecoinNetwork;
 import org.litecoinj.base.ScriptType;
+import org.litecoinj.base.Sha256Hash;
 import org.litecoinj.crypto.DumpedPrivateKey;
 import org.litecoinj.crypto.ECKey;
 import org.litecoinj.params.MainNetParams;
@@ -30,6 +31,11 @@ import org.junit.Test;
 import org.litecoinj.base.internal.ByteUtils;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -99,4 +105,65 @@ public class BloomFilterTest {
         // Value generated by Bitcoin Core
         assertEquals("082ae5edc8e51d4a03080000000000000002", ByteUtils.formatHex(filter.serialize()));
     }
+
+    @Test
+    public void insertOutPoint() {
+        TransactionOutPoint outpoint = new TransactionOutPoint(3, Sha256Hash.of(new byte[] { 1, 2, 3 }));
+        BloomFilter filter = new BloomFilter(10, 0.0001, 0x1234);
+        filter.insert(outpoint);
+        BloomFilter serialized = new BloomFilter(10, 0.0001, 0x1234);
+        serialized.insert(outpoint.serialize());
+        assertEquals(serialized, filter);
+        assertTrue(filter.contains(outpoint.serialize()));
+        assertFalse(filter.contains(new TransactionOutPoint(4, outpoint.hash()).serialize()));
+    }
+
+    @Test
+    public void readMergeAndMatchAll() {
+        BloomFilter filter = new BloomFilter(3, 0.01, 0);
+        filter.insert(ByteUtils.parseHex("99108ad8ed9bb6274d3980bab5a85c048f0950c8"));
+        BloomFilter other = new BloomFilter(3, 0.01, 0);
+        other.insert(ByteUtils.parseHex("b5a2c786d9ef4658287ced5914b37a1b4aa32eee"));
+        BloomFilter read = BloomFilter.read(ByteBuffer.wrap(filter.serialize()));
+        assertEquals(filter, read);
+        read.merge(other);
+        assertTrue(read.contains(ByteUtils.parseHex("99108ad8ed9bb6274d3980bab5a85c048f0950c8")));
+        assertTrue(read.contains(ByteUtils.parseHex("b5a2c786d9ef4658287ced5914b37a1b4aa32eee")));
+        assertFalse(read.matchesAll());
+        other.setMatchAll();
+        assertTrue(other.matchesAll());
+        read.merge(other);
+        assertTrue(read.matchesAll());
+        assertEquals("01ff050000000000000002", ByteUtils.formatHex(read.serialize()));
+    }
+
+    @Test
+    public void concurrentInserts() throws Exception {
+        BloomFilter filter = new BloomFilter(4000, 0.001, 42);
+        BloomFilter expected = new BloomFilter(4000, 0.001, 42);
+        List<byte[]> elements = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            byte[] element = Sha256Hash.hash(new byte[] { (byte) i, (byte) (i >> 8) });
+            elements.add(element);
+            expected.insert(element);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < elements.size(); i += 4)
+                        filter.insert(elements.get(i));
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(expected, filter);
+        for (byte[] element : elements)
+            assertTrue(filter.contains(element));
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.LitecoinNetwork;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.litecoinj.testing.FakeTxBuilder.createFakeTx;
+
+public class CompactBlockMessageTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private Transaction tx1, tx2, tx3;
+    private Block block;
+
+    @Before
+    public void setUp() {
+        tx1 = createFakeTx(LitecoinNetwork.TESTNET);
+        tx2 = createFakeTx(LitecoinNetwork.TESTNET);
+        tx3 = createFakeTx(LitecoinNetwork.TESTNET);
+        block = UNITTEST.getGenesisBlock().createNextBlock(null);
+        block.addTransaction(tx1);
+        block.addTransaction(tx2);
+        block.addTransaction(tx3);
+    }
+
+    @Test
+    public void roundTrip() {
+        CompactBlockMessage message = CompactBlockMessage.of(block, 12345);
+        CompactBlockMessage read = CompactBlockMessage.read(ByteBuffer.wrap(message.serialize()));
+        assertEquals(block.getHash(), read.header().getHash());
+        assertEquals(4, read.transactionCount());
+        assertArrayEquals(message.shortIds(), read.shortIds());
+        assertEquals(Collections.singleton(0), read.prefilledTransactions().keySet());
+        assertEquals(block.getTransactions().get(0), read.prefilledTransactions().get(0));
+        assertEquals(read.shortId(tx2.getWTxId()), read.shortIds()[1]);
+        // The short IDs are 6 bytes long.
+        for (long shortId : read.shortIds())
+            assertEquals(0, shortId >>> 48);
+    }
+
+    @Test
+    public void shortIdsDependOnNonce() {
+        assertFalse(Arrays.equals(CompactBlockMessage.of(block, 1).shortIds(),
+                CompactBlockMessage.of(block, 2).shortIds()));
+    }
+
+    @Test
+    public void getBlockTxnRoundTrip() {
+        Sha256Hash hash = block.getHash();
+        GetBlockTxnMessage message = GetBlockTxnMessage.of(hash, Arrays.asList(1, 2, 5, 100));
+        GetBlockTxnMessage read = GetBlockTxnMessage.read(ByteBuffer.wrap(message.serialize()));
+        assertEquals(hash, read.blockHash());
+        assertEquals(Arrays.asList(1, 2, 5, 100), read.indexes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getBlockTxnUnordered() {
+        GetBlockTxnMessage.of(block.getHash(), Arrays.asList(2, 1));
+    }
+
+    @Test
+    public void blockTxnRoundTrip() {
+        BlockTxnMessage message = BlockTxnMessage.of(block.getHash(), Arrays.asList(tx1, tx3));
+        BlockTxnMessage read = BlockTxnMessage.read(ByteBuffer.wrap(message.serialize()));
+        assertEquals(block.getHash(), read.blockHash());
+        assertEquals(Arrays.asList(tx1, tx3), read.transactions());
+    }
+
+    @Test
+    public void sendCompactBlocksRoundTrip() {
+        SendCompactBlocksMessage message = SendCompactBlocksMessage.of(true, CompactBlockMessage.VERSION);
+        SendCompactBlocksMessage read = SendCompactBlocksMessage.read(ByteBuffer.wrap(message.serialize()));
+        assertTrue(read.announce());
+        assertEquals(CompactBlockMessage.VERSION, read.version());
+    }
+
+    @Test
+    public void reconstructFromPool() {
+        TransactionPool pool = new TransactionPool();
+        pool.add(tx1);
+        pool.add(tx2);
+        pool.add(tx3);
+        PartiallyDownloadedBlock partialBlock = PartiallyDownloadedBlock.create(CompactBlockMessage.of(block, 7), pool);
+        assertNotNull(partialBlock);
+        assertTrue(partialBlock.getMissingIndexes().isEmpty());
+        Block filled = partialBlock.fill(Collections.emptyList());
+        assertNotNull(filled);
+        assertEquals(block.getHash(), filled.getHash());
+        assertEquals(block.getTransactions(), filled.getTransactions());
+    }
+
+    @Test
+    public void reconstructWithMissingTransactions() {
+        TransactionPool pool = new TransactionPool();
+        pool.add(tx2);
+        pool.add(createFakeTx(LitecoinNetwork.TESTNET));
+        PartiallyDownloadedBlock partialBlock = PartiallyDownloadedBlock.create(CompactBlockMessage.of(block, 7), pool);
+        assertNotNull(partialBlock);
+        assertEquals(Arrays.asList(1, 3), partialBlock.getMissingIndexes());
+        // Wrong transactions don't add up to the block.
+        assertNull(partialBlock.fill(Arrays.asList(tx3, tx1)));
+        assertNull(partialBlock.fill(Collections.singletonList(tx1)));
+        Block filled = partialBlock.fill(Arrays.asList(tx1, tx3));
+        assertNotNull(filled);
+        assertEquals(block.getHash(), filled.getHash());
+    }
+
+    @Test
+    public void poolEvictsOldest() {
+        TransactionPool pool = new TransactionPool(2);
+        pool.add(tx1);
+        pool.add(tx2);
+        pool.add(tx3);
+        assertEquals(2, pool.size());
+        assertNull(pool.get(tx1.getWTxId()));
+        assertEquals(tx3, pool.get(tx3.getWTxId()));
+        pool.removeAll(block.getTransactions());
+        assertEquals(0, pool.size());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.litecoinj.store.BlockStoreException;
+import org.litecoinj.store.DiskFullPrunedBlockStore;
+import org.litecoinj.store.FullPrunedBlockStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A DiskFullPrunedBlockStore implementation of the FullPrunedBlockStoreTest
+ */
+public class DiskFullPrunedBlockChainTest extends AbstractFullPrunedBlockChainTest
+{
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Override
+    public FullPrunedBlockStore createStore(NetworkParameters params, int blockCount) throws BlockStoreException
+    {
+        try {
+            return new DiskFullPrunedBlockStore(params, tmpFolder.newFolder(), blockCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void resetStore(FullPrunedBlockStore store) throws BlockStoreException
+    {
+        //No-op, because every store is created in a new directory
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.internal.ByteUtils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test FilterAddMessage
+ */
+public class FilterAddMessageTest {
+    @Test
+    public void roundTrip() {
+        byte[] element = ByteUtils.parseHex("99108ad8ed9bb6274d3980bab5a85c048f0950c8");
+        FilterAddMessage message = FilterAddMessage.of(element);
+        byte[] serialized = message.serialize();
+        assertEquals("14" + ByteUtils.formatHex(element), ByteUtils.formatHex(serialized));
+        assertArrayEquals(element, FilterAddMessage.read(ByteBuffer.wrap(serialized)).element());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void elementTooLarge() {
+        FilterAddMessage.of(new byte[FilterAddMessage.MAX_ELEMENT_SIZE + 1]);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void readElementTooLarge() {
+        byte[] serialized = ByteUtils.parseHex("fd0902" + ByteUtils.formatHex(new byte[521]));
+        FilterAddMessage.read(ByteBuffer.wrap(serialized));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.params.UnitTestParams;
+import org.litecoinj.store.BlockStore;
+import org.litecoinj.store.MemoryBlockStore;
+import org.litecoinj.testing.FakeTxBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HeadersFirstDownloadTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private BlockChain chain;
+    private HeadersFirstDownload download;
+    private List<Block> headers;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context());
+        chain = new BlockChain(UNITTEST, new MemoryBlockStore(UNITTEST.getGenesisBlock()));
+        download = new HeadersFirstDownload(chain);
+        headers = new ArrayList<>();
+        Block prev = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 5; i++) {
+            prev = FakeTxBuilder.makeSolvedTestBlock(prev);
+            headers.add(prev.cloneAsHeader());
+        }
+    }
+
+    @Test
+    public void queuesConnectedHeaders() throws Exception {
+        assertTrue(download.isEmpty());
+        for (Block header : headers)
+            download.add(header, false);
+        // Known headers are skipped.
+        download.add(headers.get(2), false);
+        assertEquals(5, download.getQueuedHeaders());
+        assertEquals(headers.get(4), download.getTip().getHeader());
+        assertEquals(download.getTip(), download.getStore().getChainHead());
+        try {
+            download.add(FakeTxBuilder.makeSolvedTestBlock(headers.get(1)).cloneAsHeader(), false);
+            fail();
+        } catch (ProtocolException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void setChainHeadMovesTip() throws Exception {
+        for (Block header : headers)
+            download.add(header, false);
+        BlockStore store = download.getStore();
+
+        store.setChainHead(store.get(headers.get(1).getHash()));
+        assertEquals(headers.get(1), download.getTip().getHeader());
+        assertEquals(2, download.getQueuedHeaders());
+        // Headers can be added on top of the new tip again.
+        download.add(headers.get(2), false);
+        assertEquals(3, download.getQueuedHeaders());
+
+        store.setChainHead(chain.getChainHead());
+        assertTrue(download.isEmpty());
+        assertEquals(0, download.getQueuedHeaders());
+        assertEquals(chain.getChainHead(), download.getTip());
+        assertFalse(download.isFull());
+    }
+}
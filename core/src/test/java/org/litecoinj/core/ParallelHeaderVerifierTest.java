@@ -0,0 +1,92 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.params.TestNet3Params;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelHeaderVerifierTest {
+    private static final NetworkParameters TESTNET = TestNet3Params.get();
+
+    private ParallelHeaderVerifier verifier;
+    private List<Block> headers;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context());
+        verifier = new ParallelHeaderVerifier(4);
+        headers = new ArrayList<>();
+        Block prev = TESTNET.getGenesisBlock().cloneAsHeader();
+        prev.setDifficultyTarget(Block.EASIEST_DIFFICULTY_TARGET);
+        for (int i = 0; i < 20; i++) {
+            prev = prev.createNextBlock(null);
+            headers.add(prev.cloneAsHeader());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        verifier.shutdown();
+    }
+
+    @Test
+    public void verifiesAllHeaders() {
+        verifier.verify(headers);
+        verifier.verify(new ArrayList<>());
+    }
+
+    @Test
+    public void reportsFirstInvalidHeader() {
+        Block bad1 = headers.get(7);
+        Block bad2 = headers.get(12);
+        breakProofOfWork(bad1);
+        breakProofOfWork(bad2);
+        try {
+            verifier.verify(headers);
+            fail();
+        } catch (VerificationException e) {
+            assertTrue(e.getMessage().contains(bad1.getScryptHashAsString()));
+        }
+    }
+
+    @Test
+    public void verifiesAfterShutdown() {
+        verifier.shutdown();
+        verifier.verify(headers);
+        breakProofOfWork(headers.get(3));
+        try {
+            verifier.verify(headers);
+            fail();
+        } catch (VerificationException e) {
+            assertTrue(e.getMessage().contains(headers.get(3).getScryptHashAsString()));
+        }
+    }
+
+    private static void breakProofOfWork(Block header) {
+        do {
+            header.setNonce(header.getNonce() + 1);
+        } while (header.checkProofOfWork(false));
+    }
+}
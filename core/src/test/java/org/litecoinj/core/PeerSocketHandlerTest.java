@@ -0,0 +1,173 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.ScriptType;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.params.UnitTestParams;
+import org.litecoinj.testing.FakeTxBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PeerSocketHandlerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    // The block doesn't fit into the read buffer, so it takes the large message path.
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final List<Message> received = new ArrayList<>();
+    private final List<String> skipped = new ArrayList<>();
+    private Block block;
+
+    private class TestHandler extends PeerSocketHandler {
+        private final String unwantedCommand;
+
+        TestHandler(String unwantedCommand) {
+            super(UNITTEST, new InetSocketAddress("127.0.0.1", UNITTEST.getPort()));
+            this.unwantedCommand = unwantedCommand;
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+            received.add(m);
+        }
+
+        @Override
+        protected boolean isMessageWanted(String command, ByteBuffer payload) {
+            if (command.equals(unwantedCommand)) {
+                skipped.add(command);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context());
+        block = UNITTEST.getGenesisBlock().createNextBlock(null);
+        for (int i = 0; i < 100; i++)
+            block.addTransaction(FakeTxBuilder.createFakeTx(UNITTEST.network(), Coin.COIN,
+                    new ECKey().toAddress(ScriptType.P2PKH, UNITTEST.network())));
+        block.solve();
+    }
+
+    @Test
+    public void receiveSmallAndLargeMessages() throws Exception {
+        byte[] bytes = serialize(block, Ping.of(5), block);
+        assertEquals(bytes.length, feed(new TestHandler(null), bytes));
+        assertEquals(3, received.size());
+        assertEquals(block, received.get(0));
+        assertEquals(5, ((Ping) received.get(1)).nonce());
+        assertEquals(block, received.get(2));
+    }
+
+    @Test
+    public void skipUnwantedMessages() throws Exception {
+        byte[] bytes = serialize(block, Ping.of(5), block, Ping.of(6));
+        assertEquals(bytes.length, feed(new TestHandler("block"), bytes));
+        assertEquals(2, received.size());
+        assertEquals(5, ((Ping) received.get(0)).nonce());
+        assertEquals(6, ((Ping) received.get(1)).nonce());
+        assertEquals(2, skipped.size());
+
+        received.clear();
+        skipped.clear();
+        assertEquals(bytes.length, feed(new TestHandler("ping"), bytes));
+        assertEquals(2, received.size());
+        assertEquals(block, received.get(0));
+        assertEquals(block, received.get(1));
+        assertEquals(2, skipped.size());
+    }
+
+    @Test
+    public void badChecksumOfLargeMessage() throws Exception {
+        byte[] bytes = serialize(block);
+        // Corrupt the lock time of the last transaction, which still parses.
+        bytes[bytes.length - 1] ^= 1;
+        assertEquals(-1, feed(new TestHandler(null), bytes));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void badChecksumOfSmallMessage() throws Exception {
+        byte[] bytes = serialize(Ping.of(5));
+        bytes[bytes.length - 1] ^= 1;
+        assertEquals(-1, feed(new TestHandler(null), bytes));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void withoutChecksumVerification() throws Exception {
+        byte[] bytes = serialize(block, Ping.of(5));
+        int blockEnd = bytes.length - serialize(Ping.of(5)).length;
+        bytes[blockEnd - 1] ^= 1;
+        bytes[bytes.length - 1] ^= 1;
+        TestHandler handler = new TestHandler(null);
+        handler.setChecksumVerification(false);
+        assertEquals(bytes.length, feed(handler, bytes));
+        assertEquals(2, received.size());
+        assertEquals(block.getHash(), ((Block) received.get(0)).getHash());
+        assertEquals(5 ^ (1L << 56), ((Ping) received.get(1)).nonce());
+    }
+
+    private static byte[] serialize(Message... messages) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Message message : messages)
+            UNITTEST.getDefaultSerializer().serialize(message, out);
+        return out.toByteArray();
+    }
+
+    // Feeds the bytes to the handler like a connection with a small read buffer would. Returns the number of bytes
+    // consumed, or -1 if the handler failed.
+    private static int feed(PeerSocketHandler handler, byte[] bytes) {
+        ByteBuffer buff = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int offset = 0;
+        int consumed = 0;
+        while (offset < bytes.length) {
+            int length = Math.min(buff.remaining(), bytes.length - offset);
+            buff.put(bytes, offset, length);
+            offset += length;
+            ((Buffer) buff).flip();
+            int read = handler.receiveBytes(buff);
+            if (read < 0)
+                return -1;
+            consumed += read;
+            ((Buffer) buff).position(read);
+            buff.compact();
+        }
+        return consumed;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.core;
+
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.script.Script;
+import org.litecoinj.script.ScriptBuilder;
+import org.litecoinj.script.ScriptException;
+import org.litecoinj.script.SignatureCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ScriptVerifierTest {
+    private static final ECKey KEY = new ECKey();
+    private static final Script SCRIPT_PUB_KEY = ScriptBuilder.createP2PKHOutputScript(KEY);
+
+    private ScriptVerifier verifier;
+    private SignatureCache originalCache;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context());
+        verifier = new ScriptVerifier(4);
+        // The checks below must really verify every signature.
+        originalCache = Script.getSignatureCache();
+        Script.setSignatureCache(null);
+    }
+
+    @After
+    public void tearDown() {
+        Script.setSignatureCache(originalCache);
+    }
+
+    @Test
+    public void verifiesAllInputs() throws Exception {
+        ScriptVerifier.Batch batch = verifier.newBatch();
+        for (int i = 0; i < 5; i++)
+            batch.add(spendingTx(i + 1, -1), prevOutScripts(i + 1), Script.ALL_VERIFY_FLAGS);
+        batch.await();
+        // An empty batch is fine as well.
+        verifier.newBatch().await();
+    }
+
+    @Test
+    public void reportsInvalidInputOfLargeTransaction() {
+        ScriptVerifier.Batch batch = verifier.newBatch();
+        batch.add(spendingTx(2, -1), prevOutScripts(2), Script.ALL_VERIFY_FLAGS);
+        batch.add(spendingTx(40, 27), prevOutScripts(40), Script.ALL_VERIFY_FLAGS);
+        try {
+            batch.await();
+            fail();
+        } catch (ScriptException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cancelSkipsChecks() {
+        ScriptVerifier.Batch batch = verifier.newBatch();
+        batch.cancel();
+        // This would fail, but is never checked.
+        batch.add(spendingTx(3, 0), prevOutScripts(3), Script.ALL_VERIFY_FLAGS);
+        try {
+            batch.await();
+            fail();
+        } catch (VerificationException e) {
+            assertEquals("Script verification cancelled", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scriptCountMustMatchInputs() {
+        verifier.newBatch().add(spendingTx(2, -1), prevOutScripts(1), Script.ALL_VERIFY_FLAGS);
+    }
+
+    // A transaction spending the given number of P2PKH outputs, with a broken signature in the given input, if any.
+    private static Transaction spendingTx(int numInputs, int badInput) {
+        Transaction tx = new Transaction();
+        for (int i = 0; i < numInputs; i++)
+            tx.addInput(new TransactionInput(tx, new byte[0], new TransactionOutPoint(i, Sha256Hash.ZERO_HASH)));
+        tx.addOutput(Coin.COIN, new ECKey());
+        for (int i = 0; i < numInputs; i++) {
+            // The broken signature is the one of another input.
+            int signedInput = i != badInput ? i : (i + 1) % numInputs;
+            tx.getInput(i).setScriptSig(ScriptBuilder.createInputScript(
+                    tx.calculateSignature(signedInput, KEY, SCRIPT_PUB_KEY, Transaction.SigHash.ALL, false), KEY));
+        }
+        return tx;
+    }
+
+    private static List<Script> prevOutScripts(int numInputs) {
+        return new ArrayList<>(Collections.nCopies(numInputs, SCRIPT_PUB_KEY));
+    }
+}
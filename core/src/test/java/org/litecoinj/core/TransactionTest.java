@@ -610,6 +610,80 @@ public class TransactionTest {
         assertTrue(tx.isOptInFullRBF());
     }
 
+    @Test
+    public void cachedTxIdInvalidatedOnChange() {
+        Transaction tx = FakeTxBuilder.createFakeTx(TESTNET.network());
+        assertTxIdsMatchSerialization(tx);
+
+        tx.addOutput(Coin.COIN, ADDRESS);
+        assertTxIdsMatchSerialization(tx);
+        tx.getOutput(0).setValue(Coin.CENT);
+        assertTxIdsMatchSerialization(tx);
+        tx.getInput(0).setSequenceNumber(0);
+        assertTxIdsMatchSerialization(tx);
+        tx.getInput(0).setScriptBytes(new byte[] { 1 });
+        assertTxIdsMatchSerialization(tx);
+        tx.setLockTime(1000);
+        assertTxIdsMatchSerialization(tx);
+        tx.setVersion(2);
+        assertTxIdsMatchSerialization(tx);
+
+        Sha256Hash txId = tx.getTxId();
+        tx.getInput(0).setWitness(TransactionWitness.of(new byte[] { 1 }));
+        assertEquals(txId, tx.getTxId());
+        assertNotEquals(txId, tx.getWTxId());
+        assertTxIdsMatchSerialization(tx);
+        tx.getInput(0).setWitness(TransactionWitness.of(new byte[] { 2 }));
+        assertTxIdsMatchSerialization(tx);
+        tx.getInput(0).setWitness(null);
+        assertEquals(txId, tx.getWTxId());
+    }
+
+    @Test
+    public void cachedWitnessSignatureHashMidstatesInvalidatedOnChange() {
+        Script scriptCode = ScriptBuilder.createP2PKHOutputScript(new ECKey());
+        Transaction tx = new Transaction();
+        tx.addInput(Sha256Hash.of(new byte[] { 1 }), 0, ScriptBuilder.createEmpty());
+        tx.addInput(Sha256Hash.of(new byte[] { 2 }), 1, ScriptBuilder.createEmpty());
+        tx.addOutput(Coin.COIN, ADDRESS);
+        assertWitnessSigHashesMatchSerialization(tx, scriptCode);
+
+        // Signing an input doesn't change the midstates.
+        tx.getInput(0).setWitness(TransactionWitness.of(new byte[] { 1 }));
+        tx.getInput(1).setScriptBytes(new byte[] { 1 });
+        assertWitnessSigHashesMatchSerialization(tx, scriptCode);
+
+        tx.getOutput(0).setValue(Coin.CENT);
+        assertWitnessSigHashesMatchSerialization(tx, scriptCode);
+        tx.getInput(1).setSequenceNumber(0);
+        assertWitnessSigHashesMatchSerialization(tx, scriptCode);
+        tx.addInput(Sha256Hash.of(new byte[] { 3 }), 2, ScriptBuilder.createEmpty());
+        assertWitnessSigHashesMatchSerialization(tx, scriptCode);
+        tx.addOutput(Coin.COIN, ADDRESS);
+        assertWitnessSigHashesMatchSerialization(tx, scriptCode);
+        tx.setLockTime(1000);
+        assertWitnessSigHashesMatchSerialization(tx, scriptCode);
+    }
+
+    private static void assertWitnessSigHashesMatchSerialization(Transaction tx, Script scriptCode) {
+        Transaction reparsed = Transaction.read(ByteBuffer.wrap(tx.serialize()));
+        for (int i = 0; i < tx.getInputs().size(); i++) {
+            for (Transaction.SigHash sigHash : new Transaction.SigHash[] { Transaction.SigHash.ALL,
+                    Transaction.SigHash.NONE, Transaction.SigHash.SINGLE }) {
+                for (boolean anyoneCanPay : new boolean[] { false, true }) {
+                    assertEquals(reparsed.hashForWitnessSignature(i, scriptCode, Coin.COIN, sigHash, anyoneCanPay),
+                            tx.hashForWitnessSignature(i, scriptCode, Coin.COIN, sigHash, anyoneCanPay));
+                }
+            }
+        }
+    }
+
+    private static void assertTxIdsMatchSerialization(Transaction tx) {
+        Transaction reparsed = Transaction.read(ByteBuffer.wrap(tx.serialize()));
+        assertEquals(reparsed.getTxId(), tx.getTxId());
+        assertEquals(reparsed.getWTxId(), tx.getWTxId());
+    }
+
     /**
      * Ensure that hashForSignature() doesn't modify a transaction's data, which could wreak multithreading havoc.
      */
@@ -30,6 +30,7 @@ import org.junit.Test;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.function.IntSupplier;
 
 import static org.litecoinj.base.Coin.COIN;
 import static org.easymock.EasyMock.anyObject;
@@ -38,8 +39,10 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class TxConfidenceTableTest {
     private static final NetworkParameters TESTNET = TestNet3Params.get();
@@ -139,4 +142,34 @@ public class TxConfidenceTableTest {
         assertEquals(3, tx2.getConfidence().numBroadcastPeers());
         assertEquals(3, table.numBroadcastPeers(tx1.getTxId()));
     }
+
+    @Test
+    public void depthFromSeveralWallets() {
+        TransactionConfidence confidence = table.getOrCreate(tx1.getTxId());
+        confidence.setAppearedAtChainHeight(10);
+        int[] heights = { 12, 15 };
+        IntSupplier wallet1 = () -> heights[0];
+        IntSupplier wallet2 = () -> heights[1];
+        confidence.addBestChainHeightSupplier(wallet1);
+        assertTrue(confidence.isDepthCalculatedFromHeight());
+        assertEquals(3, confidence.getDepthInBlocks());
+        // A wallet that lags behind doesn't make the transaction shallower for the others.
+        confidence.addBestChainHeightSupplier(wallet2);
+        assertEquals(6, confidence.getDepthInBlocks());
+        assertTrue(confidence.removeBestChainHeightSupplier(wallet2));
+        assertFalse(confidence.removeBestChainHeightSupplier(wallet2));
+        assertEquals(3, confidence.getDepthInBlocks());
+
+        // A depth that is set explicitly keeps growing from there.
+        confidence.setDepthInBlocks(5);
+        assertEquals(5, confidence.getDepthInBlocks());
+        heights[0]++;
+        assertEquals(6, confidence.getDepthInBlocks());
+
+        // Without suppliers, the depth is kept and tracked by the wallet again.
+        confidence.removeBestChainHeightSupplier(wallet1);
+        assertFalse(confidence.isDepthCalculatedFromHeight());
+        assertEquals(6, confidence.getDepthInBlocks());
+        assertEquals(7, confidence.incrementDepthInBlocks());
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.crypto;
+
+import org.litecoinj.base.Sha256Hash;
+import org.bouncycastle.math.ec.endo.GLVEndomorphism;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SignatureBackendTest {
+    private static final ECKey KEY = new ECKey();
+
+    private SignatureBackend originalBackend;
+
+    @Before
+    public void setUp() {
+        originalBackend = ECKey.getSignatureBackend();
+    }
+
+    @After
+    public void tearDown() {
+        ECKey.setSignatureBackend(originalBackend);
+    }
+
+    @Test
+    public void bouncyCastle() {
+        // The curve multiplies using the endomorphism.
+        assertTrue(ECKey.CURVE.getCurve().getEndomorphism() instanceof GLVEndomorphism);
+        BouncyCastleSignatureBackend backend = new BouncyCastleSignatureBackend(2);
+        checkBackend(backend);
+        assertTrue(backend.size() <= 2);
+    }
+
+    @Test
+    public void bouncyCastleRemembersPublicKeys() {
+        BouncyCastleSignatureBackend backend = new BouncyCastleSignatureBackend(2);
+        byte[] data = Sha256Hash.of(new byte[] { 1 }).getBytes();
+        ECKey.ECDSASignature sig = KEY.sign(Sha256Hash.wrap(data));
+        assertTrue(backend.verify(data, sig, KEY.getPubKey()));
+        // Keys are remembered once they're seen again.
+        assertEquals(0, backend.size());
+        assertTrue(backend.verify(data, sig, KEY.getPubKey()));
+        assertEquals(1, backend.size());
+        assertTrue(backend.verify(data, sig, KEY.getPubKey()));
+        assertEquals(1, backend.size());
+        // The uncompressed encoding of the same key is another entry.
+        assertTrue(backend.verify(data, sig, KEY.decompress().getPubKey()));
+        assertTrue(backend.verify(data, sig, KEY.decompress().getPubKey()));
+        assertEquals(2, backend.size());
+        byte[] otherPub = new ECKey().getPubKey();
+        assertFalse(backend.verify(data, sig, otherPub));
+        assertFalse(backend.verify(data, sig, otherPub));
+        assertEquals(2, backend.size());
+        // Bytes that aren't a point aren't remembered.
+        try {
+            backend.verify(data, sig, new byte[] { 2, 1, 2, 3 });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(2, backend.size());
+
+        BouncyCastleSignatureBackend noCache = new BouncyCastleSignatureBackend(0);
+        assertTrue(noCache.verify(data, sig, KEY.getPubKey()));
+        assertTrue(noCache.verify(data, sig, KEY.getPubKey()));
+        assertEquals(0, noCache.size());
+    }
+
+    @Test
+    public void nativeBackend() {
+        Assume.assumeTrue(NativeSignatureBackend.isAvailable());
+        checkBackend(new NativeSignatureBackend());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nativeBackendNeedsLibrary() {
+        Assume.assumeFalse(NativeSignatureBackend.isAvailable());
+        new NativeSignatureBackend();
+    }
+
+    @Test
+    public void eckeyUsesBackend() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        SignatureBackend counting = new SignatureBackend() {
+            @Override
+            public String getName() {
+                return "counting";
+            }
+
+            @Override
+            public boolean verify(byte[] data, ECKey.ECDSASignature signature, byte[] pub) {
+                count.incrementAndGet();
+                return originalBackend.verify(data, signature, pub);
+            }
+        };
+        ECKey.setSignatureBackend(counting);
+        assertSame(counting, ECKey.getSignatureBackend());
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1 });
+        ECKey.ECDSASignature sig = KEY.sign(hash);
+        assertTrue(KEY.verify(hash, sig));
+        assertTrue(ECKey.verify(hash.getBytes(), sig.encodeToDER(), KEY.getPubKey()));
+        assertEquals(2, count.get());
+    }
+
+    private static void checkBackend(SignatureBackend backend) {
+        int n = 5;
+        byte[][] data = new byte[n][];
+        ECKey.ECDSASignature[] sigs = new ECKey.ECDSASignature[n];
+        byte[][] pubs = new byte[n][];
+        ECKey[] keys = { KEY, new ECKey(), new ECKey().decompress() };
+        for (int i = 0; i < n; i++) {
+            ECKey key = keys[i % keys.length];
+            Sha256Hash hash = Sha256Hash.of(new byte[] { (byte) i });
+            data[i] = hash.getBytes();
+            sigs[i] = key.sign(hash);
+            pubs[i] = key.getPubKey();
+            assertTrue(backend.verify(data[i], sigs[i], pubs[i]));
+        }
+        // Signed by another key, and signing other data.
+        pubs[1] = KEY.getPubKey();
+        data[3] = Sha256Hash.of(new byte[] { 100 }).getBytes();
+        assertFalse(backend.verify(data[1], sigs[1], pubs[1]));
+        assertArrayEquals(new boolean[] { true, false, true, false, true }, backend.verify(data, sigs, pubs));
+        assertArrayEquals(new boolean[0], backend.verify(new byte[0][], new ECKey.ECDSASignature[0], new byte[0][]));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.net;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+    @Test
+    public void reuse() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        ByteBuffer buffer = pool.acquire(100_000);
+        assertEquals(0, buffer.position());
+        assertEquals(100_000, buffer.limit());
+        assertEquals(128 * 1024, buffer.capacity());
+        buffer.put(new byte[50]);
+        pool.release(buffer);
+        assertEquals(128 * 1024, pool.getPooledBytes());
+
+        // A payload of the same size class gets the same buffer, reset to its size.
+        ByteBuffer again = pool.acquire(70_000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(70_000, again.limit());
+        assertEquals(0, pool.getPooledBytes());
+        // Other size classes don't.
+        pool.release(again);
+        assertNotSame(buffer, pool.acquire(10));
+        assertNotSame(buffer, pool.acquire(200_000));
+    }
+
+    @Test
+    public void bounded() {
+        BufferPool pool = new BufferPool(256 * 1024);
+        ByteBuffer first = pool.acquire(128 * 1024);
+        ByteBuffer second = pool.acquire(128 * 1024);
+        ByteBuffer third = pool.acquire(128 * 1024);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(256 * 1024, pool.getPooledBytes());
+        // Buffers we didn't hand out are not taken.
+        pool.release(ByteBuffer.allocate(1000));
+        assertEquals(256 * 1024, pool.getPooledBytes());
+    }
+
+    @Test
+    public void direct() {
+        BufferPool pool = new BufferPool(1024 * 1024, true);
+        ByteBuffer buffer = pool.acquire(100);
+        assertTrue(buffer.isDirect());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(200));
+        // Heap buffers don't belong to a direct pool, and the other way round.
+        pool.release(ByteBuffer.allocate(4096));
+        assertEquals(0, pool.getPooledBytes());
+        new BufferPool(1024 * 1024).release(buffer);
+        assertEquals(0, pool.getPooledBytes());
+        // There is room for the header of a message of maximum size.
+        assertEquals(BufferPool.MAX_BUFFER_SIZE, pool.acquire(BufferPool.MAX_BUFFER_SIZE).limit());
+    }
+}
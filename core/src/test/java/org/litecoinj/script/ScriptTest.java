@@ -57,6 +57,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -256,6 +257,53 @@ public class ScriptTest {
         assertEquals("OP_0 push length", 0, stack.get(0).length);
     }
 
+    @Test
+    public void scriptNumbers() {
+        long[] values = { 0, 1, -1, 127, -127, 128, -128, 255, -255, 256, 32767, -32768, 0x7fffffffL, -0x7fffffffL,
+                0xffffffffL, -0xffffffffL, 0x7fffffffffL };
+        for (long value : values) {
+            byte[] encoded = Script.encodeScriptNum(value);
+            assertArrayEquals(String.valueOf(value),
+                    ByteUtils.reverseBytes(ByteUtils.encodeMPI(BigInteger.valueOf(value), false)), encoded);
+            assertEquals(value, Script.castToLong(encoded, 5, true));
+        }
+        // Negative zero
+        assertEquals(0, Script.castToLong(new byte[] { (byte) 0x80 }, 4, false));
+        try {
+            Script.castToLong(new byte[] { 1, 0 }, 4, true);
+            fail();
+        } catch (ScriptException e) {
+            // expected: not minimally encoded
+        }
+    }
+
+    @Test
+    public void nestedConditionals() {
+        // 1 IF 0 IF 2 ELSE 3 ELSE 4 ENDIF ELSE 5 ENDIF 0 IF 0 IF 7 ELSE 8 ENDIF ENDIF 6 -> 3 6
+        Script script = new ScriptBuilder().smallNum(1).op(ScriptOpCodes.OP_IF).smallNum(0).op(ScriptOpCodes.OP_IF)
+                .smallNum(2).op(ScriptOpCodes.OP_ELSE).smallNum(3).op(ScriptOpCodes.OP_ELSE).smallNum(4)
+                .op(ScriptOpCodes.OP_ENDIF).op(ScriptOpCodes.OP_ELSE).smallNum(5).op(ScriptOpCodes.OP_ENDIF)
+                .smallNum(0).op(ScriptOpCodes.OP_IF).smallNum(0).op(ScriptOpCodes.OP_IF).smallNum(7)
+                .op(ScriptOpCodes.OP_ELSE).smallNum(8).op(ScriptOpCodes.OP_ENDIF).op(ScriptOpCodes.OP_ENDIF)
+                .smallNum(6).build();
+        LinkedList<byte[]> stack = new LinkedList<>();
+        Script.executeScript(null, 0, script, stack, Script.ALL_VERIFY_FLAGS);
+        assertEquals(2, stack.size());
+        assertArrayEquals(new byte[] { 3 }, stack.get(0));
+        assertArrayEquals(new byte[] { 6 }, stack.get(1));
+    }
+
+    @Test
+    public void stackOperations() {
+        Script script = new ScriptBuilder().smallNum(1).smallNum(2).smallNum(3).smallNum(4).smallNum(5).smallNum(6)
+                .op(ScriptOpCodes.OP_2ROT).op(ScriptOpCodes.OP_2SWAP).smallNum(2).op(ScriptOpCodes.OP_ROLL).build();
+        LinkedList<byte[]> stack = new LinkedList<>(Collections.singletonList(new byte[] { 9 }));
+        Script.executeScript(null, 0, script, stack, Script.ALL_VERIFY_FLAGS);
+        // 2ROT: 3 4 5 6 1 2, 2SWAP: 3 4 1 2 5 6, 2 ROLL: 3 4 1 5 6 2
+        byte[][] expected = { { 9 }, { 3 }, { 4 }, { 1 }, { 5 }, { 6 }, { 2 } };
+        assertArrayEquals(expected, stack.toArray(new byte[0][]));
+    }
+
     private Script parseScriptString(String string) throws IOException {
         String[] words = string.split("[ \\t\\n]");
         
@@ -0,0 +1,137 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.script;
+
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.core.Transaction;
+import org.litecoinj.core.TransactionInput;
+import org.litecoinj.core.TransactionOutPoint;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.crypto.TransactionSignature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SignatureCacheTest {
+    private static final ECKey KEY = new ECKey();
+
+    private SignatureCache originalCache;
+
+    @Before
+    public void setUp() {
+        originalCache = Script.getSignatureCache();
+    }
+
+    @After
+    public void tearDown() {
+        Script.setSignatureCache(originalCache);
+    }
+
+    @Test
+    public void validSignaturesAreCached() {
+        SignatureCache cache = new SignatureCache();
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1 });
+        ECKey.ECDSASignature sig = KEY.sign(hash);
+        assertFalse(cache.contains(hash, sig, KEY.getPubKey()));
+        assertTrue(cache.verify(hash, sig, KEY.getPubKey()));
+        assertTrue(cache.contains(hash, sig, KEY.getPubKey()));
+        assertTrue(cache.verify(hash, sig, KEY.getPubKey()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 0);
+    }
+
+    @Test
+    public void invalidSignaturesAreNotCached() {
+        SignatureCache cache = new SignatureCache();
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1 });
+        ECKey.ECDSASignature sig = KEY.sign(Sha256Hash.of(new byte[] { 2 }));
+        assertFalse(cache.verify(hash, sig, KEY.getPubKey()));
+        assertFalse(cache.verify(hash, sig, KEY.getPubKey()));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        // The same signature with another key is not a hit either.
+        SignatureCache cache2 = new SignatureCache();
+        assertTrue(cache2.verify(hash, KEY.sign(hash), KEY.getPubKey()));
+        assertFalse(cache2.verify(hash, KEY.sign(hash), new ECKey().getPubKey()));
+    }
+
+    @Test
+    public void bounded() {
+        SignatureCache cache = new SignatureCache(3);
+        for (int i = 0; i < 10; i++) {
+            Sha256Hash hash = Sha256Hash.of(new byte[] { (byte) i });
+            ECKey.ECDSASignature sig = KEY.sign(hash);
+            assertTrue(cache.verify(hash, sig, KEY.getPubKey()));
+            // The signature just added is never the one evicted.
+            assertTrue(cache.contains(hash, sig, KEY.getPubKey()));
+            assertTrue(cache.size() <= 3);
+        }
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(10, cache.getMisses());
+    }
+
+    @Test
+    public void correctlySpendsUsesCache() {
+        SignatureCache cache = new SignatureCache();
+        Script.setSignatureCache(cache);
+        Script scriptPubKey = ScriptBuilder.createP2PKHOutputScript(KEY);
+        Transaction tx = new Transaction();
+        tx.addInput(new TransactionInput(tx, new byte[0], new TransactionOutPoint(0, Sha256Hash.ZERO_HASH)));
+        tx.addOutput(Coin.COIN, new ECKey());
+        TransactionSignature sig = tx.calculateSignature(0, KEY, scriptPubKey, Transaction.SigHash.ALL, false);
+        Script scriptSig = ScriptBuilder.createInputScript(sig, KEY);
+        tx.getInput(0).setScriptSig(scriptSig);
+
+        scriptSig.correctlySpends(tx, 0, null, null, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+        assertEquals(0, cache.getHits());
+        // The same transaction arriving again, say in a block.
+        scriptSig.correctlySpends(tx, 0, null, null, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+        // The generic interpreter consults the same cache.
+        scriptSig.correctlySpends(tx, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // A signature that doesn't match the spending transaction still fails.
+        tx.addOutput(Coin.COIN, new ECKey());
+        try {
+            scriptSig.correctlySpends(tx, 0, null, null, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+            fail();
+        } catch (ScriptException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void disabled() {
+        Script.setSignatureCache(null);
+        Script scriptPubKey = ScriptBuilder.createP2PKHOutputScript(KEY);
+        Transaction tx = new Transaction();
+        tx.addInput(new TransactionInput(tx, new byte[0], new TransactionOutPoint(0, Sha256Hash.ZERO_HASH)));
+        TransactionSignature sig = tx.calculateSignature(0, KEY, scriptPubKey, Transaction.SigHash.ALL, false);
+        Script scriptSig = ScriptBuilder.createInputScript(sig, KEY);
+        scriptSig.correctlySpends(tx, 0, null, null, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.store;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.core.Context;
+import org.litecoinj.core.UTXO;
+import org.litecoinj.params.UnitTestParams;
+import org.litecoinj.script.ScriptBuilder;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingFullPrunedBlockStoreTest {
+    private MemoryFullPrunedBlockStore backing;
+    private CachingFullPrunedBlockStore store;
+
+    @Before
+    public void setup() throws Exception {
+        Context.propagate(new Context());
+        backing = new MemoryFullPrunedBlockStore(UnitTestParams.get(), 10);
+        store = new CachingFullPrunedBlockStore(backing, 10);
+    }
+
+    @Test
+    public void createAndSpendInBatch() throws Exception {
+        UTXO output = output(1, 0);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(output);
+        assertTrue(store.hasUnspentOutputs(output.getHash(), 1));
+        assertNull(backing.getTransactionOutput(output.getHash(), 0));
+        store.removeUnspentTransactionOutput(output);
+        assertFalse(store.hasUnspentOutputs(output.getHash(), 1));
+        store.commitDatabaseBatchWrite();
+
+        assertEquals(1, store.getAbsorbed());
+        assertNull(backing.getTransactionOutput(output.getHash(), 0));
+    }
+
+    @Test
+    public void commitAndSpend() throws Exception {
+        UTXO output = output(2, 1);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(output);
+        store.commitDatabaseBatchWrite();
+        assertEquals(output, backing.getTransactionOutput(output.getHash(), 1));
+        assertEquals(output, store.getTransactionOutput(output.getHash(), 1));
+        assertEquals(1, store.getHits());
+
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(output);
+        // Not written until the commit.
+        assertEquals(output, backing.getTransactionOutput(output.getHash(), 1));
+        assertFalse(store.hasUnspentOutputs(output.getHash(), 2));
+        store.commitDatabaseBatchWrite();
+        assertNull(backing.getTransactionOutput(output.getHash(), 1));
+        assertNull(store.getTransactionOutput(output.getHash(), 1));
+        assertEquals(0, store.getAbsorbed());
+    }
+
+    @Test
+    public void abort() throws Exception {
+        UTXO committed = output(3, 0);
+        store.addUnspentTransactionOutput(committed);
+        UTXO output = output(4, 0);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(output);
+        store.removeUnspentTransactionOutput(committed);
+        store.abortDatabaseBatchWrite();
+
+        assertNull(store.getTransactionOutput(output.getHash(), 0));
+        assertEquals(committed, store.getTransactionOutput(committed.getHash(), 0));
+        assertEquals(committed, backing.getTransactionOutput(committed.getHash(), 0));
+    }
+
+    @Test
+    public void restoreAndSpendCoinbase() throws Exception {
+        // Like a re-org, which restores a spent coinbase output and then spends it again.
+        UTXO coinbase = new UTXO(Sha256Hash.of(new byte[] { 6 }), 0, Coin.COIN, 1, true,
+                ScriptBuilder.createP2PKHOutputScript(new byte[20]));
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(coinbase);
+        store.removeUnspentTransactionOutput(coinbase);
+        store.commitDatabaseBatchWrite();
+        assertNull(backing.getTransactionOutput(coinbase.getHash(), 0));
+    }
+
+    @Test
+    public void batchBelongsToItsThread() throws Exception {
+        UTXO committed = output(6, 0);
+        store.addUnspentTransactionOutput(committed);
+        UTXO output = output(7, 0);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(output);
+        store.removeUnspentTransactionOutput(committed);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                // Other threads see only what was committed, and can't write.
+                assertNull(store.getTransactionOutput(output.getHash(), 0));
+                assertEquals(committed, store.getTransactionOutput(committed.getHash(), 0));
+                assertTrue(store.hasUnspentOutputs(committed.getHash(), 1));
+                try {
+                    store.addUnspentTransactionOutput(output(8, 0));
+                    fail();
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+                try {
+                    store.beginDatabaseBatchWrite();
+                    fail();
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        other.start();
+        other.join();
+        assertNull(failure.get());
+
+        store.commitDatabaseBatchWrite();
+        assertEquals(output, backing.getTransactionOutput(output.getHash(), 0));
+        assertNull(backing.getTransactionOutput(committed.getHash(), 0));
+    }
+
+    @Test(expected = BlockStoreException.class)
+    public void removeMissing() throws Exception {
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(output(5, 0));
+    }
+
+    private static UTXO output(int tx, long index) {
+        return new UTXO(Sha256Hash.of(new byte[] { (byte) tx }), index, Coin.COIN, 1, false,
+                ScriptBuilder.createP2PKHOutputScript(new byte[20]));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.core.Context;
+import org.litecoinj.core.NetworkParameters;
+import org.litecoinj.core.StoredBlock;
+import org.litecoinj.core.StoredUndoableBlock;
+import org.litecoinj.core.TransactionOutputChanges;
+import org.litecoinj.core.UTXO;
+import org.litecoinj.params.UnitTestParams;
+import org.litecoinj.script.ScriptBuilder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DiskFullPrunedBlockStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+    private File directory;
+    private DiskFullPrunedBlockStore store;
+
+    @Before
+    public void setup() throws Exception {
+        Context.propagate(new Context());
+        directory = tmpFolder.newFolder();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null)
+            store.close();
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        StoredBlock genesis = store.getChainHead();
+        assertEquals(UNITTEST.getGenesisBlock(), genesis.getHeader());
+        StoredBlock block = putNext(genesis);
+        UTXO output = output(Sha256Hash.of(new byte[] { 1 }), 1);
+        store.addUnspentTransactionOutput(output);
+        store.close();
+
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        assertEquals(block, store.getChainHead());
+        assertEquals(block, store.getVerifiedChainHead());
+        assertEquals(block, store.getOnceUndoableStoredBlock(block.getHeader().getHash()));
+        assertNotNull(store.getUndoBlock(block.getHeader().getHash()));
+        assertEquals(output, store.getTransactionOutput(output.getHash(), output.getIndex()));
+        assertNull(store.getTransactionOutput(output.getHash(), 0));
+
+        store.removeUnspentTransactionOutput(output);
+        store.close();
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        assertNull(store.getTransactionOutput(output.getHash(), output.getIndex()));
+        assertEquals(block, store.getChainHead());
+    }
+
+    @Test
+    public void abortedBatch() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        UTXO output = output(Sha256Hash.of(new byte[] { 2 }), 0);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(output);
+        assertEquals(output, store.getTransactionOutput(output.getHash(), 0));
+        store.abortDatabaseBatchWrite();
+        assertNull(store.getTransactionOutput(output.getHash(), 0));
+
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(output);
+        store.commitDatabaseBatchWrite();
+        assertEquals(output, store.getTransactionOutput(output.getHash(), 0));
+    }
+
+    @Test
+    public void pruneUndoBlocks() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 2);
+        StoredBlock first = putNext(store.getChainHead());
+        StoredBlock head = putNext(putNext(first));
+        assertEquals(3, head.getHeight());
+        assertNull(store.getUndoBlock(first.getHeader().getHash()));
+        assertNotNull(store.getUndoBlock(head.getHeader().getHash()));
+        // The header is still there, and still known to have been undoable.
+        assertEquals(first, store.get(first.getHeader().getHash()));
+        assertEquals(first, store.getOnceUndoableStoredBlock(first.getHeader().getHash()));
+    }
+
+    @Test
+    public void pruneUndoBlocksAfterReopen() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 2);
+        StoredBlock first = putNext(store.getChainHead());
+        store.close();
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 2);
+        putNext(putNext(first));
+        assertNull(store.getUndoBlock(first.getHeader().getHash()));
+    }
+
+    @Test
+    public void pruneUndoBlocksInAbortedBatch() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 2);
+        StoredBlock first = putNext(store.getChainHead());
+        StoredBlock second = putNext(first);
+        StoredBlock third = second.build(second.getHeader().createNextBlock(null).cloneAsHeader());
+        store.put(third, new StoredUndoableBlock(third.getHeader().getHash(), new ArrayList<>()));
+        store.beginDatabaseBatchWrite();
+        store.setVerifiedChainHead(third);
+        assertNull(store.getUndoBlock(first.getHeader().getHash()));
+        store.abortDatabaseBatchWrite();
+        assertNotNull(store.getUndoBlock(first.getHeader().getHash()));
+        // The undo block is still pruned once a later batch is committed.
+        store.beginDatabaseBatchWrite();
+        store.setVerifiedChainHead(third);
+        store.commitDatabaseBatchWrite();
+        assertNull(store.getUndoBlock(first.getHeader().getHash()));
+    }
+
+    @Test
+    public void reopenWithStaleIndex() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        store.close();
+        File indexFile = new File(directory, "blockstore.idx");
+        File staleIndexFile = tmpFolder.newFile();
+        Files.copy(indexFile.toPath(), staleIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        StoredBlock block = putNext(store.getChainHead());
+        for (int i = 0; i < 2000; i++)
+            store.addUnspentTransactionOutput(output(Sha256Hash.of(new byte[] { 3 }), i));
+        store.close();
+
+        // The frames written after the index was last brought up to date are replayed.
+        Files.copy(staleIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        checkReopened(block);
+        store.close();
+
+        // An index that was being updated is rebuilt, as is a missing one.
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            file.seek(4);
+            file.writeInt(0);
+        }
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        checkReopened(block);
+        store.close();
+        Files.delete(indexFile.toPath());
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        checkReopened(block);
+    }
+
+    private void checkReopened(StoredBlock block) throws BlockStoreException {
+        assertEquals(block, store.getChainHead());
+        assertNotNull(store.getUndoBlock(block.getHeader().getHash()));
+        for (int i = 0; i < 2000; i++)
+            assertEquals(output(Sha256Hash.of(new byte[] { 3 }), i),
+                    store.getTransactionOutput(Sha256Hash.of(new byte[] { 3 }), i));
+        assertNull(store.getTransactionOutput(Sha256Hash.of(new byte[] { 3 }), 2000));
+    }
+
+    @Test
+    public void outputWithoutAddress() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        UTXO output = new UTXO(Sha256Hash.of(new byte[] { 4 }), 0, Coin.COIN, 1, false,
+                ScriptBuilder.createP2PKHOutputScript(new byte[20]), null);
+        store.addUnspentTransactionOutput(output);
+        store.close();
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        assertNull(store.getTransactionOutput(output.getHash(), 0).getAddress());
+    }
+
+    @Test
+    public void truncatedFrame() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        StoredBlock block = putNext(store.getChainHead());
+        store.flush();
+        File dataFile = new File(directory, DiskFullPrunedBlockStore.DATA_FILE_NAME);
+        long length = dataFile.length();
+        putNext(block);
+        store.close();
+        store = null;
+
+        // Simulate a crash in the middle of writing the last frame.
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.setLength(file.length() - 7);
+        }
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        assertEquals(length, dataFile.length());
+        assertEquals(block, store.getChainHead());
+        assertEquals(block, store.getVerifiedChainHead());
+    }
+
+    @Test
+    public void multiFrameFlush() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        store.maxFrameSize = 100;
+        StoredBlock block = putNext(store.getChainHead());
+        for (int i = 0; i < 2000; i++)
+            store.addUnspentTransactionOutput(output(Sha256Hash.of(new byte[] { 3 }), i));
+        store.close();
+
+        // All frames of the flush are replayed.
+        File indexFile = new File(directory, "blockstore.idx");
+        Files.delete(indexFile.toPath());
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        checkReopened(block);
+        store.maxFrameSize = 100;
+        File dataFile = new File(directory, DiskFullPrunedBlockStore.DATA_FILE_NAME);
+        long length = dataFile.length();
+        for (int i = 0; i < 2000; i++)
+            store.removeUnspentTransactionOutput(output(Sha256Hash.of(new byte[] { 3 }), i));
+        store.close();
+        store = null;
+
+        // Simulate a crash in the middle of writing the last frame, after the first frames of the flush were written.
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.setLength(file.length() - 7);
+        }
+        Files.delete(indexFile.toPath());
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        assertEquals(length, dataFile.length());
+        checkReopened(block);
+    }
+
+    @Test(expected = ChainFileLockedException.class)
+    public void locked() throws Exception {
+        store = new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+        // A second store in the same directory doesn't get the lock.
+        new DiskFullPrunedBlockStore(UNITTEST, directory, 10);
+    }
+
+    private StoredBlock putNext(StoredBlock prev) throws BlockStoreException {
+        StoredBlock block = prev.build(prev.getHeader().createNextBlock(null).cloneAsHeader());
+        UTXO created = output(block.getHeader().getHash(), 0);
+        store.put(block, new StoredUndoableBlock(block.getHeader().getHash(),
+                new TransactionOutputChanges(Collections.singletonList(created), new ArrayList<>())));
+        store.setVerifiedChainHead(block);
+        return block;
+    }
+
+    private static UTXO output(Sha256Hash hash, long index) {
+        return new UTXO(hash, index, Coin.COIN, 1, false,
+                ScriptBuilder.createP2PKHOutputScript(new byte[20]), "address");
+    }
+}
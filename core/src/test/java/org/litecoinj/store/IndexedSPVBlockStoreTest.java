@@ -0,0 +1,171 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.store;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.core.Context;
+import org.litecoinj.core.NetworkParameters;
+import org.litecoinj.core.StoredBlock;
+import org.litecoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class IndexedSPVBlockStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private File blockStoreFile;
+    private IndexedSPVBlockStore store;
+
+    @Before
+    public void setup() throws Exception {
+        Context.propagate(new Context());
+        blockStoreFile = File.createTempFile("indexedspvblockstore", null);
+        blockStoreFile.delete();
+        blockStoreFile.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null)
+            store.close();
+    }
+
+    @Test
+    public void basics() throws Exception {
+        store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile, 1000);
+        // Check the first block in a new store is the genesis block.
+        StoredBlock genesis = store.getChainHead();
+        assertEquals(UNITTEST.getGenesisBlock(), genesis.getHeader());
+        assertEquals(0, genesis.getHeight());
+        assertEquals(genesis, store.getByHeight(0));
+
+        List<StoredBlock> chain = buildChain(genesis, 50);
+        StoredBlock head = chain.get(chain.size() - 1);
+        store.close();
+
+        // Reopen with the capacity read from the file, and look up everything without the cache.
+        store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile);
+        assertEquals(1000, store.getCapacity());
+        assertEquals(51, store.size());
+        assertEquals(head, store.getChainHead());
+        for (StoredBlock block : chain) {
+            assertEquals(block, store.get(block.getHeader().getHash()));
+            assertEquals(block, store.getByHeight(block.getHeight()));
+        }
+        assertNull(store.get(Sha256Hash.ZERO_HASH));
+        assertNull(store.getByHeight(head.getHeight() + 1));
+    }
+
+    @Test
+    public void reorg() throws Exception {
+        store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile, 1000);
+        List<StoredBlock> chain = buildChain(store.getChainHead(), 10);
+        List<StoredBlock> fork = buildChain(chain.get(4), 8);
+        StoredBlock forkHead = fork.get(fork.size() - 1);
+        assertEquals(13, forkHead.getHeight());
+        for (StoredBlock block : fork)
+            assertEquals(block, store.getByHeight(block.getHeight()));
+        assertEquals(chain.get(4), store.getByHeight(5));
+        assertEquals(fork.get(0), store.getByHeight(6));
+
+        // Go back to the shorter chain, e.g. because it was extended with more work.
+        store.setChainHead(chain.get(chain.size() - 1));
+        for (StoredBlock block : chain)
+            assertEquals(block, store.getByHeight(block.getHeight()));
+        assertNull(store.getByHeight(13));
+        // All blocks can still be found by hash.
+        for (StoredBlock block : fork)
+            assertEquals(block, store.get(block.getHeader().getHash()));
+    }
+
+    @Test
+    public void grows() throws Exception {
+        store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile, 3);
+        List<StoredBlock> chain = buildChain(store.getChainHead(), 20);
+        List<StoredBlock> fork = buildChain(chain.get(9), 3);
+        assertEquals(24, store.getCapacity());
+        assertEquals(24, store.size());
+        assertEquals(IndexedSPVBlockStore.getFileSize(24), blockStoreFile.length());
+        store.close();
+
+        // The capacity is read from the file, and everything is found without the cache.
+        store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile, 1000);
+        assertEquals(24, store.getCapacity());
+        assertEquals(fork.get(2), store.getChainHead());
+        for (StoredBlock block : chain)
+            assertEquals(block, store.get(block.getHeader().getHash()));
+        for (StoredBlock block : fork)
+            assertEquals(block, store.getByHeight(block.getHeight()));
+        assertEquals(chain.get(9), store.getByHeight(10));
+        assertNull(store.getByHeight(14));
+    }
+
+    @Test
+    public void unfinishedGrowth() throws Exception {
+        store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile, 10);
+        List<StoredBlock> chain = buildChain(store.getChainHead(), 5);
+        store.close();
+        store = null;
+
+        // Simulate a crash after the file was extended, but before the new capacity was written.
+        try (RandomAccessFile file = new RandomAccessFile(blockStoreFile, "rw")) {
+            file.setLength(IndexedSPVBlockStore.getFileSize(20));
+        }
+        store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile);
+        assertEquals(10, store.getCapacity());
+        assertEquals(IndexedSPVBlockStore.getFileSize(10), blockStoreFile.length());
+        for (StoredBlock block : chain)
+            assertEquals(block, store.getByHeight(block.getHeight()));
+    }
+
+    @Test
+    public void wrongMagicLeavesFileAlone() throws Exception {
+        // E.g. the chain file of an SPVBlockStore.
+        new SPVBlockStore(UNITTEST, blockStoreFile, 10, true).close();
+        byte[] contents = Files.readAllBytes(blockStoreFile.toPath());
+        try {
+            store = new IndexedSPVBlockStore(UNITTEST, blockStoreFile);
+            fail();
+        } catch (BlockStoreException e) {
+            // expected
+        }
+        assertArrayEquals(contents, Files.readAllBytes(blockStoreFile.toPath()));
+    }
+
+    // Builds, puts and connects the given number of blocks on top of the given one.
+    private List<StoredBlock> buildChain(StoredBlock prev, int length) throws Exception {
+        List<StoredBlock> chain = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            prev = prev.build(prev.getHeader().createNextBlock(null).cloneAsHeader());
+            store.put(prev);
+            store.setChainHead(prev);
+            chain.add(prev);
+        }
+        return chain;
+    }
+}
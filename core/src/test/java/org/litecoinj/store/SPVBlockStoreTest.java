@@ -38,6 +38,7 @@ import org.junit.Test;
 import java.io.File;
 import java.math.BigInteger;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
@@ -161,6 +162,52 @@ public class SPVBlockStoreTest {
         store.close();
     }
 
+    @Test
+    public void getByHeight() throws Exception {
+        SPVBlockStore store = new SPVBlockStore(TESTNET, blockStoreFile, 10, false);
+        StoredBlock[] chain = new StoredBlock[16];
+        chain[0] = store.getChainHead();
+        assertEquals(chain[0], store.getByHeight(0));
+        for (int i = 1; i < chain.length; i++)
+            chain[i] = putNext(store, chain[i - 1], i);
+        // Only the last 10 blocks are still in the ring buffer.
+        for (int i = 6; i < chain.length; i++)
+            assertEquals(chain[i], store.getByHeight(i));
+        assertNull(store.getByHeight(5));
+        assertNull(store.getByHeight(16));
+
+        // Re-org to a fork that branches off at height 12, overwriting heights 6 and 7 in the ring buffer.
+        StoredBlock fork13 = putNext(store, chain[12], 1000);
+        StoredBlock fork14 = putNext(store, fork13, 1001);
+        assertEquals(fork13, store.getByHeight(13));
+        assertEquals(fork14, store.getByHeight(14));
+        assertEquals(chain[12], store.getByHeight(12));
+        assertNull(store.getByHeight(15));
+        assertNull(store.getByHeight(7));
+        assertEquals(chain[10], fork14.getAncestor(store, 10));
+        // The old chain is not indexed anymore, so it is walked back.
+        assertEquals(chain[10], chain[15].getAncestor(store, 10));
+        store.close();
+
+        // The index is rebuilt from the file.
+        store = new SPVBlockStore(TESTNET, blockStoreFile, 10, false);
+        assertEquals(fork14, store.getByHeight(14));
+        assertEquals(Arrays.asList(chain[8], chain[9], chain[10], chain[11], chain[12], fork13, fork14),
+                store.getByHeightRange(8, 14));
+        assertTrue(store.getByHeightRange(7, 14).isEmpty());
+        store.close();
+    }
+
+    // Puts a block without proof of work on top of the given one and makes it the chain head.
+    private StoredBlock putNext(SPVBlockStore store, StoredBlock prev, long nonce) throws BlockStoreException {
+        Block block = new Block(0, prev.getHeader().getHash(), Sha256Hash.ZERO_HASH, 0, 0, nonce,
+                Collections.emptyList());
+        StoredBlock storedBlock = new StoredBlock(block, BigInteger.ZERO, prev.getHeight() + 1);
+        store.put(storedBlock);
+        store.setChainHead(storedBlock);
+        return storedBlock;
+    }
+
     @Test
     public void clear() throws Exception {
         Context.propagate(new Context(100, Transaction.DEFAULT_TX_FEE, false, true));
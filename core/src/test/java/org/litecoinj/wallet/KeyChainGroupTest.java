@@ -39,6 +39,7 @@ import java.math.BigInteger;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -284,6 +285,24 @@ public class KeyChainGroupTest {
         assertTrue(filter.contains(key2.getPubKey()));
     }
 
+    @Test
+    public void bloomFilterElements() {
+        for (ScriptType outputScriptType : new ScriptType[] { ScriptType.P2PKH, ScriptType.P2WPKH, ScriptType.P2SH_P2WPKH }) {
+            KeyChainGroup group = KeyChainGroup.builder(LitecoinNetwork.MAINNET).lookaheadSize(LOOKAHEAD_SIZE)
+                    .fromRandom(outputScriptType).build();
+            group.importKeys(new ECKey());
+            Address address = group.freshAddress(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+            int size = group.getBloomFilterElementCount();
+            int tweak = new Random().nextInt();
+            BloomFilter filter = new BloomFilter(size, LOW_FALSE_POSITIVE_RATE, tweak);
+            List<byte[]> elements = group.getBloomFilterElements();
+            for (byte[] element : elements)
+                filter.insert(element);
+            assertEquals(outputScriptType.toString(), group.getBloomFilter(size, LOW_FALSE_POSITIVE_RATE, tweak), filter);
+            assertTrue(elements.stream().anyMatch(element -> Arrays.equals(element, address.getHash())));
+        }
+    }
+
     @Test
     public void earliestKeyTime() {
         Instant now = TimeUtils.currentTime().truncatedTo(ChronoUnit.SECONDS);
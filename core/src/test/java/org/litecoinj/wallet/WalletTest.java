@@ -81,6 +81,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -115,6 +116,7 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -558,6 +560,21 @@ public class WalletTest extends TestWithWallet {
         assertEquals(v4, wallet.getBalance(Wallet.BalanceType.AVAILABLE));
     }
 
+    @Test
+    public void availableBalanceWhilePending() throws Exception {
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        Transaction spend = wallet.createSend(OTHER_ADDRESS, valueOf(0, 10));
+        wallet.commitTx(spend);
+        // The change only becomes available once peers announce the transaction, even if no listeners run.
+        assertEquals(ZERO, wallet.getBalance());
+        spend.getConfidence().markBroadcastBy(PeerAddress.simple(InetAddress.getByAddress(new byte[]{1,2,3,4}), TESTNET.getPort()));
+        spend.getConfidence().markBroadcastBy(PeerAddress.simple(InetAddress.getByAddress(new byte[]{10,2,3,4}), TESTNET.getPort()));
+        Coin available = wallet.getBalance();
+        assertEquals(wallet.getBalance(BalanceType.ESTIMATED), available);
+        assertSame(available, wallet.getBalance());
+        assertEquals(available, wallet.getBalance(BalanceType.AVAILABLE_SPENDABLE));
+    }
+
     @Test
     public void balanceWithIdenticalOutputs() {
         assertEquals(Coin.ZERO, wallet.getBalance(BalanceType.ESTIMATED));
@@ -711,6 +728,18 @@ public class WalletTest extends TestWithWallet {
         assertFalse(isConsistent);
     }
 
+    @Test
+    public void filterScripts() {
+        Wallet wallet = Wallet.createDeterministic(LitecoinNetwork.TESTNET, ScriptType.P2SH_P2WPKH);
+        Address address = wallet.freshReceiveAddress();
+        assertEquals(ScriptType.P2SH, address.getOutputScriptType());
+        List<Script> scripts = wallet.getFilterScripts();
+        assertTrue(scripts.contains(ScriptBuilder.createOutputScript(address)));
+        ECKey imported = new ECKey();
+        wallet.importKey(imported);
+        assertTrue(wallet.getFilterScripts().contains(ScriptBuilder.createP2PKHOutputScript(imported)));
+    }
+
     @Test
     public void isTxConsistentReturnsFalseAsExpected_WhenAvailableForSpendingEqualsFalse() {
         Wallet wallet = Wallet.createDeterministic(LitecoinNetwork.TESTNET, ScriptType.P2PKH);
@@ -1599,6 +1628,22 @@ public class WalletTest extends TestWithWallet {
         wallet.createSend(OTHER_ADDRESS, CENT);
     }
 
+    @Test
+    public void cachedBalanceUpdatedByNewKeys() {
+        ECKey key = new ECKey();
+        Address watchedAddress = key.toAddress(ScriptType.P2PKH, LitecoinNetwork.TESTNET);
+        wallet.addWatchedAddress(watchedAddress);
+        sendMoneyToWallet(BlockChain.NewBlockType.BEST_CHAIN, CENT, watchedAddress);
+        assertEquals(CENT, wallet.getBalance(BalanceType.AVAILABLE));
+        assertEquals(ZERO, wallet.getBalance(BalanceType.AVAILABLE_SPENDABLE));
+        assertEquals(ZERO, wallet.getBalance(BalanceType.ESTIMATED_SPENDABLE));
+
+        // Importing the key makes the watched output spendable.
+        wallet.importKey(key);
+        assertEquals(CENT, wallet.getBalance(BalanceType.AVAILABLE_SPENDABLE));
+        assertEquals(CENT, wallet.getBalance(BalanceType.ESTIMATED_SPENDABLE));
+    }
+
     @Test
     public void watchingScriptsSentFrom() {
         int baseElements = wallet.getBloomFilterElementCount();
@@ -2268,6 +2313,28 @@ public class WalletTest extends TestWithWallet {
         assertEquals(COIN, spend3.getInput(0).getValue());
     }
 
+    @Test
+    public void depthNotificationThreshold() throws Exception {
+        wallet.setDepthNotificationThreshold(2);
+        Transaction tx = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        final List<Integer> notifiedDepths = new ArrayList<>();
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD,
+                (wallet, t) -> notifiedDepths.add(t.getConfidence().getDepthInBlocks()));
+        for (int i = 0; i < 4; i++)
+            sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN);
+        // Only the change to depth 2 is notified, but the depth keeps up with the chain.
+        assertEquals(Collections.singletonList(2), notifiedDepths);
+        assertEquals(5, tx.getConfidence().getDepthInBlocks());
+
+        // Transactions that somebody listens to keep being notified.
+        CompletableFuture<TransactionConfidence> future = tx.getConfidence().getDepthFuture(7, Threading.SAME_THREAD);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN);
+        assertFalse(future.isDone());
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN);
+        assertTrue(future.isDone());
+        assertEquals(Arrays.asList(2, 6, 7), notifiedDepths);
+    }
+
     @Test
     public void feeSolverAndCoinSelectionTests2() throws Exception {
         Transaction tx5 = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, CENT);
@@ -3289,6 +3356,29 @@ public class WalletTest extends TestWithWallet {
         assertTrue(wallet.isConsistent());
     }
 
+    @Test
+    public void doubleSpendOfForeignOutputIsRelevant() throws Exception {
+        Transaction tx1 = createFakeTx(TESTNET.network());
+        Transaction tx2 = new Transaction();
+        tx2.addInput(tx1.getOutput(0));
+        tx2.addOutput(COIN, myAddress);
+        wallet.receivePending(tx2, null);
+
+        // Neither of these pays or spends from the wallet, but the first one spends the same output as tx2.
+        Transaction doubleSpend = new Transaction();
+        doubleSpend.addInput(tx1.getOutput(0));
+        doubleSpend.addOutput(COIN, OTHER_ADDRESS);
+        assertTrue(wallet.isTransactionRelevant(doubleSpend));
+        Transaction unrelated = new Transaction();
+        unrelated.addInput(createFakeTx(TESTNET.network()).getOutput(0));
+        unrelated.addOutput(COIN, OTHER_ADDRESS);
+        assertFalse(wallet.isTransactionRelevant(unrelated));
+
+        // Once tx2 is gone, so is the double spend.
+        wallet.reset();
+        assertFalse(wallet.isTransactionRelevant(doubleSpend));
+    }
+
     @Test
     public void overridingDeadTxTest() throws Exception {
         Transaction tx0 = createFakeTx(TESTNET.network());
@@ -0,0 +1,122 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.examples;
+
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.core.Block;
+import org.litecoinj.core.BloomFilter;
+import org.litecoinj.core.FilteredBlock;
+import org.litecoinj.core.Transaction;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.script.ScriptBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how fast a {@link BloomFilter} filters full blocks, as a node serving filtered blocks to SPV clients does.
+ * The block is made of transactions with two inputs and two pay-to-pubkey-hash outputs that don't match the filter, so
+ * every push of every script is looked up. The filter is then shared by several threads, to show that lookups don't
+ * contend with each other.
+ */
+public class BloomFilterBenchmark {
+    private static final int TRANSACTIONS = 2000;
+    private static final int WALLET_KEYS = 1000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+        Block block = createBlock(random);
+        BloomFilter filter = new BloomFilter(WALLET_KEYS * 2, 0.0001, random.nextInt(),
+                BloomFilter.BloomUpdate.UPDATE_NONE);
+        for (int i = 0; i < WALLET_KEYS; i++)
+            filter.insert(new ECKey());
+
+        System.out.println("Filtering blocks of " + TRANSACTIONS + " transactions against a filter of " + WALLET_KEYS
+                + " keys:");
+        // The first rounds warm up the JIT, the best round counts.
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            check(filter.applyAndUpdate(block), block);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-12s %8.1f us/block, %10.0f transactions/s%n", "1 thread",
+                best / 1000.0, TRANSACTIONS * 1e9 / best);
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                List<Future<?>> futures = new ArrayList<>(threads);
+                long start = System.nanoTime();
+                for (int i = 0; i < threads; i++)
+                    futures.add(executor.submit(() -> check(filter.applyAndUpdate(block), block)));
+                for (Future<?> future : futures)
+                    future.get();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("  %-12s %8.1f us/block, %10.0f transactions/s%n", threads + " threads",
+                    best / 1000.0 / threads, TRANSACTIONS * threads * 1e9 / best);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Block createBlock(Random random) {
+        List<Transaction> transactions = new ArrayList<>(TRANSACTIONS);
+        transactions.add(Transaction.coinbase());
+        for (int i = 1; i < TRANSACTIONS; i++) {
+            Transaction tx = new Transaction();
+            for (int j = 0; j < 2; j++) {
+                // Signatures and keys are random bytes, as only their pushes matter to the filter.
+                byte[] signature = new byte[72];
+                byte[] pubKey = new byte[33];
+                random.nextBytes(signature);
+                random.nextBytes(pubKey);
+                tx.addInput(randomHash(random), j, new ScriptBuilder().data(signature).data(pubKey).build());
+            }
+            for (int j = 0; j < 2; j++) {
+                byte[] pubKeyHash = new byte[20];
+                random.nextBytes(pubKeyHash);
+                tx.addOutput(Coin.CENT, ScriptBuilder.createP2PKHOutputScript(pubKeyHash));
+            }
+            transactions.add(tx);
+        }
+        return new Block(Block.BLOCK_VERSION_BIP66, Sha256Hash.ZERO_HASH, null, Instant.now(),
+                Block.EASIEST_DIFFICULTY_TARGET, 0, transactions);
+    }
+
+    private static Sha256Hash randomHash(Random random) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    private static void check(FilteredBlock filteredBlock, Block block) {
+        // Random scripts only match as false positives.
+        if (filteredBlock.getAssociatedTransactions().size() > TRANSACTIONS / 100)
+            throw new IllegalStateException("too many transactions matched in block " + block.getHash());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.examples;
+
+import org.litecoinj.base.Coin;
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.base.internal.ByteUtils;
+import org.litecoinj.core.Transaction;
+import org.litecoinj.core.TransactionInput;
+import org.litecoinj.core.TransactionWitness;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.crypto.TransactionSignature;
+import org.litecoinj.script.Script;
+import org.litecoinj.script.ScriptBuilder;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares {@link Script#correctlySpends(Transaction, int, TransactionWitness, Coin, Script, Set)} with the
+ * interpreter it replaced, {@link LegacyScriptInterpreter}, on inputs taken from the mainnet blocks the core tests are
+ * run against. P2PKH and P2WPKH inputs only have their signature checked and don't run the interpreter at all, so they
+ * should come out the same. P2SH inputs run the redeem script, which for P2SH-P2WPKH is just the witness program, as
+ * neither interpreter checks the witness of those. The blocks contain no witness input whose spent output they also
+ * contain, and witness signatures commit to the value of that output, so the witness inputs are signed here with a
+ * fixed key instead.
+ */
+public class ScriptBenchmark {
+    private static final int ITERATIONS = 50;
+    private static final int ROUNDS = 10;
+
+    // Inputs from mainnet blocks: the kind of input, its index, the spending transaction and the spent scriptPubKey.
+    private static final String[][] MAINNET_INPUTS = {
+            // Input 0 of eb207173fc718eba9167eb946ea1497d0ee71c2757014bcf97884fcac01f52c4 in block 383616
+            { "P2PKH", "0",
+                "0100000001427f8cc589b453547d5564c122bcdd5ba682eef9ff2ae42aac3a5868933a93ce010000006a47304402202b"
+                + "4b0522c30111ba33ab7225882e0f52ca9cfae556599f94036c700c8657ebae02203a3a68714056009daa5fd8f3e45321"
+                + "495c14ae69869c1c7ca8ffc51be9590406012103670e7e506d18a4683a1b4fa62f9c647876bcfbcaa90919db73045c78"
+                + "9acb5a05ffffffff01ce00dd000000000017a91423732a593f7b62ba3c6620d7f61780889d970ee78700000000",
+                "76a914eb88b3252b4b499b905a586c60de064d7bfb324388ac" },
+            // Input 0 of 3806b2f86e9938896e630e21f0af6ccde06b4022a542e4b90c1658d5de25e54b in block 481815
+            { "P2PKH", "0",
+                "0100000001ef7116b3bf4aba4bdb15c8f882200275ba1796c91f22bfe6d5bc6c0dc3c75274010000006a473044022034"
+                + "904e83dac51d3ab08cd3e8ea45dc4014076164542cb8ffbdb3d18901aebbf7022018d51ac322301b627b673a8e915f82"
+                + "f01ffaaebd115bd6e2e56bf534030582700121035c5122c5833763ed11d0a7593b198a24e2ab413321afb2dc25c5f384"
+                + "f3e9f126ffffffff0113b57f000000000017a9143d0b5bcd875c4c2b922e4fff437b274f48170d998700000000",
+                "76a91409a8be7d21659af79af86a69b5a48a0d9e263cde88ac" },
+            // Input 0 of 93700af290f57f153535c6db78a2413d5ecebfa1c4b88e2a6668c4e0aef8c586 in block 481815
+            { "P2PKH", "0",
+                "01000000019d1858220e361adf973188e7daca78543a06d11b3ea84800b4b4ff3ca2dd3dd5000000006a47304402200f"
+                + "50187551f89f2a93bd05cdb1fc7874bb26f214542c0fc79c3935574bb65cd4022039ca0a181a98ba8f8f5861fde7dac7"
+                + "be1eeeddeccf773831dd1a64f7d507cf51012103fb3769be328f6140b163036a0653a9ee301d1e15863cefaf67414b71"
+                + "2cd1f88fffffffff01a22501000000000017a914c89653f3cda067e9e597581aa6db634cfab61b4d8700000000",
+                "76a914aba680171bfc8ddd84e74436eb9bc24dfd21736388ac" },
+            // Input 0 of b43f55a7a72b4c28d426f455cd6808c000f1a772fbb95bdaec90b2cc6836208c in block 481829
+            { "P2PKH", "0",
+                "0100000001290366a20704c307771a58df104a199ff5d62c963d2273d376c8b89a385e068f010000006a47304402201e"
+                + "d5e10d16173def94992adca23facf41ac882787ebd9ae7746bd4b44ed1ea6b022075ba2feccf570bf3b7bf6c546df2a0"
+                + "e74c292dd7e93053884013749fdc7acd6b012102a6485bf9c9bf8c6fe82466d0ae3dfbe7730aa8ef563a2f074e780186"
+                + "eb11c273ffffffff01989917000000000017a9140e0aed804c74d1623b9d12a8d14ced660b82feeb8700000000",
+                "76a91402ccfcf33cc7eba1e91ce73fd142d4de26485aa788ac" },
+            // Input 0 of 92cb7b0a2f182f6a06f83963aef8af7d196648f9366d64543ff6bbc5797ae2c7 in block 481815
+            { "P2SH 1-of-1 multisig", "0",
+                "0100000001b423341261d3fe8fc1ca91d7d1f3ade7000f63c44427479955c032a47dce9d940100000070004830450221"
+                + "00fae13ff68340539724d093bc24f96945b37a6e174d15e30c6ddf97dd22a7bcaa022054b3b0eb65dd0dafb9db2ac0bb"
+                + "04520071d587377812139f0a6b3172a0c3db6b01255121030ec111fb923515ba4747f3c7005b4398e81d816a66ba5030"
+                + "6aacac2f405ac72651aeffffffff02d42f06000000000017a914f5f35920afba995a1ab44419b42e29139965b44887e4"
+                + "6c73160000000017a9146c98c19a033bdbd421a9c7d24ad5e0e3a3318ec18700000000",
+                "a9146c98c19a033bdbd421a9c7d24ad5e0e3a3318ec187" },
+            // Input 0 of b7c519dc7e3399964534e809797d87657ebda004c51a5551c8dde72e3ea5f5c6 in block 481829
+            { "P2SH 1-of-2 multisig", "0",
+                "0100000001c35ea2d1581d13401a0ab20ca338d2d360b9807c33ef8f6410662457326dd9d90100000091004730440220"
+                + "0bb204b15d18aaec3c0852b199a0219774e192d4808efdb6455dbb6d67c51ea702201a115dd7f68714e8cb744c2b14e3"
+                + "e6b14bbd88926e6a1a95dd0bd6bbf33b4f2001475121025afe4a9a26e794232ddf333206fbafd687ed0c48576071e686"
+                + "a4ad672cf7a3e921037b560241023be7f0867eb169b59e4d123a8531cdfce746c8f806d72e949cf2f052aeffffffff02"
+                + "e524f1be0400000017a914c780d0bd0178c97cc4be38316f7422b9becabb3687e0c5d0a60000000017a914ac631fac64"
+                + "600c2963c447662b263aa32680150e8700000000",
+                "a91420c7a50e5ff34a4bb65e792877a07700b3f3737287" },
+            // Input 0 of dcd0b24690d15bbd06714ea1b9bbb4f7c9ceaac536220b2654a85b0b9db67590 in block 481815
+            { "P2SH 2-of-2 multisig", "0",
+                "01000000010761d88180830cccf846578380131e21df21d2ed298176b1e09425c504d76b3301000000d9004730440220"
+                + "063f88de4b064ede147166da9bd24c166793e7cca4398981ae7f5a7c1b5ab1d5022051ba26b79d4626b77fac27ae7ca8"
+                + "bfe06607cb696731622d7c7fb8637acfbf330147304402204d488d3a74d18774aa56fde8183b4301c8f65608d69daea4"
+                + "d16e1627380e241f02203bfedb77d0eb7d152870d2028da87bdb39a7be3043fc8e5a8e25c2a483be2a2c0147522102c8"
+                + "c7573dbf987a3a1f1822739720244708b3ec9fa38c3dc4682f2b41c0e56ef22102dcfc5121670fdae5348cb60c2f532a"
+                + "e8c6c74d412e016fde002196490a61e6f752aeffffffff02801a06000000000017a9144c2212eec5c5daa81201379bea"
+                + "744ff914de02c987f1fa19000000000017a91493b07bbc743efa2e88d233c9ebaf1cc82b72a15a8700000000",
+                "a91493b07bbc743efa2e88d233c9ebaf1cc82b72a15a87" },
+            // Input 0 of ce9f9d0bb1dcba1e337f6bbc56289ad5dc1b6b02ec952f8ce8ee3f9d78d89015 in block 481815
+            { "P2SH 2-of-3 multisig", "0",
+                "01000000012cec6b0634ca9a11aadf0174994d95fae630eb45a8e793cc45195d1c272b6dbb01000000fdfd0000473044"
+                + "022052bfcd9263e0fce9c45a77c882e8b8b832f3b8008daf305e25152d420bb3beec0220654af1dc642da55d2a03e5e3"
+                + "63f720461bd7e69e833a8e5551025260642e914a01483045022100e50c354b3ece1ea65d64a52b049e6e679562ebcb9f"
+                + "0c40f5e74b948ee41bec9d02204594e1ab0fa8259e04f23b1d9da45433e6922349e42c65bb783f813aa1dd6184014c69"
+                + "5221020a1944aedea2328af60049ba604016a3853e66475f347258e22465f9f085ce4a21028b23094a3ab49d98e25ca6"
+                + "4fae259e064605139f397197b65d52bab9717e6ab02102e963e1e3b4204ec079eb673ef21f6606d97438f6678c98cf80"
+                + "c1e0e61917b13f53aeffffffff01bc1c04000000000017a91491be00410cc75f26487a488be3c2ed9f9dcf9642870000"
+                + "0000",
+                "a914057084389c8a49317b107d6115e014da1b67a3a787" },
+            // Input 0 of 7c518baadbb33f20ef61ca4be2d92662b1147512f46410543dbdf50a62c698f5 in block 481815
+            { "P2SH 2-of-6 multisig", "0",
+                "010000000122c09cf85dd8e62521264cac6831ab3df85ed1fb5e6a64ca8d7f57a29e7b505a00000000fd630100483045"
+                + "022100bb9ce60645607b953115a05bcc5e28a2da83fb264f79a1182e8546643854736402207fd5ed5d04910bd2006c75"
+                + "6e582eb46a2873bb1ff1aab9075dd9df20e1136c3c0147304402202c09613721d664b95daee869c1587c740f01b1ba21"
+                + "a45c2d0292c509ab5a502e02202e9e814242bef0cc5bec4936974f9ce45f87c5c715747f77b4f064e1ea3af1d6014ccf"
+                + "52210216a0fcb446fe71fe69315454cdfcf4c3cd90388a008ddbb6c9944493044fd15c21021c72577bc355802232f132"
+                + "15c6eb2c183e4fdca9088aef93e845fd0526dcc8bf2102208d092780b15fe215a3a7397cb9e6b3690739f73de45bebb5"
+                + "6cc8417a94f58121023ecdc33cf601c4f37975dedcd33dfa0b76168433b5fe311a5a9e52fd6895b34721033d86722b6a"
+                + "ff570b3822baf0430d4d9518211f8f7b1ce4b2a35217a92236fd402103b36efd1435bc90dd9dcb3ba2b879650b6cf3c1"
+                + "f46b6debd28e39bb3d5db863a656aeffffffff02c0dc1eee0000000017a914cbccd3c64f866cc19834717a3f0c93775c"
+                + "bbdde087402bb4350000000017a91438fb791a404dd3da47529f542a89390d415900298700000000",
+                "a914cbccd3c64f866cc19834717a3f0c93775cbbdde087" },
+            // Input 0 of add3f5f94e7be407b6a9dd0f5a241170ed0d48500379386e5db0499c17bc3cd7 in block 481829
+            { "P2SH 3-of-4 multisig", "0",
+                "01000000016b24a9a3388a312e7315d9838506bbf0a7b853f8f7cdd4414c18727e9b945eb200000000fd660100473044"
+                + "02203d499b09c5efa5414efba99828aa0d9d1270b89113d4d42b71f56ba593fe4f0002203f4496fdf2163fcc344e9506"
+                + "cd34fbf403a536317ca230ae60b359f23115253401473044022003216f787aa3776bc81caeebb60f395032802376a71e"
+                + "56dbd33fea898f8d7094022007860335702af98667655343370b18d1e044e20871c2798e9228f3e73fbbcc2301473044"
+                + "02201701f5358a04ad227075f70f4990ac75c957754ec6eddf4f351a0bb561e7582f0220166aa0f925ae55f132682642"
+                + "a2157f1bdc780aeb75e3eaf0080bd38a08b8ed63014c8b5321026dae4fabf33c446ecaad060c06aa68e230f153e39a8a"
+                + "bf0ce06475fad404da572103ced8b3d14a20c764b9816af3a4235b58ae7b5319bd0e9e6d89194b3d032d2b222103db9e"
+                + "11f7e9cb2b32fab4a06234999aa7329a7ee767291b5900315bb9fa6ec8c52102455438c8cb58333378946c720c604750"
+                + "72f78499429531466bbbd6690f19c9d254aeffffffff02541500000000000017a914a0525ee1754ae4d30a6c15219fe8"
+                + "605cb661fab9870000000000000000166a146f6d6e69000000000000001f0000006b1a22f80000000000",
+                "a9145667b6903f938f45f583a415ec6eb70995d8613687" },
+    };
+
+    public static void main(String[] args) {
+        // The old interpreter had no signature cache, and repeated inputs would only measure cache hits.
+        Script.setSignatureCache(null);
+        Map<String, List<Input>> inputs = new LinkedHashMap<>();
+        for (String[] input : MAINNET_INPUTS)
+            inputs.computeIfAbsent(input[0], k -> new ArrayList<>()).add(new Input(
+                    Transaction.read(ByteBuffer.wrap(ByteUtils.parseHex(input[2]))), Integer.parseInt(input[1]),
+                    Script.parse(ByteUtils.parseHex(input[3])), null));
+        ECKey key = ECKey.fromPrivate(BigInteger.valueOf(0x5c217));
+        inputs.put("P2WPKH", Collections.singletonList(signWitness(key, false)));
+        inputs.put("P2SH-P2WPKH", Collections.singletonList(signWitness(key, true)));
+
+        System.out.println("Verifying inputs " + ITERATIONS + " times per round:");
+        for (Map.Entry<String, List<Input>> entry : inputs.entrySet()) {
+            long legacy = Long.MAX_VALUE, current = Long.MAX_VALUE;
+            // The first rounds warm up the JIT, the best round counts.
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++)
+                    for (Input input : entry.getValue())
+                        LegacyScriptInterpreter.correctlySpends(input.scriptSig(), input.tx, input.index,
+                                input.witness(), input.value, input.scriptPubKey, Script.ALL_VERIFY_FLAGS);
+                legacy = Math.min(legacy, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++)
+                    for (Input input : entry.getValue())
+                        input.scriptSig().correctlySpends(input.tx, input.index, input.witness(), input.value,
+                                input.scriptPubKey, Script.ALL_VERIFY_FLAGS);
+                current = Math.min(current, System.nanoTime() - start);
+            }
+            int count = ITERATIONS * entry.getValue().size();
+            System.out.printf("  %-24s %8.1f us/input old, %8.1f us/input new%n", entry.getKey(),
+                    legacy / 1000.0 / count, current / 1000.0 / count);
+        }
+    }
+
+    // Spends a P2WPKH or P2SH-P2WPKH output of the key.
+    private static Input signWitness(ECKey key, boolean nested) {
+        Coin value = Coin.COIN;
+        Script witnessProgram = ScriptBuilder.createP2WPKHOutputScript(key);
+        Script scriptPubKey = nested ? ScriptBuilder.createP2SHOutputScript(witnessProgram) : witnessProgram;
+        Transaction tx = new Transaction();
+        tx.addInput(Sha256Hash.of(new byte[] { 1 }), 0, nested
+                ? new ScriptBuilder().data(witnessProgram.program()).build() : ScriptBuilder.createEmpty());
+        tx.addOutput(value.subtract(Coin.CENT), ScriptBuilder.createP2PKHOutputScript(key));
+        TransactionSignature signature = tx.calculateWitnessSignature(0, key,
+                ScriptBuilder.createP2PKHOutputScript(key), value, Transaction.SigHash.ALL, false);
+        tx.getInput(0).setWitness(TransactionWitness.redeemP2WPKH(signature, key));
+        return new Input(tx, 0, scriptPubKey, value);
+    }
+
+    private static class Input {
+        final Transaction tx;
+        final int index;
+        final Script scriptPubKey;
+        @Nullable final Coin value;
+
+        Input(Transaction tx, int index, Script scriptPubKey, @Nullable Coin value) {
+            this.tx = tx;
+            this.index = index;
+            this.scriptPubKey = scriptPubKey;
+            this.value = value;
+        }
+
+        Script scriptSig() {
+            return tx.getInput(index).getScriptSig();
+        }
+
+        TransactionWitness witness() {
+            return tx.getInput(index).getWitness();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.litecoinj.examples;
+
+import org.litecoinj.base.Sha256Hash;
+import org.litecoinj.crypto.BouncyCastleSignatureBackend;
+import org.litecoinj.crypto.ECKey;
+import org.litecoinj.crypto.NativeSignatureBackend;
+import org.litecoinj.crypto.SignatureBackend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the speed of the signature backends, verifying signatures one by one and in batches, made by few keys
+ * that sign over and over and by many keys that sign once each. The native backend is only included if libsecp256k1
+ * could be loaded, see {@link org.litecoin.NativeSecp256k1}.
+ */
+public class SignatureBenchmark {
+    private static final int SIGNATURES = 2000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Map<String, SignatureBackend> backends = new LinkedHashMap<>();
+        backends.put("Bouncy Castle, no key cache", new BouncyCastleSignatureBackend(0));
+        backends.put("Bouncy Castle", new BouncyCastleSignatureBackend());
+        if (NativeSignatureBackend.isAvailable())
+            backends.put("libsecp256k1", new NativeSignatureBackend());
+        else
+            System.out.println("libsecp256k1 is not loaded, only benchmarking Bouncy Castle");
+        System.out.println("Live backend: " + ECKey.getSignatureBackend().getName());
+
+        for (int numKeys : new int[] { 10, SIGNATURES }) {
+            Batch batch = new Batch(numKeys);
+            System.out.println();
+            System.out.println(SIGNATURES + " signatures by " + numKeys + " keys:");
+            for (Map.Entry<String, SignatureBackend> entry : backends.entrySet()) {
+                SignatureBackend backend = entry.getValue();
+                long single = Long.MAX_VALUE, batched = Long.MAX_VALUE;
+                // The first rounds warm up the JIT, the best round counts.
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < SIGNATURES; i++)
+                        check(backend.verify(batch.data[i], batch.signatures[i], batch.pubs[i]));
+                    single = Math.min(single, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    for (boolean valid : backend.verify(batch.data, batch.signatures, batch.pubs))
+                        check(valid);
+                    batched = Math.min(batched, System.nanoTime() - start);
+                }
+                System.out.printf("  %-30s %8.1f us/signature single, %8.1f us/signature batched%n",
+                        entry.getKey(), single / 1000.0 / SIGNATURES, batched / 1000.0 / SIGNATURES);
+            }
+        }
+    }
+
+    private static void check(boolean valid) {
+        if (!valid)
+            throw new IllegalStateException("valid signature failed to verify");
+    }
+
+    private static class Batch {
+        final byte[][] data = new byte[SIGNATURES][];
+        final ECKey.ECDSASignature[] signatures = new ECKey.ECDSASignature[SIGNATURES];
+        final byte[][] pubs = new byte[SIGNATURES][];
+
+        Batch(int numKeys) {
+            ECKey[] keys = new ECKey[numKeys];
+            for (int i = 0; i < numKeys; i++)
+                keys[i] = new ECKey();
+            for (int i = 0; i < SIGNATURES; i++) {
+                ECKey key = keys[i % numKeys];
+                Sha256Hash hash = Sha256Hash.of(Integer.toString(i).getBytes());
+                data[i] = hash.getBytes();
+                signatures[i] = key.sign(hash);
+                pubs[i] = key.getPubKey();
+            }
+        }
+    }
+}
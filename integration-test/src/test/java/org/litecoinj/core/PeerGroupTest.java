@@ -31,6 +31,7 @@ import org.litecoinj.core.listeners.PreMessageReceivedEventListener;
 import org.litecoinj.crypto.ECKey;
 import org.litecoinj.net.discovery.PeerDiscovery;
 import org.litecoinj.net.discovery.PeerDiscoveryException;
+import org.litecoinj.store.MemoryFilterHeaderStore;
 import org.litecoinj.testing.FakeTxBuilder;
 import org.litecoinj.testing.InboundMessageQueuer;
 import org.litecoinj.testing.TestWithPeerGroup;
@@ -106,7 +107,8 @@ public class PeerGroupTest extends TestWithPeerGroup {
     @Parameterized.Parameters
     public static Collection<ClientType[]> parameters() {
         return Arrays.asList(new ClientType[] {ClientType.NIO_CLIENT_MANAGER},
-                             new ClientType[] {ClientType.BLOCKING_CLIENT_MANAGER});
+                             new ClientType[] {ClientType.BLOCKING_CLIENT_MANAGER},
+                             new ClientType[] {ClientType.MULTI_SELECTOR_CLIENT_MANAGER});
     }
 
     public PeerGroupTest(ClientType clientType) {
@@ -373,6 +375,236 @@ public class PeerGroupTest extends TestWithPeerGroup {
         assertNull(message == null ? "" : message.toString(), message);
     }
 
+    @Test
+    public void parallelBlockDownload() throws Exception {
+        // Check that the blocks announced to the download peer are requested from both peers, and added to the chain
+        // in order.
+        peerGroup.start();
+        VersionMessage ver = remoteVersionMessage.duplicate();
+        ver.bestHeight = 100;
+        InboundMessageQueuer p1 = connectPeer(1, ver);
+        InboundMessageQueuer p2 = connectPeer(2, ver);
+        peerGroup.setBlockDownloadPeers(2);
+
+        List<Block> blocks = new ArrayList<>();
+        Block prev = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 20; i++) {
+            prev = FakeTxBuilder.makeSolvedTestBlock(prev);
+            blocks.add(prev);
+        }
+
+        peerGroup.startBlockChainDownload(new DownloadProgressTracker());
+        InboundMessageQueuer download = peerOf(p1) == peerGroup.getDownloadPeer() ? p1 : p2;
+        InboundMessageQueuer other = download == p1 ? p2 : p1;
+        peerGroup.startBlockChainDownloadFromPeer(peerOf(download));
+        assertTrue(outbound(download) instanceof GetBlocksMessage);
+        InventoryMessage inv = new InventoryMessage();
+        for (Block block : blocks)
+            inv.addBlock(block);
+        inbound(download, inv);
+
+        // The first run of blocks is requested from the download peer, the rest from the other one.
+        List<InventoryItem> downloadItems = ((GetDataMessage) outbound(download)).getItems();
+        List<InventoryItem> otherItems = ((GetDataMessage) waitForOutbound(other)).getItems();
+        assertEquals(BlockDownloadScheduler.DEFAULT_RUN_LENGTH, downloadItems.size());
+        assertEquals(blocks.size() - BlockDownloadScheduler.DEFAULT_RUN_LENGTH, otherItems.size());
+        assertEquals(blocks.get(0).getHash(), downloadItems.get(0).hash);
+        assertEquals(blocks.get(BlockDownloadScheduler.DEFAULT_RUN_LENGTH).getHash(), otherItems.get(0).hash);
+
+        // The later blocks arrive first, but wait for the earlier ones.
+        for (int i = BlockDownloadScheduler.DEFAULT_RUN_LENGTH; i < blocks.size(); i++)
+            inbound(other, blocks.get(i));
+        pingAndWait(other);
+        assertEquals(0, blockChain.getBestChainHeight());
+        for (int i = 0; i < BlockDownloadScheduler.DEFAULT_RUN_LENGTH; i++)
+            inbound(download, blocks.get(i));
+        pingAndWait(download);
+        assertEquals(blocks.get(blocks.size() - 1), blockChain.getChainHead().getHeader());
+
+        // Once all blocks are added, the download peer is asked for more.
+        Message message;
+        do {
+            message = download.nextMessage();
+        } while (message != null && !(message instanceof GetBlocksMessage));
+        assertNotNull(message);
+    }
+
+    @Test
+    public void headersFirstDownload() throws Exception {
+        // Check that the headers are fetched first, and then only the bodies of the blocks after the fast catchup time
+        // are requested, without any getblocks.
+        peerGroup.start();
+        peerGroup.setHeadersFirst(true);
+        VersionMessage ver = remoteVersionMessage.duplicate();
+        ver.bestHeight = 20;
+        InboundMessageQueuer p1 = connectPeer(1, ver);
+
+        List<Block> blocks = new ArrayList<>();
+        List<Block> headers = new ArrayList<>();
+        Block prev = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 20; i++) {
+            prev = FakeTxBuilder.makeSolvedTestBlock(prev);
+            blocks.add(prev);
+            headers.add(prev.cloneAsHeader());
+        }
+        peerGroup.setFastCatchupTime(blocks.get(5).time());
+
+        peerGroup.startBlockChainDownload(new DownloadProgressTracker());
+        peerGroup.startBlockChainDownloadFromPeer(peerOf(p1));
+        assertTrue(outbound(p1) instanceof GetHeadersMessage);
+        inbound(p1, new HeadersMessage(headers));
+        pingAndWait(p1);
+
+        // The headers before the fast catchup time were added to the chain, the others are downloaded in full.
+        assertEquals(5, blockChain.getBestChainHeight());
+        List<InventoryItem> items = ((GetDataMessage) outbound(p1)).getItems();
+        assertEquals(15, items.size());
+        for (int i = 0; i < items.size(); i++)
+            assertEquals(blocks.get(i + 5).getHash(), items.get(i).hash);
+        for (int i = 5; i < blocks.size(); i++)
+            inbound(p1, blocks.get(i));
+        pingAndWait(p1);
+        assertEquals(blocks.get(blocks.size() - 1), blockChain.getChainHead().getHeader());
+
+        // Once all bodies are added, the peer is asked for more headers.
+        Message message;
+        do {
+            message = p1.nextMessage();
+        } while (message != null && !(message instanceof GetBlocksMessage));
+        assertTrue(message instanceof GetHeadersMessage);
+    }
+
+    @Test
+    public void headersFirstInvalidHeaders() throws Exception {
+        // Check that a peer sending headers that don't connect is disconnected, so another peer takes over.
+        peerGroup.addDisconnectedEventListener(disconnectedListener);
+        peerGroup.start();
+        peerGroup.setHeadersFirst(true);
+        VersionMessage ver = remoteVersionMessage.duplicate();
+        ver.bestHeight = 20;
+        InboundMessageQueuer p1 = connectPeer(1, ver);
+
+        List<Block> headers = new ArrayList<>();
+        Block prev = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 20; i++) {
+            prev = FakeTxBuilder.makeSolvedTestBlock(prev);
+            headers.add(prev.cloneAsHeader());
+        }
+        peerGroup.setFastCatchupTime(headers.get(0).time());
+        headers.remove(3);
+
+        peerGroup.startBlockChainDownload(new DownloadProgressTracker());
+        Peer peer = peerOf(p1);
+        peerGroup.startBlockChainDownloadFromPeer(peer);
+        assertTrue(outbound(p1) instanceof GetHeadersMessage);
+        inbound(p1, new HeadersMessage(headers));
+        assertEquals(peer, disconnectedPeers.take());
+        assertEquals(0, blockChain.getBestChainHeight());
+    }
+
+    @Test
+    public void headerVerificationThreadsChangeWhileConnected() throws Exception {
+        // Check that connected peers switch to the new header verifier, instead of using the one that was shut down.
+        peerGroup.setHeaderVerificationThreads(2);
+        peerGroup.start();
+        peerGroup.setHeadersFirst(true);
+        VersionMessage ver = remoteVersionMessage.duplicate();
+        ver.bestHeight = 20;
+        InboundMessageQueuer p1 = connectPeer(1, ver);
+        peerGroup.setHeaderVerificationThreads(3);
+
+        List<Block> blocks = new ArrayList<>();
+        List<Block> headers = new ArrayList<>();
+        Block prev = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 20; i++) {
+            prev = FakeTxBuilder.makeSolvedTestBlock(prev);
+            blocks.add(prev);
+            headers.add(prev.cloneAsHeader());
+        }
+        peerGroup.setFastCatchupTime(blocks.get(5).time());
+
+        peerGroup.startBlockChainDownload(new DownloadProgressTracker());
+        peerGroup.startBlockChainDownloadFromPeer(peerOf(p1));
+        assertTrue(outbound(p1) instanceof GetHeadersMessage);
+        inbound(p1, new HeadersMessage(headers));
+        pingAndWait(p1);
+        assertEquals(5, blockChain.getBestChainHeight());
+        assertEquals(15, ((GetDataMessage) outbound(p1)).getItems().size());
+        peerGroup.setHeaderVerificationThreads(0);
+    }
+
+    @Test
+    public void compactFilterDownload() throws Exception {
+        // Check that during headers-first download, the filters of the blocks after the fast catchup time are fetched
+        // instead of their bodies, and only the block whose filter matches our wallet is downloaded.
+        peerGroup.start();
+        peerGroup.setHeadersFirst(true);
+        MemoryFilterHeaderStore filterHeaderStore = new MemoryFilterHeaderStore();
+        peerGroup.setFilterHeaderStore(filterHeaderStore);
+        VersionMessage ver = remoteVersionMessage.duplicate();
+        ver.bestHeight = 10;
+        ver.localServices = Services.of(Services.NODE_NETWORK | Services.NODE_BLOOM | Services.NODE_WITNESS
+                | Services.NODE_COMPACT_FILTERS);
+        InboundMessageQueuer p1 = connectPeer(1, ver);
+
+        Transaction tx = FakeTxBuilder.createFakeTx(UNITTEST.network(), COIN, wallet.currentReceiveAddress());
+        List<Block> blocks = new ArrayList<>();
+        List<Block> headers = new ArrayList<>();
+        Block prev = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 10; i++) {
+            prev = i == 5 ? FakeTxBuilder.makeSolvedTestBlock(prev, tx) : FakeTxBuilder.makeSolvedTestBlock(prev);
+            blocks.add(prev);
+            headers.add(prev.cloneAsHeader());
+        }
+        peerGroup.setFastCatchupTime(blocks.get(2).time());
+
+        peerGroup.startBlockChainDownload(new DownloadProgressTracker());
+        peerGroup.startBlockChainDownloadFromPeer(peerOf(p1));
+        assertTrue(outbound(p1) instanceof GetHeadersMessage);
+        inbound(p1, new HeadersMessage(headers));
+
+        // The filter headers of the blocks after the fast catchup time are requested first, then their filters.
+        GetCFHeadersMessage getHeaders = (GetCFHeadersMessage) waitForOutbound(p1);
+        assertEquals(3, getHeaders.startHeight());
+        assertEquals(blocks.get(9).getHash(), getHeaders.stopHash());
+        List<BlockFilter> filters = new ArrayList<>();
+        List<Sha256Hash> filterHashes = new ArrayList<>();
+        for (int i = 2; i < blocks.size(); i++) {
+            BlockFilter filter = BlockFilter.build(blocks.get(i), Collections.emptyList());
+            filters.add(filter);
+            filterHashes.add(filter.getFilterHash());
+        }
+        Sha256Hash previousFilterHeader = Sha256Hash.of(new byte[] { 1 });
+        inbound(p1, CFHeadersMessage.of(BlockFilter.TYPE_BASIC, getHeaders.stopHash(), previousFilterHeader,
+                filterHashes));
+        GetCFiltersMessage getFilters = (GetCFiltersMessage) waitForOutbound(p1);
+        assertEquals(3, getFilters.startHeight());
+        assertEquals(blocks.get(9).getHash(), getFilters.stopHash());
+        Sha256Hash filterHeader = previousFilterHeader;
+        for (BlockFilter filter : filters)
+            filterHeader = filter.getHeader(filterHeader);
+        assertEquals(filterHeader, filterHeaderStore.get(blocks.get(9).getHash()));
+        for (BlockFilter filter : filters)
+            inbound(p1, CFilterMessage.of(filter));
+
+        // The headers up to the matching block were added to the chain, and the matching block is downloaded.
+        List<InventoryItem> items = ((GetDataMessage) waitForOutbound(p1)).getItems();
+        assertEquals(1, items.size());
+        assertEquals(blocks.get(5).getHash(), items.get(0).hash);
+        assertEquals(blocks.get(4).getHash(), blockChain.getChainHead().getHeader().getHash());
+        inbound(p1, blocks.get(5));
+        pingAndWait(p1);
+        assertEquals(blocks.get(9).getHash(), blockChain.getChainHead().getHeader().getHash());
+        assertEquals(COIN, wallet.getBalance(Wallet.BalanceType.ESTIMATED));
+
+        // Once the batch is connected, the peer is asked for more headers.
+        Message message;
+        do {
+            message = p1.nextMessage();
+        } while (message != null && !(message instanceof GetHeadersMessage));
+        assertNotNull(message);
+    }
+
     @Test
     public void transactionConfidence() throws Exception {
         // Checks that we correctly count how many peers broadcast a transaction, so we can establish some measure of
@@ -658,24 +890,25 @@ public class PeerGroupTest extends TestWithPeerGroup {
 
     @Test
     public void testBloomResendOnNewKey() throws Exception {
-        // Check that when we add a new key to the wallet, the Bloom filter is re-calculated and re-sent but only once
-        // we exceed the lookahead threshold.
+        // Check that when we add a new key to the wallet, the new elements are added to the Bloom filter of the peers
+        // but only once we exceed the lookahead threshold.
         peerGroup.start();
         // Create a couple of peers.
         InboundMessageQueuer p1 = connectPeer(1);
         InboundMessageQueuer p2 = connectPeer(2);
         peerGroup.waitForJobQueue();
-        BloomFilter f1 = p1.lastReceivedFilter;
+        BloomFilter f1 = BloomFilter.read(ByteBuffer.wrap(p1.lastReceivedFilter.serialize()));
         ECKey key = null;
         // We have to run ahead of the lookahead zone for this test. There should only be one bloom filter recalc.
         for (int i = 0; i < wallet.getKeyChainGroupLookaheadSize() + wallet.getKeyChainGroupLookaheadThreshold() + 1; i++) {
             key = wallet.freshReceiveKey();
         }
         peerGroup.waitForJobQueue();
-        BloomFilter bf, f2 = null;
-        while ((bf = (BloomFilter) outbound(p1)) != null) {
-            assertEquals(MemoryPoolMessage.class, outbound(p1).getClass());
-            f2 = bf;
+        BloomFilter f2 = null;
+        Message message;
+        while ((message = outbound(p1)) != null) {
+            assertEquals(FilterAddMessage.class, message.getClass());
+            f2 = assertFilterElementsAdded(p1);
         }
         assertNotNull(key);
         assertNotNull(f2);
@@ -790,6 +1023,15 @@ public class PeerGroupTest extends TestWithPeerGroup {
         return (T) outbound;
     }
 
+    // Skips the rest of the elements added to the filter, up to the mempool query after them, and returns a copy of
+    // the filter with the elements added.
+    private BloomFilter assertFilterElementsAdded(InboundMessageQueuer q) throws Exception {
+        Message outbound;
+        while ((outbound = waitForOutbound(q)) instanceof FilterAddMessage);
+        assertEquals(MemoryPoolMessage.class, outbound.getClass());
+        return BloomFilter.read(ByteBuffer.wrap(q.lastReceivedFilter.serialize()));
+    }
+
     @Test
     public void autoRescanOnKeyExhaustion() throws Exception {
         // Check that if the last key that was inserted into the bloom filter is seen in some requested blocks,
@@ -838,11 +1080,11 @@ public class PeerGroupTest extends TestWithPeerGroup {
         assertEquals(Coin.FIFTY_COINS.multiply(3), wallet.getBalance());
         assertEquals(exhaustionPoint.getPrevBlockHash(), blockChain.getChainHead().getHeader().getHash());
 
-        // Await the new filter.
+        // Await the new keys being added to the filter.
         peerGroup.waitForJobQueue();
-        BloomFilter newFilter = assertNextMessageIs(p1, BloomFilter.class);
+        assertNextMessageIs(p1, FilterAddMessage.class);
+        BloomFilter newFilter = assertFilterElementsAdded(p1);
         assertNotEquals(filter, newFilter);
-        assertNextMessageIs(p1, MemoryPoolMessage.class);
         Ping ping = assertNextMessageIs(p1, Ping.class);
         inbound(p1, ping.pong());
 
@@ -856,8 +1098,8 @@ public class PeerGroupTest extends TestWithPeerGroup {
 
         // It happened again.
         peerGroup.waitForJobQueue();
-        newFilter = assertNextMessageIs(p1, BloomFilter.class);
-        assertNextMessageIs(p1, MemoryPoolMessage.class);
+        assertNextMessageIs(p1, FilterAddMessage.class);
+        newFilter = assertFilterElementsAdded(p1);
         inbound(p1, assertNextMessageIs(p1, Ping.class).pong());
         assertNextMessageIs(p1, GetDataMessage.class);
         newBlocks = blocks.subList(6, blocks.size());
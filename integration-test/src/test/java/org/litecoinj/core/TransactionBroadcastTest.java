@@ -58,7 +58,8 @@ public class TransactionBroadcastTest extends TestWithPeerGroup {
     @Parameterized.Parameters
     public static Collection<ClientType[]> parameters() {
         return Arrays.asList(new ClientType[] {ClientType.NIO_CLIENT_MANAGER},
-                             new ClientType[] {ClientType.BLOCKING_CLIENT_MANAGER});
+                             new ClientType[] {ClientType.BLOCKING_CLIENT_MANAGER},
+                             new ClientType[] {ClientType.MULTI_SELECTOR_CLIENT_MANAGER});
     }
 
     public TransactionBroadcastTest(ClientType clientType) {
@@ -17,6 +17,7 @@
 package org.litecoinj.testing;
 
 import org.litecoinj.core.BloomFilter;
+import org.litecoinj.core.FilterAddMessage;
 import org.litecoinj.core.Message;
 import org.litecoinj.core.NetworkParameters;
 import org.litecoinj.core.Peer;
@@ -64,6 +65,8 @@ public abstract class InboundMessageQueuer extends PeerSocketHandler {
         }
         if (m instanceof BloomFilter) {
             lastReceivedFilter = (BloomFilter) m;
+        } else if (m instanceof FilterAddMessage && lastReceivedFilter != null) {
+            lastReceivedFilter.insert(((FilterAddMessage) m).element());
         }
         inboundMessages.offer(m);
     }
@@ -35,6 +35,7 @@ import org.litecoinj.net.BlockingClient;
 import org.litecoinj.net.BlockingClientManager;
 import org.litecoinj.net.ClientConnectionManager;
 import org.litecoinj.net.NioClient;
+import org.litecoinj.net.MultiSelectorClientManager;
 import org.litecoinj.net.NioClientManager;
 import org.litecoinj.net.NioServer;
 import org.litecoinj.net.StreamConnection;
@@ -86,6 +87,7 @@ public class TestWithNetworkConnections {
     public enum ClientType {
         NIO_CLIENT_MANAGER,
         BLOCKING_CLIENT_MANAGER,
+        MULTI_SELECTOR_CLIENT_MANAGER,
         NIO_CLIENT,
         BLOCKING_CLIENT
     }
@@ -96,6 +98,8 @@ public class TestWithNetworkConnections {
             channels = new NioClientManager();
         else if (clientType == ClientType.BLOCKING_CLIENT_MANAGER)
             channels = new BlockingClientManager();
+        else if (clientType == ClientType.MULTI_SELECTOR_CLIENT_MANAGER)
+            channels = new MultiSelectorClientManager(2, 2);
         else
             channels = null;
     }
@@ -119,7 +123,7 @@ public class TestWithNetworkConnections {
         blockChain = new BlockChain(UNITTEST, wallet, blockStore);
 
         startPeerServers();
-        if (clientType == ClientType.NIO_CLIENT_MANAGER || clientType == ClientType.BLOCKING_CLIENT_MANAGER) {
+        if (channels != null) {
             channels.startAsync();
             channels.awaitRunning();
         }
@@ -178,7 +182,7 @@ public class TestWithNetworkConnections {
                     thisThread.interrupt();
             }
         });
-        if (clientType == ClientType.NIO_CLIENT_MANAGER || clientType == ClientType.BLOCKING_CLIENT_MANAGER)
+        if (channels != null)
             channels.openConnection(new InetSocketAddress(InetAddress.getLoopbackAddress(), 2000), peer);
         else if (clientType == ClientType.NIO_CLIENT)
             new NioClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), 2000), peer, Duration.ofMillis(100));
@@ -30,6 +30,7 @@ import org.litecoinj.core.VersionAck;
 import org.litecoinj.core.VersionMessage;
 import org.litecoinj.net.BlockingClientManager;
 import org.litecoinj.net.ClientConnectionManager;
+import org.litecoinj.net.MultiSelectorClientManager;
 import org.litecoinj.net.NioClientManager;
 import org.litecoinj.store.BlockStore;
 import org.litecoinj.store.MemoryBlockStore;
@@ -61,7 +62,8 @@ public class TestWithPeerGroup extends TestWithNetworkConnections {
 
     public TestWithPeerGroup(ClientType clientType) {
         super(clientType);
-        if (clientType != ClientType.NIO_CLIENT_MANAGER && clientType != ClientType.BLOCKING_CLIENT_MANAGER)
+        if (clientType != ClientType.NIO_CLIENT_MANAGER && clientType != ClientType.BLOCKING_CLIENT_MANAGER
+                && clientType != ClientType.MULTI_SELECTOR_CLIENT_MANAGER)
             throw new RuntimeException();
         this.clientType = clientType;
     }
@@ -102,6 +104,8 @@ public class TestWithPeerGroup extends TestWithNetworkConnections {
     protected void initPeerGroup() {
         if (clientType == ClientType.NIO_CLIENT_MANAGER)
             peerGroup = createPeerGroup(new NioClientManager());
+        else if (clientType == ClientType.MULTI_SELECTOR_CLIENT_MANAGER)
+            peerGroup = createPeerGroup(new MultiSelectorClientManager(2, 2));
         else
             peerGroup = createPeerGroup(new BlockingClientManager());
         peerGroup.setPingIntervalMsec(0);  // Disable the pings as they just get in the way of most tests.
@@ -23,9 +23,8 @@ import org.litecoinj.base.internal.TimeUtils;
 import org.litecoinj.core.*;
 import org.litecoinj.net.discovery.DnsDiscovery;
 import org.litecoinj.store.BlockStore;
-import org.litecoinj.store.MemoryBlockStore;
+import org.litecoinj.store.IndexedSPVBlockStore;
 import org.litecoinj.utils.BriefLogFormatter;
-import org.litecoinj.utils.Threading;
 import picocli.CommandLine;
 
 import java.io.DataOutputStream;
@@ -42,6 +41,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
@@ -100,7 +100,12 @@ public class BuildCheckpoints implements Callable<Integer> {
 
         // Configure bitcoinj to fetch only headers, not save them to disk, connect to a local fully synced/validated
         // node and to save block headers that are on interval boundaries, as long as they are <1 month old.
-        final BlockStore store = new MemoryBlockStore(params.getGenesisBlock());
+        // Keep all headers, so that the checkpoints can be looked up by height once the chain is downloaded. This way,
+        // blocks that got re-orged out during the download can't end up as checkpoints.
+        final File storeFile = File.createTempFile("checkpoints" + suffix, ".spvchain");
+        storeFile.delete();
+        storeFile.deleteOnExit();
+        final BlockStore store = new IndexedSPVBlockStore(params, storeFile, estimateCapacity());
         final BlockChain chain = new BlockChain(params, store);
         final PeerGroup peerGroup = new PeerGroup(net, chain);
 
@@ -135,31 +140,29 @@ public class BuildCheckpoints implements Callable<Integer> {
             startPeerGroup(peerGroup, ipAddress);
         }
 
-        // Sorted map of block height to StoredBlock object.
-        final TreeMap<Integer, StoredBlock> checkpoints = new TreeMap<>();
-
         Instant now = TimeUtils.currentTime();
         peerGroup.setFastCatchupTime(now);
 
         Instant timeAgo = now.minus(days, ChronoUnit.DAYS);
         System.out.println("Checkpointing up to " + TimeUtils.dateTimeFormat(timeAgo));
 
-        chain.addNewBestBlockListener(Threading.SAME_THREAD, block -> {
-            int height = block.getHeight();
-            if (height % params.getInterval() == 0 && timeAgo.isAfter(block.getHeader().time())) {
-                System.out.println(String.format("Checkpointing block %s at height %d, time %s",
-                        block.getHeader().getHash(), block.getHeight(),
-                        TimeUtils.dateTimeFormat(block.getHeader().time())));
-                checkpoints.put(height, block);
-            } else if ((height+1) % params.getInterval() == 0 && timeAgo.isAfter(block.getHeader().time())) {
-                System.out.println(String.format("Checkpointing block %s at height %d, time %s",
-                        block.getHeader().getHash(), block.getHeight(), TimeUtils.dateTimeFormat(block.getHeader().time())));
-                checkpoints.put(height, block);
-            }
-        });
-
         peerGroup.downloadBlockChain();
 
+        // Sorted map of block height to StoredBlock object. Checkpoint the last block of each difficulty transition
+        // period and the first block of the next one.
+        final TreeMap<Integer, StoredBlock> checkpoints = new TreeMap<>();
+        final int headHeight = store.getChainHead().getHeight();
+        for (int height = params.getInterval() - 1; height <= headHeight; height += params.getInterval()) {
+            for (StoredBlock block : store.getByHeightRange(height, Math.min(height + 1, headHeight))) {
+                if (timeAgo.isAfter(block.getHeader().time())) {
+                    System.out.println(String.format("Checkpointing block %s at height %d, time %s",
+                            block.getHeader().getHash(), block.getHeight(),
+                            TimeUtils.dateTimeFormat(block.getHeader().time())));
+                    checkpoints.put(block.getHeight(), block);
+                }
+            }
+        }
+
         checkState(checkpoints.size() > 0);
 
         final File plainFile = new File("checkpoints" + suffix);
@@ -179,6 +182,17 @@ public class BuildCheckpoints implements Callable<Integer> {
         return 0;
     }
 
+    // The number of headers the chain should have by now, plus some room for forks, so that the store doesn't have to
+    // grow during the download. Regtest chains are only as long as they're mined, so they start small.
+    private int estimateCapacity() {
+        if (net == LitecoinNetwork.REGTEST)
+            return IndexedSPVBlockStore.DEFAULT_CAPACITY;
+        long targetSpacing = params.getTargetTimespan() / params.getInterval();
+        long expectedHeight = Duration.between(params.getGenesisBlock().time(), TimeUtils.currentTime()).getSeconds()
+                / targetSpacing;
+        return (int) Math.max(expectedHeight + expectedHeight / 4, IndexedSPVBlockStore.DEFAULT_CAPACITY);
+    }
+
     private static void writeBinaryCheckpoints(TreeMap<Integer, StoredBlock> checkpoints, File file) throws Exception {
         MessageDigest digest = Sha256Hash.newDigest();
         try (FileOutputStream fileOutputStream = new FileOutputStream(file, false);